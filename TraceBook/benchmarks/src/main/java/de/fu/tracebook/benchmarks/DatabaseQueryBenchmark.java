@@ -0,0 +1,164 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.benchmarks;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fu.tracebook.benchmarks.SeededDatabase.TrackKey;
+
+/**
+ * Times the lookups of the DAO layer on a {@link SeededDatabase} with and
+ * without the indexes on the foreign keys. The bound queries are those of
+ * NewDBNode, NewDBTag and NewDBMedia; the literal ones concatenate the id
+ * into the SQL as the DAOs did before and are compiled on every call. Every
+ * call looks up the next way, POI or track, so no single row stays cached.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class DatabaseQueryBenchmark {
+
+    private static final String MEDIA_BY_NODE = "SELECT id, name, path, node,"
+            + " way FROM media WHERE node = ? ORDER BY id ASC";
+    private static final String NODES_BY_TRACK = "SELECT id, datetime,"
+            + " latitude, longitude FROM nodes WHERE (nodes.track = ?"
+            + " OR nodes.way IN (SELECT id FROM pointslists WHERE track = ?))"
+            + " ORDER BY id ASC";
+    private static final String NODES_BY_WAY = "SELECT id, datetime,"
+            + " latitude, longitude, way FROM nodes WHERE way = ?"
+            + " ORDER BY id ASC";
+    private static final String TAGS_BY_WAY = "SELECT id, key, value, node,"
+            + " way FROM tags WHERE way = ? ORDER BY id ASC";
+
+    private static int count(ResultSet result) throws SQLException {
+        int rows = 0;
+        while (result.next()) {
+            ++rows;
+        }
+        result.close();
+        return rows;
+    }
+
+    SeededDatabase database;
+
+    @Param({ "false", "true" })
+    boolean indexed;
+
+    PreparedStatement mediaByNode;
+
+    int next;
+
+    PreparedStatement nodesByTrack;
+
+    PreparedStatement nodesByWay;
+
+    PreparedStatement tagsByWay;
+
+    @Benchmark
+    public int mediaByNode() throws SQLException {
+        mediaByNode.setLong(1, next(database.pois));
+        return count(mediaByNode.executeQuery());
+    }
+
+    @Benchmark
+    public int mediaByNodeLiteral() throws SQLException {
+        return queryLiteral("SELECT id, name, path, node, way FROM media"
+                + " WHERE node = " + next(database.pois) + " ORDER BY id ASC");
+    }
+
+    @Benchmark
+    public int nodesByTrack() throws SQLException {
+        long track = next(database.tracks);
+        nodesByTrack.setLong(1, track);
+        nodesByTrack.setLong(2, track);
+        return count(nodesByTrack.executeQuery());
+    }
+
+    @Benchmark
+    public int nodesByWay() throws SQLException {
+        nodesByWay.setLong(1, next(database.ways));
+        return count(nodesByWay.executeQuery());
+    }
+
+    @Benchmark
+    public int nodesByWayLiteral() throws SQLException {
+        return queryLiteral("SELECT id, datetime, latitude, longitude, way"
+                + " FROM nodes WHERE way = " + next(database.ways)
+                + " ORDER BY id ASC");
+    }
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        database = new SeededDatabase(TrackKey.ID, indexed);
+        mediaByNode = database.connection.prepareStatement(MEDIA_BY_NODE);
+        nodesByTrack = database.connection.prepareStatement(NODES_BY_TRACK);
+        nodesByWay = database.connection.prepareStatement(NODES_BY_WAY);
+        tagsByWay = database.connection.prepareStatement(TAGS_BY_WAY);
+    }
+
+    @Benchmark
+    public int tagsByWay() throws SQLException {
+        tagsByWay.setLong(1, next(database.ways));
+        return count(tagsByWay.executeQuery());
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        database.close();
+    }
+
+    private long next(long[] ids) {
+        if (++next >= ids.length) {
+            next = 0;
+        }
+        return ids[next];
+    }
+
+    private int queryLiteral(String sql) throws SQLException {
+        Statement statement = database.connection.createStatement();
+        try {
+            return count(statement.executeQuery(sql));
+        } finally {
+            statement.close();
+        }
+    }
+}
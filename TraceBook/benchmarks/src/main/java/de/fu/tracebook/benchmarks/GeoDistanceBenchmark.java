@@ -0,0 +1,78 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fu.tracebook.benchmarks.Inputs.TraceShape;
+import de.fu.tracebook.util.GeoDistance;
+
+/**
+ * Measures the length of a trace computed with the haversine formula, as
+ * done for the way statistics. The score is the time per segment.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class GeoDistanceBenchmark {
+
+    /**
+     * The number of points of the trace.
+     */
+    private static final int POINTS = 1025;
+
+    int[] latitudes;
+
+    int[] longitudes;
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS - 1)
+    public double haversine() {
+        double length = 0;
+        for (int i = 1; i < POINTS; ++i) {
+            length += GeoDistance.haversine(latitudes[i - 1],
+                    longitudes[i - 1], latitudes[i], longitudes[i]);
+        }
+        return length;
+    }
+
+    @Setup
+    public void setUp() {
+        int[][] trace = Inputs.trace(TraceShape.RANDOM_WALK, POINTS);
+        latitudes = trace[0];
+        longitudes = trace[1];
+    }
+}
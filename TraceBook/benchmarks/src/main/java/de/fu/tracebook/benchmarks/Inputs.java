@@ -0,0 +1,201 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Synthetic GPS traces and polygons used as benchmark input. Everything is
+ * generated from fixed seeds, so every run measures the same data.
+ */
+public final class Inputs {
+
+    /**
+     * The shape of a polygon.
+     */
+    public enum PolygonShape {
+        /**
+         * A regular polygon.
+         */
+        CONVEX,
+
+        /**
+         * A star whose corners alternate between two radii, so that half of
+         * its corners are concave.
+         */
+        STAR
+    }
+
+    /**
+     * The shape of a trace.
+     */
+    public enum TraceShape {
+        /**
+         * A random walk, as recorded while walking around.
+         */
+        RANDOM_WALK,
+
+        /**
+         * A straight line with GPS noise below the usual simplification
+         * tolerance, so nearly all way points are removed.
+         */
+        STRAIGHT,
+
+        /**
+         * A zigzag whose corners are further from each other than the usual
+         * simplification tolerance, so nearly all way points are kept.
+         */
+        ZIGZAG
+    }
+
+    /**
+     * Microdegrees of latitude per meter.
+     */
+    static final double LATITUDE_PER_METER = 1 / 0.111195;
+
+    /**
+     * Microdegrees of longitude per meter at {@link #START_LATITUDE}.
+     */
+    static final double LONGITUDE_PER_METER = LATITUDE_PER_METER
+            / Math.cos(Math.toRadians(52.456));
+
+    /**
+     * Radius of the generated polygons.
+     */
+    static final int POLYGON_RADIUS = 100000;
+
+    /**
+     * Latitude of the start of the traces in microdegrees.
+     */
+    static final int START_LATITUDE = 52456000;
+
+    /**
+     * Longitude of the start of the traces in microdegrees.
+     */
+    static final int START_LONGITUDE = 13297000;
+
+    /**
+     * Creates a polygon around the origin.
+     * 
+     * @param shape
+     *            The shape of the polygon.
+     * @param size
+     *            The number of corners.
+     * @return The x coordinates in the first and the y coordinates in the
+     *         second array.
+     */
+    public static int[][] polygon(PolygonShape shape, int size) {
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        for (int i = 0; i < size; ++i) {
+            double angle = 2 * Math.PI * i / size;
+            double radius = POLYGON_RADIUS;
+            if (shape == PolygonShape.STAR && i % 2 == 1) {
+                radius /= 3;
+            }
+            xs[i] = (int) Math.round(radius * Math.cos(angle));
+            ys[i] = (int) Math.round(radius * Math.sin(angle));
+        }
+        return new int[][] { xs, ys };
+    }
+
+    /**
+     * Creates points spread evenly over the bounding box of the polygons.
+     * 
+     * @param count
+     *            The number of points.
+     * @return The x coordinates in the first and the y coordinates in the
+     *         second array.
+     */
+    public static double[][] points(int count) {
+        Random random = new Random(2);
+        double[] xs = new double[count];
+        double[] ys = new double[count];
+        for (int i = 0; i < count; ++i) {
+            xs[i] = (random.nextDouble() * 2 - 1) * POLYGON_RADIUS;
+            ys[i] = (random.nextDouble() * 2 - 1) * POLYGON_RADIUS;
+        }
+        return new double[][] { xs, ys };
+    }
+
+    /**
+     * Creates a trace of fixes taken once per second at walking or cycling
+     * speed.
+     * 
+     * @param shape
+     *            The shape of the trace.
+     * @param size
+     *            The number of fixes.
+     * @return The latitudes in the first and the longitudes in the second
+     *         array, both in microdegrees.
+     */
+    public static int[][] trace(TraceShape shape, int size) {
+        Random random = new Random(1);
+        int[] latitudes = new int[size];
+        int[] longitudes = new int[size];
+        double north = 0;
+        double east = 0;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        for (int i = 0; i < size; ++i) {
+            double noiseNorth = 0;
+            double noiseEast = 0;
+            switch (shape) {
+            case STRAIGHT:
+                north += 5 * Math.cos(heading);
+                east += 5 * Math.sin(heading);
+                noiseNorth = random.nextDouble() - 0.5;
+                noiseEast = random.nextDouble() - 0.5;
+                break;
+            case ZIGZAG:
+                // 10 m to the side of the line, alternating, with jitter so
+                // that the corners are not all equally far from the line
+                north += 5 * Math.cos(heading);
+                east += 5 * Math.sin(heading);
+                double side = (i % 2 == 0 ? 10 : -10)
+                        * (0.9 + 0.2 * random.nextDouble());
+                noiseNorth = -side * Math.sin(heading);
+                noiseEast = side * Math.cos(heading);
+                break;
+            case RANDOM_WALK:
+                heading += random.nextGaussian() * Math.toRadians(20);
+                double step = 3 + 4 * random.nextDouble();
+                north += step * Math.cos(heading);
+                east += step * Math.sin(heading);
+                noiseNorth = 3 * (random.nextDouble() - 0.5);
+                noiseEast = 3 * (random.nextDouble() - 0.5);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+            }
+            latitudes[i] = START_LATITUDE
+                    + (int) Math.round((north + noiseNorth)
+                            * LATITUDE_PER_METER);
+            longitudes[i] = START_LONGITUDE
+                    + (int) Math.round((east + noiseEast)
+                            * LONGITUDE_PER_METER);
+        }
+        return new int[][] { latitudes, longitudes };
+    }
+
+    private Inputs() {
+        // make constructor private
+    }
+}
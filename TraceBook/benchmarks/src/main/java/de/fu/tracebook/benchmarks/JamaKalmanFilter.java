@@ -0,0 +1,149 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.benchmarks;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import Jama.Matrix;
+import de.fu.tracebook.benchmarks.Inputs.TraceShape;
+
+/**
+ * The Kalman filter as it was implemented with Jama matrices before it was
+ * written out in closed form. It is kept as a reference for
+ * {@link de.fu.tracebook.util.KalmanFilter}: the benchmarks compare both
+ * implementations, and {@link #main(String[])} records the output that the
+ * tests compare the closed form against.
+ */
+public class JamaKalmanFilter {
+
+    /**
+     * The number of fixes of the recording.
+     */
+    static final int RECORDED_FIXES = 500;
+
+    /**
+     * Writes the measured points of a random walk and the points estimated by
+     * this filter to a file, one fix per line. The first line holds the
+     * point the filter starts with.
+     * 
+     * @param args
+     *            The name of the file to write.
+     * @throws IOException
+     *             If the file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        int[][] trace = Inputs.trace(TraceShape.RANDOM_WALK, RECORDED_FIXES);
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(args[0]), "US-ASCII"));
+        try {
+            out.println("# x y estimatedX estimatedY");
+            JamaKalmanFilter filter = new JamaKalmanFilter(trace[1][0],
+                    trace[0][0]);
+            out.println(trace[1][0] + " " + trace[0][0] + " "
+                    + filter.getX() + " " + filter.getY());
+            for (int i = 1; i < RECORDED_FIXES; ++i) {
+                filter.filter(trace[1][i], trace[0][i]);
+                out.println(trace[1][i] + " " + trace[0][i] + " "
+                        + filter.getX() + " " + filter.getY());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private Matrix f;
+    private Matrix h;
+    private double lastX;
+    private double lastY;
+    private Matrix p;
+    private Matrix q;
+    private Matrix r;
+    private Matrix x;
+
+    /**
+     * Initialises the Kalman filter with first measurements and the matrices
+     * the filter works on.
+     * 
+     * @param x
+     *            The first measured x value.
+     * @param y
+     *            The first measured y value.
+     */
+    public JamaKalmanFilter(double x, double y) {
+        this.x = new Matrix(new double[][] { { x, y, 0, 0 } }).transpose();
+        p = Matrix.identity(4, 4).times(1.0);
+        f = new Matrix(new double[][] { { 1, 0, 1, 0 }, { 0, 1, 0, 1 },
+                { 0, 0, 1, 0 }, { 0, 0, 0, 1 } });
+        q = Matrix.identity(4, 4).times(1.0);
+        h = Matrix.identity(4, 4);
+        r = Matrix.identity(4, 4).times(10.0);
+        lastX = x;
+        lastY = y;
+    }
+
+    /**
+     * Applies the Kalman filter to a measured point.
+     * 
+     * @param mx
+     *            The measured x value.
+     * @param my
+     *            The measured y value.
+     */
+    public void filter(double mx, double my) {
+        // predict; the control term B * u of the original is zero
+        Matrix x0 = f.times(x);
+        Matrix p0 = f.times(p).times(f.transpose()).plus(q);
+
+        // correct
+        Matrix z = new Matrix(new double[][] { { mx, my, mx - lastX,
+                my - lastY } }).transpose();
+        Matrix s = h.times(p0).times(h.transpose()).plus(r);
+        Matrix k = p0.times(h.transpose()).times(s.inverse());
+        x = x0.plus(k.times(z.minus(h.times(x0))));
+        Matrix i = Matrix.identity(p0.getRowDimension(),
+                p0.getColumnDimension());
+        p = (i.minus(k.times(h))).times(p0);
+
+        lastX = mx;
+        lastY = my;
+    }
+
+    /**
+     * Returns the estimated x value.
+     * 
+     * @return The x value corrected by the filter.
+     */
+    public double getX() {
+        return x.get(0, 0);
+    }
+
+    /**
+     * Returns the estimated y value.
+     * 
+     * @return The y value corrected by the filter.
+     */
+    public double getY() {
+        return x.get(1, 0);
+    }
+}
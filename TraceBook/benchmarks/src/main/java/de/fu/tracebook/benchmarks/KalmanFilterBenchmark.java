@@ -0,0 +1,93 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fu.tracebook.benchmarks.Inputs.TraceShape;
+import de.fu.tracebook.util.KalmanFilter;
+
+/**
+ * Measures the Kalman filter applied to every GPS fix while logging, compared
+ * with the Jama based filter it replaced, see {@link JamaKalmanFilter}. The
+ * score is the time per fix.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class KalmanFilterBenchmark {
+
+    /**
+     * The number of fixes filtered per invocation.
+     */
+    private static final int FIXES = 1024;
+
+    int[] latitudes;
+
+    int[] longitudes;
+
+    @Benchmark
+    @OperationsPerInvocation(FIXES)
+    public double filter() {
+        KalmanFilter filter = new KalmanFilter(latitudes[0], longitudes[0]);
+        double sum = 0;
+        for (int i = 1; i < FIXES; ++i) {
+            filter.filter(latitudes[i], longitudes[i], 10, 1);
+            sum += filter.getX() + filter.getY();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FIXES)
+    public double jamaFilter() {
+        JamaKalmanFilter filter = new JamaKalmanFilter(latitudes[0],
+                longitudes[0]);
+        double sum = 0;
+        for (int i = 1; i < FIXES; ++i) {
+            filter.filter(latitudes[i], longitudes[i]);
+            sum += filter.getX() + filter.getY();
+        }
+        return sum;
+    }
+
+    @Setup
+    public void setUp() {
+        int[][] trace = Inputs.trace(TraceShape.RANDOM_WALK, FIXES);
+        latitudes = trace[0];
+        longitudes = trace[1];
+    }
+}
@@ -0,0 +1,109 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fu.tracebook.benchmarks.Inputs.TraceShape;
+import de.fu.tracebook.benchmarks.RecursiveLineSimplification.Point;
+import de.fu.tracebook.util.LineSimplification;
+
+/**
+ * Measures how long it takes to simplify a whole trace with the tolerance
+ * used when a way is finished, compared with the recursive implementation it
+ * replaced, see {@link RecursiveLineSimplification}. The recursive one gets
+ * the same coordinates as points, with the latitudes scaled like
+ * {@link LineSimplification#simplifyCoordinates} does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class LineSimplificationBenchmark {
+
+    /**
+     * The tolerance in meters.
+     */
+    private static final double TOLERANCE = 2;
+
+    int[] kept;
+
+    int[] latitudes;
+
+    int[] longitudes;
+
+    List<Point> points;
+
+    @Param({ "STRAIGHT", "ZIGZAG", "RANDOM_WALK" })
+    TraceShape shape;
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    int size;
+
+    /**
+     * The tolerance in microdegrees of longitude for the recursive
+     * implementation.
+     */
+    double tolerance;
+
+    @Benchmark
+    public List<Point> recursive() {
+        return RecursiveLineSimplification.simplifyLine(points, tolerance);
+    }
+
+    @Setup
+    public void setUp() {
+        int[][] trace = Inputs.trace(shape, size);
+        latitudes = trace[0];
+        longitudes = trace[1];
+        kept = new int[size];
+
+        double cos = Math.cos(Math.toRadians(latitudes[0] / 1e6));
+        tolerance = TOLERANCE / (0.111195 * cos);
+        points = new ArrayList<Point>(size);
+        for (int i = 0; i < size; ++i) {
+            points.add(new Point(longitudes[i], (int) Math.round(latitudes[i]
+                    / cos)));
+        }
+    }
+
+    @Benchmark
+    public int simplifyCoordinates() {
+        return LineSimplification.simplifyCoordinates(latitudes, longitudes,
+                size, TOLERANCE, kept);
+    }
+}
@@ -0,0 +1,116 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fu.tracebook.util.LongMap;
+
+/**
+ * Compares the LongMap used for the id lookups of the data storage with a
+ * HashMap of boxed keys. The ids are those of rows inserted one after
+ * another with some of them deleted in between.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class LongMapBenchmark {
+
+    Map<Long, Object> hashMap;
+
+    long[] keys;
+
+    LongMap<Object> longMap;
+
+    @Param({ "100", "10000", "1000000" })
+    int size;
+
+    @Benchmark
+    public int hashMapGet() {
+        int found = 0;
+        for (long key : keys) {
+            if (hashMap.get(Long.valueOf(key)) != null) {
+                ++found;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public Map<Long, Object> hashMapPut() {
+        Map<Long, Object> map = new HashMap<Long, Object>();
+        for (long key : keys) {
+            map.put(Long.valueOf(key), this);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public int longMapGet() {
+        int found = 0;
+        for (long key : keys) {
+            if (longMap.get(key) != null) {
+                ++found;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public LongMap<Object> longMapPut() {
+        LongMap<Object> map = new LongMap<Object>();
+        for (long key : keys) {
+            map.put(key, this);
+        }
+        return map;
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(3);
+        keys = new long[size];
+        long id = 0;
+        for (int i = 0; i < size; ++i) {
+            id += 1 + random.nextInt(3);
+            keys[i] = id;
+        }
+        hashMap = hashMapPut();
+        longMap = longMapPut();
+    }
+}
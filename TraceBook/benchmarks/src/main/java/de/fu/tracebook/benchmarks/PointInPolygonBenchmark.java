@@ -0,0 +1,94 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fu.tracebook.benchmarks.Inputs.PolygonShape;
+import de.fu.tracebook.util.PointInPolygon;
+
+/**
+ * Measures the point in polygon test used when tapping on an area, for
+ * polygons with different numbers of corners and shapes. The score is the
+ * time per tested point.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class PointInPolygonBenchmark {
+
+    /**
+     * The number of points tested per invocation.
+     */
+    private static final int POINTS = 1024;
+
+    double[] pxs;
+
+    double[] pys;
+
+    @Param({ "CONVEX", "STAR" })
+    PolygonShape shape;
+
+    @Param({ "4", "16", "256", "4096" })
+    int size;
+
+    int[] xs;
+
+    int[] ys;
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public int isPointInPolygon() {
+        int inside = 0;
+        for (int i = 0; i < POINTS; ++i) {
+            if (PointInPolygon.isPointInPolygon(pxs[i], pys[i], xs, ys, size)) {
+                ++inside;
+            }
+        }
+        return inside;
+    }
+
+    @Setup
+    public void setUp() {
+        int[][] polygon = Inputs.polygon(shape, size);
+        xs = polygon[0];
+        ys = polygon[1];
+        double[][] points = Inputs.points(POINTS);
+        pxs = points[0];
+        pys = points[1];
+    }
+}
@@ -0,0 +1,83 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fu.tracebook.benchmarks.Inputs.TraceShape;
+import de.fu.tracebook.util.PointLineDistance;
+
+/**
+ * Measures the distance of the points of a trace to the line between its
+ * first and last point, the inner loop of the line simplification. The score
+ * is the time per point.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class PointLineDistanceBenchmark {
+
+    /**
+     * The number of points measured per invocation.
+     */
+    private static final int POINTS = 1024;
+
+    int[] latitudes;
+
+    int[] longitudes;
+
+    @Setup
+    public void setUp() {
+        int[][] trace = Inputs.trace(TraceShape.RANDOM_WALK, POINTS);
+        latitudes = trace[0];
+        longitudes = trace[1];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double sqDistancePointLine() {
+        double ax = longitudes[0];
+        double ay = latitudes[0];
+        double bx = longitudes[POINTS - 1];
+        double by = latitudes[POINTS - 1];
+        double max = 0;
+        for (int i = 0; i < POINTS; ++i) {
+            max = Math.max(max, PointLineDistance.sqDistancePointLine(
+                    longitudes[i], latitudes[i], ax, ay, bx, by));
+        }
+        return max;
+    }
+}
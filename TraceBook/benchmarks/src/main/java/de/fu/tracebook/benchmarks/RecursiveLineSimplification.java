@@ -0,0 +1,177 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The line simplification as it was implemented before it worked on arrays of
+ * coordinates: recursive, on a list of point objects, marking removed points
+ * with null and compacting the list afterwards. It is kept as a reference for
+ * {@link de.fu.tracebook.util.LineSimplification}. android.graphics.Point is
+ * replaced by {@link Point}, everything else is unchanged.
+ */
+public final class RecursiveLineSimplification {
+
+    /**
+     * A point with integer coordinates like android.graphics.Point.
+     */
+    public static final class Point {
+        final int x;
+        final int y;
+
+        /**
+         * Creates a point.
+         * 
+         * @param x
+         *            The x coordinate.
+         * @param y
+         *            The y coordinate.
+         */
+        public Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /**
+     * Simplifies a line by removing way points that change the way at most by e
+     * pixels. This reduces the number of way points of the way.
+     * 
+     * @param in
+     *            The way to simplify.
+     * @param e
+     *            The distance how far a point has to change the way in order to
+     *            be kept.
+     * @return The simplified way.
+     */
+    public static List<Point> simplifyLine(List<Point> in, double e) {
+        ArrayList<Point> ret = new ArrayList<Point>(in);
+
+        int size = ret.size();
+        // simplify way
+        simplify(ret, 0, size - 1, e);
+
+        // move null-elements to the end of the array.
+        int i = 0;
+        int j = 0;
+        while (true) {
+            if (ret.get(i) == null) {
+                if (j < i) {
+                    j = i;
+                }
+                while (j < size && ret.get(j) == null) {
+                    ++j;
+                }
+                if (j >= size) {
+                    break;
+                }
+                ret.set(i, ret.get(j));
+                ret.set(j, null);
+            }
+
+            ++i;
+            if (i >= size) {
+                break;
+            }
+        }
+
+        // remove null-elements.
+        return ret.subList(0, i);
+    }
+
+    /**
+     * The Douglas-Peucker-algorithm. It simplifies a line by removing
+     * unnecessary nodes.
+     */
+    private static void simplify(List<Point> in, int i, int j, double e) {
+        int farthest = i;
+        double dist = 0;
+
+        // no point between i and j that could be eliminated?
+        // also anchor for recurrence
+        if (j - i < 2) {
+            return;
+        }
+
+        // find point with largest distance to line i to j
+        for (int x = i; x <= j; ++x) {
+            double d = sqDistancePointLine(in.get(x), in.get(i), in.get(j));
+            if (d > dist) {
+                dist = d;
+                farthest = x;
+            }
+        }
+
+        // actual algorithm:
+        if (dist > e * e) {
+            // Split line because distance was to large
+            simplify(in, i, farthest, e);
+            simplify(in, farthest, j, e);
+        } else {
+            // delete all point between i and j
+            for (int x = i + 1; x < j; ++x) {
+                in.set(x, null);
+            }
+        }
+    }
+
+    /**
+     * Calculates the square distance of the point p to the line from a to b,
+     * as PointLineDistance did for android.graphics.Point.
+     */
+    private static double sqDistancePointLine(Point point, Point a, Point b) {
+        double ax = a.x;
+        double ay = a.y;
+        double bx = b.x;
+        double by = b.y;
+        double px = point.x;
+        double py = point.y;
+        double byMay = by - ay;
+        double bxMax = bx - ax;
+        double pxMax = px - ax;
+        double pyMay = py - ay;
+        double bxMpx = bx - px;
+        double byMpy = by - py;
+        // dot product
+        double t = pxMax * bxMax + pyMay * byMay;
+
+        if (t <= 0) {
+            // p beyond a
+            return pxMax * pxMax + pyMay * pyMay;
+        }
+
+        t = bxMpx * bxMax + byMpy * byMay;
+
+        if (t < 0) {
+            // p beyond b
+            return bxMpx * bxMpx + byMpy * byMpy;
+        }
+        // p between a and b
+        double a2 = pyMay * bxMax - pxMax * byMay;
+        return a2 * a2 / (bxMax * bxMax + byMay * byMay);
+    }
+
+    private RecursiveLineSimplification() {
+        // make constructor private
+    }
+}
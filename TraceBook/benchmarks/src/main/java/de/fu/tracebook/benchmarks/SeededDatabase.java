@@ -0,0 +1,314 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import de.fu.tracebook.benchmarks.Inputs.TraceShape;
+
+/**
+ * A temporary SQLite database with the schema of the app, filled with
+ * {@link #TRACKS} recorded tracks. The schema is copied from the
+ * createTable() and createIndexes() strings of the NewDB* classes, which
+ * cannot be compiled without Android. The rows of a track are inserted one
+ * after another, like they are recorded. The rows can refer to their track by
+ * its id or, like before database version 8, by its name.
+ */
+public final class SeededDatabase {
+
+    /**
+     * How the rows refer to their track.
+     */
+    public enum TrackKey {
+        /**
+         * By the integer id of the track, the current schema.
+         */
+        ID,
+
+        /**
+         * By the name of the track, which was the primary key of the tracks
+         * table before database version 8.
+         */
+        NAME
+    }
+
+    /**
+     * The number of nodes of every way.
+     */
+    static final int NODES_PER_WAY = 200;
+
+    /**
+     * The number of POIs of every track. Every tenth has a medium and every
+     * hundredth a bug next to it.
+     */
+    static final int POIS = 1000;
+
+    /**
+     * The number of tracks.
+     */
+    static final int TRACKS = 10;
+
+    /**
+     * The number of ways of every track.
+     */
+    static final int WAYS = 50;
+
+    private static final String[] INDEXES = {
+            "CREATE INDEX nodes_way ON nodes (way)",
+            "CREATE INDEX nodes_track ON nodes (track)",
+            "CREATE INDEX tags_node ON tags (node)",
+            "CREATE INDEX tags_way ON tags (way)",
+            "CREATE INDEX media_node ON media (node)",
+            "CREATE INDEX media_way ON media (way)",
+            "CREATE INDEX media_track ON media (track)",
+            "CREATE INDEX pointslists_track ON pointslists (track)",
+            "CREATE INDEX bugs_track ON bugs (track)",
+            "CREATE INDEX tracks_name_nocase ON tracks (name COLLATE NOCASE)",
+            "CREATE INDEX tracks_datetime ON tracks (datetime)" };
+
+    private static final String[] TABLES = {
+            "CREATE TABLE tracks ( id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + " name TEXT UNIQUE NOT NULL, datetime TEXT,"
+                    + " comment TEXT )",
+            "CREATE TABLE nodes ( id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + " datetime TEXT, latitude INTEGER, longitude INTEGER,"
+                    + " way INTEGER, track INTEGER )",
+            "CREATE TABLE pointslists ( id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + " datetime TEXT, isarea INTEGER, track INTEGER )",
+            "CREATE TABLE tags ( id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + " key TEXT, value TEXT, node INTEGER, way INTEGER )",
+            "CREATE TABLE media ( id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + " name TEXT, path TEXT, node INTEGER, way INTEGER,"
+                    + " track INTEGER )",
+            "CREATE TABLE bugs ( id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + " description TEXT, latitude INTEGER,"
+                    + " longitude INTEGER, track INTEGER )" };
+
+    private static final String TIME = "2011-01-01T12:00:00Z";
+
+    private static final String TRACKS_BY_NAME = "CREATE TABLE tracks"
+            + " ( name TEXT PRIMARY KEY, datetime TEXT, comment TEXT )";
+
+    private static long insertNode(PreparedStatement node, long id,
+            int[][] trace, int fix, long wayId, Object track)
+            throws SQLException {
+        node.setLong(1, id);
+        node.setString(2, TIME);
+        node.setInt(3, trace[0][fix]);
+        node.setInt(4, trace[1][fix]);
+        node.setLong(5, wayId);
+        setTrack(node, 6, track);
+        node.executeUpdate();
+        return id;
+    }
+
+    private static void insertTag(PreparedStatement tag, String key,
+            String value, long nodeId, long wayId) throws SQLException {
+        tag.setString(1, key);
+        tag.setString(2, value);
+        tag.setLong(3, nodeId);
+        tag.setLong(4, wayId);
+        tag.executeUpdate();
+    }
+
+    /**
+     * Binds the reference to a track or NULL for none, like
+     * DBOpenHelper.bindId().
+     */
+    private static void setTrack(PreparedStatement statement, int index,
+            Object track) throws SQLException {
+        if (track == null) {
+            statement.setNull(index, Types.INTEGER);
+        } else {
+            statement.setObject(index, track);
+        }
+    }
+
+    /**
+     * The connection to the database.
+     */
+    final Connection connection;
+
+    /**
+     * The database file.
+     */
+    final File file;
+
+    /**
+     * How the rows refer to their track.
+     */
+    final TrackKey key;
+
+    /**
+     * The names of all tracks.
+     */
+    final String[] names = new String[TRACKS];
+
+    /**
+     * The ids of the POIs of all tracks.
+     */
+    final long[] pois = new long[TRACKS * POIS];
+
+    /**
+     * The ids of all tracks, their rowids if they are referred to by name.
+     */
+    final long[] tracks = new long[TRACKS];
+
+    /**
+     * The ids of the ways of all tracks.
+     */
+    final long[] ways = new long[TRACKS * WAYS];
+
+    /**
+     * Creates and fills a database in a temporary file.
+     * 
+     * @param key
+     *            How the rows refer to their track.
+     * @param indexed
+     *            Whether the foreign keys are indexed.
+     * @throws IOException
+     *             If the temporary file cannot be created.
+     * @throws SQLException
+     *             If the database cannot be filled.
+     */
+    SeededDatabase(TrackKey key, boolean indexed) throws IOException,
+            SQLException {
+        this.key = key;
+        file = File.createTempFile("tracebook", ".db");
+        connection = DriverManager.getConnection("jdbc:sqlite:"
+                + file.getPath());
+        Statement statement = connection.createStatement();
+        for (String table : TABLES) {
+            if (key == TrackKey.NAME) {
+                if (table.startsWith("CREATE TABLE tracks ")) {
+                    table = TRACKS_BY_NAME;
+                } else {
+                    table = table.replace("track INTEGER", "track TEXT");
+                }
+            }
+            statement.execute(table);
+        }
+        if (indexed) {
+            for (String index : INDEXES) {
+                statement.execute(index);
+            }
+        }
+        statement.close();
+
+        connection.setAutoCommit(false);
+        fill();
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    /**
+     * Closes the connection and deletes the database.
+     * 
+     * @throws SQLException
+     *             If the connection cannot be closed.
+     */
+    void close() throws SQLException {
+        connection.close();
+        file.delete();
+    }
+
+    private void fill() throws SQLException {
+        PreparedStatement track = connection.prepareStatement(
+                "INSERT INTO tracks (name, datetime, comment)"
+                        + " VALUES (?, ?, '')");
+        PreparedStatement way = connection.prepareStatement(
+                "INSERT INTO pointslists (id, datetime, isarea, track)"
+                        + " VALUES (?, ?, 0, ?)");
+        PreparedStatement node = connection.prepareStatement(
+                "INSERT INTO nodes (id, datetime, latitude, longitude, way,"
+                        + " track) VALUES (?, ?, ?, ?, ?, ?)");
+        PreparedStatement tag = connection.prepareStatement(
+                "INSERT INTO tags (key, value, node, way) VALUES (?, ?, ?, ?)");
+        PreparedStatement media = connection.prepareStatement(
+                "INSERT INTO media (name, path, node, way, track)"
+                        + " VALUES (?, ?, ?, 0, ?)");
+        PreparedStatement bug = connection.prepareStatement(
+                "INSERT INTO bugs (description, latitude, longitude, track)"
+                        + " VALUES ('bug', ?, ?, ?)");
+
+        int[][] trace = Inputs.trace(TraceShape.RANDOM_WALK, WAYS
+                * NODES_PER_WAY + POIS);
+        long nodeId = 0;
+        for (int t = 0; t < TRACKS; ++t) {
+            tracks[t] = t + 1;
+            names[t] = String.format("2011-01-%02d_12-00-00", t + 1);
+            track.setString(1, names[t]);
+            track.setString(2, TIME);
+            track.executeUpdate();
+            Object trackRef = key == TrackKey.ID ? Long.valueOf(tracks[t])
+                    : names[t];
+
+            int fix = 0;
+            for (int w = 0; w < WAYS; ++w) {
+                long wayId = t * WAYS + w + 1;
+                ways[t * WAYS + w] = wayId;
+                way.setLong(1, wayId);
+                way.setString(2, TIME);
+                setTrack(way, 3, trackRef);
+                way.executeUpdate();
+                insertTag(tag, "highway", "footway", 0, wayId);
+                insertTag(tag, "name", "way-" + wayId, 0, wayId);
+
+                for (int n = 0; n < NODES_PER_WAY; ++n, ++fix) {
+                    insertNode(node, ++nodeId, trace, fix, wayId, null);
+                }
+            }
+
+            for (int p = 0; p < POIS; ++p, ++fix) {
+                pois[t * POIS + p] = insertNode(node, ++nodeId, trace, fix, 0,
+                        trackRef);
+                insertTag(tag, "amenity", "bench", nodeId, 0);
+                if (p % 10 == 0) {
+                    media.setString(1, "photo-" + nodeId + ".jpg");
+                    media.setString(2, names[t] + "/photo-" + nodeId + ".jpg");
+                    media.setLong(3, nodeId);
+                    setTrack(media, 4, trackRef);
+                    media.executeUpdate();
+                }
+                if (p % 100 == 0) {
+                    bug.setInt(1, trace[0][fix]);
+                    bug.setInt(2, trace[1][fix]);
+                    setTrack(bug, 3, trackRef);
+                    bug.executeUpdate();
+                }
+            }
+        }
+
+        track.close();
+        way.close();
+        node.close();
+        tag.close();
+        media.close();
+        bug.close();
+    }
+}
@@ -0,0 +1,387 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.benchmarks;
+
+import java.io.File;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import de.fu.tracebook.util.FullTextQuery;
+
+/**
+ * Measures the search of the tag dictionary from one keystroke to the
+ * results, on the dictionaries shipped in res/raw. Every call types the next
+ * letter of a few search words, the way FullTextSearchActivity searches
+ * while typing. {@link #like()} runs the LIKE query over five columns that
+ * was used before the full text index, {@link #fts()} the prefix query on
+ * the FTS3 index of TagDb, including the narrowing to the matches of the
+ * previous keystroke and the ranking. The SQL is copied from TagDb and
+ * TagDbOpenHelper.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class TagSearchBenchmark {
+
+    /**
+     * Parses a dictionary file into rows in the order of {@link #COLUMNS},
+     * like TagDb.DictionaryParser.
+     */
+    static class DictionaryParser extends DefaultHandler {
+
+        String language = null;
+
+        List<String[]> rows = new ArrayList<String[]>(4096);
+
+        private String description = null;
+        private String imgUrl = null;
+        private String key = null;
+        private String keywords = null;
+        private String link = null;
+        private String name = null;
+        private StringBuilder text = null;
+        private String type = null;
+        private String value = null;
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (text != null) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String lname, String qname) {
+            if (lname.equals("key")) {
+                key = null;
+
+            } else if (lname.equals("value")) {
+                rows.add(new String[] { key, language, value, link,
+                        description, type, name, keywords, imgUrl });
+
+            } else if (lname.equals("description")) {
+                description = getText();
+
+            } else if (lname.equals("uri")) {
+                link = getText();
+
+            } else if (lname.equals("keywords")) {
+                keywords = getText();
+
+            } else if (lname.equals("img")) {
+                imgUrl = getText();
+            }
+        }
+
+        @Override
+        public void startElement(String uri, String lname, String qname,
+                Attributes attributes) {
+            if (lname.equals("map_features")) {
+                language = attributes.getValue("lang");
+
+            } else if (lname.equals("key")) {
+                key = attributes.getValue("v");
+
+            } else if (lname.equals("value")) {
+                value = attributes.getValue("v");
+                type = attributes.getValue("type");
+                name = attributes.getValue("name");
+
+            } else if (lname.equals("description") || lname.equals("uri")
+                    || lname.equals("keywords") || lname.equals("img")) {
+                text = new StringBuilder();
+            }
+        }
+
+        private String getText() {
+            String ret = text != null ? text.toString() : "";
+            text = null;
+            return ret;
+        }
+    }
+
+    private static final int[] COLUMN_WEIGHTS = { 2, 4, 8, 4, 1 };
+
+    private static final String COLUMNS = "key, language, value, wikilink,"
+            + " description, value_type, name, keywords, image";
+
+    private static final String FTS_COLUMNS = "key, value, name, keywords,"
+            + " description";
+
+    private static final String LIKE = "SELECT " + COLUMNS
+            + " FROM dictionary WHERE (name LIKE ? OR keywords LIKE ?"
+            + " OR description LIKE ? OR value LIKE ? OR key LIKE ?)"
+            + " AND language LIKE ? LIMIT 20";
+
+    private static final String MATCH = "SELECT docid,"
+            + " offsets(dictionary_fts) FROM dictionary_fts, dictionary"
+            + " WHERE dictionary_fts MATCH ? AND dictionary.rowid = docid"
+            + " AND dictionary.language = ?";
+
+    private static final int MAX_RESULTS = 20;
+
+    /**
+     * The search words for every language, typed one letter after another.
+     */
+    private static final String[][] WORDS = {
+            { "de", "Restaurant", "Haltestelle", "Trinkwasser",
+                    "Briefkasten" },
+            { "en", "restaurant", "bus stop", "drinking water", "post box" } };
+
+    private static int read(ResultSet result) throws SQLException {
+        int rows = 0;
+        int columns = result.getMetaData().getColumnCount();
+        while (result.next()) {
+            for (int i = 1; i <= columns; ++i) {
+                result.getString(i);
+            }
+            ++rows;
+        }
+        result.close();
+        return rows;
+    }
+
+    Connection connection;
+
+    File file;
+
+    List<String> keystrokes;
+
+    @Param({ "de", "en" })
+    String language;
+
+    String lastSearchText;
+
+    long[] lastMatches;
+
+    PreparedStatement like;
+
+    PreparedStatement match;
+
+    int next;
+
+    @Benchmark
+    public int fts() throws SQLException {
+        String searchText = nextKeystroke();
+        long[] candidates = null;
+        if (lastSearchText != null && searchText.startsWith(lastSearchText)) {
+            candidates = lastMatches;
+        }
+        lastSearchText = null;
+
+        if (searchText.length() < 2) {
+            return 0;
+        }
+        String query = FullTextQuery.prefixQuery(searchText);
+        if (query == null) {
+            return 0;
+        }
+        lastSearchText = searchText;
+        return searchFts(query, candidates);
+    }
+
+    @Benchmark
+    public int like() throws SQLException {
+        String searchText = nextKeystroke();
+        if (searchText.length() < 2) {
+            return 0;
+        }
+        String pattern = "%" + searchText + "%";
+        for (int i = 1; i <= 5; ++i) {
+            like.setString(i, pattern);
+        }
+        like.setString(6, language);
+        return read(like.executeQuery());
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        DictionaryParser parser = new DictionaryParser();
+        InputStream in = TagSearchBenchmark.class
+                .getResourceAsStream("tags_" + language + ".xml");
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.newSAXParser().parse(in, parser);
+        } finally {
+            in.close();
+        }
+
+        file = File.createTempFile("tracebook_tags", ".db");
+        connection = DriverManager.getConnection("jdbc:sqlite:"
+                + file.getPath());
+        Statement statement = connection.createStatement();
+        statement.execute("CREATE TABLE dictionary (key TEXT, value TEXT,"
+                + " name TEXT, description TEXT, wikilink TEXT, image TEXT,"
+                + " language TEXT, keywords TEXT, value_type TEXT)");
+        statement.execute("CREATE VIRTUAL TABLE dictionary_fts USING fts3("
+                + FTS_COLUMNS + ")");
+        connection.setAutoCommit(false);
+        PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO dictionary (" + COLUMNS + ")"
+                        + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        for (String[] row : parser.rows) {
+            for (int i = 0; i < row.length; ++i) {
+                insert.setString(i + 1, row[i]);
+            }
+            insert.executeUpdate();
+        }
+        insert.close();
+        statement.execute("INSERT INTO dictionary_fts (docid, " + FTS_COLUMNS
+                + ") SELECT rowid, " + FTS_COLUMNS + " FROM dictionary");
+        connection.commit();
+        connection.setAutoCommit(true);
+        statement.close();
+
+        like = connection.prepareStatement(LIKE);
+        match = connection.prepareStatement(MATCH);
+
+        keystrokes = new ArrayList<String>();
+        for (String[] words : WORDS) {
+            if (words[0].equals(language)) {
+                for (int i = 1; i < words.length; ++i) {
+                    for (int j = 1; j <= words[i].length(); ++j) {
+                        keystrokes.add(words[i].substring(0, j));
+                    }
+                }
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+        file.delete();
+    }
+
+    private String nextKeystroke() {
+        if (++next >= keystrokes.size()) {
+            next = 0;
+        }
+        return keystrokes.get(next);
+    }
+
+    /**
+     * Searches like TagDb.fillTagListWithFtsResults().
+     */
+    private int searchFts(String query, long[] candidates)
+            throws SQLException {
+        if (candidates != null && candidates.length == 0) {
+            lastMatches = candidates;
+            return 0;
+        }
+
+        PreparedStatement select = match;
+        if (candidates != null) {
+            StringBuilder sql = new StringBuilder(MATCH);
+            sql.append(" AND docid IN (");
+            for (int i = 0; i < candidates.length; ++i) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(')');
+            select = connection.prepareStatement(sql.toString());
+            for (int i = 0; i < candidates.length; ++i) {
+                select.setLong(i + 3, candidates[i]);
+            }
+        }
+        select.setString(1, query);
+        select.setString(2, language);
+        List<Long> matchedIds = new ArrayList<Long>();
+        List<Integer> matchedRanks = new ArrayList<Integer>();
+        ResultSet result = select.executeQuery();
+        while (result.next()) {
+            matchedIds.add(Long.valueOf(result.getLong(1)));
+            matchedRanks.add(Integer.valueOf(FullTextQuery.rank(result
+                    .getString(2), COLUMN_WEIGHTS)));
+        }
+        result.close();
+        if (select != match) {
+            select.close();
+        }
+        int count = matchedIds.size();
+        long[] ids = new long[count];
+        int[] ranks = new int[count];
+        for (int i = 0; i < count; ++i) {
+            ids[i] = matchedIds.get(i).longValue();
+            ranks[i] = matchedRanks.get(i).intValue();
+        }
+        lastMatches = count <= MAX_RESULTS ? ids : null;
+
+        int resultCount = Math.min(count, MAX_RESULTS);
+        if (resultCount == 0) {
+            return 0;
+        }
+        StringBuilder sql = new StringBuilder("SELECT " + COLUMNS
+                + ", rowid FROM dictionary WHERE rowid IN (");
+        long[] best = new long[resultCount];
+        for (int i = 0; i < resultCount; ++i) {
+            int max = -1;
+            for (int j = 0; j < count; ++j) {
+                if (ranks[j] < 0) {
+                    continue;
+                }
+                if (max == -1 || ranks[j] > ranks[max]
+                        || (ranks[j] == ranks[max] && ids[j] < ids[max])) {
+                    max = j;
+                }
+            }
+            best[i] = ids[max];
+            ranks[max] = -1;
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(')');
+        PreparedStatement rows = connection.prepareStatement(sql.toString());
+        for (int i = 0; i < resultCount; ++i) {
+            rows.setLong(i + 1, best[i]);
+        }
+        int read = read(rows.executeQuery());
+        rows.close();
+        return read;
+    }
+}
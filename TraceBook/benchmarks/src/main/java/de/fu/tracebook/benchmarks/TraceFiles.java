@@ -0,0 +1,107 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import de.fu.tracebook.benchmarks.Inputs.TraceShape;
+
+/**
+ * Writes synthetic GPS traces as GPX files for the measurements that need the
+ * database and therefore a device. The files are replayed into a track with
+ * "Replay a GPS trace" in the diagnostics preferences, at the fastest speed,
+ * and the track is then exported, searched or renamed with performance
+ * metrics switched on.
+ */
+public final class TraceFiles {
+
+    /**
+     * The numbers of fixes of the written traces.
+     */
+    static final int[] SIZES = { 10000, 100000, 1000000 };
+
+    /**
+     * Writes a random walk of every size in {@link #SIZES} into a directory,
+     * named like trace-10000.gpx.
+     * 
+     * @param args
+     *            The directory to write to, the working directory if none is
+     *            given.
+     * @throws IOException
+     *             If a file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : ".");
+        for (int size : SIZES) {
+            File file = new File(dir, "trace-" + size + ".gpx");
+            write(file, Inputs.trace(TraceShape.RANDOM_WALK, size));
+            System.out.println("Wrote " + file);
+        }
+    }
+
+    /**
+     * Writes a trace as a GPX track with one fix per second.
+     * 
+     * @param file
+     *            The file to write.
+     * @param trace
+     *            The latitudes and longitudes in microdegrees, see
+     *            {@link Inputs#trace(TraceShape, int)}.
+     * @throws IOException
+     *             If the file cannot be written.
+     */
+    static void write(File file, int[][] trace) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat(
+                "yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long time = 1293840000000L; // 2011-01-01
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8"));
+        try {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<gpx version=\"1.1\" creator=\"TraceBook benchmarks\""
+                    + " xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+            out.write("<trk><trkseg>\n");
+            for (int i = 0; i < trace[0].length; ++i) {
+                out.write("<trkpt lat=\"" + trace[0][i] / 1e6 + "\" lon=\""
+                        + trace[1][i] / 1e6 + "\"><time>"
+                        + format.format(new Date(time + i * 1000L))
+                        + "</time></trkpt>\n");
+            }
+            out.write("</trkseg></trk>\n</gpx>\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    private TraceFiles() {
+        // make constructor private
+    }
+}
@@ -0,0 +1,228 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.benchmarks;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fu.tracebook.benchmarks.SeededDatabase.TrackKey;
+
+/**
+ * Compares rows that refer to their track by its integer id with rows that
+ * refer to it by its name, on an indexed {@link SeededDatabase}. Renaming a
+ * track by id updates its row in the tracks table. Renaming it by name also
+ * updates every way, node, medium and bug of the track one by one, like
+ * NewDBTrack.save() did before database version 8; here that happens in one
+ * transaction, so the score is a lower bound of the old cost.
+ * <p>
+ * {@link #main(String[])} prints the size of both databases.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class TrackKeyBenchmark {
+
+    private static final String MEDIA_BY_TRACK = "SELECT id, name, path,"
+            + " node, way, track FROM media WHERE track = ? ORDER BY id ASC";
+    private static final String NODES_BY_TRACK = "SELECT id, datetime,"
+            + " latitude, longitude FROM nodes WHERE (nodes.track = ?"
+            + " OR nodes.way IN (SELECT id FROM pointslists WHERE track = ?))"
+            + " ORDER BY id ASC";
+
+    /**
+     * The tables whose rows refer to a track.
+     */
+    private static final String[] REFERRING = { "pointslists", "nodes",
+            "media", "bugs" };
+
+    private static final String WAYS_BY_TRACK = "SELECT id, datetime, isarea,"
+            + " track FROM pointslists WHERE track = ? ORDER BY id ASC";
+
+    /**
+     * Prints the size of a database whose rows refer to their track by id
+     * and of one whose rows refer to it by name.
+     * 
+     * @param args
+     *            Not used.
+     * @throws IOException
+     *             If a database cannot be created.
+     * @throws SQLException
+     *             If a database cannot be filled.
+     */
+    public static void main(String[] args) throws IOException, SQLException {
+        for (TrackKey key : TrackKey.values()) {
+            SeededDatabase database = new SeededDatabase(key, true);
+            Statement statement = database.connection.createStatement();
+            statement.execute("VACUUM");
+            statement.close();
+            System.out.println(key + ": " + database.file.length() + " bytes");
+            database.close();
+        }
+    }
+
+    private static int count(ResultSet result) throws SQLException {
+        int rows = 0;
+        while (result.next()) {
+            ++rows;
+        }
+        result.close();
+        return rows;
+    }
+
+    SeededDatabase database;
+
+    @Param({ "ID", "NAME" })
+    TrackKey key;
+
+    PreparedStatement mediaByTrack;
+
+    /**
+     * The current names of the tracks, changed by {@link #rename()}.
+     */
+    String[] names;
+
+    int next;
+
+    PreparedStatement nodesByTrack;
+
+    PreparedStatement waysByTrack;
+
+    @Benchmark
+    public int mediaByTrack() throws SQLException {
+        mediaByTrack.setObject(1, nextTrack());
+        return count(mediaByTrack.executeQuery());
+    }
+
+    @Benchmark
+    public int nodesByTrack() throws SQLException {
+        Object track = nextTrack();
+        nodesByTrack.setObject(1, track);
+        nodesByTrack.setObject(2, track);
+        return count(nodesByTrack.executeQuery());
+    }
+
+    @Benchmark
+    public int rename() throws SQLException {
+        nextTrack();
+        String oldName = names[next];
+        String newName = oldName.endsWith("~") ? oldName.substring(0,
+                oldName.length() - 1) : oldName + "~";
+        names[next] = newName;
+
+        if (key == TrackKey.ID) {
+            PreparedStatement update = database.connection.prepareStatement(
+                    "UPDATE tracks SET name = ? WHERE id = ?");
+            update.setString(1, newName);
+            update.setLong(2, database.tracks[next]);
+            int rows = update.executeUpdate();
+            update.close();
+            return rows;
+        }
+
+        database.connection.setAutoCommit(false);
+        PreparedStatement update = database.connection
+                .prepareStatement("UPDATE tracks SET name = ? WHERE name = ?");
+        update.setString(1, newName);
+        update.setString(2, oldName);
+        int rows = update.executeUpdate();
+        update.close();
+        for (String table : REFERRING) {
+            PreparedStatement select = database.connection
+                    .prepareStatement("SELECT id FROM " + table
+                            + " WHERE track = ? ORDER BY id ASC");
+            select.setString(1, oldName);
+            List<Long> ids = new ArrayList<Long>();
+            ResultSet result = select.executeQuery();
+            while (result.next()) {
+                ids.add(Long.valueOf(result.getLong(1)));
+            }
+            result.close();
+            select.close();
+
+            update = database.connection.prepareStatement("UPDATE " + table
+                    + " SET track = ? WHERE id = ?");
+            for (Long id : ids) {
+                update.setString(1, newName);
+                update.setLong(2, id.longValue());
+                rows += update.executeUpdate();
+            }
+            update.close();
+        }
+        database.connection.commit();
+        database.connection.setAutoCommit(true);
+        return rows;
+    }
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        database = new SeededDatabase(key, true);
+        names = database.names.clone();
+        mediaByTrack = database.connection.prepareStatement(MEDIA_BY_TRACK);
+        nodesByTrack = database.connection.prepareStatement(NODES_BY_TRACK);
+        waysByTrack = database.connection.prepareStatement(WAYS_BY_TRACK);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        database.close();
+    }
+
+    @Benchmark
+    public int waysByTrack() throws SQLException {
+        waysByTrack.setObject(1, nextTrack());
+        return count(waysByTrack.executeQuery());
+    }
+
+    /**
+     * Moves on to the next track.
+     * 
+     * @return The value the rows of the track refer to it by.
+     */
+    private Object nextTrack() {
+        if (++next >= names.length) {
+            next = 0;
+        }
+        return key == TrackKey.ID ? Long.valueOf(database.tracks[next])
+                : names[next];
+    }
+}
@@ -0,0 +1,81 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import org.junit.Test;
+
+/**
+ * Checks that the closed form {@link KalmanFilter} estimates the same points
+ * as the Jama based filter it replaced. The output of that filter was
+ * recorded with de.fu.tracebook.benchmarks.JamaKalmanFilter into
+ * kalman-jama.txt.
+ */
+public class KalmanFilterTest {
+
+    /**
+     * The allowed difference to the recorded estimates in microdegrees.
+     */
+    private static final double TOLERANCE = 1e-3;
+
+    @Test
+    public void matchesJamaFilter() throws IOException {
+        InputStream in = KalmanFilterTest.class
+                .getResourceAsStream("kalman-jama.txt");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+                "US-ASCII"));
+        try {
+            KalmanFilter filter = null;
+            int fixes = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                String[] values = line.split(" ");
+                double x = Double.parseDouble(values[0]);
+                double y = Double.parseDouble(values[1]);
+                if (filter == null) {
+                    filter = new KalmanFilter(x, y);
+                    continue;
+                }
+                filter.filter(x, y, 0, 0);
+                assertEquals("x of fix " + fixes,
+                        Double.parseDouble(values[2]), filter.getX(),
+                        TOLERANCE);
+                assertEquals("y of fix " + fixes,
+                        Double.parseDouble(values[3]), filter.getY(),
+                        TOLERANCE);
+                ++fixes;
+            }
+            assertTrue("no fixes recorded", fixes > 0);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -20,20 +20,24 @@
 
 package de.fu.tracebook.core.data;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
 import org.xmlpull.v1.XmlSerializer;
 
+import android.database.Cursor;
 import android.util.Xml;
+import de.fu.tracebook.core.data.implementation.NewDBMedia;
+import de.fu.tracebook.core.data.implementation.NewDBNode;
+import de.fu.tracebook.core.data.implementation.NewDBPointsList;
+import de.fu.tracebook.core.data.implementation.NewDBTag;
 import de.fu.tracebook.util.LogIt;
+import de.fu.tracebook.util.Metrics;
 
 /**
  * Serialises a track to xml-file (actually a .tbt-file). The file format is
@@ -42,6 +46,26 @@ import de.fu.tracebook.util.LogIt;
  */
 public class DataSerializer {
 
+    /**
+     * Size of the buffer of the writer used for the export.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Number of nodes written by the last export.
+     */
+    private static final Metrics.Gauge EXPORTED_NODES = Metrics
+            .gauge("export.nodes");
+
+    /**
+     * Nodes written per second by the last export, including the ways.
+     */
+    private static final Metrics.Gauge EXPORT_RATE = Metrics
+            .gauge("export.nodesPerSecond");
+
+    private static final Metrics.Histogram SERIALIZE_TIME = Metrics
+            .histogram("export.serialize");
+
     /**
      * Returns the complete String of the path to the track.tbt file of a track.
      * 
@@ -54,6 +78,22 @@ public class DataSerializer {
                 + "track.tbt";
     }
 
+    /**
+     * Returns the id a node gets in the exported file. The id is derived from
+     * the id in the database, so the references of a way always match the
+     * exported nodes.
+     * 
+     * @param nodeId
+     *            The id of the node in the database.
+     * @return The id of the node in the exported file.
+     */
+    private static long getOutputId(long nodeId) {
+        return -nodeId;
+    }
+
+    private final char[] digits = new char[24];
+    private Writer out;
+
     /**
      * Serialises all Bugs. The bug are stored in bugs.xml in the directory of
      * the current track. The XML-file is OSM-compatible.
@@ -133,124 +173,6 @@ public class DataSerializer {
         }
     }
 
-    /**
-     * Generates a link tag for this medium.
-     * 
-     * @param serializer
-     *            The initialized XmlSerialiser.
-     */
-    private void serializeMedia(XmlSerializer serializer, IDataMedia media) {
-        try {
-            serializer.startTag(null, "link");
-            serializer.attribute(null, "href", media.getName());
-            serializer.endTag(null, "link");
-        } catch (IllegalArgumentException e) {
-            LogIt.e("Should not happen");
-        } catch (IllegalStateException e) {
-            LogIt.e("Illegal state");
-        } catch (IOException e) {
-            LogIt.e("Could not serialize medium " + media.getName());
-        }
-    }
-
-    private void serializeNode(XmlSerializer serializer, IDataNode dn) {
-        DecimalFormatSymbols dfs = new DecimalFormatSymbols();
-        dfs.setDecimalSeparator('.');
-        DecimalFormat df = new DecimalFormat("0.0000000", dfs);
-
-        try {
-            serializer.startTag(null, "node");
-            serializer.attribute(null, "lat",
-                    df.format(dn.getCoordinates().getLatitude()));
-            serializer.attribute(null, "lon",
-                    df.format(dn.getCoordinates().getLongitude()));
-            serializer.attribute(null, "id",
-                    Long.toString(((NewNode) dn).getOutputId()));
-            serializer.attribute(null, "timestamp", dn.getDatetime());
-            serializer.attribute(null, "version", "1");
-
-            serializeTags(serializer, dn.getTags());
-            for (IDataMedia m : dn.getMedia()) {
-                serializeMedia(serializer, m);
-            }
-
-            serializer.endTag(null, "node");
-
-        } catch (IllegalArgumentException e) {
-            LogIt.e("Should not happen");
-        } catch (IllegalStateException e) {
-            LogIt.e("Illegal state");
-        } catch (IOException e) {
-            LogIt.e("Could not serialize node");
-        }
-    }
-
-    private void serializeTags(XmlSerializer serializer,
-            Map<String, String> tags) {
-        try {
-            for (Entry<String, String> tag : tags.entrySet()) {
-
-                serializer.startTag(null, "tag");
-                serializer.attribute(null, "k", tag.getKey());
-                serializer.attribute(null, "v", tag.getValue());
-                serializer.endTag(null, "tag");
-            }
-        } catch (IllegalArgumentException e) {
-            LogIt.e("Should not happen");
-        } catch (IllegalStateException e) {
-            LogIt.e("Illegal state");
-        } catch (IOException e) {
-            LogIt.e("Could not serialize tags");
-        }
-        return;
-    }
-
-    private void serializeWay(XmlSerializer serializer, IDataPointsList dpl) {
-        try {
-            List<IDataNode> nodes = dpl.getNodes();
-            serializer.startTag(null, "way");
-            serializer.attribute(null, "version", "1");
-            serializer.attribute(null, "timestamp", dpl.getDatetime());
-            serializer.attribute(null, "id",
-                    Long.toString(StorageFactory.getStorage().getID()));
-
-            for (IDataNode dn : nodes) {
-                serializer.startTag(null, "nd");
-
-                serializer.attribute(null, "ref",
-                        Long.toString(((NewNode) dn).getOutputId()));
-
-                serializer.endTag(null, "nd");
-            }
-            if (dpl.isArea() && !nodes.isEmpty()) {
-                IDataNode lastNode = nodes.get(0);
-                serializer.startTag(null, "nd");
-                serializer.attribute(null, "ref",
-                        Long.toString(lastNode.getId()));
-                serializer.endTag(null, "nd");
-
-                serializer.startTag(null, "tag");
-                serializer.attribute(null, "k", "area");
-                serializer.attribute(null, "v", "yes");
-                serializer.endTag(null, "tag");
-            }
-
-            serializeTags(serializer, dpl.getTags());
-            for (IDataMedia m : dpl.getMedia()) {
-                serializeMedia(serializer, m);
-            }
-
-            serializer.endTag(null, "way");
-
-        } catch (IllegalArgumentException e) {
-            LogIt.e("Should not happen");
-        } catch (IllegalStateException e) {
-            LogIt.e("Illegal state");
-        } catch (IOException e) {
-            LogIt.e("Could not serialize way");
-        }
-    }
-
     /**
      * Open a file as FileOutputStream deleting any old existing file.
      * 
@@ -284,12 +206,16 @@ public class DataSerializer {
     }
 
     /**
-     * Serialises a track.
+     * Serialises a track. The nodes, tags, media and ways of the track are
+     * read with a few ordered cursors that are merged while writing, so no
+     * object is created per node and the memory needed does not grow with the
+     * size of the track.
      * 
      * @param track
      *            The track to serialise.
      */
     void serialize(NewTrack track) {
+        long start = Metrics.start();
         String name = track.getName();
 
         File xmlfile = new File(getPathOfTrackTbTFile(name));
@@ -299,48 +225,267 @@ public class DataSerializer {
             return;
         }
 
-        XmlSerializer serializer = Xml.newSerializer();
-
+        int nodes = 0;
         try {
-            serializer.setOutput(fileos, "UTF-8");
-            serializer.startDocument(null, Boolean.valueOf(true));
-            serializer.startTag(null, "osm");
-
-            serializer.attribute(null, "version", "0.6");
-            serializer.attribute(null, "generator", "TraceBook");
+            out = new BufferedWriter(new OutputStreamWriter(fileos, "UTF-8"),
+                    BUFFER_SIZE);
+            out.write("<?xml version='1.0' encoding='UTF-8' standalone='yes' ?>");
+            out.write("<osm version=\"0.6\" generator=\"TraceBook\">");
 
             for (IDataMedia m : track.getMedia()) {
-                serializeMedia(serializer, m);
-            }
-            for (IDataNode dn : track.getNodes()) {
-                serializeNode(serializer, dn);
-            }
-            List<IDataPointsList> waylist = track.getWays();
-            for (IDataPointsList dpl : waylist) {
-                for (IDataNode dn : dpl.getNodes()) {
-                    serializeNode(serializer, dn);
-                }
-            }
-            for (IDataPointsList dpl : waylist) {
-                serializeWay(serializer, dpl);
+                writeMedia(m.getName());
             }
+            nodes = writeNodes(track.getId());
+            writeWays(track.getId());
 
-            serializer.endTag(null, "osm");
-            serializer.flush();
-        } catch (IllegalArgumentException e) {
-            LogIt.e("Should not happen. Internal error.");
-        } catch (IllegalStateException e) {
-            LogIt.e("Should not happen. Internal error.");
+            out.write("</osm>");
+            out.flush();
         } catch (IOException e) {
-            LogIt.e("Error while reading file.");
+            LogIt.e("Error while writing file.");
         } finally {
             try {
                 fileos.close();
             } catch (IOException e) {
                 LogIt.e("Error closing file: " + e.getMessage());
             }
+            out = null;
         }
 
         serializeBugs((NewBugManager) StorageFactory.getBugManager());
+        SERIALIZE_TIME.stop(start);
+        if (start != 0) {
+            long time = Math.max(System.nanoTime() - start, 1);
+            EXPORTED_NODES.set(nodes);
+            EXPORT_RATE.set(nodes * 1000000000L / time);
+        }
+    }
+
+    /**
+     * Writes an attribute with a numeric value.
+     */
+    private void writeAttribute(String key, long value) throws IOException {
+        out.write(' ');
+        out.write(key);
+        out.write("=\"");
+        int pos = digits.length;
+        long v = value < 0 ? -value : value;
+        do {
+            digits[--pos] = (char) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        if (value < 0) {
+            digits[--pos] = '-';
+        }
+        out.write(digits, pos, digits.length - pos);
+        out.write('"');
+    }
+
+    /**
+     * Writes an attribute with a String value, escaping it as needed.
+     */
+    private void writeAttribute(String key, String value) throws IOException {
+        out.write(' ');
+        out.write(key);
+        out.write("=\"");
+        if (value != null) {
+            int len = value.length();
+            for (int i = 0; i < len; ++i) {
+                char c = value.charAt(i);
+                switch (c) {
+                case '&':
+                    out.write("&amp;");
+                    break;
+                case '<':
+                    out.write("&lt;");
+                    break;
+                case '>':
+                    out.write("&gt;");
+                    break;
+                case '"':
+                    out.write("&quot;");
+                    break;
+                case '\n':
+                    out.write("&#10;");
+                    break;
+                case '\r':
+                    out.write("&#13;");
+                    break;
+                case '\t':
+                    out.write("&#9;");
+                    break;
+                default:
+                    out.write(c);
+                }
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Writes a coordinate attribute with seven decimal places. The coordinate
+     * is given in microdegrees, so the last place is always zero.
+     */
+    private void writeCoordinate(String key, int valueE6) throws IOException {
+        out.write(' ');
+        out.write(key);
+        out.write("=\"");
+        int pos = digits.length;
+        long v = valueE6 < 0 ? -(long) valueE6 : valueE6;
+        digits[--pos] = '0';
+        for (int i = 0; i < 6; ++i) {
+            digits[--pos] = (char) ('0' + v % 10);
+            v /= 10;
+        }
+        digits[--pos] = '.';
+        do {
+            digits[--pos] = (char) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        if (valueE6 < 0) {
+            digits[--pos] = '-';
+        }
+        out.write(digits, pos, digits.length - pos);
+        out.write('"');
+    }
+
+    /**
+     * Writes a link tag for a medium.
+     */
+    private void writeMedia(String medianame) throws IOException {
+        out.write("<link");
+        writeAttribute("href", medianame);
+        out.write(" />");
+    }
+
+    /**
+     * Writes all nodes of a track together with their tags and media. The
+     * tags and media are read with cursors ordered by node and are merged with
+     * the nodes, which are ordered by id as well.
+     * 
+     * @return The number of written nodes.
+     */
+    private int writeNodes(long trackId) throws IOException {
+        Cursor nodes = NewDBNode.getCursorByTrack(trackId);
+        Cursor tags = NewDBTag.getNodeCursorByTrack(trackId);
+        Cursor media = NewDBMedia.getNodeCursorByTrack(trackId);
+        int count = 0;
+        try {
+            boolean hasTag = tags.moveToFirst();
+            boolean hasMedia = media.moveToFirst();
+            while (nodes.moveToNext()) {
+                ++count;
+                long id = nodes.getLong(0);
+                out.write("<node");
+                writeCoordinate("lat", nodes.getInt(2));
+                writeCoordinate("lon", nodes.getInt(3));
+                writeAttribute("id", getOutputId(id));
+                writeAttribute("timestamp", nodes.getString(1));
+                out.write(" version=\"1\">");
+
+                while (hasTag && tags.getLong(0) < id) {
+                    hasTag = tags.moveToNext();
+                }
+                while (hasTag && tags.getLong(0) == id) {
+                    writeTag(tags.getString(1), tags.getString(2));
+                    hasTag = tags.moveToNext();
+                }
+                while (hasMedia && media.getLong(0) < id) {
+                    hasMedia = media.moveToNext();
+                }
+                while (hasMedia && media.getLong(0) == id) {
+                    writeMedia(media.getString(1));
+                    hasMedia = media.moveToNext();
+                }
+
+                out.write("</node>");
+            }
+        } finally {
+            nodes.close();
+            tags.close();
+            media.close();
+        }
+        return count;
+    }
+
+    /**
+     * Writes a tag.
+     */
+    private void writeTag(String key, String value) throws IOException {
+        out.write("<tag");
+        writeAttribute("k", key);
+        writeAttribute("v", value);
+        out.write(" />");
+    }
+
+    /**
+     * Writes all ways of a track together with their node references, tags
+     * and media. Everything is read with cursors ordered by way which are
+     * merged with the ways.
+     */
+    private void writeWays(long trackId) throws IOException {
+        Cursor ways = NewDBPointsList.getCursorByTrack(trackId);
+        Cursor refs = NewDBNode.getWayCursorByTrack(trackId);
+        Cursor tags = NewDBTag.getWayCursorByTrack(trackId);
+        Cursor media = NewDBMedia.getWayCursorByTrack(trackId);
+        try {
+            boolean hasRef = refs.moveToFirst();
+            boolean hasTag = tags.moveToFirst();
+            boolean hasMedia = media.moveToFirst();
+            while (ways.moveToNext()) {
+                long id = ways.getLong(0);
+                out.write("<way version=\"1\"");
+                writeAttribute("timestamp", ways.getString(1));
+                writeAttribute("id", -id);
+                out.write('>');
+
+                while (hasRef && refs.getLong(0) < id) {
+                    hasRef = refs.moveToNext();
+                }
+                long firstRef = 0;
+                while (hasRef && refs.getLong(0) == id) {
+                    long ref = getOutputId(refs.getLong(1));
+                    if (firstRef == 0) {
+                        firstRef = ref;
+                    }
+                    writeRef(ref);
+                    hasRef = refs.moveToNext();
+                }
+                if (ways.getInt(2) != 0 && firstRef != 0) {
+                    writeRef(firstRef);
+                    writeTag("area", "yes");
+                }
+
+                while (hasTag && tags.getLong(0) < id) {
+                    hasTag = tags.moveToNext();
+                }
+                while (hasTag && tags.getLong(0) == id) {
+                    writeTag(tags.getString(1), tags.getString(2));
+                    hasTag = tags.moveToNext();
+                }
+                while (hasMedia && media.getLong(0) < id) {
+                    hasMedia = media.moveToNext();
+                }
+                while (hasMedia && media.getLong(0) == id) {
+                    writeMedia(media.getString(1));
+                    hasMedia = media.moveToNext();
+                }
+
+                out.write("</way>");
+            }
+        } finally {
+            ways.close();
+            refs.close();
+            tags.close();
+            media.close();
+        }
+    }
+
+    /**
+     * Writes a node reference of a way.
+     */
+    private void writeRef(long ref) throws IOException {
+        out.write("<nd");
+        writeAttribute("ref", ref);
+        out.write(" />");
     }
 }
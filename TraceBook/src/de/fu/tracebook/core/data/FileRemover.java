@@ -0,0 +1,107 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.core.data;
+
+import java.io.File;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import de.fu.tracebook.util.LogIt;
+
+/**
+ * Removes the directories of deleted tracks in the background. The rows of a
+ * track are deleted from the database at once, its directory with all media
+ * files is queued here and removed by a daemon thread, so deleting tracks
+ * never waits for the file system.
+ * <p>
+ * Before a directory is queued it is renamed to a unique tombstone name. A
+ * new track with the name of a deleted one gets a new directory that the
+ * background thread never touches, even if it has not yet removed the old
+ * one. Tombstones left behind when the process was killed are removed when
+ * the thread starts.
+ */
+final class FileRemover extends Thread {
+
+    /**
+     * Prefix of the names of the directories waiting for removal.
+     */
+    private static final String TOMBSTONE_PREFIX = ".deleted-";
+
+    private static FileRemover instance = null;
+
+    private static int tombstones = 0;
+
+    /**
+     * Renames a track directory to a tombstone and queues it for removal. The
+     * directory and the files in it are removed by the background thread,
+     * which is started when the first directory is queued.
+     * 
+     * @param dir
+     *            The directory to remove.
+     */
+    static synchronized void remove(File dir) {
+        if (instance == null) {
+            instance = new FileRemover();
+            File[] leftovers = dir.getParentFile().listFiles();
+            if (leftovers != null) {
+                for (File f : leftovers) {
+                    if (f.getName().startsWith(TOMBSTONE_PREFIX)) {
+                        instance.queue.add(f);
+                    }
+                }
+            }
+            instance.start();
+        }
+        if (!dir.exists()) {
+            return;
+        }
+        File tombstone = new File(dir.getParentFile(), TOMBSTONE_PREFIX
+                + System.currentTimeMillis() + "-" + (tombstones++) + "-"
+                + dir.getName());
+        if (dir.renameTo(tombstone)) {
+            instance.queue.add(tombstone);
+        } else {
+            // never queue the real name, a new track may get it
+            LogIt.e("Could not rename directory " + dir.getName()
+                    + ", deleting it now");
+            NewStorage.deleteDirectory(dir);
+        }
+    }
+
+    private final BlockingQueue<File> queue = new LinkedBlockingQueue<File>();
+
+    private FileRemover() {
+        super("FileRemover");
+        setDaemon(true);
+        setPriority(MIN_PRIORITY);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                NewStorage.deleteDirectory(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
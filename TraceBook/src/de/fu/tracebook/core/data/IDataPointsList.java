@@ -51,9 +51,18 @@ public interface IDataPointsList extends IDataMapObject {
     IDataNode getNodeById(int nodeId);
 
     /**
-     * Getter-method that returns a list of all nodes. The returned List is the
-     * one stored in this object. Changing the returned List will therefore
-     * change this list
+     * Returns the coordinates, time stamps and ids of all nodes of this way in
+     * a compact array representation. Prefer this method over
+     * {@link #getNodes()} when many nodes have to be read.
+     * 
+     * @return The nodes of this way in the order of the way. (not null)
+     */
+    NodeArray getNodeArray();
+
+    /**
+     * Getter-method that returns a list of all nodes. The returned List is a
+     * read-only view of {@link #getNodeArray()}, the node objects are created
+     * when they are accessed.
      * 
      * @return The list of all nodes stored in this object. (not null)
      */
@@ -78,6 +87,25 @@ public interface IDataPointsList extends IDataMapObject {
      */
     IDataNode newNode(GeoPoint location);
 
+    /**
+     * Add several new Nodes at the end of the list. All nodes are stored at
+     * once, which is much cheaper than calling {@link #newNode(GeoPoint)} for
+     * each of them.
+     * 
+     * @param latitudes
+     *            The latitudes of the nodes in microdegrees.
+     * @param longitudes
+     *            The longitudes of the nodes in microdegrees.
+     * @param times
+     *            The time of each node in milliseconds since January 1, 1970
+     *            UTC.
+     * @param count
+     *            The number of nodes to add, only the first count entries of
+     *            the arrays are used.
+     * @return The ids of the newly created nodes in the same order.
+     */
+    long[] newNodes(int[] latitudes, int[] longitudes, long[] times, int count);
+
     /**
      * Setter-method.
      * 
@@ -20,6 +20,7 @@
 
 package de.fu.tracebook.core.data;
 
+import java.util.Collection;
 import java.util.List;
 
 import de.fu.tracebook.core.overlays.OverlayManager;
@@ -29,6 +30,19 @@ import de.fu.tracebook.core.overlays.OverlayManager;
  */
 public interface IDataStorage {
 
+    /**
+     * Runs a callback once all changes to tracks, ways, nodes and media made
+     * so far are stored. Changes are written in the background and the
+     * methods making them return at once, so this can be used to wait for
+     * them without blocking the calling thread.
+     * 
+     * @param callback
+     *            Is run on the thread writing the database, not on the
+     *            calling thread. It is told whether all changes made since
+     *            the last call of this method have been stored.
+     */
+    void afterWrites(IWriteCallback callback);
+
     /**
      * Deletes a track completely.
      * 
@@ -37,6 +51,19 @@ public interface IDataStorage {
      */
     void deleteTrack(String trackname);
 
+    /**
+     * Deletes several tracks completely. The tracks are removed from the
+     * database in a single transaction, their directories and media files are
+     * removed in the background afterwards.
+     * 
+     * @param tracknames
+     *            The names of the tracks to delete. Names of tracks that do not
+     *            exist are ignored.
+     * @return False if the database could not be changed. No track has been
+     *         deleted then.
+     */
+    boolean deleteTracks(Collection<String> tracknames);
+
     /**
      * Loads the complete Track (with everything it contains) into working
      * memory. If such a Track does not exist nothing is done.
@@ -99,6 +126,34 @@ public interface IDataStorage {
      */
     IDataTrack getTrack();
 
+    /**
+     * Returns a part of the list of the summaries of all tracks. The list is
+     * sorted and filtered by the database, so only the requested part of it is
+     * read.
+     * 
+     * @param filter
+     *            Only tracks whose name contains this text are listed. May be
+     *            null or empty to list all tracks.
+     * @param sortByName
+     *            Sort by name if true, otherwise by time, newest first.
+     * @param offset
+     *            The position of the first track in the list.
+     * @param count
+     *            The maximum number of tracks to return.
+     * @return The summaries, may be empty.
+     */
+    List<IDataTrackSummary> getTrackSummaries(String filter,
+            boolean sortByName, int offset, int count);
+
+    /**
+     * Returns the summary of a track.
+     * 
+     * @param trackname
+     *            The name of the track.
+     * @return The summary or null if the track does not exist.
+     */
+    IDataTrackSummary getTrackSummary(String trackname);
+
     /**
      * Create a new Track in working memory. Don't forget to serialize it!
      * 
@@ -81,9 +81,17 @@ public interface IDataTrack extends IDataMediaHolder {
     IDataNode getNodeById(long nodeId);
 
     /**
-     * Getter-method that returns a list of all nodes. The returned List is the
-     * one stored in this object. Changing the returned List will therefore
-     * change this list
+     * Returns the coordinates, time stamps and ids of all POIs of this Track in
+     * a compact array representation.
+     * 
+     * @return All POI's of this Track. (not null)
+     */
+    NodeArray getNodeArray();
+
+    /**
+     * Getter-method that returns a list of all nodes. The returned List is a
+     * read-only view of {@link #getNodeArray()}, the node objects are created
+     * when they are accessed.
      * 
      * @return All POI's of this Track. (not null)
      */
@@ -98,6 +106,15 @@ public interface IDataTrack extends IDataMediaHolder {
      */
     IDataPointsList getPointsListById(long wayId);
 
+    /**
+     * Returns the statistics of the ways of this track. They are kept up to
+     * date while nodes are added, so calling this method does not read the
+     * nodes of the track.
+     * 
+     * @return The statistics.
+     */
+    TrackStatistics getStatistics();
+
     /**
      * Returns the complete absolute path to this Track directory.
      * 
@@ -114,6 +131,16 @@ public interface IDataTrack extends IDataMediaHolder {
      */
     List<IDataPointsList> getWays();
 
+    /**
+     * Returns the nodes of all Ways of this Track in a compact array
+     * representation. The nodes are grouped by Way, see
+     * {@link NodeArray#getWayId(int)}, and each group is in the order of its
+     * Way.
+     * 
+     * @return The nodes of all Ways of this Track. (not null)
+     */
+    NodeArray getWayNodeArray();
+
     /**
      * Returns true of this track is new and was not loaded.
      * 
@@ -121,6 +148,17 @@ public interface IDataTrack extends IDataMediaHolder {
      */
     boolean isNew();
 
+    /**
+     * Loads all Ways of this Track together with their nodes, tags and media.
+     * Other than {@link #getWays()} the data is read with a constant number of
+     * queries, no matter how many Ways the Track has. The loaded data of a Way
+     * is kept in the returned object until the nodes, tags or media of that
+     * Way change.
+     * 
+     * @return All Ways of this Track. (not null)
+     */
+    List<IDataPointsList> loadWays();
+
     /**
      * Create a new Node (i.e. POI) and add it to the Track
      * 
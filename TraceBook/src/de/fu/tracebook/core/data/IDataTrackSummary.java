@@ -0,0 +1,108 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.core.data;
+
+import org.mapsforge.android.maps.GeoPoint;
+
+/**
+ * The summary of a track as shown in the list of tracks. It is read without
+ * loading the nodes of the track.
+ */
+public interface IDataTrackSummary {
+
+    /**
+     * Returns the bounding box of all nodes of the track.
+     * 
+     * @return The south west and the north east corner of the bounding box or
+     *         null if no node of the track has a position.
+     */
+    GeoPoint[] getBoundingBox();
+
+    /**
+     * Getter-method.
+     * 
+     * @return The comment of the Track.
+     */
+    String getComment();
+
+    /**
+     * Getter-method.
+     * 
+     * @return The creation time stamp of the Track.
+     */
+    String getDatetime();
+
+    /**
+     * Returns the time span from the oldest to the newest node of the track.
+     * 
+     * @return The duration in milliseconds, 0 if the track has no nodes.
+     */
+    long getDuration();
+
+    /**
+     * Returns the time of the last change of the track.
+     * 
+     * @return The time in milliseconds since the epoch.
+     */
+    long getLastModified();
+
+    /**
+     * Returns the summed up length of all ways of the track.
+     * 
+     * @return The length in meters.
+     */
+    double getLength();
+
+    /**
+     * Returns the number of media of the track, its POIs and its ways.
+     * 
+     * @return The number of media.
+     */
+    int getMediaCount();
+
+    /**
+     * Getter-method.
+     * 
+     * @return The name of the Track.
+     */
+    String getName();
+
+    /**
+     * Returns the number of POIs of the track.
+     * 
+     * @return The number of POIs.
+     */
+    int getPoiCount();
+
+    /**
+     * Returns the number of ways and areas of the track.
+     * 
+     * @return The number of ways.
+     */
+    int getWayCount();
+
+    /**
+     * Returns the number of nodes of all ways of the track.
+     * 
+     * @return The number of way points.
+     */
+    int getWaypointCount();
+}
@@ -0,0 +1,38 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.core.data;
+
+/**
+ * Is told when changes that were queued for the database have been written.
+ * Callbacks are run on the thread writing the database, not on the thread
+ * that queued the changes.
+ */
+public interface IWriteCallback {
+    /**
+     * Called once the changes have been written or have failed.
+     * 
+     * @param success
+     *            True if all changes the callback waited for have been
+     *            committed, false if at least one of them failed and was
+     *            rolled back.
+     */
+    public void onWritten(boolean success);
+}
@@ -22,6 +22,7 @@ package de.fu.tracebook.core.data;
 
 import org.mapsforge.android.maps.GeoPoint;
 
+import de.fu.tracebook.core.data.implementation.DBOpenHelper;
 import de.fu.tracebook.core.data.implementation.NewDBBug;
 
 /**
@@ -75,16 +76,26 @@ public class NewBug implements IDataBug {
     }
 
     public void removeFromDb() {
-        NewDBBug dbbug = NewDBBug.getById(id);
-        dbbug.delete();
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                NewDBBug dbbug = NewDBBug.getById(id);
+                if (dbbug != null) {
+                    dbbug.delete();
+                }
+            }
+        });
     }
 
-    public void setDescription(String description) {
+    public void setDescription(final String description) {
         desc = description;
-        NewDBBug bug = NewDBBug.getById(id);
-        if (bug != null) {
-            bug.description = description;
-            bug.save();
-        }
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                NewDBBug bug = NewDBBug.getById(id);
+                if (bug != null) {
+                    bug.description = description;
+                    bug.save();
+                }
+            }
+        });
     }
 }
@@ -36,6 +36,7 @@ import org.mapsforge.android.maps.OverlayItem;
 
 import android.os.AsyncTask;
 import de.fu.tracebook.R;
+import de.fu.tracebook.core.data.implementation.DBOpenHelper;
 import de.fu.tracebook.core.data.implementation.NewDBBug;
 import de.fu.tracebook.core.overlays.BugOverlayItem;
 import de.fu.tracebook.core.overlays.BugOverlayItem.BugType;
@@ -47,6 +48,14 @@ import de.fu.tracebook.util.LogIt;
  */
 public class NewBugManager implements IBugManager {
 
+    /**
+     * Returns the id of the current track, which the user recorded bugs refer
+     * to.
+     */
+    private static long getTrackId() {
+        return ((NewTrack) StorageFactory.getStorage().getTrack()).getId();
+    }
+
     /**
      * The list of OpenStreetBugs.
      */
@@ -59,11 +68,15 @@ public class NewBugManager implements IBugManager {
      *            The bug to add.
      */
     public void addBug(IDataBug bug) {
-        NewDBBug newBug = new NewDBBug();
+        final NewDBBug newBug = new NewDBBug();
         newBug.description = bug.getDescription();
         newBug.point = bug.getPosition();
-        newBug.track = StorageFactory.getStorage().getTrack().getName();
-        newBug.insert();
+        newBug.track = getTrackId();
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                newBug.insert();
+            }
+        });
     }
 
     /**
@@ -161,8 +174,7 @@ public class NewBugManager implements IBugManager {
      */
     public Collection<OverlayItem> getBugOverlays() {
         ArrayList<OverlayItem> items = new ArrayList<OverlayItem>();
-        List<NewDBBug> dbbugs = NewDBBug.getByTrack(StorageFactory.getStorage()
-                .getTrack().getName());
+        List<NewDBBug> dbbugs = NewDBBug.getByTrack(getTrackId());
         for (NewDBBug bug : dbbugs) {
             items.add(new BugOverlayItem(new NewBug(bug), BugType.USERBUG));
         }
@@ -179,8 +191,7 @@ public class NewBugManager implements IBugManager {
      */
     public List<IDataBug> getBugs() {
         ArrayList<IDataBug> items = new ArrayList<IDataBug>();
-        List<NewDBBug> dbbugs = NewDBBug.getByTrack(StorageFactory.getStorage()
-                .getTrack().getName());
+        List<NewDBBug> dbbugs = NewDBBug.getByTrack(getTrackId());
         for (NewDBBug bug : dbbugs) {
             items.add(new NewBug(bug));
         }
@@ -207,8 +218,7 @@ public class NewBugManager implements IBugManager {
      * @return The size of the list of user recorded bugs.
      */
     public int size() {
-        return NewDBBug.getByTrack(
-                StorageFactory.getStorage().getTrack().getName()).size();
+        return NewDBBug.getByTrack(getTrackId()).size();
     }
 
     /**
@@ -22,7 +22,9 @@ package de.fu.tracebook.core.data;
 
 import java.io.File;
 
+import de.fu.tracebook.core.data.implementation.DBOpenHelper;
 import de.fu.tracebook.core.data.implementation.NewDBMedia;
+import de.fu.tracebook.core.data.implementation.NewDBTrackSummary;
 import de.fu.tracebook.util.LogIt;
 
 /**
@@ -93,7 +95,11 @@ public class NewMedia implements IDataMedia {
         this.thisMedium = new NewDBMedia();
         thisMedium.path = path;
         thisMedium.name = filename;
-        thisMedium.insert();
+        DBOpenHelper.getInstance().write(new Runnable() {
+            public void run() {
+                thisMedium.insert();
+            }
+        });
     }
 
     public void delete() {
@@ -103,7 +109,14 @@ public class NewMedia implements IDataMedia {
                 LogIt.w("Could not delete medium");
             }
         }
-        thisMedium.delete();
+        final NewDBMedia row = thisMedium.copy();
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                NewDBTrackSummary.removeMedia(row);
+                row.delete();
+                NewPointsList.changed(row.way);
+            }
+        });
     }
 
     /**
@@ -141,7 +154,13 @@ public class NewMedia implements IDataMedia {
             LogIt.e("Could not rename medium.");
         } else {
             thisMedium.name = newname;
-            thisMedium.save();
+            final NewDBMedia row = thisMedium.copy();
+            DBOpenHelper.getInstance().post(new Runnable() {
+                public void run() {
+                    row.save();
+                    NewPointsList.changed(row.way);
+                }
+            });
         }
 
     }
@@ -27,21 +27,34 @@ import java.util.Map;
 
 import org.mapsforge.android.maps.GeoPoint;
 
+import de.fu.tracebook.core.data.implementation.DBOpenHelper;
 import de.fu.tracebook.core.data.implementation.NewDBMedia;
 import de.fu.tracebook.core.data.implementation.NewDBNode;
 import de.fu.tracebook.core.data.implementation.NewDBPointsList;
 import de.fu.tracebook.core.data.implementation.NewDBTag;
 import de.fu.tracebook.core.data.implementation.NewDBTrack;
+import de.fu.tracebook.core.data.implementation.NewDBTrackSummary;
+import de.fu.tracebook.core.data.implementation.NewDBWayStatistics;
 
 /**
  * The IDataNode implementation using ORMLite. It represents a single coordinate
  * and can be a point of interest.
- * 
+ * <p>
+ * Changes are queued for the writer thread of the database and the methods
+ * return at once, see {@link DBOpenHelper#post(Runnable)}. Only creating a
+ * node waits for the database, as the id of the node is needed.
  */
 public class NewNode implements IDataNode {
 
+    /**
+     * Marks the POIs read for the map as stale. It is called by the jobs that
+     * change POIs on the database writer, after the change has been written.
+     */
+    static void poisChanged() {
+        StorageFactory.getStorage().getOverlayManager().invalidatePois();
+    }
+
     private long id;
-    private long outputNodeId = 0;
     private NewDBNode thisNode;
 
     /**
@@ -52,7 +65,7 @@ public class NewNode implements IDataNode {
      * @param way
      *            The parent way.
      */
-    public NewNode(GeoPoint coordinates, NewDBPointsList way) {
+    public NewNode(GeoPoint coordinates, final NewDBPointsList way) {
         thisNode = new NewDBNode();
         if (coordinates != null) {
             thisNode.latitude = coordinates.getLatitudeE6();
@@ -60,7 +73,19 @@ public class NewNode implements IDataNode {
         }
         thisNode.way = way.id;
         thisNode.datetime = NewTrack.getW3CFormattedTimeStamp();
-        thisNode.insert();
+        final int[] latitudes = new int[] { thisNode.latitude };
+        final int[] longitudes = new int[] { thisNode.longitude };
+        final long[] times = new long[] { System.currentTimeMillis() };
+        DBOpenHelper.getInstance().write(new Runnable() {
+            public void run() {
+                double length = NewDBWayStatistics.addNodes(way.id, latitudes,
+                        longitudes, times, 1);
+                NewDBTrackSummary.addWayNodes(way.id, latitudes, longitudes,
+                        times, 1, length);
+                thisNode.insert();
+                NewPointsList.changed(way.id);
+            }
+        });
         this.id = thisNode.id;
     }
 
@@ -72,15 +97,23 @@ public class NewNode implements IDataNode {
      * @param track
      *            The parent track.
      */
-    public NewNode(GeoPoint coordinates, NewDBTrack track) {
+    public NewNode(GeoPoint coordinates, final NewDBTrack track) {
         thisNode = new NewDBNode();
         if (coordinates != null) {
             thisNode.latitude = coordinates.getLatitudeE6();
             thisNode.longitude = coordinates.getLongitudeE6();
         }
         thisNode.datetime = NewTrack.getW3CFormattedTimeStamp();
-        thisNode.track = track.name;
-        thisNode.insert();
+        thisNode.track = track.id;
+        final long time = System.currentTimeMillis();
+        DBOpenHelper.getInstance().write(new Runnable() {
+            public void run() {
+                thisNode.insert();
+                NewDBTrackSummary.addPoi(track.id, thisNode.latitude,
+                        thisNode.longitude, time);
+                poisChanged();
+            }
+        });
         this.id = thisNode.id;
     }
 
@@ -97,26 +130,43 @@ public class NewNode implements IDataNode {
     }
 
     public void addMedia(IDataMedia medium) {
-        NewDBMedia media = ((NewMedia) medium).getDBMedia();
+        final NewDBMedia media = ((NewMedia) medium).getDBMedia();
         media.node = id;
-        media.insert();
+        DBOpenHelper.getInstance().write(new Runnable() {
+            public void run() {
+                media.insert();
+                NewDBTrackSummary.addMedia(media);
+            }
+        });
     }
 
     public void addTag(String key, String value) {
-        NewDBTag tag = new NewDBTag();
+        final NewDBTag tag = new NewDBTag();
         tag.key = key;
         tag.value = value;
         tag.node = id;
-        tag.insert();
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                tag.insert();
+            }
+        });
     }
 
     /**
      * Deletes this node from Database.
      */
     public void delete() {
-        NewDBMedia.deleteByNode(id);
-        NewDBTag.deleteByNode(id);
-        thisNode.delete();
+        final NewDBNode row = thisNode.copy();
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                NewDBTrackSummary.invalidateByNode(row.id);
+                NewDBWayStatistics.deleteByWay(row.way);
+                NewDBMedia.deleteByNode(row.id);
+                NewDBTag.deleteByNode(row.id);
+                row.delete();
+                NewPointsList.changed(row.way);
+            }
+        });
     }
 
     public void deleteMedia(int mId) {
@@ -131,7 +181,11 @@ public class NewNode implements IDataNode {
     }
 
     public void deleteTag(String key) {
-        NewDBTag.deleteByNode(id);
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                NewDBTag.deleteByNode(id);
+            }
+        });
     }
 
     /*
@@ -190,16 +244,6 @@ public class NewNode implements IDataNode {
         return media;
     }
 
-    /**
-     * @return the outputNode
-     */
-    public long getOutputId() {
-        if (outputNodeId == 0) {
-            outputNodeId = StorageFactory.getStorage().getID();
-        }
-        return outputNodeId;
-    }
-
     public Map<String, String> getTags() {
         return new TagMap(NewDBTag.getByNode(id), this, null);
     }
@@ -224,8 +268,22 @@ public class NewNode implements IDataNode {
     }
 
     public void setDataPointsList(IDataPointsList way) {
+        final long oldWay = thisNode.way;
         thisNode.way = way.getId();
-        thisNode.save();
+        final NewDBNode row = thisNode.copy();
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                // the summaries of the old and the new track are stale
+                NewDBTrackSummary.invalidateByNode(row.id);
+                NewDBWayStatistics.deleteByWay(oldWay);
+                row.save();
+                NewDBWayStatistics.deleteByWay(row.way);
+                NewDBTrackSummary.invalidateByNode(row.id);
+                NewPointsList.changed(oldWay);
+                NewPointsList.changed(row.way);
+                poisChanged();
+            }
+        });
     }
 
     /**
@@ -235,18 +293,47 @@ public class NewNode implements IDataNode {
      *            The track this node belongs to.
      */
     public void setDataTrack(IDataTrack track) {
-        thisNode.track = track.getName();
-        thisNode.save();
+        thisNode.track = ((NewTrack) track).getId();
+        final NewDBNode row = thisNode.copy();
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                // the summaries of the old and the new track are stale
+                NewDBTrackSummary.invalidateByNode(row.id);
+                row.save();
+                NewDBTrackSummary.invalidateByNode(row.id);
+                poisChanged();
+            }
+        });
     }
 
     public void setDatetime(String datetime) {
         thisNode.datetime = datetime;
-        thisNode.save();
+        save();
     }
 
     public void setLocation(GeoPoint gp) {
         thisNode.latitude = gp.getLatitudeE6();
         thisNode.longitude = gp.getLongitudeE6();
-        thisNode.save();
+        save();
+    }
+
+    /**
+     * Queues writing the node after its time or position has changed. The
+     * statistics of its way and the summary of its track are stale then. A
+     * copy of the node is written, so later changes do not affect it.
+     */
+    private void save() {
+        final NewDBNode row = thisNode.copy();
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                row.save();
+                NewDBWayStatistics.deleteByWay(row.way);
+                NewDBTrackSummary.invalidateByNode(row.id);
+                NewPointsList.changed(row.way);
+                if (row.track != 0) {
+                    poisChanged();
+                }
+            }
+        });
     }
 }
@@ -20,7 +20,9 @@
 
 package de.fu.tracebook.core.data;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -28,18 +30,71 @@ import java.util.Map;
 
 import org.mapsforge.android.maps.GeoPoint;
 
+import de.fu.tracebook.core.data.implementation.DBOpenHelper;
 import de.fu.tracebook.core.data.implementation.NewDBMedia;
 import de.fu.tracebook.core.data.implementation.NewDBNode;
 import de.fu.tracebook.core.data.implementation.NewDBPointsList;
 import de.fu.tracebook.core.data.implementation.NewDBTag;
 import de.fu.tracebook.core.data.implementation.NewDBTrack;
+import de.fu.tracebook.core.data.implementation.NewDBTrackSummary;
+import de.fu.tracebook.core.data.implementation.NewDBWayStatistics;
+import de.fu.tracebook.util.LongMap;
 
 /**
  * The implementation of IDataPointsList using a SQLite database.
  */
 public class NewPointsList implements IDataPointsList {
 
+    /**
+     * The generation of the data of every way that has been changed, see
+     * {@link #getGeneration(long)}.
+     */
+    private static final LongMap<Integer> generations = new LongMap<Integer>();
+
+    private static int lastGeneration = 0;
+
+    /**
+     * Marks the nodes, tags or media of a way as changed. It is called by the
+     * jobs that change them on the database writer, after the change has been
+     * written.
+     * 
+     * @param wayId
+     *            The id of the way.
+     */
+    static synchronized void changed(long wayId) {
+        generations.put(wayId, Integer.valueOf(++lastGeneration));
+    }
+
+    /**
+     * Forgets the generation of a way that has been deleted, so the table of
+     * generations does not grow with every way ever changed.
+     * 
+     * @param wayId
+     *            The id of the way.
+     */
+    static synchronized void deleted(long wayId) {
+        generations.remove(wayId);
+    }
+
+    /**
+     * Returns a number that changes whenever the nodes, tags or media of a way
+     * are changed. It is read before the data of the way is loaded and used to
+     * find out whether the loaded data is still up to date.
+     * 
+     * @param wayId
+     *            The id of the way.
+     * @return The current generation of the data of the way.
+     */
+    static synchronized int getGeneration(long wayId) {
+        Integer generation = generations.get(wayId);
+        return generation == null ? 0 : generation.intValue();
+    }
+
     private long id;
+    private int loadedGeneration;
+    private List<NewDBMedia> loadedMedia = null;
+    private NodeArray loadedNodes = null;
+    private List<NewDBTag> loadedTags = null;
     private List<NewNode> pois = new ArrayList<NewNode>();
     private NewDBPointsList thisWay;
 
@@ -54,46 +109,103 @@ public class NewPointsList implements IDataPointsList {
         this.id = newway.id;
     }
 
+    /**
+     * Creates a NewPointsList object out of an existing database entry whose
+     * nodes, tags and media have already been loaded. The loaded data is used
+     * until the nodes, tags or media of this way are changed, afterwards the
+     * data is read from the database again.
+     * 
+     * @param newway
+     *            The way as saved in the database.
+     * @param nodes
+     *            The nodes of the way.
+     * @param tags
+     *            The tags of the way.
+     * @param media
+     *            The media of the way.
+     * @param generation
+     *            The generation of the data of the way before it was read,
+     *            see {@link #getGeneration(long)}.
+     */
+    NewPointsList(NewDBPointsList newway, NodeArray nodes,
+            List<NewDBTag> tags, List<NewDBMedia> media, int generation) {
+        this(newway);
+        this.loadedNodes = nodes;
+        this.loadedTags = tags;
+        this.loadedMedia = media;
+        this.loadedGeneration = generation;
+    }
+
     /**
      * Creates a new way.
      * 
      * @param track
      *            The track saved in the database.
      */
-    public NewPointsList(NewDBTrack track) {
+    public NewPointsList(final NewDBTrack track) {
         thisWay = new NewDBPointsList();
         thisWay.datetime = NewTrack.getW3CFormattedTimeStamp();
-        thisWay.track = track.name;
+        thisWay.track = track.id;
         thisWay.isArea = false;
-        thisWay.insert();
+        DBOpenHelper.getInstance().write(new Runnable() {
+            public void run() {
+                thisWay.insert();
+                NewDBTrackSummary.addWay(track.id);
+            }
+        });
         this.id = thisWay.id;
     }
 
     public void addMedia(IDataMedia medium) {
-        NewDBMedia media = ((NewMedia) medium).getDBMedia();
+        final NewDBMedia media = ((NewMedia) medium).getDBMedia();
         media.way = id;
-        media.insert();
+        DBOpenHelper.getInstance().write(new Runnable() {
+            public void run() {
+                media.insert();
+                NewDBTrackSummary.addMedia(media);
+                changed(media.way);
+            }
+        });
     }
 
     public void addTag(String key, String value) {
-        NewDBTag tag = new NewDBTag();
+        final NewDBTag tag = new NewDBTag();
         tag.key = key;
         tag.value = value;
         tag.way = id;
-        tag.insert();
-
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                tag.insert();
+                changed(tag.way);
+            }
+        });
     }
 
     /**
      * Deletes this way.
      */
     public void delete() {
-        NewDBMedia.deleteByWay(id);
-        NewDBTag.deleteByWay(id);
-        for (IDataNode n : getNodes()) {
-            ((NewNode) n).delete();
-        }
-        this.thisWay.delete();
+        final NewDBPointsList row = thisWay.copy();
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                NewDBTrackSummary.invalidateByWay(row.id);
+                NewDBWayStatistics.deleteByWay(row.id);
+                NewDBMedia.deleteByWay(row.id);
+                NewDBTag.deleteByWay(row.id);
+                NodeArray nodes = NewDBNode.getArrayByWay(row.id);
+                for (IDataNode n : new NodeArrayView(nodes, 0)) {
+                    ((NewNode) n).delete();
+                }
+                row.delete();
+                // the nodes are deleted by the jobs posted above, which mark
+                // the way as changed, so forget it after them
+                DBOpenHelper.getInstance().post(new Runnable() {
+                    public void run() {
+                        deleted(row.id);
+                    }
+                });
+            }
+        });
     }
 
     public void deleteMedia(int id1) {
@@ -112,13 +224,19 @@ public class NewPointsList implements IDataPointsList {
         return null;
     }
 
-    public void deleteTag(String key) {
-        List<NewDBTag> tags = NewDBTag.getByWay(id);
-        for (NewDBTag tag : tags) {
-            if (tag.key.equals(key)) {
-                tag.delete();
+    public void deleteTag(final String key) {
+        final long wayId = id;
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                List<NewDBTag> tags = NewDBTag.getByWay(wayId);
+                for (NewDBTag tag : tags) {
+                    if (tag.key.equals(key)) {
+                        tag.delete();
+                    }
+                }
+                changed(wayId);
             }
-        }
+        });
     }
 
     /*
@@ -158,7 +276,8 @@ public class NewPointsList implements IDataPointsList {
 
     public List<IDataMedia> getMedia() {
         List<IDataMedia> media = new LinkedList<IDataMedia>();
-        List<NewDBMedia> dbmedia = NewDBMedia.getByWay(id);
+        List<NewDBMedia> dbmedia = isLoaded() ? loadedMedia : NewDBMedia
+                .getByWay(id);
         for (NewDBMedia m : dbmedia) {
             media.add(new NewMedia(m));
         }
@@ -182,21 +301,29 @@ public class NewPointsList implements IDataPointsList {
         return newnode;
     }
 
-    public List<IDataNode> getNodes() {
-        List<IDataNode> nodes = new LinkedList<IDataNode>();
-        List<NewDBNode> dbnodes = NewDBNode.getByWay(id);
-        for (NewDBNode n : dbnodes) {
-            nodes.add(new NewNode(n));
+    public NodeArray getNodeArray() {
+        if (isLoaded()) {
+            return loadedNodes;
         }
-        return nodes;
+        return NewDBNode.getArrayByWay(id);
+    }
+
+    public List<IDataNode> getNodes() {
+        return new NodeArrayView(getNodeArray(), 0);
     }
 
     public Map<String, String> getTags() {
+        if (isLoaded()) {
+            return new TagMap(new ArrayList<NewDBTag>(loadedTags), null, this);
+        }
         return new TagMap(NewDBTag.getByWay(id), null, this);
     }
 
     public boolean hasAdditionalInfo() {
-        return !(NewDBTag.getByNode(id).isEmpty() && NewDBMedia.getByNode(id)
+        if (isLoaded()) {
+            return !(loadedTags.isEmpty() && loadedMedia.isEmpty());
+        }
+        return !(NewDBTag.getByWay(id).isEmpty() && NewDBMedia.getByWay(id)
                 .isEmpty());
     }
 
@@ -219,29 +346,78 @@ public class NewPointsList implements IDataPointsList {
         return node;
     }
 
+    public long[] newNodes(final int[] latitudes, final int[] longitudes,
+            final long[] times, final int count) {
+        SimpleDateFormat sdf = NewTrack.getW3CDateFormat();
+        final NewDBNode[] nodes = new NewDBNode[count];
+        for (int i = 0; i < count; ++i) {
+            NewDBNode node = new NewDBNode();
+            node.latitude = latitudes[i];
+            node.longitude = longitudes[i];
+            node.way = id;
+            node.datetime = sdf.format(new Date(times[i]));
+            nodes[i] = node;
+        }
+        DBOpenHelper.getInstance().write(new Runnable() {
+            public void run() {
+                double length = NewDBWayStatistics.addNodes(id, latitudes,
+                        longitudes, times, count);
+                NewDBTrackSummary.addWayNodes(id, latitudes, longitudes,
+                        times, count, length);
+                NewDBNode.insertAll(nodes);
+                changed(id);
+            }
+        });
+
+        long[] ids = new long[count];
+        for (int i = 0; i < count; ++i) {
+            ids[i] = nodes[i].id;
+        }
+        return ids;
+    }
+
     public void setArea(boolean isArea) {
         thisWay.isArea = isArea;
-        thisWay.save();
+        save();
     }
 
     public void setDatetime(String datetime) {
         thisWay.datetime = datetime;
-        thisWay.save();
-
+        save();
     }
 
     public GeoPoint[] toGeoPointArray(GeoPoint additional) {
-        List<IDataNode> nodes = this.getNodes();
-        GeoPoint[] ret = new GeoPoint[nodes.size() + (isArea() ? 1 : 0)];
-        int i = 0;
-        for (IDataNode node : nodes) {
-            ret[i] = node.getCoordinates();
-            ++i;
+        return getNodeArray().toGeoPointArray(isArea());
+    }
+
+    /**
+     * Checks whether the data loaded together with this way is still up to
+     * date.
+     */
+    private boolean isLoaded() {
+        if (loadedNodes == null) {
+            return false;
         }
-        if (isArea()) {
-            ret[i] = ret[0];
+        if (loadedGeneration != getGeneration(id)) {
+            // something changed, forget the loaded data
+            loadedNodes = null;
+            loadedTags = null;
+            loadedMedia = null;
+            return false;
         }
+        return true;
+    }
 
-        return ret;
+    /**
+     * Queues writing the way after it has changed. A copy of the way is
+     * written, so later changes do not affect it.
+     */
+    private void save() {
+        final NewDBPointsList row = thisWay.copy();
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                row.save();
+            }
+        });
     }
 }
@@ -22,9 +22,13 @@ package de.fu.tracebook.core.data;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import android.os.Environment;
+import de.fu.tracebook.core.data.implementation.DBOpenHelper;
+import de.fu.tracebook.core.data.implementation.NewDBPointsList;
 import de.fu.tracebook.core.data.implementation.NewDBTrack;
 import de.fu.tracebook.core.overlays.OverlayManager;
 import de.fu.tracebook.util.LogIt;
@@ -123,20 +127,52 @@ public class NewStorage implements IDataStorage {
         // do nothing, just reduce visibility.
     }
 
+    public void afterWrites(IWriteCallback callback) {
+        DBOpenHelper.getInstance().post(null, callback);
+    }
+
     public void deleteTrack(String trackname) {
-        NewDBTrack dbtrack = NewDBTrack.getById(trackname);
-        if (dbtrack == null) {
-            return;
-        }
+        deleteTracks(Collections.singleton(trackname));
+    }
 
-        NewTrack existingTrack = new NewTrack(dbtrack);
-        existingTrack.delete();
-        deleteDirectory(new File(getTrackDirPath(trackname)));
+    public boolean deleteTracks(Collection<String> tracknames) {
+        final List<NewDBTrack> tracks = new ArrayList<NewDBTrack>();
+        for (String name : tracknames) {
+            NewDBTrack dbtrack = NewDBTrack.getByName(name);
+            if (dbtrack != null) {
+                tracks.add(dbtrack);
+            }
+        }
+        if (tracks.isEmpty()) {
+            return true;
+        }
 
+        final List<Long> ways = new ArrayList<Long>();
+        if (!DBOpenHelper.getInstance().write(new Runnable() {
+            public void run() {
+                for (NewDBTrack dbtrack : tracks) {
+                    for (NewDBPointsList way : NewDBPointsList
+                            .getByTrack(dbtrack.id)) {
+                        ways.add(Long.valueOf(way.id));
+                    }
+                }
+                NewDBTrack.deleteAll(tracks);
+            }
+        })) {
+            // keep the files of tracks that are still in the database
+            return false;
+        }
+        for (Long way : ways) {
+            NewPointsList.deleted(way.longValue());
+        }
+        for (NewDBTrack dbtrack : tracks) {
+            FileRemover.remove(new File(getTraceBookDirPath(), dbtrack.name));
+        }
+        return true;
     }
 
     public IDataTrack deserializeTrack(String name) {
-        NewDBTrack loadedTrack = NewDBTrack.getById(name);
+        NewDBTrack loadedTrack = NewDBTrack.getByName(name);
         if (loadedTrack == null) {
             return null;
         }
@@ -144,7 +180,7 @@ public class NewStorage implements IDataStorage {
     }
 
     public boolean doesTrackExist(String trackname) {
-        if (NewDBTrack.getById(trackname) == null) {
+        if (NewDBTrack.getByName(trackname) == null) {
             return false;
         }
         return true;
@@ -183,6 +219,24 @@ public class NewStorage implements IDataStorage {
         return track;
     }
 
+    public List<IDataTrackSummary> getTrackSummaries(String filter,
+            boolean sortByName, int offset, int count) {
+        List<IDataTrackSummary> ret = new ArrayList<IDataTrackSummary>();
+        for (NewDBTrack t : NewDBTrack.getPage(filter, sortByName, offset,
+                count)) {
+            ret.add(new NewTrackSummary(t));
+        }
+        return ret;
+    }
+
+    public IDataTrackSummary getTrackSummary(String trackname) {
+        NewDBTrack t = NewDBTrack.getByName(trackname);
+        if (t == null) {
+            return null;
+        }
+        return new NewTrackSummary(t);
+    }
+
     public IDataTrack newTrack() {
         IDataTrack newtrack = new NewTrack();
         return newtrack;
@@ -24,8 +24,10 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -33,10 +35,14 @@ import java.util.List;
 
 import org.mapsforge.android.maps.GeoPoint;
 
+import de.fu.tracebook.core.data.implementation.DBOpenHelper;
 import de.fu.tracebook.core.data.implementation.NewDBMedia;
 import de.fu.tracebook.core.data.implementation.NewDBNode;
 import de.fu.tracebook.core.data.implementation.NewDBPointsList;
+import de.fu.tracebook.core.data.implementation.NewDBTag;
 import de.fu.tracebook.core.data.implementation.NewDBTrack;
+import de.fu.tracebook.core.data.implementation.NewDBTrackSummary;
+import de.fu.tracebook.core.data.implementation.NewDBWayStatistics;
 import de.fu.tracebook.util.LogIt;
 
 /**
@@ -52,9 +58,77 @@ public class NewTrack implements IDataTrack {
      * @return A time stamp String.
      */
     public static String getW3CFormattedTimeStamp() {
-        SimpleDateFormat sdf = new SimpleDateFormat(
-                "yyyy-MM-dd'T'HH:mm:ss.SSSZ");
-        return sdf.format(new Date());
+        return getW3CDateFormat().format(new Date());
+    }
+
+    /**
+     * Returns a date format that formats time stamps according to W3C. The
+     * returned object is not thread safe, but it can be reused to format many
+     * time stamps.
+     * 
+     * @return A new W3C date format.
+     */
+    static SimpleDateFormat getW3CDateFormat() {
+        return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+    }
+
+    /**
+     * Parses a time stamp created by {@link #getW3CFormattedTimeStamp()}. Time
+     * stamps of this exact format are parsed without any allocation, other
+     * formats are handed to a SimpleDateFormat.
+     * 
+     * @param timestamp
+     *            The time stamp String.
+     * @return The time in milliseconds since January 1, 1970 UTC or 0 if the
+     *         time stamp could not be parsed.
+     */
+    public static long parseW3CTimeStamp(String timestamp) {
+        if (timestamp == null) {
+            return 0;
+        }
+        // yyyy-MM-dd'T'HH:mm:ss.SSS+hhmm
+        if (timestamp.length() == 28 && timestamp.charAt(4) == '-'
+                && timestamp.charAt(7) == '-' && timestamp.charAt(10) == 'T'
+                && timestamp.charAt(13) == ':' && timestamp.charAt(16) == ':'
+                && timestamp.charAt(19) == '.') {
+            int year = parseDigits(timestamp, 0, 4);
+            int month = parseDigits(timestamp, 5, 7);
+            int day = parseDigits(timestamp, 8, 10);
+            int hour = parseDigits(timestamp, 11, 13);
+            int minute = parseDigits(timestamp, 14, 16);
+            int second = parseDigits(timestamp, 17, 19);
+            int milli = parseDigits(timestamp, 20, 23);
+            int offset = parseDigits(timestamp, 24, 26) * 60
+                    + parseDigits(timestamp, 26, 28);
+            char sign = timestamp.charAt(23);
+            if (year >= 0 && month >= 1 && day >= 0 && hour >= 0
+                    && minute >= 0 && second >= 0 && milli >= 0
+                    && offset >= 0 && (sign == '+' || sign == '-')) {
+                long days = daysSinceEpoch(year, month, day);
+                long time = ((days * 24 + hour) * 60 + minute) * 60 + second;
+                time = time * 1000 + milli;
+                return time - (sign == '+' ? offset : -offset) * 60000L;
+            }
+        }
+        try {
+            return getW3CDateFormat().parse(timestamp).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Computes the number of days between January 1, 1970 and a date of the
+     * Gregorian calendar.
+     */
+    private static long daysSinceEpoch(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day
+                - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
     }
 
     /**
@@ -67,6 +141,23 @@ public class NewTrack implements IDataTrack {
         return sdf.format(new Date());
     }
 
+    /**
+     * Parses a non-negative decimal number in a part of a String.
+     * 
+     * @return The number or -1 if the part contains non-digits.
+     */
+    private static int parseDigits(String s, int start, int end) {
+        int ret = 0;
+        for (int i = start; i < end; ++i) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            ret = ret * 10 + (c - '0');
+        }
+        return ret;
+    }
+
     private boolean isNew;
     private String name;
 
@@ -85,7 +176,11 @@ public class NewTrack implements IDataTrack {
         thisTrack = new NewDBTrack();
         thisTrack.name = this.name;
         thisTrack.datetime = this.name;
-        thisTrack.insert();
+        DBOpenHelper.getInstance().write(new Runnable() {
+            public void run() {
+                thisTrack.insert();
+            }
+        });
         isNew = true;
     }
 
@@ -102,27 +197,32 @@ public class NewTrack implements IDataTrack {
     }
 
     public void addMedia(IDataMedia medium) {
-        NewDBMedia media = ((NewMedia) medium).getDBMedia();
-        media.track = name;
-        media.insert();
+        final NewDBMedia media = ((NewMedia) medium).getDBMedia();
+        media.track = thisTrack.id;
+        DBOpenHelper.getInstance().write(new Runnable() {
+            public void run() {
+                media.insert();
+                NewDBTrackSummary.addMedia(media);
+            }
+        });
     }
 
     /**
-     * Deletes this Track.
+     * Deletes this Track from the database, see
+     * {@link NewDBTrack#deleteAll(java.util.Collection)}.
      */
     public void delete() {
-        NewDBMedia.deleteByTrack(name);
-        for (IDataNode n : getNodes()) {
-            ((NewNode) n).delete();
-        }
-        for (IDataPointsList w : getWays()) {
-            ((NewPointsList) w).delete();
-        }
-        thisTrack.delete();
+        final NewDBTrack row = thisTrack.copy();
+        DBOpenHelper.getInstance().write(new Runnable() {
+            public void run() {
+                NewDBTrack.deleteAll(Collections.singletonList(row));
+            }
+        });
     }
 
     public void deleteMedia(int id) {
-        Iterator<NewDBMedia> media = NewDBMedia.getByTrack(name).iterator();
+        Iterator<NewDBMedia> media = NewDBMedia.getByTrack(thisTrack.id)
+                .iterator();
         while (media.hasNext()) {
             NewDBMedia m = media.next();
             if (m.id == id) {
@@ -133,24 +233,39 @@ public class NewTrack implements IDataTrack {
     }
 
     public boolean deleteNode(long id) {
-        NewDBNode node;
-        node = NewDBNode.getById(id);
+        final NewDBNode node = NewDBNode.getById(id);
         if (node == null) {
             return false;
         }
-        node.delete();
+        final long trackId = thisTrack.id;
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                node.delete();
+                NewDBWayStatistics.deleteByWay(node.way);
+                NewDBTrackSummary.invalidate(trackId);
+                NewPointsList.changed(node.way);
+                NewNode.poisChanged();
+            }
+        });
         StorageFactory.getStorage().getOverlayManager()
-                .invalidateOverlayOfNode(new NewNode(node));
+                .invalidateOverlayOfNode(id);
         return true;
     }
 
-    public void deleteWay(long id) {
-        NewDBPointsList pointslist = NewDBPointsList.getById(id);
+    public void deleteWay(final long id) {
+        final NewDBPointsList pointslist = NewDBPointsList.getById(id);
         if (pointslist == null) {
             return;
         }
-        pointslist.delete();
-
+        final long trackId = thisTrack.id;
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                pointslist.delete();
+                NewDBWayStatistics.deleteByWay(id);
+                NewDBTrackSummary.invalidate(trackId);
+                NewPointsList.deleted(id);
+            }
+        });
     }
 
     public String getComment() {
@@ -165,9 +280,19 @@ public class NewTrack implements IDataTrack {
         return thisTrack.datetime;
     }
 
+    /**
+     * Returns the id of this track in the database, which the nodes, ways,
+     * media and bugs of this track refer to.
+     * 
+     * @return The id of the track.
+     */
+    long getId() {
+        return thisTrack.id;
+    }
+
     public List<IDataMedia> getMedia() {
         List<IDataMedia> media = new LinkedList<IDataMedia>();
-        List<NewDBMedia> dbmedia = NewDBMedia.getByTrack(name);
+        List<NewDBMedia> dbmedia = NewDBMedia.getByTrack(thisTrack.id);
         for (NewDBMedia m : dbmedia) {
             media.add(new NewMedia(m));
         }
@@ -195,13 +320,12 @@ public class NewTrack implements IDataTrack {
         return newnode;
     }
 
+    public NodeArray getNodeArray() {
+        return NewDBNode.getArrayByTrack(thisTrack.id);
+    }
+
     public List<IDataNode> getNodes() {
-        List<IDataNode> nodes = new LinkedList<IDataNode>();
-        List<NewDBNode> dbnodes = NewDBNode.getByTrack(name);
-        for (NewDBNode n : dbnodes) {
-            nodes.add(new NewNode(n));
-        }
-        return nodes;
+        return new NodeArrayView(getNodeArray(), thisTrack.id);
     }
 
     public IDataPointsList getPointsListById(long id) {
@@ -222,23 +346,81 @@ public class NewTrack implements IDataTrack {
         return newway;
     }
 
+    public TrackStatistics getStatistics() {
+        return new TrackStatistics(NewDBWayStatistics.getByTrack(thisTrack.id));
+    }
+
     public String getTrackDirPath() {
         return NewStorage.getTrackDirPath(name);
     }
 
     public List<IDataPointsList> getWays() {
         List<IDataPointsList> ret = new LinkedList<IDataPointsList>();
-        List<NewDBPointsList> dbnodes = NewDBPointsList.getByTrack(name);
+        List<NewDBPointsList> dbnodes = NewDBPointsList
+                .getByTrack(thisTrack.id);
         for (NewDBPointsList pl : dbnodes) {
             ret.add(new NewPointsList(pl));
         }
         return ret;
     }
 
+    public NodeArray getWayNodeArray() {
+        return NewDBNode.getWayArrayByTrack(thisTrack.id);
+    }
+
     public boolean isNew() {
         return isNew;
     }
 
+    public List<IDataPointsList> loadWays() {
+        List<NewDBPointsList> dbways = NewDBPointsList.getByTrack(thisTrack.id);
+        // read before the data, so that changes made meanwhile are noticed
+        int[] generations = new int[dbways.size()];
+        for (int i = 0; i < generations.length; ++i) {
+            generations[i] = NewPointsList.getGeneration(dbways.get(i).id);
+        }
+        NodeArray nodes = NewDBNode.getWayArrayByTrack(thisTrack.id);
+        List<NewDBTag> tags = NewDBTag.getWayListByTrack(thisTrack.id);
+        List<NewDBMedia> media = NewDBMedia.getWayListByTrack(thisTrack.id);
+
+        // all lists are ordered by way, so they can be split in one pass
+        List<IDataPointsList> ret = new ArrayList<IDataPointsList>(
+                dbways.size());
+        int n = 0;
+        int t = 0;
+        int m = 0;
+        for (int i = 0; i < generations.length; ++i) {
+            NewDBPointsList pl = dbways.get(i);
+            while (n < nodes.size() && nodes.getWayId(n) < pl.id) {
+                ++n;
+            }
+            int start = n;
+            while (n < nodes.size() && nodes.getWayId(n) == pl.id) {
+                ++n;
+            }
+
+            List<NewDBTag> waytags = new ArrayList<NewDBTag>();
+            while (t < tags.size() && tags.get(t).way <= pl.id) {
+                if (tags.get(t).way == pl.id) {
+                    waytags.add(tags.get(t));
+                }
+                ++t;
+            }
+
+            List<NewDBMedia> waymedia = new ArrayList<NewDBMedia>();
+            while (m < media.size() && media.get(m).way <= pl.id) {
+                if (media.get(m).way == pl.id) {
+                    waymedia.add(media.get(m));
+                }
+                ++m;
+            }
+
+            ret.add(new NewPointsList(pl, nodes.subArray(start, n), waytags,
+                    waymedia, generations[i]));
+        }
+        return ret;
+    }
+
     public IDataNode newNode(GeoPoint coordinates) {
         NewNode node = new NewNode(coordinates, thisTrack);
         return node;
@@ -271,7 +453,7 @@ public class NewTrack implements IDataTrack {
 
     public void setComment(String comment) {
         thisTrack.comment = comment;
-        thisTrack.save();
+        save();
     }
 
     public IDataPointsList setCurrentWay(IDataPointsList currentWay) {
@@ -281,12 +463,12 @@ public class NewTrack implements IDataTrack {
 
     public void setDatetime(String datetime) {
         thisTrack.datetime = datetime;
-        thisTrack.save();
+        save();
     }
 
     public int setName(String newname) {
         thisTrack.name = newname;
-        thisTrack.save();
+        save();
         this.name = newname;
         return renameTrack(newname);
     }
@@ -319,4 +501,17 @@ public class NewTrack implements IDataTrack {
         }
         return 0;
     }
+
+    /**
+     * Queues writing the track after it has changed. A copy of the track is
+     * written, so later changes do not affect it.
+     */
+    private void save() {
+        final NewDBTrack row = thisTrack.copy();
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                row.save();
+            }
+        });
+    }
 }
@@ -0,0 +1,101 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.core.data;
+
+import org.mapsforge.android.maps.GeoPoint;
+
+import de.fu.tracebook.core.data.implementation.NewDBTrack;
+import de.fu.tracebook.core.data.implementation.NewDBTrackSummary;
+
+/**
+ * Implementation of {@link IDataTrackSummary} for a track and its summary as
+ * stored in the database.
+ */
+public class NewTrackSummary implements IDataTrackSummary {
+
+    private NewDBTrackSummary summary;
+    private NewDBTrack thisTrack;
+
+    /**
+     * Creates a summary of a track. The summary is read from the database and
+     * computed first if it is stale.
+     * 
+     * @param track
+     *            The track.
+     */
+    public NewTrackSummary(NewDBTrack track) {
+        this.thisTrack = track;
+        this.summary = NewDBTrackSummary.getById(track.id);
+    }
+
+    public GeoPoint[] getBoundingBox() {
+        if (summary.minLatitude > summary.maxLatitude) {
+            return null;
+        }
+        return new GeoPoint[] {
+                new GeoPoint(summary.minLatitude, summary.minLongitude),
+                new GeoPoint(summary.maxLatitude, summary.maxLongitude) };
+    }
+
+    public String getComment() {
+        return thisTrack.comment;
+    }
+
+    public String getDatetime() {
+        return thisTrack.datetime;
+    }
+
+    public long getDuration() {
+        if (summary.startTime > summary.endTime) {
+            return 0;
+        }
+        return summary.endTime - summary.startTime;
+    }
+
+    public long getLastModified() {
+        return summary.modified;
+    }
+
+    public double getLength() {
+        return summary.length;
+    }
+
+    public int getMediaCount() {
+        return summary.media;
+    }
+
+    public String getName() {
+        return thisTrack.name;
+    }
+
+    public int getPoiCount() {
+        return summary.pois;
+    }
+
+    public int getWayCount() {
+        return summary.ways;
+    }
+
+    public int getWaypointCount() {
+        return summary.nodes;
+    }
+
+}
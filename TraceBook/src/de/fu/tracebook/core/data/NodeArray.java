@@ -0,0 +1,255 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.core.data;
+
+import org.mapsforge.android.maps.GeoPoint;
+
+/**
+ * A compact, column oriented list of nodes. Instead of one object per node the
+ * coordinates, time stamps and way ids of all nodes are kept in parallel
+ * primitive arrays. The time stamps are also kept as they were stored, so
+ * they keep their time zone. Iterating over a NodeArray does not allocate any
+ * objects, which makes it the preferred way to read large numbers of nodes for
+ * drawing, exporting or computing statistics.
+ */
+public final class NodeArray {
+
+    private String[] datetimes;
+    private long[] ids;
+    private int[] latitudes;
+    private int[] longitudes;
+    private int size = 0;
+    private long[] times;
+    private long[] ways;
+
+    /**
+     * Creates an empty NodeArray.
+     */
+    public NodeArray() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty NodeArray with a given initial capacity.
+     * 
+     * @param capacity
+     *            The number of nodes that can be stored without growing the
+     *            arrays.
+     */
+    public NodeArray(int capacity) {
+        int cap = Math.max(capacity, 1);
+        datetimes = new String[cap];
+        ids = new long[cap];
+        latitudes = new int[cap];
+        longitudes = new int[cap];
+        times = new long[cap];
+        ways = new long[cap];
+    }
+
+    /**
+     * Appends a node to this array.
+     * 
+     * @param id
+     *            The id of the node.
+     * @param latitudeE6
+     *            The latitude of the node in microdegrees.
+     * @param longitudeE6
+     *            The longitude of the node in microdegrees.
+     * @param time
+     *            The time of the node in milliseconds since January 1, 1970
+     *            UTC.
+     * @param datetime
+     *            The time of the node as it is stored, may be null.
+     * @param way
+     *            The id of the way the node belongs to, 0 if the node is a
+     *            POI.
+     */
+    public void add(long id, int latitudeE6, int longitudeE6, long time,
+            String datetime, long way) {
+        if (size == ids.length) {
+            grow();
+        }
+        datetimes[size] = datetime;
+        ids[size] = id;
+        latitudes[size] = latitudeE6;
+        longitudes[size] = longitudeE6;
+        times[size] = time;
+        ways[size] = way;
+        ++size;
+    }
+
+    /**
+     * Returns the time stamp of a node as it is stored.
+     * 
+     * @param index
+     *            The index of the node in this array.
+     * @return The time stamp in W3C format or null if it has not been given.
+     */
+    public String getDatetime(int index) {
+        return datetimes[index];
+    }
+
+    /**
+     * Returns the id of a node.
+     * 
+     * @param index
+     *            The index of the node in this array.
+     * @return The id of the node.
+     */
+    public long getId(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Returns the latitude of a node.
+     * 
+     * @param index
+     *            The index of the node in this array.
+     * @return The latitude in microdegrees.
+     */
+    public int getLatitudeE6(int index) {
+        return latitudes[index];
+    }
+
+    /**
+     * Returns the longitude of a node.
+     * 
+     * @param index
+     *            The index of the node in this array.
+     * @return The longitude in microdegrees.
+     */
+    public int getLongitudeE6(int index) {
+        return longitudes[index];
+    }
+
+    /**
+     * Returns the time stamp of a node.
+     * 
+     * @param index
+     *            The index of the node in this array.
+     * @return The time in milliseconds since January 1, 1970 UTC or 0 if
+     *         unknown.
+     */
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    /**
+     * Returns the id of the way a node belongs to.
+     * 
+     * @param index
+     *            The index of the node in this array.
+     * @return The id of the way, 0 if the node is a POI.
+     */
+    public long getWayId(int index) {
+        return ways[index];
+    }
+
+    /**
+     * Searches a node by its id.
+     * 
+     * @param id
+     *            The id of the node.
+     * @return The index of the node in this array or -1 if there is no such
+     *         node.
+     */
+    public int indexOf(long id) {
+        for (int i = 0; i < size; ++i) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of nodes in this array.
+     * 
+     * @return The number of nodes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a copy of a range of this array.
+     * 
+     * @param start
+     *            The index of the first node to copy.
+     * @param end
+     *            The index after the last node to copy.
+     * @return A new NodeArray containing the nodes from start to end - 1.
+     */
+    public NodeArray subArray(int start, int end) {
+        int count = end - start;
+        NodeArray ret = new NodeArray(count);
+        System.arraycopy(datetimes, start, ret.datetimes, 0, count);
+        System.arraycopy(ids, start, ret.ids, 0, count);
+        System.arraycopy(latitudes, start, ret.latitudes, 0, count);
+        System.arraycopy(longitudes, start, ret.longitudes, 0, count);
+        System.arraycopy(times, start, ret.times, 0, count);
+        System.arraycopy(ways, start, ret.ways, 0, count);
+        ret.size = count;
+        return ret;
+    }
+
+    /**
+     * Returns an array of GeoPoints of all nodes in this array. This is the
+     * representation needed by the overlays of the map.
+     * 
+     * @param closed
+     *            If true the first point is added as last point again, as it
+     *            is needed for areas.
+     * @return The array of GeoPoints. (not null)
+     */
+    public GeoPoint[] toGeoPointArray(boolean closed) {
+        GeoPoint[] ret = new GeoPoint[size + (closed && size > 0 ? 1 : 0)];
+        for (int i = 0; i < size; ++i) {
+            ret[i] = new GeoPoint(latitudes[i], longitudes[i]);
+        }
+        if (closed && size > 0) {
+            ret[size] = ret[0];
+        }
+        return ret;
+    }
+
+    private void grow() {
+        int cap = ids.length * 2;
+        String[] newDatetimes = new String[cap];
+        long[] newIds = new long[cap];
+        int[] newLatitudes = new int[cap];
+        int[] newLongitudes = new int[cap];
+        long[] newTimes = new long[cap];
+        long[] newWays = new long[cap];
+        System.arraycopy(datetimes, 0, newDatetimes, 0, size);
+        System.arraycopy(ids, 0, newIds, 0, size);
+        System.arraycopy(latitudes, 0, newLatitudes, 0, size);
+        System.arraycopy(longitudes, 0, newLongitudes, 0, size);
+        System.arraycopy(times, 0, newTimes, 0, size);
+        System.arraycopy(ways, 0, newWays, 0, size);
+        datetimes = newDatetimes;
+        ids = newIds;
+        latitudes = newLatitudes;
+        longitudes = newLongitudes;
+        times = newTimes;
+        ways = newWays;
+    }
+}
@@ -0,0 +1,81 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.core.data;
+
+import java.text.SimpleDateFormat;
+import java.util.AbstractList;
+import java.util.Date;
+
+import de.fu.tracebook.core.data.implementation.NewDBNode;
+
+/**
+ * A read-only list of IDataNode objects backed by a {@link NodeArray}. The
+ * node objects are only created when they are accessed, so asking for the size
+ * of the list or looking at a few nodes of a long way is cheap.
+ */
+class NodeArrayView extends AbstractList<IDataNode> {
+
+    private NodeArray nodes;
+    private SimpleDateFormat sdf = null;
+    private long track;
+
+    /**
+     * Creates a view of a NodeArray.
+     * 
+     * @param nodes
+     *            The nodes.
+     * @param track
+     *            The id of the track the nodes belong to, 0 if the nodes
+     *            belong to a way.
+     */
+    NodeArrayView(NodeArray nodes, long track) {
+        this.nodes = nodes;
+        this.track = track;
+    }
+
+    @Override
+    public IDataNode get(int index) {
+        if (index < 0 || index >= nodes.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        NewDBNode node = new NewDBNode();
+        node.id = nodes.getId(index);
+        node.latitude = nodes.getLatitudeE6(index);
+        node.longitude = nodes.getLongitudeE6(index);
+        node.way = nodes.getWayId(index);
+        node.track = track;
+        // the stored time stamp keeps its time zone and is kept as it is if
+        // it cannot be parsed
+        node.datetime = nodes.getDatetime(index);
+        if (node.datetime == null && nodes.getTime(index) != 0) {
+            if (sdf == null) {
+                sdf = NewTrack.getW3CDateFormat();
+            }
+            node.datetime = sdf.format(new Date(nodes.getTime(index)));
+        }
+        return new NewNode(node);
+    }
+
+    @Override
+    public int size() {
+        return nodes.size();
+    }
+}
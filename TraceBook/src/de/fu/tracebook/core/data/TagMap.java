@@ -24,6 +24,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 
+import de.fu.tracebook.core.data.implementation.DBOpenHelper;
 import de.fu.tracebook.core.data.implementation.NewDBTag;
 
 /**
@@ -69,7 +70,7 @@ public class TagMap extends HashMap<String, String> {
      */
     @Override
     public String put(String key, String value) {
-        NewDBTag tag = new NewDBTag();
+        final NewDBTag tag = new NewDBTag();
         tag.key = key;
         tag.value = value;
         if (node != null) {
@@ -78,7 +79,12 @@ public class TagMap extends HashMap<String, String> {
         if (way != null) {
             tag.way = way.getId();
         }
-        tag.insert();
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                tag.insert();
+                NewPointsList.changed(tag.way);
+            }
+        });
         tags.add(tag);
 
         return super.put(key, value);
@@ -94,9 +100,16 @@ public class TagMap extends HashMap<String, String> {
 
         Iterator<NewDBTag> iter = tags.iterator();
         while (iter.hasNext()) {
-            NewDBTag t = iter.next();
+            final NewDBTag t = iter.next();
             if (t.key.equals(key)) {
-                t.delete();
+                // the tag may still be queued for insertion, so its id is read
+                // by the writer
+                DBOpenHelper.getInstance().post(new Runnable() {
+                    public void run() {
+                        t.delete();
+                        NewPointsList.changed(t.way);
+                    }
+                });
                 iter.remove();
             }
         }
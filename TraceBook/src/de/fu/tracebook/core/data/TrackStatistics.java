@@ -0,0 +1,153 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.core.data;
+
+import java.util.List;
+
+import org.mapsforge.android.maps.GeoPoint;
+
+import de.fu.tracebook.core.data.implementation.NewDBWayStatistics;
+
+/**
+ * Statistics of the ways of a track: their length, the time spent moving and
+ * the density of their nodes. They are summed up from the statistics of the
+ * single ways, which are kept up to date while the nodes are logged, so no
+ * nodes have to be read.
+ */
+public class TrackStatistics {
+
+    private long duration = 0;
+    private double length = 0;
+    private int maxLatitude = Integer.MIN_VALUE;
+    private int maxLongitude = Integer.MIN_VALUE;
+    private int minLatitude = Integer.MAX_VALUE;
+    private int minLongitude = Integer.MAX_VALUE;
+    private long movingTime = 0;
+    private int nodes = 0;
+    private int ways = 0;
+
+    /**
+     * Sums up the statistics of ways.
+     * 
+     * @param wayStatistics
+     *            The statistics of all ways of a track.
+     */
+    TrackStatistics(List<NewDBWayStatistics> wayStatistics) {
+        for (NewDBWayStatistics way : wayStatistics) {
+            ++ways;
+            if (way.nodes == 0) {
+                continue;
+            }
+            nodes += way.nodes;
+            length += way.length;
+            movingTime += way.movingTime;
+            duration += way.lastTime - way.firstTime;
+            minLatitude = Math.min(minLatitude, way.minLatitude);
+            minLongitude = Math.min(minLongitude, way.minLongitude);
+            maxLatitude = Math.max(maxLatitude, way.maxLatitude);
+            maxLongitude = Math.max(maxLongitude, way.maxLongitude);
+        }
+    }
+
+    /**
+     * Returns the average speed while moving.
+     * 
+     * @return The speed in meters per second, 0 if there was no movement.
+     */
+    public double getAverageSpeed() {
+        if (movingTime == 0) {
+            return 0;
+        }
+        return length * 1000 / movingTime;
+    }
+
+    /**
+     * Returns the bounding box of the nodes of all ways.
+     * 
+     * @return The south west and the north east corner of the bounding box or
+     *         null if no node of a way has a position.
+     */
+    public GeoPoint[] getBoundingBox() {
+        if (nodes == 0) {
+            return null;
+        }
+        return new GeoPoint[] { new GeoPoint(minLatitude, minLongitude),
+                new GeoPoint(maxLatitude, maxLongitude) };
+    }
+
+    /**
+     * Returns the summed up time from the first to the last node of each way.
+     * 
+     * @return The time in milliseconds.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the summed up length of all ways.
+     * 
+     * @return The length in meters.
+     */
+    public double getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the summed up time spent moving while logging ways, see
+     * {@link NewDBWayStatistics#MIN_MOVING_SPEED}.
+     * 
+     * @return The time in milliseconds.
+     */
+    public long getMovingTime() {
+        return movingTime;
+    }
+
+    /**
+     * Returns the number of nodes with a position of all ways.
+     * 
+     * @return The number of nodes.
+     */
+    public int getNodeCount() {
+        return nodes;
+    }
+
+    /**
+     * Returns the number of nodes per kilometer of way.
+     * 
+     * @return The density, 0 if the ways have no length.
+     */
+    public double getPointDensity() {
+        if (length == 0) {
+            return 0;
+        }
+        return nodes * 1000 / length;
+    }
+
+    /**
+     * Returns the number of ways.
+     * 
+     * @return The number of ways and areas.
+     */
+    public int getWayCount() {
+        return ways;
+    }
+}
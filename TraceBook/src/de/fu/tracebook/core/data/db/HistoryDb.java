@@ -76,7 +76,7 @@ public class HistoryDb {
 
     /**
      * If a tag is used by the user. This method should be called so that the
-     * database is updated.
+     * database and the {@link TagIndex} are updated.
      * 
      * @param key
      *            The key of the tag.
@@ -116,6 +116,11 @@ public class HistoryDb {
                 LogIt.e("Could not open database to write.");
             }
         }
+
+        TagIndex index = TagIndex.getInstance();
+        if (index != null) {
+            index.addUse(key, value);
+        }
         return;
     }
 
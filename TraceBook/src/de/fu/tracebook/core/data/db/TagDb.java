@@ -20,8 +20,8 @@
 
 package de.fu.tracebook.core.data.db;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
 
@@ -29,12 +29,17 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
-import android.content.ContentValues;
 import android.content.Context;
+import android.content.res.Resources;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.util.Xml;
+import de.fu.tracebook.util.FullTextQuery;
 import de.fu.tracebook.util.LogIt;
+import de.fu.tracebook.util.Metrics;
 
 /**
  * Provides access to the database containing all the tags with their
@@ -42,10 +47,193 @@ import de.fu.tracebook.util.LogIt;
  */
 public class TagDb {
 
+    /**
+     * Parses an XML file of the tag dictionary into rows of the table
+     * "dictionary". The values of a row are in the order needed by
+     * {@link TagDbOpenHelper#DICT_TABLE_INSERT}.
+     */
+    private static class DictionaryParser extends DefaultHandler implements
+            Runnable {
+
+        /**
+         * True if the file could not be parsed.
+         */
+        boolean failed = false;
+
+        /**
+         * The language of the file.
+         */
+        String language = null;
+
+        /**
+         * The parsed rows.
+         */
+        List<String[]> rows = new ArrayList<String[]>(4096);
+
+        private String description = null;
+        private int id;
+        private String imgUrl = null;
+        private String key = null;
+        private String keywords = null;
+        private String link = null;
+        private String name = null;
+        private Resources resources;
+
+        /**
+         * Text of the element currently read, null if the element has no text
+         * we are interested in.
+         */
+        private StringBuilder text = null;
+        private String type = null;
+        private String value = null;
+
+        /**
+         * 
+         * @param resources
+         *            The resources of the application.
+         * @param id
+         *            The id of the XML file to parse in /res/raw.
+         */
+        DictionaryParser(Resources resources, int id) {
+            this.resources = resources;
+            this.id = id;
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (text != null) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String lname, String qname) {
+            if (lname.equals("key")) {
+                key = null;
+
+            } else if (lname.equals("value")) {
+                rows.add(new String[] { key, language, value, link,
+                        description, type, name, keywords, imgUrl });
+
+            } else if (lname.equals("description")) {
+                description = getText();
+
+            } else if (lname.equals("uri")) {
+                link = getText();
+
+            } else if (lname.equals("keywords")) {
+                keywords = getText();
+
+            } else if (lname.equals("img")) {
+                imgUrl = getText();
+            }
+        }
+
+        public void run() {
+            try {
+                Xml.parse(resources.openRawResource(id), Xml.Encoding.UTF_8,
+                        this);
+            } catch (SAXException e) {
+                failed = true;
+                e.printStackTrace();
+                LogIt.e("XML parsing error.");
+            } catch (IOException e) {
+                failed = true;
+                LogIt.e("Error while reading XML file");
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void startElement(String uri, String lname, String qname,
+                Attributes attributes) {
+
+            if (lname.equals("map_features")) {
+                language = attributes.getValue("lang");
+
+            } else if (lname.equals("key")) {
+                key = attributes.getValue("v");
+
+            } else if (lname.equals("value")) {
+                value = attributes.getValue("v");
+                type = attributes.getValue("type");
+                name = attributes.getValue("name");
+
+            } else if (lname.equals("description") || lname.equals("uri")
+                    || lname.equals("keywords") || lname.equals("img")) {
+                text = new StringBuilder();
+            }
+        }
+
+        private String getText() {
+            String ret = text != null ? text.toString() : "";
+            text = null;
+            return ret;
+        }
+    }
+
+    /**
+     * Weights of the columns of the full text index when ranking search
+     * results, in the order of {@link TagDbOpenHelper#DICT_FTS_COLUMNS}.
+     */
+    private static final int[] COLUMN_WEIGHTS = { 2, 4, 8, 4, 1 };
+
+    private static final Metrics.Histogram IMPORT_TIME = Metrics
+            .histogram("tags.import");
+
+    /**
+     * Maximum number of search results.
+     */
+    private static final int MAX_RESULTS = 20;
+
+    private static final Metrics.Histogram SEARCH_TIME = Metrics
+            .histogram("tags.search");
+
+    /**
+     * Binds a string to a compiled statement.
+     * 
+     * @param stmt
+     *            The statement.
+     * @param index
+     *            The 1-based index of the parameter.
+     * @param value
+     *            The value to bind, may be null.
+     */
+    private static void bindString(SQLiteStatement stmt, int index,
+            String value) {
+        if (value == null) {
+            stmt.bindNull(index);
+        } else {
+            stmt.bindString(index, value);
+        }
+    }
+
     private Context context;
     private SQLiteDatabase db;
     private TagDbOpenHelper helper;
 
+    /**
+     * Language of the last full text search.
+     */
+    private String lastLanguage = null;
+
+    /**
+     * Rowids of all rows matched by the last full text search or null if it
+     * matched more than {@link #MAX_RESULTS} rows.
+     */
+    private long[] lastMatches = null;
+
+    /**
+     * Search text of the last complete full text search, null if there is
+     * none.
+     */
+    private String lastSearchText = null;
+
+    /**
+     * Set by {@link #cancelSearch()} to stop a running search.
+     */
+    private volatile boolean searchCancelled = false;
+
     /**
      * Constructor, opens the database.
      * 
@@ -58,6 +246,15 @@ public class TagDb {
         helper = new TagDbOpenHelper(context);
     }
 
+    /**
+     * Stops a search that is currently running in {@link #getTag(String,
+     * String)} on another thread. The search returns null as soon as possible.
+     * If no search is running, the next search started will not be affected.
+     */
+    public void cancelSearch() {
+        searchCancelled = true;
+    }
+
     /**
      * Searches the database for a given key value pair and returns it, if it
      * exists. Otherwise, returns null.
@@ -125,22 +322,33 @@ public class TagDb {
 
     /**
      * Searches the database for a text in its description, keywords and name.
+     * <p>
+     * If the search text extends the text of the previous search of this
+     * object and the previous search found only a few rows, only these rows
+     * are searched again.
      * 
      * @param searchText
      *            The text to search for.
      * @param language
      *            The language abbreviation as string like "de" or "en".
-     * @return The list of search results.
+     * @return The list of search results or null if the search was cancelled
+     *         or the database could not be opened.
      */
     public List<TagSearchResult> getTag(String searchText, String language) {
+        searchCancelled = false;
         openDb();
 
         if (db != null && db.isOpen()) {
             List<TagSearchResult> tags = new Vector<TagSearchResult>();
 
+            long start = Metrics.start();
             fillTagListWithSearchResults(searchText, language, tags);
+            SEARCH_TIME.stop(start);
 
             closeDb();
+            if (searchCancelled) {
+                return null;
+            }
             return tags;
         } else {
             LogIt.e("Could not open Database.");
@@ -155,163 +363,74 @@ public class TagDb {
      *            The id of the XML file to parse in /res/raw.
      */
     public void initDbWithFile(int id) {
-        try {
-            Xml.parse(context.getResources().openRawResource(id),
-                    Xml.Encoding.UTF_8, new DefaultHandler() {
-                        int depth = 0;
-
-                        String description = null;
-
-                        boolean descriptionTagOpened = false;
-
-                        boolean imgOpened = false;
-                        String imgUrl = null;
-                        String key = null;
-                        String keywords = null;
-                        boolean keywordsOpened = false;
-                        String language = null;
-                        String link = null;
-                        String name = null;
-                        String type = null;
-                        boolean uriTagOpened = false;
-                        String value = null;
-                        SQLiteDatabase writeDb;
-
-                        @Override
-                        public void characters(char[] ch, int start, int length) {
-                            String tmp = new String(ch, start, length);
-
-                            if (descriptionTagOpened) {
-                                description += tmp;
-
-                            } else if (uriTagOpened) {
-                                link += tmp;
-                            } else if (keywordsOpened) {
-                                keywords += tmp;
-                            } else if (imgOpened) {
-                                imgUrl += tmp;
-                            }
-                        }
-
-                        /*
-                         * (non-Javadoc)
-                         * 
-                         * @see org.xml.sax.helpers.DefaultHandler#endDocument()
-                         */
-                        @Override
-                        public void endDocument() throws SAXException {
-                            writeDb.setTransactionSuccessful();
-                            writeDb.endTransaction();
-                            writeDb.close();
-                            super.endDocument();
-                        }
-
-                        @Override
-                        public void endElement(String uri, String lname,
-                                String qname) {
-                            if (lname.equals("key")) {
-                                key = null;
-
-                            } else if (lname.equals("value")) {
-                                ContentValues row = new ContentValues();
-                                row.put(TagDbOpenHelper.DICT_COLUMN_KEY, key);
-                                row.put(TagDbOpenHelper.DICT_COLUMN_LANG,
-                                        language);
-                                row.put(TagDbOpenHelper.DICT_COLUMN_VALUE,
-                                        value);
-                                row.put(TagDbOpenHelper.DICT_COLUMN_LINK, link);
-                                row.put(TagDbOpenHelper.DICT_COLUMN_DESC,
-                                        description);
-                                row.put(TagDbOpenHelper.DICT_COLUMN_TYPE, type);
-                                row.put(TagDbOpenHelper.DICT_COLUMN_NAME, name);
-                                row.put(TagDbOpenHelper.DICT_COLUMN_KEYWORDS,
-                                        keywords);
-                                row.put(TagDbOpenHelper.DICT_COLUMN_IMG, imgUrl);
-                                writeDb.insert(
-                                        TagDbOpenHelper.getDictTableName(), "",
-                                        row);
-
-                            } else if (lname.equals("description")) {
-                                descriptionTagOpened = false;
-
-                            } else if (lname.equals("uri")) {
-                                uriTagOpened = false;
-
-                            } else if (lname.equals("keywords")) {
-                                keywordsOpened = false;
-                            } else if (lname.equals("img")) {
-                                imgOpened = false;
-                            }
-                            depth--;
-                        }
-
-                        /*
-                         * (non-Javadoc)
-                         * 
-                         * @see
-                         * org.xml.sax.helpers.DefaultHandler#startDocument()
-                         */
-                        @Override
-                        public void startDocument() throws SAXException {
-                            writeDb = getHelper().getWritableDatabase();
-                            writeDb.beginTransaction();
-                            super.startDocument();
-                        }
-
-                        @Override
-                        public void startElement(String uri, String lname,
-                                String qname, Attributes attributes) {
-
-                            if (lname.equals("map_features")) {
-                                language = attributes.getValue("lang");
-
-                            } else if (lname.equals("key")) {
-                                key = attributes.getValue("v");
-
-                            } else if (lname.equals("value")) {
-                                value = attributes.getValue("v");
-                                type = attributes.getValue("type");
-                                name = attributes.getValue("name");
-
-                            } else if (lname.equals("description")) {
-                                descriptionTagOpened = true;
-                                description = "";
-
-                            } else if (lname.equals("uri")) {
-                                link = "";
-                                uriTagOpened = true;
-
-                            } else if (lname.equals("keywords")) {
-                                keywords = "";
-                                keywordsOpened = true;
-
-                            } else if (lname.equals("img")) {
-                                imgUrl = "";
-                                imgOpened = true;
-                            }
-                            depth++;
-                        }
-                    });
-        } catch (SAXException e) {
-            e.printStackTrace();
-            LogIt.e("XML parsing error.");
-        } catch (FileNotFoundException e) {
-            LogIt.e("XML file not found.");
-            e.printStackTrace();
-        } catch (IOException e) {
-            LogIt.e("Error while reading XML file");
-            e.printStackTrace();
+        initDbWithFiles(id);
+    }
+
+    /**
+     * Loads XML files into the database. All files are parsed in parallel,
+     * each in its own thread, while the rows of the files already parsed are
+     * written to the database.
+     * 
+     * @param ids
+     *            The ids of the XML files to parse in /res/raw.
+     */
+    public void initDbWithFiles(int... ids) {
+        long start = SystemClock.uptimeMillis();
+        long metricsStart = Metrics.start();
+
+        DictionaryParser[] parsers = new DictionaryParser[ids.length];
+        Thread[] threads = new Thread[ids.length];
+        for (int i = 0; i < ids.length; ++i) {
+            parsers[i] = new DictionaryParser(context.getResources(), ids[i]);
+            threads[i] = new Thread(parsers[i]);
+            threads[i].start();
         }
 
-        openDb();
-        Cursor crs = db.query(TagDbOpenHelper.getDictTableName(),
-                new String[] { "COUNT(*)" }, null, null, null, null, null);
-        if (crs.getCount() > 0) {
-            crs.moveToFirst();
-            LogIt.d("inserted " + crs.getString(0) + " rows.");
+        int count = 0;
+        SQLiteDatabase writeDb = getHelper().getWritableDatabase();
+        SQLiteStatement insert = writeDb
+                .compileStatement(TagDbOpenHelper.DICT_TABLE_INSERT);
+        for (int i = 0; i < ids.length; ++i) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                LogIt.e("Interrupted while importing tags.");
+                break;
+            }
+            if (parsers[i].failed) {
+                continue;
+            }
+
+            writeDb.beginTransaction();
+            try {
+                for (String[] row : parsers[i].rows) {
+                    for (int j = 0; j < row.length; ++j) {
+                        bindString(insert, j + 1, row[j]);
+                    }
+                    insert.executeInsert();
+                }
+                if (getHelper().isFtsAvailable()) {
+                    writeDb.execSQL(TagDbOpenHelper.DICT_FTS_TABLE_FILL,
+                            new Object[] { parsers[i].language });
+                }
+                writeDb.setTransactionSuccessful();
+                count += parsers[i].rows.size();
+            } finally {
+                writeDb.endTransaction();
+            }
+            parsers[i].rows = null;
         }
-        crs.close();
-        closeDb();
+        insert.close();
+        writeDb.close();
+
+        long time = SystemClock.uptimeMillis() - start;
+        IMPORT_TIME.stop(metricsStart);
+        LogIt.d("Imported " + count + " tags in " + time + " ms.");
+        // the import runs on the first start, before metrics can be switched
+        // on, so its time is kept for the diagnostics in the preferences
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putLong("tagImportTime", time).putInt("tagImportCount", count)
+                .commit();
     }
 
     /**
@@ -334,21 +453,39 @@ public class TagDb {
     private void fillTagListWithSearchResults(String searchText,
             String language, List<TagSearchResult> tags) {
 
-        if (searchText.length() >= 2) {
+        long[] candidates = null;
+        if (lastSearchText != null && searchText.startsWith(lastSearchText)
+                && language.equals(lastLanguage)) {
+            // every row matching the longer text matches the previous one
+            candidates = lastMatches;
+        }
+        lastSearchText = null;
+
+        if (searchText.length() < 2) {
+            return;
+        }
+        if (helper.isFtsAvailable()) {
+            String query = FullTextQuery.prefixQuery(searchText);
+            if (query != null) {
+                fillTagListWithFtsResults(query, language, candidates, tags);
+                if (!searchCancelled) {
+                    lastSearchText = searchText;
+                    lastLanguage = language;
+                }
+            }
+        } else {
+            String pattern = "%" + searchText + "%";
             Cursor result = db.query(TagDbOpenHelper.getDictTableName(),
                     TagDbOpenHelper.getDictColumns(), "("
-                            + TagDbOpenHelper.DICT_COLUMN_NAME + " LIKE '%"
-                            + searchText + "%' OR "
-                            + TagDbOpenHelper.DICT_COLUMN_KEYWORDS + " LIKE '%"
-                            + searchText + "%' OR "
-                            + TagDbOpenHelper.DICT_COLUMN_DESC + " LIKE '%"
-                            + searchText + "%' OR "
-                            + TagDbOpenHelper.DICT_COLUMN_VALUE + " LIKE '%"
-                            + searchText + "%' OR "
-                            + TagDbOpenHelper.DICT_COLUMN_KEY + " LIKE '%"
-                            + searchText + "%') AND "
-                            + TagDbOpenHelper.DICT_COLUMN_LANG + " LIKE '"
-                            + language + "'", null, null, null, null, "20");
+                            + TagDbOpenHelper.DICT_COLUMN_NAME + " LIKE ? OR "
+                            + TagDbOpenHelper.DICT_COLUMN_KEYWORDS
+                            + " LIKE ? OR " + TagDbOpenHelper.DICT_COLUMN_DESC
+                            + " LIKE ? OR " + TagDbOpenHelper.DICT_COLUMN_VALUE
+                            + " LIKE ? OR " + TagDbOpenHelper.DICT_COLUMN_KEY
+                            + " LIKE ?) AND " + TagDbOpenHelper.DICT_COLUMN_LANG
+                            + " LIKE ?", new String[] { pattern, pattern,
+                            pattern, pattern, pattern, language }, null, null,
+                    null, Integer.toString(MAX_RESULTS));
 
             if (result.moveToFirst()) {
                 while (!result.isAfterLast()) {
@@ -362,6 +499,114 @@ public class TagDb {
         }
     }
 
+    /**
+     * Fills a given tag list with the best ranked rows matching a full text
+     * query. First only the rowids and match offsets of all matching rows are
+     * read, then the complete rows of the best results.
+     * 
+     * @param query
+     *            The full text query, see
+     *            {@link FullTextQuery#prefixQuery(String)}.
+     * @param language
+     *            The language abbreviation.
+     * @param candidates
+     *            The rowids of the only rows that can match the query or null
+     *            if all rows have to be searched.
+     * @param tags
+     *            The list in that the results are inserted.
+     */
+    private void fillTagListWithFtsResults(String query, String language,
+            long[] candidates, List<TagSearchResult> tags) {
+        if (candidates != null && candidates.length == 0) {
+            lastMatches = candidates;
+            return;
+        }
+
+        String fts = TagDbOpenHelper.DICT_FTS_NAME_OF_TABLE;
+        String dict = TagDbOpenHelper.getDictTableName();
+        StringBuilder sql = new StringBuilder("SELECT docid, offsets(" + fts
+                + ") FROM " + fts + ", " + dict + " WHERE " + fts
+                + " MATCH ? AND " + dict + ".rowid = docid AND " + dict + "."
+                + TagDbOpenHelper.DICT_COLUMN_LANG + " = ?");
+        String[] selectionArgs;
+        if (candidates == null) {
+            selectionArgs = new String[] { query, language };
+        } else {
+            selectionArgs = new String[candidates.length + 2];
+            selectionArgs[0] = query;
+            selectionArgs[1] = language;
+            sql.append(" AND docid IN (");
+            for (int i = 0; i < candidates.length; ++i) {
+                sql.append(i == 0 ? "?" : ", ?");
+                selectionArgs[i + 2] = Long.toString(candidates[i]);
+            }
+            sql.append(')');
+        }
+
+        Cursor crs = db.rawQuery(sql.toString(), selectionArgs);
+        int count = crs.getCount();
+        long[] ids = new long[count];
+        int[] ranks = new int[count];
+        for (int i = 0; !searchCancelled && crs.moveToNext(); ++i) {
+            ids[i] = crs.getLong(0);
+            ranks[i] = FullTextQuery.rank(crs.getString(1), COLUMN_WEIGHTS);
+        }
+        crs.close();
+        if (searchCancelled) {
+            return;
+        }
+        lastMatches = count <= MAX_RESULTS ? ids : null;
+
+        // select the best results, the lower rowid wins on equal ranks
+        int resultCount = Math.min(count, MAX_RESULTS);
+        if (resultCount == 0) {
+            return;
+        }
+        long[] best = new long[resultCount];
+        String[] args = new String[resultCount];
+        StringBuilder where = new StringBuilder("rowid IN (");
+        for (int i = 0; i < resultCount; ++i) {
+            int max = -1;
+            for (int j = 0; j < count; ++j) {
+                if (ranks[j] < 0) {
+                    continue;
+                }
+                if (max == -1 || ranks[j] > ranks[max]
+                        || (ranks[j] == ranks[max] && ids[j] < ids[max])) {
+                    max = j;
+                }
+            }
+            best[i] = ids[max];
+            ranks[max] = -1;
+            args[i] = Long.toString(best[i]);
+            where.append(i == 0 ? "?" : ", ?");
+        }
+        where.append(')');
+
+        String[] dictColumns = TagDbOpenHelper.getDictColumns();
+        String[] columns = new String[dictColumns.length + 1];
+        System.arraycopy(dictColumns, 0, columns, 0, dictColumns.length);
+        columns[dictColumns.length] = "rowid";
+        TagSearchResult[] results = new TagSearchResult[resultCount];
+        crs = db.query(dict, columns, where.toString(), args, null, null, null);
+        while (crs.moveToNext()) {
+            long id = crs.getLong(dictColumns.length);
+            for (int i = 0; i < resultCount; ++i) {
+                if (best[i] == id) {
+                    results[i] = TagDbOpenHelper.getResultFromCursor(crs);
+                    break;
+                }
+            }
+        }
+        crs.close();
+
+        for (TagSearchResult result : results) {
+            if (result != null) {
+                tags.add(result);
+            }
+        }
+    }
+
     /**
      * Opens the database in read-only mode.
      */
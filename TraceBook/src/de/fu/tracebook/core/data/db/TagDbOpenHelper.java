@@ -22,8 +22,10 @@ package de.fu.tracebook.core.data.db;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import de.fu.tracebook.util.LogIt;
 
 /**
  * The DB open helper automatically creates or recreates the database. Use it to
@@ -39,7 +41,7 @@ public class TagDbOpenHelper extends SQLiteOpenHelper {
     /**
      * By incrementing this number, the database is reseted. Never decrease!
      */
-    private static final int DATABASE_VERSION = 24;
+    private static final int DATABASE_VERSION = 25;
 
     /**
      * The description column of the table "dictionary".
@@ -86,6 +88,42 @@ public class TagDbOpenHelper extends SQLiteOpenHelper {
      */
     static final String DICT_COLUMN_VALUE = "value";
 
+    /**
+     * Columns of the full text index of the table "dictionary". The order
+     * matters, as the column numbers are used to rank the search results.
+     */
+    static final String DICT_FTS_COLUMNS = DICT_COLUMN_KEY + ", "
+            + DICT_COLUMN_VALUE + ", " + DICT_COLUMN_NAME + ", "
+            + DICT_COLUMN_KEYWORDS + ", " + DICT_COLUMN_DESC;
+
+    /**
+     * Full text index of the table "dictionary". The docid of each row is the
+     * rowid of the row in the dictionary.
+     */
+    static final String DICT_FTS_NAME_OF_TABLE = "dictionary_fts";
+
+    /**
+     * String to create the full text index.
+     */
+    static final String DICT_FTS_TABLE_CREATE = "CREATE VIRTUAL TABLE "
+            + DICT_FTS_NAME_OF_TABLE + " USING fts3(" + DICT_FTS_COLUMNS + ");";
+
+    /**
+     * String to drop the full text index.
+     */
+    static final String DICT_FTS_TABLE_DROP = "DROP TABLE IF EXISTS "
+            + DICT_FTS_NAME_OF_TABLE;
+
+    /**
+     * String to copy all rows of one language from the dictionary into the
+     * full text index. The language has to be bound to the statement.
+     */
+    static final String DICT_FTS_TABLE_FILL = "INSERT INTO "
+            + DICT_FTS_NAME_OF_TABLE + " (docid, " + DICT_FTS_COLUMNS
+            + ") SELECT rowid, " + DICT_FTS_COLUMNS + " FROM "
+            + TagDbOpenHelper.DICT_NAME_OF_TABLE + " WHERE " + DICT_COLUMN_LANG
+            + " = ?";
+
     /**
      * Table that contains all information for tags.
      */
@@ -107,6 +145,19 @@ public class TagDbOpenHelper extends SQLiteOpenHelper {
     static final String DICT_TABLE_DROP = "DROP TABLE IF EXISTS "
             + DICT_NAME_OF_TABLE;
 
+    /**
+     * String to insert a row into the dictionary. The values have to be bound
+     * in the order key, language, value, link, description, type, name,
+     * keywords and image.
+     */
+    static final String DICT_TABLE_INSERT = "INSERT INTO "
+            + TagDbOpenHelper.DICT_NAME_OF_TABLE + " (" + DICT_COLUMN_KEY
+            + ", " + DICT_COLUMN_LANG + ", " + DICT_COLUMN_VALUE + ", "
+            + DICT_COLUMN_LINK + ", " + DICT_COLUMN_DESC + ", "
+            + DICT_COLUMN_TYPE + ", " + DICT_COLUMN_NAME + ", "
+            + DICT_COLUMN_KEYWORDS + ", " + DICT_COLUMN_IMG
+            + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
     /**
      * The key column of the table "history".
      */
@@ -209,6 +260,8 @@ public class TagDbOpenHelper extends SQLiteOpenHelper {
         return new String[] { DICT_COLUMN_KEY, DICT_COLUMN_VALUE };
     }
 
+    private boolean ftsAvailable = false;
+
     /**
      * Default constructor.
      * 
@@ -220,23 +273,71 @@ public class TagDbOpenHelper extends SQLiteOpenHelper {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    /**
+     * Returns whether the full text index of the dictionary exists. It is
+     * missing if the SQLite library of the device does not support FTS3.
+     * 
+     * @return True if the full text index can be used.
+     */
+    boolean isFtsAvailable() {
+        return ftsAvailable;
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(DICT_TABLE_DROP);
+        db.execSQL(DICT_FTS_TABLE_DROP);
         db.execSQL(HISTORY_TABLE_DROP);
         db.execSQL(DICT_TABLE_CREATE);
         db.execSQL(HISTORY_TABLE_CREATE);
+        createFts(db);
 
         createIndex(db, "language_idx", DICT_NAME_OF_TABLE, "language");
     }
 
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        Cursor crs = db.rawQuery(
+                "SELECT COUNT(*) FROM sqlite_master WHERE name = ?",
+                new String[] { DICT_FTS_NAME_OF_TABLE });
+        ftsAvailable = crs.moveToFirst() && crs.getInt(0) > 0;
+        crs.close();
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion == 24) {
+            // version 25 only adds the full text index, keep the history
+            if (createFts(db)) {
+                db.execSQL("INSERT INTO " + DICT_FTS_NAME_OF_TABLE
+                        + " (docid, " + DICT_FTS_COLUMNS + ") SELECT rowid, "
+                        + DICT_FTS_COLUMNS + " FROM " + DICT_NAME_OF_TABLE);
+            }
+            return;
+        }
         db.execSQL(DICT_TABLE_DROP);
         db.execSQL(HISTORY_TABLE_DROP);
         onCreate(db);
     }
 
+    /**
+     * Creates the full text index of the dictionary.
+     * 
+     * @param db
+     *            SQLite database object.
+     * @return False if the full text index could not be created.
+     */
+    private boolean createFts(SQLiteDatabase db) {
+        try {
+            db.execSQL(DICT_FTS_TABLE_CREATE);
+            return true;
+        } catch (SQLException e) {
+            LogIt.w("FTS3 is not available, searching tags without index.");
+            return false;
+        }
+    }
+
     /**
      * Creates an index on the given table, if it does not exist yet.
      * 
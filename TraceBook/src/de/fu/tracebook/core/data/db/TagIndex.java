@@ -0,0 +1,375 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.core.data.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import de.fu.tracebook.util.LogIt;
+
+/**
+ * An in-memory index of all known tag keys and values used for
+ * autocompletion. Keys and key value pairs are kept in sorted string tables
+ * together with their use counts from the tag history, so completions are
+ * found by a binary search and ranked by how often the user has used them.
+ * <p>
+ * The index is built once in the background from the tag dictionary and the
+ * history, see {@link #load(Context)}, and then kept up to date by
+ * {@link HistoryDb#updateTag(String, String)}.
+ */
+public final class TagIndex {
+
+    /**
+     * Maximum number of key value pairs in the index. Tags the user enters
+     * beyond this limit are not added to the index.
+     */
+    private static final int MAX_PAIRS = 20000;
+
+    /**
+     * Order of the tables: case insensitive, ties broken by the natural order.
+     */
+    private static final Comparator<String> ORDER = new Comparator<String>() {
+        public int compare(String a, String b) {
+            int cmp = String.CASE_INSENSITIVE_ORDER.compare(a, b);
+            return cmp != 0 ? cmp : a.compareTo(b);
+        }
+    };
+
+    /**
+     * Separates key and value in the table of pairs. Since it is smaller than
+     * all other characters all pairs of a key are stored in one block, shared
+     * with the keys differing only in case.
+     */
+    private static final char SEPARATOR = '\0';
+
+    private static TagIndex instance = null;
+    private static boolean loading = false;
+    private static boolean reloadRequested = false;
+
+    /**
+     * Returns the index if it has been loaded.
+     * 
+     * @return The index or null if it is not loaded yet.
+     */
+    public static synchronized TagIndex getInstance() {
+        return instance;
+    }
+
+    /**
+     * Builds the index in a background thread. If the index is being built
+     * already, it is built again afterwards, so this should be called whenever
+     * the dictionary has changed.
+     * 
+     * @param context
+     *            A context to open the database.
+     */
+    public static synchronized void load(Context context) {
+        if (loading) {
+            reloadRequested = true;
+            return;
+        }
+        loading = true;
+        final TagDbOpenHelper helper = new TagDbOpenHelper(
+                context.getApplicationContext());
+        (new Thread() {
+            @Override
+            public void run() {
+                TagIndex index;
+                while (true) {
+                    synchronized (TagIndex.class) {
+                        reloadRequested = false;
+                    }
+                    index = new TagIndex();
+                    index.fill(helper);
+                    synchronized (TagIndex.class) {
+                        instance = index;
+                        if (!reloadRequested) {
+                            loading = false;
+                            return;
+                        }
+                    }
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * Returns the index of the first entry of a table which is not smaller
+     * than a given prefix, ignoring case.
+     */
+    private static int lowerBound(String[] table, int size, String prefix) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (String.CASE_INSENSITIVE_ORDER.compare(table[mid], prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int[] keyCounts = new int[0];
+    private String[] keys = new String[0];
+    private int keySize = 0;
+    private int[] pairCounts = new int[0];
+    private String[] pairs = new String[0];
+    private int pairSize = 0;
+
+    private TagIndex() {
+        // use getInstance()
+    }
+
+    /**
+     * Increases the use count of a tag. If the tag is not in the index yet,
+     * it is added.
+     * 
+     * @param key
+     *            The key of the tag.
+     * @param value
+     *            The value of the tag.
+     */
+    public synchronized void addUse(String key, String value) {
+        String pair = key + SEPARATOR + value;
+        int pos = find(pairs, pairSize, pair);
+        if (pos < 0) {
+            if (pairSize >= MAX_PAIRS) {
+                return;
+            }
+            pos = -pos - 1;
+            pairs = insert(pairs, pairSize, pos, pair);
+            pairCounts = insert(pairCounts, pairSize, pos);
+            ++pairSize;
+        }
+        ++pairCounts[pos];
+
+        pos = find(keys, keySize, key);
+        if (pos < 0) {
+            pos = -pos - 1;
+            keys = insert(keys, keySize, pos, key);
+            keyCounts = insert(keyCounts, keySize, pos);
+            ++keySize;
+        }
+        ++keyCounts[pos];
+    }
+
+    /**
+     * Returns the keys starting with a given prefix, most used first.
+     * 
+     * @param prefix
+     *            The beginning of the key, case is ignored.
+     * @param limit
+     *            The maximum number of keys returned.
+     * @return The keys, ordered by use count and then alphabetically.
+     */
+    public synchronized String[] completeKeys(String prefix, int limit) {
+        int[] best = complete(keys, keyCounts, keySize, prefix, limit);
+        String[] ret = new String[best.length];
+        for (int i = 0; i < best.length; ++i) {
+            ret[i] = keys[best[i]];
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the values of a key starting with a given prefix, most used
+     * first.
+     * 
+     * @param key
+     *            The key of the values, case is ignored.
+     * @param prefix
+     *            The beginning of the value, case is ignored.
+     * @param limit
+     *            The maximum number of values returned.
+     * @return The values, ordered by use count and then alphabetically.
+     */
+    public synchronized String[] completeValues(String key, String prefix,
+            int limit) {
+        int[] best = complete(pairs, pairCounts, pairSize, key + SEPARATOR
+                + prefix, limit);
+        String[] ret = new String[best.length];
+        for (int i = 0; i < best.length; ++i) {
+            ret[i] = pairs[best[i]].substring(key.length() + 1);
+        }
+        return ret;
+    }
+
+    /**
+     * Selects the most used entries of a table starting with a given prefix.
+     * 
+     * @return The indexes of the entries, best first.
+     */
+    private int[] complete(String[] table, int[] counts, int size,
+            String prefix, int limit) {
+        int[] best = new int[limit];
+        int found = 0;
+        int len = prefix.length();
+        for (int i = lowerBound(table, size, prefix); i < size
+                && table[i].regionMatches(true, 0, prefix, 0, len); ++i) {
+            // insert i into the sorted list of the best entries, on equal
+            // counts the entry found first wins
+            int pos = found;
+            while (pos > 0 && counts[best[pos - 1]] < counts[i]) {
+                --pos;
+            }
+            if (pos < limit) {
+                int last = Math.min(found, limit - 1);
+                System.arraycopy(best, pos, best, pos + 1, last - pos);
+                best[pos] = i;
+                found = Math.min(found + 1, limit);
+            }
+        }
+        int[] ret = new int[found];
+        System.arraycopy(best, 0, ret, 0, found);
+        return ret;
+    }
+
+    /**
+     * Reads all keys and values of the dictionary and the use counts of the
+     * history.
+     */
+    private void fill(TagDbOpenHelper helper) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        List<String> all = new ArrayList<String>();
+        try {
+            SQLiteDatabase db = helper.getReadableDatabase();
+            Cursor crs = db.rawQuery("SELECT DISTINCT "
+                    + TagDbOpenHelper.DICT_COLUMN_KEY + ", "
+                    + TagDbOpenHelper.DICT_COLUMN_VALUE + " FROM "
+                    + TagDbOpenHelper.getDictTableName(), null);
+            while (crs.moveToNext() && all.size() < MAX_PAIRS) {
+                if (!crs.isNull(0) && !crs.isNull(1)) {
+                    all.add(crs.getString(0) + SEPARATOR + crs.getString(1));
+                }
+            }
+            crs.close();
+
+            crs = db.query(TagDbOpenHelper.getHistoryTableName(),
+                    new String[] { TagDbOpenHelper.HISTORY_COLUMN_KEY,
+                            TagDbOpenHelper.HISTORY_COLUMN_VALUE,
+                            TagDbOpenHelper.HISTORY_COLUMN_USE_COUNT }, null,
+                    null, null, null, null);
+            while (crs.moveToNext()) {
+                String pair = crs.getString(0) + SEPARATOR + crs.getString(1);
+                if (counts.put(pair, Integer.valueOf(crs.getInt(2))) == null
+                        && all.size() < MAX_PAIRS) {
+                    all.add(pair);
+                }
+            }
+            crs.close();
+            db.close();
+        } catch (SQLException e) {
+            LogIt.e("Could not load the tag index.");
+        }
+
+        Collections.sort(all, ORDER);
+        pairs = new String[all.size()];
+        pairCounts = new int[all.size()];
+        Map<String, Integer> uses = new HashMap<String, Integer>();
+        for (String pair : all) {
+            if (pairSize > 0 && pair.equals(pairs[pairSize - 1])) {
+                continue;
+            }
+            Integer count = counts.get(pair);
+            int use = count != null ? count.intValue() : 0;
+            pairs[pairSize] = pair;
+            pairCounts[pairSize] = use;
+            ++pairSize;
+
+            // keys differing only in case interleave in the pairs, so they
+            // are sorted on their own
+            String key = pair.substring(0, pair.indexOf(SEPARATOR));
+            Integer sum = uses.get(key);
+            uses.put(key, Integer.valueOf(sum != null ? sum.intValue() + use
+                    : use));
+        }
+
+        List<String> sorted = new ArrayList<String>(uses.keySet());
+        Collections.sort(sorted, ORDER);
+        keys = sorted.toArray(new String[sorted.size()]);
+        keyCounts = new int[keys.length];
+        for (String key : keys) {
+            keyCounts[keySize] = uses.get(key).intValue();
+            ++keySize;
+        }
+    }
+
+    /**
+     * Searches an entry in a table.
+     * 
+     * @return The index of the entry or (-(insertion point) - 1) if it is not
+     *         in the table.
+     */
+    private int find(String[] table, int size, String entry) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = ORDER.compare(table[mid], entry);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid;
+            } else {
+                return mid;
+            }
+        }
+        return -low - 1;
+    }
+
+    /**
+     * Inserts a zero into an array, growing it if necessary.
+     */
+    private int[] insert(int[] table, int size, int pos) {
+        int[] ret = table;
+        if (size == table.length) {
+            ret = new int[size * 3 / 2 + 8];
+            System.arraycopy(table, 0, ret, 0, pos);
+        }
+        System.arraycopy(table, pos, ret, pos + 1, size - pos);
+        ret[pos] = 0;
+        return ret;
+    }
+
+    /**
+     * Inserts an entry into an array, growing it if necessary.
+     */
+    private String[] insert(String[] table, int size, int pos, String entry) {
+        String[] ret = table;
+        if (size == table.length) {
+            ret = new String[size * 3 / 2 + 8];
+            System.arraycopy(table, 0, ret, 0, pos);
+        }
+        System.arraycopy(table, pos, ret, pos + 1, size - pos);
+        ret[pos] = entry;
+        return ret;
+    }
+}
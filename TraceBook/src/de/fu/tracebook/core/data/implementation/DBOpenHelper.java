@@ -20,22 +20,57 @@
 
 package de.fu.tracebook.core.data.implementation;
 
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import de.fu.tracebook.core.data.IWriteCallback;
+import de.fu.tracebook.util.LogIt;
+import de.fu.tracebook.util.Metrics;
 
 /**
  * SQLiteOpenHelper for the database containing all the data recorded.
  * <p>
  * This class is a singleton. Use getInstance() to receive an instance. It must
  * be initialised though by an activity as it needs a context.
+ * <p>
+ * The database is changed by a single writer thread. Changes are queued with
+ * {@link #post(Runnable)} or, if the caller needs their result, run with
+ * {@link #write(Runnable)}. On Android 3.0 and later the database uses write
+ * ahead logging, so that reading threads are not blocked by the writer.
  */
 public class DBOpenHelper extends SQLiteOpenHelper {
 
+    private static final Metrics.Histogram EXECUTE_TIME = Metrics
+            .histogram("db.execute");
+
+    private static final Metrics.Histogram INSERT_TIME = Metrics
+            .histogram("db.insert");
+
     private static DBOpenHelper instance;
 
     private static final String NAME = "tracebookdb";
-    private static final int VERSION = 4;
+    private static final Metrics.Histogram UPDATE_TIME = Metrics
+            .histogram("db.update");
+
+    /**
+     * The tables whose rows refer to a track, each with the columns to copy
+     * when the track names are replaced by ids.
+     */
+    private static final String[][] TRACK_TABLES = {
+            { "nodes", "id, datetime, latitude, longitude, way" },
+            { "pointslists", "id, datetime, isarea" },
+            { "media", "id, name, path, node, way" },
+            { "bugs", "id, description, latitude, longitude" } };
+
+    private static final int VERSION = 8;
 
     /**
      * Returns an instance of this class.
@@ -56,6 +91,136 @@ public class DBOpenHelper extends SQLiteOpenHelper {
         DBOpenHelper.instance = instance;
     }
 
+    /**
+     * Binds the id of a referenced row to a statement. Other than
+     * {@link SQLiteStatement#bindLong(int, long)} this method binds null for
+     * the id 0, which stands for no row.
+     * 
+     * @param stmt
+     *            The statement.
+     * @param index
+     *            The 1-based index of the parameter.
+     * @param id
+     *            The id to bind, 0 for none.
+     */
+    static void bindId(SQLiteStatement stmt, int index, long id) {
+        if (id == 0) {
+            stmt.bindNull(index);
+        } else {
+            stmt.bindLong(index, id);
+        }
+    }
+
+    /**
+     * Binds a String to a statement. Other than
+     * {@link SQLiteStatement#bindString(int, String)} this method accepts null.
+     * 
+     * @param stmt
+     *            The statement.
+     * @param index
+     *            The 1-based index of the parameter.
+     * @param value
+     *            The value to bind, may be null.
+     */
+    static void bindString(SQLiteStatement stmt, int index, String value) {
+        if (value == null) {
+            stmt.bindNull(index);
+        } else {
+            stmt.bindString(index, value);
+        }
+    }
+
+    /**
+     * Puts the id of a referenced row into a set of column values. The id 0,
+     * which stands for no row, is put as null.
+     * 
+     * @param values
+     *            The column values.
+     * @param key
+     *            The name of the column.
+     * @param id
+     *            The id to put, 0 for none.
+     */
+    static void putId(ContentValues values, String key, long id) {
+        if (id == 0) {
+            values.putNull(key);
+        } else {
+            values.put(key, Long.valueOf(id));
+        }
+    }
+
+    /**
+     * Creates the indexes of all tables.
+     */
+    private static void createIndexes(SQLiteDatabase db) {
+        for (String index : NewDBNode.createIndexes()) {
+            db.execSQL(index);
+        }
+        for (String index : NewDBTag.createIndexes()) {
+            db.execSQL(index);
+        }
+        for (String index : NewDBPointsList.createIndexes()) {
+            db.execSQL(index);
+        }
+        for (String index : NewDBMedia.createIndexes()) {
+            db.execSQL(index);
+        }
+        for (String index : NewDBBug.createIndexes()) {
+            db.execSQL(index);
+        }
+        for (String index : NewDBTrack.createIndexes()) {
+            db.execSQL(index);
+        }
+    }
+
+    /**
+     * Replaces the track names in all rows that refer to a track by the new
+     * integer id of the track. As SQLite can not change the type of a column,
+     * each table is renamed, created again and filled from the renamed table.
+     * The track summaries are dropped and computed again when they are read
+     * first.
+     */
+    private static void migrateTrackIds(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL("ALTER TABLE tracks RENAME TO tracks_old");
+            for (String[] table : TRACK_TABLES) {
+                db.execSQL("ALTER TABLE " + table[0] + " RENAME TO "
+                        + table[0] + "_old");
+            }
+            db.execSQL(NewDBTrackSummary.dropTable());
+
+            db.execSQL(NewDBTrack.createTable());
+            db.execSQL(NewDBNode.createTable());
+            db.execSQL(NewDBPointsList.createTable());
+            db.execSQL(NewDBMedia.createTable());
+            db.execSQL(NewDBBug.createTable());
+
+            db.execSQL("INSERT INTO tracks (name, datetime, comment)"
+                    + " SELECT name, datetime, comment FROM tracks_old"
+                    + " ORDER BY datetime ASC");
+            for (String[] table : TRACK_TABLES) {
+                db.execSQL("INSERT INTO " + table[0] + " (" + table[1]
+                        + ", track) SELECT " + table[1]
+                        + ", (SELECT id FROM tracks WHERE tracks.name = "
+                        + table[0] + "_old.track) FROM " + table[0] + "_old");
+            }
+
+            // the indexes are dropped with the old tables, so that they can be
+            // created again for the new ones
+            db.execSQL("DROP TABLE tracks_old");
+            for (String[] table : TRACK_TABLES) {
+                db.execSQL("DROP TABLE " + table[0] + "_old");
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private Map<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
+    private final DBWriter writer;
+
     /**
      * Default constructor.
      * 
@@ -64,6 +229,185 @@ public class DBOpenHelper extends SQLiteOpenHelper {
      */
     public DBOpenHelper(Context context) {
         super(context, NAME, null, VERSION);
+        writer = new DBWriter(this);
+        writer.start();
+    }
+
+    /**
+     * Waits until all changes that have been queued so far are written to the
+     * database.
+     */
+    public void awaitWrites() {
+        writer.await();
+    }
+
+    @Override
+    public synchronized void close() {
+        for (SQLiteStatement stmt : statements.values()) {
+            stmt.close();
+        }
+        statements.clear();
+        super.close();
+    }
+
+    /**
+     * Executes a cached statement with one bound argument.
+     * 
+     * @param sql
+     *            The SQL of the statement, see {@link #getStatement(String)}.
+     * @param arg
+     *            The argument.
+     * @return True if the statement was executed successfully.
+     */
+    public boolean execute(String sql, long arg) {
+        SQLiteStatement stmt = getStatement(sql);
+        synchronized (stmt) {
+            stmt.bindLong(1, arg);
+            return execute(stmt);
+        }
+    }
+
+    /**
+     * Executes a cached statement with one bound argument.
+     * 
+     * @param sql
+     *            The SQL of the statement, see {@link #getStatement(String)}.
+     * @param arg
+     *            The argument, may be null.
+     * @return True if the statement was executed successfully.
+     */
+    public boolean execute(String sql, String arg) {
+        SQLiteStatement stmt = getStatement(sql);
+        synchronized (stmt) {
+            bindString(stmt, 1, arg);
+            return execute(stmt);
+        }
+    }
+
+    /**
+     * Executes a statement whose arguments are already bound.
+     * 
+     * @param stmt
+     *            The statement, see {@link #getStatement(String)}.
+     * @return True if the statement was executed successfully.
+     */
+    public boolean execute(SQLiteStatement stmt) {
+        long start = Metrics.start();
+        try {
+            stmt.execute();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        } finally {
+            EXECUTE_TIME.stop(start);
+        }
+    }
+
+    /**
+     * Executes an insert statement whose arguments are already bound.
+     * 
+     * @param stmt
+     *            The statement, see {@link #getStatement(String)}.
+     * @return The id of the inserted row or -1 if an error occurred.
+     */
+    public long executeInsert(SQLiteStatement stmt) {
+        long start = Metrics.start();
+        try {
+            return stmt.executeInsert();
+        } catch (SQLException e) {
+            return -1;
+        } finally {
+            INSERT_TIME.stop(start);
+        }
+    }
+
+    /**
+     * Returns a compiled statement for the given SQL. The statement is compiled
+     * only once and is kept until the database is closed. The statement may be
+     * used by several threads, so the caller has to synchronise on the
+     * statement while binding arguments and executing it.
+     * 
+     * @param sql
+     *            The SQL of the statement. It should be a constant with ? as
+     *            placeholders for all arguments.
+     * @return The compiled statement.
+     */
+    public synchronized SQLiteStatement getStatement(String sql) {
+        SQLiteStatement stmt = statements.get(sql);
+        if (stmt == null) {
+            stmt = getWritableDatabase().compileStatement(sql);
+            statements.put(sql, stmt);
+        }
+        return stmt;
+    }
+
+    /**
+     * Queues a change of the database for the writer thread and returns at
+     * once. Changes are written in the order they are queued. The change
+     * should not throw exceptions, failures are logged.
+     * 
+     * @param job
+     *            Changes the database.
+     */
+    public void post(Runnable job) {
+        writer.post(job, null);
+    }
+
+    /**
+     * Queues a change of the database for the writer thread and returns at
+     * once, see {@link #post(Runnable)}.
+     * 
+     * @param job
+     *            Changes the database, may be null if only the callback is of
+     *            interest.
+     * @param callback
+     *            Is run on the writer thread after the change, and all changes
+     *            queued before, have been committed or rolled back. It is told
+     *            whether the change has been committed or, if job is null,
+     *            whether all changes queued since the last callback without a
+     *            change have been committed. May be null.
+     */
+    public void post(Runnable job, IWriteCallback callback) {
+        writer.post(job, callback);
+    }
+
+    /**
+     * Updates rows of a table, see
+     * {@link SQLiteDatabase#update(String, ContentValues, String, String[])}.
+     * 
+     * @param table
+     *            The table to update.
+     * @param values
+     *            The new column values.
+     * @param whereClause
+     *            The WHERE clause, with ? as placeholders for the arguments.
+     * @param whereArgs
+     *            The arguments of the WHERE clause.
+     * @return The number of updated rows.
+     */
+    public int update(String table, ContentValues values, String whereClause,
+            String[] whereArgs) {
+        long start = Metrics.start();
+        try {
+            return getWritableDatabase().update(table, values, whereClause,
+                    whereArgs);
+        } finally {
+            UPDATE_TIME.stop(start);
+        }
+    }
+
+    /**
+     * Runs a change of the database on the writer thread and waits until it
+     * has been committed. Use this for changes whose result, like the id of
+     * an inserted row, is needed at once.
+     * 
+     * @param job
+     *            Changes the database.
+     * @return True if the change has been committed, false if it has failed
+     *         and has been rolled back.
+     */
+    public boolean write(Runnable job) {
+        return writer.write(job);
     }
 
     @Override
@@ -74,16 +418,56 @@ public class DBOpenHelper extends SQLiteOpenHelper {
         db.execSQL(NewDBPointsList.createTable());
         db.execSQL(NewDBMedia.createTable());
         db.execSQL(NewDBBug.createTable());
+        db.execSQL(NewDBTrackSummary.createTable());
+        db.execSQL(NewDBWayStatistics.createTable());
+        createIndexes(db);
+    }
+
+    /**
+     * Turns on write ahead logging, which lets the writer thread and readers
+     * access the database at the same time. It is only available since
+     * Android 3.0 and is looked up by reflection, as the project is built
+     * against an older version.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Build.VERSION_CODES.HONEYCOMB
+        if (Build.VERSION.SDK_INT < 11 || db.isReadOnly()) {
+            return;
+        }
+        try {
+            Method enable = SQLiteDatabase.class
+                    .getMethod("enableWriteAheadLogging");
+            enable.invoke(db);
+        } catch (Exception e) {
+            LogIt.w("Could not enable write ahead logging: " + e.getMessage());
+        }
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion >= 4) {
+            // version 5 only adds indexes, version 6 the track summaries,
+            // version 7 the way statistics and version 8 the ids of tracks,
+            // the data can be kept. The summaries and statistics are computed
+            // when they are read first.
+            if (oldVersion < 8) {
+                migrateTrackIds(db);
+            }
+            db.execSQL(NewDBTrackSummary.createTable());
+            db.execSQL(NewDBWayStatistics.createTable());
+            createIndexes(db);
+            return;
+        }
         db.execSQL(NewDBNode.dropTable());
         db.execSQL(NewDBTag.dropTable());
         db.execSQL(NewDBTrack.dropTable());
         db.execSQL(NewDBPointsList.dropTable());
         db.execSQL(NewDBMedia.dropTable());
         db.execSQL(NewDBBug.dropTable());
+        db.execSQL(NewDBTrackSummary.dropTable());
+        db.execSQL(NewDBWayStatistics.dropTable());
         onCreate(db);
     }
 
@@ -0,0 +1,317 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.core.data.implementation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import android.database.sqlite.SQLiteDatabase;
+import de.fu.tracebook.core.data.IWriteCallback;
+import de.fu.tracebook.util.LogIt;
+import de.fu.tracebook.util.Metrics;
+
+/**
+ * The single thread that changes the database. Changes are queued as jobs and
+ * the thread runs all jobs that are waiting in one transaction, so a burst of
+ * changes needs only one journal commit. As all changes run on this thread in
+ * the order they were queued, they can not get in each other's way. Reading
+ * threads are never blocked by a caller that waits for the database to be
+ * written.
+ * <p>
+ * A job that throws an exception rolls back the transaction of its batch. The
+ * jobs of the batch are then written again, each in its own transaction, so
+ * only the failing job is lost. Failures are reported to the callbacks and to
+ * the callers of {@link #write(Runnable)}; the thread keeps running.
+ * <p>
+ * Jobs that are queued while running on this thread, for example by a job that
+ * calls other methods which change the database, are run at once as part of
+ * the current transaction.
+ */
+final class DBWriter extends Thread {
+
+    /**
+     * A queued change.
+     */
+    private static final class Job {
+        final IWriteCallback callback;
+        boolean failed = false;
+        final long sequence;
+        final Runnable task;
+
+        Job(long sequence, Runnable task, IWriteCallback callback) {
+            this.sequence = sequence;
+            this.task = task;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Maximum number of jobs run in one transaction.
+     */
+    static final int MAX_BATCH = 64;
+
+    private static final Metrics.Histogram BATCH_TIME = Metrics
+            .histogram("db.writer.batch");
+
+    private static final Metrics.Counter FAILED = Metrics
+            .counter("db.writer.failed");
+
+    private static final Metrics.Gauge PENDING = Metrics
+            .gauge("db.writer.pending");
+
+    /**
+     * Sequence number of the last job that has been written or has failed.
+     */
+    private long done = 0;
+
+    /**
+     * Whether a job has failed since the last callback without a job of its
+     * own has been run. Only used on this thread.
+     */
+    private boolean failures = false;
+
+    private final DBOpenHelper helper;
+
+    private final BlockingQueue<Job> queue = new LinkedBlockingQueue<Job>();
+
+    /**
+     * Sequence number of the last job that has been queued.
+     */
+    private long queued = 0;
+
+    /**
+     * Creates the writer of a database. Call {@link #start()} to start
+     * writing.
+     * 
+     * @param helper
+     *            The helper of the database.
+     */
+    DBWriter(DBOpenHelper helper) {
+        super("DBWriter");
+        setDaemon(true);
+        this.helper = helper;
+    }
+
+    /**
+     * Waits until all jobs that have been queued so far are written. Returns
+     * at once if called on this thread.
+     */
+    void await() {
+        if (isCurrent()) {
+            return;
+        }
+        synchronized (this) {
+            await(queued);
+        }
+    }
+
+    /**
+     * Queues a job and returns at once. If called on this thread, the job is
+     * run at once.
+     * 
+     * @param task
+     *            The change to write, may be null if only the callback is of
+     *            interest.
+     * @param callback
+     *            Is run on this thread after the transaction of the job has
+     *            been committed or rolled back, may be null. If task is null,
+     *            the callback is told whether all jobs queued since the last
+     *            such callback have been written.
+     */
+    void post(Runnable task, IWriteCallback callback) {
+        if (isCurrent()) {
+            if (task != null) {
+                task.run();
+            }
+            if (callback != null) {
+                // the current transaction is not committed yet
+                enqueue(null, callback);
+            }
+            return;
+        }
+        enqueue(task, callback);
+    }
+
+    @Override
+    public void run() {
+        List<Job> batch = new ArrayList<Job>(MAX_BATCH);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            PENDING.set(queue.size());
+
+            long start = Metrics.start();
+            try {
+                if (!writeBatch(batch) && batch.size() > 1) {
+                    // a failed job rolls back the whole batch, so the jobs
+                    // are written again one by one
+                    for (Job job : batch) {
+                        if (job.task != null) {
+                            writeBatch(Collections.singletonList(job));
+                        }
+                    }
+                }
+            } finally {
+                BATCH_TIME.stop(start);
+                finish(batch);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Queues a job and waits until it is written. If called on this thread,
+     * the job is run at once.
+     * 
+     * @param task
+     *            The change to write.
+     * @return True if the job has been committed, false if it has failed. On
+     *         this thread the job is part of the current transaction, so true
+     *         is returned unless the job throws an exception.
+     */
+    boolean write(Runnable task) {
+        if (isCurrent()) {
+            task.run();
+            return true;
+        }
+        Job job = enqueue(task, null);
+        synchronized (this) {
+            await(job.sequence);
+            return !job.failed;
+        }
+    }
+
+    /**
+     * Waits until the job with the given sequence number is written. The
+     * caller has to hold the lock of this object.
+     */
+    private void await(long sequence) {
+        boolean interrupted = false;
+        while (done < sequence) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds a job to the queue.
+     * 
+     * @return The queued job.
+     */
+    private synchronized Job enqueue(Runnable task, IWriteCallback callback) {
+        Job job = new Job(++queued, task, callback);
+        queue.add(job);
+        return job;
+    }
+
+    /**
+     * Runs the callbacks of a batch that has been written and wakes up the
+     * threads waiting for it.
+     */
+    private void finish(List<Job> batch) {
+        for (Job job : batch) {
+            if (job.failed) {
+                FAILED.increment();
+                failures = true;
+            }
+            if (job.callback == null) {
+                continue;
+            }
+            boolean success;
+            if (job.task == null) {
+                success = !failures;
+                failures = false;
+            } else {
+                success = !job.failed;
+            }
+            try {
+                job.callback.onWritten(success);
+            } catch (RuntimeException e) {
+                LogIt.e("Database callback failed: " + e.getMessage());
+            }
+        }
+        synchronized (this) {
+            done = batch.get(batch.size() - 1).sequence;
+            notifyAll();
+        }
+    }
+
+    private boolean isCurrent() {
+        return Thread.currentThread() == this;
+    }
+
+    /**
+     * Runs jobs in one transaction. If a job throws an exception or the
+     * transaction can not be committed, all jobs are rolled back and marked
+     * as failed.
+     * 
+     * @return True if the transaction has been committed.
+     */
+    private boolean writeBatch(List<Job> jobs) {
+        boolean success = true;
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Job job : jobs) {
+                    job.failed = false;
+                    if (job.task == null) {
+                        continue;
+                    }
+                    try {
+                        job.task.run();
+                    } catch (RuntimeException e) {
+                        LogIt.e("Database job failed: " + e.getMessage());
+                        success = false;
+                    }
+                }
+                if (success) {
+                    db.setTransactionSuccessful();
+                }
+            } finally {
+                db.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            // for example the disk is full, the jobs are rolled back
+            LogIt.e("Could not write to the database: " + e.getMessage());
+            success = false;
+        }
+        if (!success) {
+            for (Job job : jobs) {
+                job.failed = job.task != null;
+            }
+        }
+        return success;
+    }
+}
@@ -37,8 +37,13 @@ public class NewDBBug implements NewDBObject {
 
     private static final String CREATE = "CREATE TABLE IF NOT EXISTS bugs "
             + "( id INTEGER PRIMARY KEY AUTOINCREMENT," + " description TEXT,"
-            + " latitude INTEGER," + " longitude INTEGER," + " track TEXT );";
+            + " latitude INTEGER," + " longitude INTEGER," + " track INTEGER );";
+    private static final String DELETE = "DELETE FROM bugs WHERE id = ?";
+    private static final String DELETE_BY_TRACK =
+            "DELETE FROM bugs WHERE track = ?";
     private static final String DROP = "DROP TABLE IF EXISTS bugs";
+    private static final String[] INDEXES = {
+            "CREATE INDEX IF NOT EXISTS bugs_track ON bugs (track)" };
     private static final String TABLENAME = "bugs";
 
     /**
@@ -54,15 +59,24 @@ public class NewDBBug implements NewDBObject {
      * Delete all bugs that belong to the given track.
      * 
      * @param trackId
-     *            The name of the track.
+     *            The id of the track.
      */
-    public static void deleteByTrack(String trackId) {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
-        if (db.delete(TABLENAME, "track = '" + trackId + "'", null) == -1) {
+    public static void deleteByTrack(long trackId) {
+        if (!DBOpenHelper.getInstance().execute(DELETE_BY_TRACK, trackId)) {
             LogIt.e("Could not delete bug");
         }
     }
 
+    /**
+     * Returns the strings that create the indexes of the table for this
+     * object.
+     * 
+     * @return The create index strings.
+     */
+    public static String[] createIndexes() {
+        return INDEXES;
+    }
+
     /**
      * Returns a string that drops the table for this object.
      * 
@@ -86,17 +100,17 @@ public class NewDBBug implements NewDBObject {
     /**
      * Retrieves a list of all bugs that belong to the given track.
      * 
-     * @param bugId
-     *            The name of the track.
+     * @param trackId
+     *            The id of the track.
      * @return The list of bugs, may be empty.
      */
-    public static List<NewDBBug> getByTrack(String bugId) {
+    public static List<NewDBBug> getByTrack(long trackId) {
         List<NewDBBug> ret = new ArrayList<NewDBBug>();
 
         SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
         Cursor result = db.query(TABLENAME, new String[] { "id", "description",
-                "latitude", "longitude", "track " }, "track = '" + bugId + "'",
-                null, null, null, "id ASC");
+                "latitude", "longitude", "track " }, "track = ?",
+                new String[] { Long.toString(trackId) }, null, null, "id ASC");
         if (result.moveToFirst()) {
             do {
                 ret.add(createNewObject(new NewDBBug(), result));
@@ -113,7 +127,7 @@ public class NewDBBug implements NewDBObject {
         int latitude = crs.getInt(crs.getColumnIndex("latitude"));
         int longitude = crs.getInt(crs.getColumnIndex("longitude"));
         ret.point = new GeoPoint(latitude, longitude);
-        ret.track = crs.getString(crs.getColumnIndex("track"));
+        ret.track = crs.getLong(crs.getColumnIndex("track"));
         return ret;
     }
 
@@ -121,8 +135,8 @@ public class NewDBBug implements NewDBObject {
         NewDBBug ret = null;
         SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
         Cursor result = db.query(TABLENAME, new String[] { "id", "description",
-                "latitude", "longitude", "track " }, "id = " + bugId, null,
-                null, null, null);
+                "latitude", "longitude", "track " }, "id = ?",
+                new String[] { Long.toString(bugId) }, null, null, null);
         if (result.moveToFirst()) {
             ret = createNewObject(bug, result);
         }
@@ -143,13 +157,12 @@ public class NewDBBug implements NewDBObject {
      */
     public GeoPoint point;
     /**
-     * The track that the bug belongs to.
+     * The id of the track that the bug belongs to.
      */
-    public String track;
+    public long track;
 
     public void delete() {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
-        if (db.delete(TABLENAME, "id = " + id, null) == -1) {
+        if (!DBOpenHelper.getInstance().execute(DELETE, id)) {
             LogIt.e("Could not delete bugs");
         }
     }
@@ -162,7 +175,7 @@ public class NewDBBug implements NewDBObject {
                 Integer.valueOf(point != null ? point.getLatitudeE6() : 0));
         values.put("longitude",
                 Integer.valueOf(point != null ? point.getLongitudeE6() : 0));
-        values.put("track", track);
+        DBOpenHelper.putId(values, "track", track);
         long rowID = db.insert(TABLENAME, null, values);
         if (rowID == -1) {
             LogIt.e("Could not insert bugs");
@@ -172,15 +185,15 @@ public class NewDBBug implements NewDBObject {
     }
 
     public void save() {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
         ContentValues values = new ContentValues();
         values.put("description", description);
         values.put("latitude",
                 Integer.valueOf(point != null ? point.getLatitudeE6() : 0));
         values.put("longitude",
                 Integer.valueOf(point != null ? point.getLongitudeE6() : 0));
-        values.put("track", track);
-        if (db.update(TABLENAME, values, "id = " + id, null) == -1) {
+        DBOpenHelper.putId(values, "track", track);
+        if (DBOpenHelper.getInstance().update(TABLENAME, values, "id = ?",
+                new String[] { Long.toString(id) }) == -1) {
             LogIt.e("Could not update bugs");
         }
     }
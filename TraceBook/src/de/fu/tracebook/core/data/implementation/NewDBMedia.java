@@ -26,7 +26,9 @@ import java.util.List;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import de.fu.tracebook.util.LogIt;
+import de.fu.tracebook.util.Metrics;
 
 /**
  * The DAO-object for media. Each object represents a row in the database.
@@ -36,8 +38,24 @@ public class NewDBMedia implements NewDBObject {
     private static final String CREATE = "CREATE TABLE IF NOT EXISTS media "
             + "( id INTEGER PRIMARY KEY AUTOINCREMENT," + " name TEXT,"
             + " path TEXT," + " node INTEGER," + " way INTEGER,"
-            + " track TEXT );";
+            + " track INTEGER );";
+    private static final String DELETE = "DELETE FROM media WHERE id = ?";
+    private static final String DELETE_BY_NODE =
+            "DELETE FROM media WHERE node = ?";
+    private static final String DELETE_BY_TRACK =
+            "DELETE FROM media WHERE track = ?";
+    private static final String DELETE_BY_WAY =
+            "DELETE FROM media WHERE way = ?";
     private static final String DROP = "DROP TABLE IF EXISTS media";
+    private static final String[] INDEXES = {
+            "CREATE INDEX IF NOT EXISTS media_node ON media (node)",
+            "CREATE INDEX IF NOT EXISTS media_way ON media (way)",
+            "CREATE INDEX IF NOT EXISTS media_track ON media (track)" };
+    private static final String INSERT = "INSERT INTO media"
+            + " (name, path, node, track, way)"
+            + " VALUES (?, ?, ?, ?, ?)";
+    private static final Metrics.Histogram QUERY_TIME = Metrics
+            .histogram("db.media.query");
     private static final String TABLENAME = "media";
 
     /**
@@ -56,8 +74,7 @@ public class NewDBMedia implements NewDBObject {
      *            The id of the node.
      */
     public static void deleteByNode(long nodeId) {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
-        if (db.delete(TABLENAME, "node = " + nodeId, null) == -1) {
+        if (!DBOpenHelper.getInstance().execute(DELETE_BY_NODE, nodeId)) {
             LogIt.e("Could not delete media");
         }
     }
@@ -66,11 +83,10 @@ public class NewDBMedia implements NewDBObject {
      * Delete all media that belong to the given track.
      * 
      * @param trackId
-     *            The name of the track.
+     *            The id of the track.
      */
-    public static void deleteByTrack(String trackId) {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
-        if (db.delete(TABLENAME, "track = '" + trackId + "'", null) == -1) {
+    public static void deleteByTrack(long trackId) {
+        if (!DBOpenHelper.getInstance().execute(DELETE_BY_TRACK, trackId)) {
             LogIt.e("Could not delete media");
         }
     }
@@ -82,12 +98,21 @@ public class NewDBMedia implements NewDBObject {
      *            The id of the way.
      */
     public static void deleteByWay(long wayId) {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
-        if (db.delete(TABLENAME, "way = " + wayId, null) == -1) {
+        if (!DBOpenHelper.getInstance().execute(DELETE_BY_WAY, wayId)) {
             LogIt.e("Could not delete media");
         }
     }
 
+    /**
+     * Returns the strings that create the indexes of the table for this
+     * object.
+     * 
+     * @return The create index strings.
+     */
+    public static String[] createIndexes() {
+        return INDEXES;
+    }
+
     /**
      * Returns a string that drops the table for this object.
      * 
@@ -116,19 +141,20 @@ public class NewDBMedia implements NewDBObject {
      * @return The list of media, may be empty.
      */
     public static List<NewDBMedia> getByNode(long nodeId) {
+        long start = Metrics.start();
         List<NewDBMedia> ret = new ArrayList<NewDBMedia>();
 
         SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
-        Cursor result = db.query(TABLENAME, new String[] { "id", "name",
-                "path", "node", "way", "track " }, "node = " + nodeId, null,
-                null, null, "id ASC");
+        Cursor result = db.query(TABLENAME, new String[] { "id", "name", "path",
+                "node", "way", "track " }, "node = ?",
+                new String[] { Long.toString(nodeId) }, null, null, "id ASC");
         if (result.moveToFirst()) {
             do {
                 ret.add(createNewObject(new NewDBMedia(), result));
             } while (result.moveToNext());
         }
         result.close();
-
+        QUERY_TIME.stop(start);
         return ret;
     }
 
@@ -136,23 +162,24 @@ public class NewDBMedia implements NewDBObject {
      * Retrieves a list of all media that belong to the given track.
      * 
      * @param trackId
-     *            The name of the track.
+     *            The id of the track.
      * @return The list of media, may be empty.
      */
-    public static List<NewDBMedia> getByTrack(String trackId) {
+    public static List<NewDBMedia> getByTrack(long trackId) {
+        long start = Metrics.start();
         List<NewDBMedia> ret = new ArrayList<NewDBMedia>();
 
         SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
-        Cursor result = db.query(TABLENAME, new String[] { "id", "name",
-                "path", "node", "way", "track " }, "track = '" + trackId + "'",
-                null, null, null, "id ASC");
+        Cursor result = db.query(TABLENAME, new String[] { "id", "name", "path",
+                "node", "way", "track " }, "track = ?",
+                new String[] { Long.toString(trackId) }, null, null, "id ASC");
         if (result.moveToFirst()) {
             do {
                 ret.add(createNewObject(new NewDBMedia(), result));
             } while (result.moveToNext());
         }
         result.close();
-
+        QUERY_TIME.stop(start);
         return ret;
     }
 
@@ -164,19 +191,87 @@ public class NewDBMedia implements NewDBObject {
      * @return The list of media, may be empty.
      */
     public static List<NewDBMedia> getByWay(long wayId) {
+        long start = Metrics.start();
         List<NewDBMedia> ret = new ArrayList<NewDBMedia>();
 
         SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
-        Cursor result = db.query(TABLENAME, new String[] { "id", "name",
-                "path", "node", "way", "track " }, "way = " + wayId, null,
-                null, null, "id ASC");
+        Cursor result = db.query(TABLENAME, new String[] { "id", "name", "path",
+                "node", "way", "track " }, "way = ?",
+                new String[] { Long.toString(wayId) }, null, null, "id ASC");
         if (result.moveToFirst()) {
             do {
                 ret.add(createNewObject(new NewDBMedia(), result));
             } while (result.moveToNext());
         }
         result.close();
+        QUERY_TIME.stop(start);
+        return ret;
+    }
+
+    /**
+     * Queries the media of all nodes of a track, ordered by node. The columns
+     * of the cursor are the id of the node and the name of the medium in this
+     * order. The caller has to close the cursor.
+     * 
+     * @param trackId
+     *            The id of the track.
+     * @return The cursor.
+     */
+    public static Cursor getNodeCursorByTrack(long trackId) {
+        String track = Long.toString(trackId);
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        return db.rawQuery("SELECT media.node, media.name"
+                + " FROM media, nodes WHERE media.node = nodes.id AND "
+                + NewDBNode.TRACK_CONDITION
+                + " ORDER BY media.node ASC, media.id ASC",
+                new String[] { track, track });
+    }
+
+    /**
+     * Queries the media of all ways of a track, ordered by way. The columns of
+     * the cursor are the id of the way and the name of the medium in this
+     * order. The caller has to close the cursor.
+     * 
+     * @param trackId
+     *            The id of the track.
+     * @return The cursor.
+     */
+    public static Cursor getWayCursorByTrack(long trackId) {
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        return db.rawQuery("SELECT media.way, media.name"
+                + " FROM media, pointslists WHERE media.way = pointslists.id"
+                + " AND pointslists.track = ?"
+                + " ORDER BY media.way ASC, media.id ASC",
+                new String[] { Long.toString(trackId) });
+    }
+
+    /**
+     * Retrieves a list of the media of all ways of the given track, ordered by
+     * way.
+     * 
+     * @param trackId
+     *            The id of the track.
+     * @return The list of media, may be empty.
+     */
+    public static List<NewDBMedia> getWayListByTrack(long trackId) {
+        long start = Metrics.start();
+        List<NewDBMedia> ret = new ArrayList<NewDBMedia>();
 
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        Cursor result = db.rawQuery("SELECT media.id AS id, media.name AS name,"
+                + " media.path AS path, media.node AS node, media.way AS way,"
+                + " media.track AS track"
+                + " FROM media, pointslists WHERE media.way = pointslists.id"
+                + " AND pointslists.track = ?"
+                + " ORDER BY media.way ASC, media.id ASC",
+                new String[] { Long.toString(trackId) });
+        if (result.moveToFirst()) {
+            do {
+                ret.add(createNewObject(new NewDBMedia(), result));
+            } while (result.moveToNext());
+        }
+        result.close();
+        QUERY_TIME.stop(start);
         return ret;
     }
 
@@ -186,16 +281,16 @@ public class NewDBMedia implements NewDBObject {
         ret.name = crs.getString(crs.getColumnIndex("name"));
         ret.node = crs.getLong(crs.getColumnIndex("node"));
         ret.way = crs.getLong(crs.getColumnIndex("way"));
-        ret.track = crs.getString(crs.getColumnIndex("track"));
+        ret.track = crs.getLong(crs.getColumnIndex("track"));
         return ret;
     }
 
     private static NewDBMedia fillObject(long mediaId, NewDBMedia media) {
         NewDBMedia ret = null;
         SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
-        Cursor result = db.query(TABLENAME, new String[] { "id", "name",
-                "path", "node", "way", "track " }, "id = " + mediaId, null,
-                null, null, null);
+        Cursor result = db.query(TABLENAME, new String[] { "id", "name", "path",
+                "node", "way", "track " }, "id = ?",
+                new String[] { Long.toString(mediaId) }, null, null, null);
         if (result.moveToFirst()) {
             ret = createNewObject(media, result);
         }
@@ -224,31 +319,51 @@ public class NewDBMedia implements NewDBObject {
     public String path;
 
     /**
-     * The id of the track that this medium belongs to.
+     * The id of the track that this medium belongs to, 0 if it belongs to a
+     * node or a way.
      */
-    public String track;
+    public long track;
 
     /**
      * The id of the way that this medium belongs to.
      */
     public long way;
 
+    /**
+     * Returns a copy of this medium. The copy can be written by another thread
+     * while this object is changed further.
+     * 
+     * @return A new object with the same values.
+     */
+    public NewDBMedia copy() {
+        NewDBMedia copy = new NewDBMedia();
+        copy.id = id;
+        copy.name = name;
+        copy.node = node;
+        copy.path = path;
+        copy.track = track;
+        copy.way = way;
+        return copy;
+    }
+
     public void delete() {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
-        if (db.delete(TABLENAME, "id = " + id, null) == -1) {
+        if (!DBOpenHelper.getInstance().execute(DELETE, id)) {
             LogIt.e("Could not delete media");
         }
     }
 
     public void insert() {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put("name", name);
-        values.put("path", path);
-        values.put("node", Long.valueOf(node));
-        values.put("track", track);
-        values.put("way", Long.valueOf(way));
-        long rowID = db.insert(TABLENAME, null, values);
+        DBOpenHelper helper = DBOpenHelper.getInstance();
+        SQLiteStatement stmt = helper.getStatement(INSERT);
+        long rowID;
+        synchronized (stmt) {
+            DBOpenHelper.bindString(stmt, 1, name);
+            DBOpenHelper.bindString(stmt, 2, path);
+            stmt.bindLong(3, node);
+            DBOpenHelper.bindId(stmt, 4, track);
+            stmt.bindLong(5, way);
+            rowID = helper.executeInsert(stmt);
+        }
         if (rowID == -1) {
             LogIt.e("Could not insert media");
         } else {
@@ -258,14 +373,14 @@ public class NewDBMedia implements NewDBObject {
     }
 
     public void save() {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
         ContentValues values = new ContentValues();
         values.put("name", name);
         values.put("path", path);
         values.put("node", Long.valueOf(node));
-        values.put("track", track);
+        DBOpenHelper.putId(values, "track", track);
         values.put("way", Long.valueOf(way));
-        if (db.update(TABLENAME, values, "id = " + id, null) == -1) {
+        if (DBOpenHelper.getInstance().update(TABLENAME, values, "id = ?",
+                new String[] { Long.toString(id) }) == -1) {
             LogIt.e("Could not update media");
         }
     }
@@ -26,7 +26,11 @@ import java.util.List;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import de.fu.tracebook.core.data.NewTrack;
+import de.fu.tracebook.core.data.NodeArray;
 import de.fu.tracebook.util.LogIt;
+import de.fu.tracebook.util.Metrics;
 
 /**
  * The DAO-object for nodes. Each object represents a row in the database.
@@ -36,10 +40,27 @@ public class NewDBNode implements NewDBObject {
     private static final String CREATE = "CREATE TABLE IF NOT EXISTS nodes "
             + "( id INTEGER PRIMARY KEY AUTOINCREMENT," + " datetime TEXT,"
             + " latitude INTEGER," + " longitude INTEGER," + " way INTEGER,"
-            + " track TEXT );";
+            + " track INTEGER );";
+    private static final String DELETE = "DELETE FROM nodes WHERE id = ?";
     private static final String DROP = "DROP TABLE IF EXISTS nodes";
+    private static final String[] INDEXES = {
+            "CREATE INDEX IF NOT EXISTS nodes_way ON nodes (way)",
+            "CREATE INDEX IF NOT EXISTS nodes_track ON nodes (track)" };
+    private static final String INSERT = "INSERT INTO nodes"
+            + " (datetime, latitude, longitude, track, way)"
+            + " VALUES (?, ?, ?, ?, ?)";
+    private static final Metrics.Histogram QUERY_TIME = Metrics
+            .histogram("db.nodes.query");
     private static final String TABLENAME = "nodes";
 
+    /**
+     * A condition on the nodes table that selects all nodes of a track, the
+     * POIs as well as the nodes of its ways. The id of the track has to be
+     * bound to both parameters.
+     */
+    static final String TRACK_CONDITION = "(nodes.track = ? OR nodes.way IN"
+            + " (SELECT id FROM pointslists WHERE track = ?))";
+
     /**
      * Returns a string that creates the table for this object.
      * 
@@ -49,6 +70,16 @@ public class NewDBNode implements NewDBObject {
         return CREATE;
     }
 
+    /**
+     * Returns the strings that create the indexes of the table for this
+     * object.
+     * 
+     * @return The create index strings.
+     */
+    public static String[] createIndexes() {
+        return INDEXES;
+    }
+
     /**
      * Returns a string that drops the table for this object.
      * 
@@ -58,6 +89,60 @@ public class NewDBNode implements NewDBObject {
         return DROP;
     }
 
+    /**
+     * Retrieves all POIs of the given track as a NodeArray.
+     * 
+     * @param trackId
+     *            The id of the track.
+     * @return The nodes, may be empty.
+     */
+    public static NodeArray getArrayByTrack(long trackId) {
+        long start = Metrics.start();
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        Cursor result = db.query(TABLENAME, new String[] { "id", "datetime",
+                "latitude", "longitude", "way" }, "track = ?",
+                new String[] { Long.toString(trackId) }, null, null, "id ASC");
+        NodeArray nodes = fillArray(result);
+        QUERY_TIME.stop(start);
+        return nodes;
+    }
+
+    /**
+     * Retrieves all nodes that belong to the given way as a NodeArray.
+     * 
+     * @param wayId
+     *            The id of the way.
+     * @return The nodes, may be empty.
+     */
+    public static NodeArray getArrayByWay(long wayId) {
+        long start = Metrics.start();
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        Cursor result = db.query(TABLENAME, new String[] { "id", "datetime",
+                "latitude", "longitude", "way" }, "way = ?",
+                new String[] { Long.toString(wayId) }, null, null, "id ASC");
+        NodeArray nodes = fillArray(result);
+        QUERY_TIME.stop(start);
+        return nodes;
+    }
+
+    /**
+     * Queries all nodes of a track, the POIs as well as the nodes of its ways,
+     * ordered by their id. The columns of the cursor are id, datetime,
+     * latitude and longitude in this order. The caller has to close the
+     * cursor.
+     * 
+     * @param trackId
+     *            The id of the track.
+     * @return The cursor.
+     */
+    public static Cursor getCursorByTrack(long trackId) {
+        String track = Long.toString(trackId);
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        return db.rawQuery("SELECT id, datetime, latitude, longitude"
+                + " FROM nodes WHERE " + TRACK_CONDITION + " ORDER BY id ASC",
+                new String[] { track, track });
+    }
+
     /**
      * Retrieve a node from the database with a given id.
      * 
@@ -72,17 +157,17 @@ public class NewDBNode implements NewDBObject {
     /**
      * Retrieves a list of all nodes that belong to the given track.
      * 
-     * @param name
-     *            The name of the track.
+     * @param trackId
+     *            The id of the track.
      * @return The list of nodes, may be empty.
      */
-    public static List<NewDBNode> getByTrack(String name) {
+    public static List<NewDBNode> getByTrack(long trackId) {
         List<NewDBNode> ret = new ArrayList<NewDBNode>();
 
         SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
         Cursor result = db.query(TABLENAME, new String[] { "id", "datetime",
-                "latitude", "longitude", "way", "track " }, "track = '" + name
-                + "'", null, null, null, "id ASC");
+                "latitude", "longitude", "way", "track " }, "track = ?",
+                new String[] { Long.toString(trackId) }, null, null, "id ASC");
         if (result.moveToFirst()) {
             do {
                 ret.add(createNewObject(new NewDBNode(), result));
@@ -105,8 +190,8 @@ public class NewDBNode implements NewDBObject {
 
         SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
         Cursor result = db.query(TABLENAME, new String[] { "id", "datetime",
-                "latitude", "longitude", "way", "track " }, "way = " + wayId,
-                null, null, null, "id ASC");
+                "latitude", "longitude", "way", "track " }, "way = ?",
+                new String[] { Long.toString(wayId) }, null, null, "id ASC");
         if (result.moveToFirst()) {
             do {
                 ret.add(createNewObject(new NewDBNode(), result));
@@ -117,22 +202,119 @@ public class NewDBNode implements NewDBObject {
         return ret;
     }
 
+    /**
+     * Retrieves the nodes of all ways of the given track as a NodeArray. The
+     * nodes are ordered by way and, within a way, by their position in the
+     * way.
+     * 
+     * @param trackId
+     *            The id of the track.
+     * @return The nodes, may be empty.
+     */
+    public static NodeArray getWayArrayByTrack(long trackId) {
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        Cursor result = db.rawQuery("SELECT nodes.id AS id,"
+                + " nodes.datetime AS datetime,"
+                + " nodes.latitude AS latitude,"
+                + " nodes.longitude AS longitude, nodes.way AS way"
+                + " FROM nodes, pointslists WHERE nodes.way = pointslists.id"
+                + " AND pointslists.track = ?"
+                + " ORDER BY nodes.way ASC, nodes.id ASC",
+                new String[] { Long.toString(trackId) });
+        return fillArray(result);
+    }
+
+    /**
+     * Queries the nodes of all ways of a track, ordered by way and, within a
+     * way, by their position in the way. The columns of the cursor are the id
+     * of the way and the id of the node in this order. The caller has to close
+     * the cursor.
+     * 
+     * @param trackId
+     *            The id of the track.
+     * @return The cursor.
+     */
+    public static Cursor getWayCursorByTrack(long trackId) {
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        return db.rawQuery("SELECT nodes.way, nodes.id"
+                + " FROM nodes, pointslists WHERE nodes.way = pointslists.id"
+                + " AND pointslists.track = ?"
+                + " ORDER BY nodes.way ASC, nodes.id ASC",
+                new String[] { Long.toString(trackId) });
+    }
+
+    /**
+     * Inserts several nodes at once. All rows are written in a single
+     * transaction so that only one journal commit is needed for the whole
+     * batch. The ids of the given objects are set accordingly.
+     * 
+     * @param nodes
+     *            The nodes to insert.
+     */
+    public static void insertAll(NewDBNode[] nodes) {
+        DBOpenHelper helper = DBOpenHelper.getInstance();
+        SQLiteDatabase db = helper.getWritableDatabase();
+        SQLiteStatement stmt = helper.getStatement(INSERT);
+        // begin the transaction before locking the statement, as the jobs of
+        // the database writer do
+        db.beginTransaction();
+        try {
+            synchronized (stmt) {
+                for (NewDBNode node : nodes) {
+                    node.bindValues(stmt);
+                    long rowID = helper.executeInsert(stmt);
+                    if (rowID == -1) {
+                        LogIt.e("Could not insert node");
+                    } else {
+                        node.id = rowID;
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     private static NewDBNode createNewObject(NewDBNode node, Cursor crs) {
         node.id = crs.getLong(crs.getColumnIndex("id"));
         node.datetime = crs.getString(crs.getColumnIndex("datetime"));
         node.latitude = crs.getInt(crs.getColumnIndex("latitude"));
         node.longitude = crs.getInt(crs.getColumnIndex("longitude"));
         node.way = crs.getLong(crs.getColumnIndex("way"));
-        node.track = crs.getString(crs.getColumnIndex("track"));
+        node.track = crs.getLong(crs.getColumnIndex("track"));
         return node;
     }
 
+    /**
+     * Copies all rows of a cursor into a new NodeArray and closes the cursor.
+     */
+    private static NodeArray fillArray(Cursor crs) {
+        NodeArray ret = new NodeArray(crs.getCount());
+        if (crs.moveToFirst()) {
+            int id = crs.getColumnIndex("id");
+            int datetime = crs.getColumnIndex("datetime");
+            int latitude = crs.getColumnIndex("latitude");
+            int longitude = crs.getColumnIndex("longitude");
+            int way = crs.getColumnIndex("way");
+            do {
+                String stamp = crs.getString(datetime);
+                ret.add(crs.getLong(id), crs.getInt(latitude),
+                        crs.getInt(longitude),
+                        NewTrack.parseW3CTimeStamp(stamp), stamp,
+                        crs.getLong(way));
+            } while (crs.moveToNext());
+        }
+        crs.close();
+        return ret;
+    }
+
     private static NewDBNode fillObject(long nodeId, NewDBNode node) {
         NewDBNode ret = null;
         SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
         Cursor result = db.query(TABLENAME, new String[] { "id", "datetime",
-                "latitude", "longitude", "way", "track " }, "id = " + nodeId,
-                null, null, null, null);
+                "latitude", "longitude", "way", "track " }, "id = ?",
+                new String[] { Long.toString(nodeId) }, null, null, null);
         if (result.moveToFirst()) {
             ret = createNewObject(node, result);
         }
@@ -162,31 +344,46 @@ public class NewDBNode implements NewDBObject {
     public int longitude;
 
     /**
-     * The name of the track this node belongs to.
+     * The id of the track this node belongs to, 0 if it belongs to a way.
      */
-    public String track;
+    public long track;
 
     /**
      * The id of the way this node belongs to.
      */
     public long way;
 
+    /**
+     * Returns a copy of this node. The copy can be written by another thread
+     * while this object is changed further.
+     * 
+     * @return A new object with the same values.
+     */
+    public NewDBNode copy() {
+        NewDBNode copy = new NewDBNode();
+        copy.datetime = datetime;
+        copy.id = id;
+        copy.latitude = latitude;
+        copy.longitude = longitude;
+        copy.track = track;
+        copy.way = way;
+        return copy;
+    }
+
     public void delete() {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
-        if (db.delete(TABLENAME, "id = " + id, null) == -1) {
+        if (!DBOpenHelper.getInstance().execute(DELETE, id)) {
             LogIt.e("Could not delete node");
         }
     }
 
     public void insert() {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put("datetime", datetime);
-        values.put("latitude", Integer.valueOf(latitude));
-        values.put("longitude", Integer.valueOf(longitude));
-        values.put("track", track);
-        values.put("way", Long.valueOf(way));
-        long rowID = db.insert(TABLENAME, null, values);
+        DBOpenHelper helper = DBOpenHelper.getInstance();
+        SQLiteStatement stmt = helper.getStatement(INSERT);
+        long rowID;
+        synchronized (stmt) {
+            bindValues(stmt);
+            rowID = helper.executeInsert(stmt);
+        }
         if (rowID == -1) {
             LogIt.e("Could not insert node");
         } else {
@@ -196,20 +393,37 @@ public class NewDBNode implements NewDBObject {
     }
 
     public void save() {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
         ContentValues values = new ContentValues();
-        values.put("datetime", datetime);
-        values.put("latitude", Integer.valueOf(latitude));
-        values.put("longitude", Integer.valueOf(longitude));
-        values.put("track", track);
-        values.put("way", Long.valueOf(way));
-        if (db.update(TABLENAME, values, "id = " + id, null) == -1) {
+        fillValues(values);
+        if (DBOpenHelper.getInstance().update(TABLENAME, values, "id = ?",
+                new String[] { Long.toString(id) }) == -1) {
             LogIt.e("Could not update node");
         }
     }
 
     public void update() {
+        // changes that are still queued would be reverted otherwise
+        DBOpenHelper.getInstance().awaitWrites();
         fillObject(id, this);
     }
 
+    /**
+     * Binds the values of this node to the parameters of the insert statement.
+     */
+    private void bindValues(SQLiteStatement stmt) {
+        DBOpenHelper.bindString(stmt, 1, datetime);
+        stmt.bindLong(2, latitude);
+        stmt.bindLong(3, longitude);
+        DBOpenHelper.bindId(stmt, 4, track);
+        stmt.bindLong(5, way);
+    }
+
+    private void fillValues(ContentValues values) {
+        values.put("datetime", datetime);
+        values.put("latitude", Integer.valueOf(latitude));
+        values.put("longitude", Integer.valueOf(longitude));
+        DBOpenHelper.putId(values, "track", track);
+        values.put("way", Long.valueOf(way));
+    }
+
 }
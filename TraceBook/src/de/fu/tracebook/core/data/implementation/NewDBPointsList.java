@@ -26,6 +26,7 @@ import java.util.List;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import de.fu.tracebook.util.LogIt;
 
 /**
@@ -37,8 +38,14 @@ public class NewDBPointsList implements NewDBObject {
     private static final String CREATE = "CREATE TABLE IF NOT EXISTS pointslists "
             + "( id INTEGER PRIMARY KEY AUTOINCREMENT,"
             + " datetime TEXT,"
-            + " isarea INTEGER," + " track TEXT );";
+            + " isarea INTEGER," + " track INTEGER );";
+    private static final String DELETE = "DELETE FROM pointslists WHERE id = ?";
     private static final String DROP = "DROP TABLE IF EXISTS pointslists";
+    private static final String[] INDEXES = { "CREATE INDEX IF NOT EXISTS"
+            + " pointslists_track ON pointslists (track)" };
+    private static final String INSERT = "INSERT INTO pointslists"
+            + " (datetime, track, isarea)"
+            + " VALUES (?, ?, ?)";
     private static final String TABLENAME = "pointslists";
 
     /**
@@ -50,6 +57,16 @@ public class NewDBPointsList implements NewDBObject {
         return CREATE;
     }
 
+    /**
+     * Returns the strings that create the indexes of the table for this
+     * object.
+     * 
+     * @return The create index strings.
+     */
+    public static String[] createIndexes() {
+        return INDEXES;
+    }
+
     /**
      * Returns a string that drops the table for this object.
      * 
@@ -73,17 +90,17 @@ public class NewDBPointsList implements NewDBObject {
     /**
      * Retrieves a list of all ways that belong to the given track.
      * 
-     * @param name
-     *            The name of the track.
+     * @param trackId
+     *            The id of the track.
      * @return The list of ways, may be empty.
      */
-    public static List<NewDBPointsList> getByTrack(String name) {
+    public static List<NewDBPointsList> getByTrack(long trackId) {
         List<NewDBPointsList> ret = new ArrayList<NewDBPointsList>();
 
         SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
         Cursor result = db.query(TABLENAME, new String[] { "id", "datetime",
-                "isarea", "track " }, "track = '" + name + "'", null, null,
-                null, "id ASC");
+                "isarea", "track " }, "track = ?",
+                new String[] { Long.toString(trackId) }, null, null, "id ASC");
         if (result.moveToFirst()) {
             do {
                 ret.add(createNewObject(new NewDBPointsList(), result));
@@ -94,12 +111,28 @@ public class NewDBPointsList implements NewDBObject {
         return ret;
     }
 
+    /**
+     * Queries all ways of a track ordered by their id. The columns of the
+     * cursor are id, datetime and isarea in this order. The caller has to
+     * close the cursor.
+     * 
+     * @param trackId
+     *            The id of the track.
+     * @return The cursor.
+     */
+    public static Cursor getCursorByTrack(long trackId) {
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        return db.query(TABLENAME, new String[] { "id", "datetime", "isarea" },
+                "track = ?", new String[] { Long.toString(trackId) }, null,
+                null, "id ASC");
+    }
+
     private static NewDBPointsList createNewObject(NewDBPointsList way,
             Cursor crs) {
         way.id = crs.getLong(crs.getColumnIndex("id"));
         way.datetime = crs.getString(crs.getColumnIndex("datetime"));
         way.isArea = crs.getInt(crs.getColumnIndex("isarea")) != 0;
-        way.track = crs.getString(crs.getColumnIndex("track"));
+        way.track = crs.getLong(crs.getColumnIndex("track"));
         return way;
     }
 
@@ -107,7 +140,8 @@ public class NewDBPointsList implements NewDBObject {
         NewDBPointsList ret = null;
         SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
         Cursor result = db.query(TABLENAME, new String[] { "id", "datetime",
-                "isarea", "track " }, "id = " + wayId, null, null, null, null);
+                "isarea", "track " }, "id = ?",
+                new String[] { Long.toString(wayId) }, null, null, null);
         if (result.moveToFirst()) {
             ret = createNewObject(way, result);
         }
@@ -132,24 +166,41 @@ public class NewDBPointsList implements NewDBObject {
     public boolean isArea;
 
     /**
-     * The name of the track this way belongs to.
+     * The id of the track this way belongs to.
      */
-    public String track;
+    public long track;
+
+    /**
+     * Returns a copy of this way. The copy can be written by another thread
+     * while this object is changed further.
+     * 
+     * @return A new object with the same values.
+     */
+    public NewDBPointsList copy() {
+        NewDBPointsList copy = new NewDBPointsList();
+        copy.datetime = datetime;
+        copy.id = id;
+        copy.isArea = isArea;
+        copy.track = track;
+        return copy;
+    }
 
     public void delete() {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
-        if (db.delete(TABLENAME, "id = " + id, null) == -1) {
+        if (!DBOpenHelper.getInstance().execute(DELETE, id)) {
             LogIt.e("Could not delete way");
         }
     }
 
     public void insert() {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put("datetime", datetime);
-        values.put("track", track);
-        values.put("isarea", Boolean.valueOf(isArea));
-        long rowID = db.insert(TABLENAME, null, values);
+        DBOpenHelper helper = DBOpenHelper.getInstance();
+        SQLiteStatement stmt = helper.getStatement(INSERT);
+        long rowID;
+        synchronized (stmt) {
+            DBOpenHelper.bindString(stmt, 1, datetime);
+            DBOpenHelper.bindId(stmt, 2, track);
+            stmt.bindLong(3, isArea ? 1 : 0);
+            rowID = helper.executeInsert(stmt);
+        }
         if (rowID == -1) {
             LogIt.e("Could not insert way");
         } else {
@@ -159,17 +210,19 @@ public class NewDBPointsList implements NewDBObject {
     }
 
     public void save() {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
         ContentValues values = new ContentValues();
         values.put("datetime", datetime);
-        values.put("track", track);
+        DBOpenHelper.putId(values, "track", track);
         values.put("isarea", Boolean.valueOf(isArea));
-        if (db.update(TABLENAME, values, "id = " + id, null) == -1) {
+        if (DBOpenHelper.getInstance().update(TABLENAME, values, "id = ?",
+                new String[] { Long.toString(id) }) == -1) {
             LogIt.e("Could not update way");
         }
     }
 
     public void update() {
+        // changes that are still queued would be reverted otherwise
+        DBOpenHelper.getInstance().awaitWrites();
         fillObject(id, this);
     }
 }
@@ -26,7 +26,9 @@ import java.util.List;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import de.fu.tracebook.util.LogIt;
+import de.fu.tracebook.util.Metrics;
 
 /**
  * The DAO-object for tags. Each object represents a row in the database.
@@ -36,7 +38,20 @@ public class NewDBTag implements NewDBObject {
     private static final String CREATE = "CREATE TABLE IF NOT EXISTS tags "
             + "( id INTEGER PRIMARY KEY AUTOINCREMENT," + " key TEXT,"
             + " value TEXT," + " node INTEGER," + " way INTEGER );";
+    private static final String DELETE = "DELETE FROM tags WHERE id = ?";
+    private static final String DELETE_BY_NODE =
+            "DELETE FROM tags WHERE node = ?";
+    private static final String DELETE_BY_WAY =
+            "DELETE FROM tags WHERE way = ?";
     private static final String DROP = "DROP TABLE IF EXISTS tags";
+    private static final String[] INDEXES = {
+            "CREATE INDEX IF NOT EXISTS tags_node ON tags (node)",
+            "CREATE INDEX IF NOT EXISTS tags_way ON tags (way)" };
+    private static final String INSERT = "INSERT INTO tags"
+            + " (key, value, node, way)"
+            + " VALUES (?, ?, ?, ?)";
+    private static final Metrics.Histogram QUERY_TIME = Metrics
+            .histogram("db.tags.query");
     private static final String TABLENAME = "tags";
 
     /**
@@ -55,8 +70,7 @@ public class NewDBTag implements NewDBObject {
      *            The id of the node.
      */
     public static void deleteByNode(long nodeId) {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
-        if (db.delete(TABLENAME, "node = " + nodeId, null) == -1) {
+        if (!DBOpenHelper.getInstance().execute(DELETE_BY_NODE, nodeId)) {
             LogIt.e("Could not delete media");
         }
     }
@@ -68,12 +82,21 @@ public class NewDBTag implements NewDBObject {
      *            The id of the way.
      */
     public static void deleteByWay(long wayId) {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
-        if (db.delete(TABLENAME, "way = " + wayId, null) == -1) {
+        if (!DBOpenHelper.getInstance().execute(DELETE_BY_WAY, wayId)) {
             LogIt.e("Could not delete media");
         }
     }
 
+    /**
+     * Returns the strings that create the indexes of the table for this
+     * object.
+     * 
+     * @return The create index strings.
+     */
+    public static String[] createIndexes() {
+        return INDEXES;
+    }
+
     /**
      * Returns a string that drops the table for this object.
      * 
@@ -102,19 +125,20 @@ public class NewDBTag implements NewDBObject {
      * @return The list of tags, may be empty.
      */
     public static List<NewDBTag> getByNode(long nodeId) {
+        long start = Metrics.start();
         List<NewDBTag> ret = new ArrayList<NewDBTag>();
 
         SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
-        Cursor result = db.query(TABLENAME, new String[] { "id", "key",
-                "value", "node", "way" }, "node = " + nodeId, null, null, null,
-                "id ASC");
+        Cursor result = db.query(TABLENAME, new String[] { "id", "key", "value",
+                "node", "way" }, "node = ?",
+                new String[] { Long.toString(nodeId) }, null, null, "id ASC");
         if (result.moveToFirst()) {
             do {
                 ret.add(createNewObject(new NewDBTag(), result));
             } while (result.moveToNext());
         }
         result.close();
-
+        QUERY_TIME.stop(start);
         return ret;
     }
 
@@ -126,19 +150,86 @@ public class NewDBTag implements NewDBObject {
      * @return The list of tags, may be empty.
      */
     public static List<NewDBTag> getByWay(long wayId) {
+        long start = Metrics.start();
         List<NewDBTag> ret = new ArrayList<NewDBTag>();
 
         SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
-        Cursor result = db.query(TABLENAME, new String[] { "id", "key",
-                "value", "node", "way" }, "way = " + wayId, null, null, null,
-                "id ASC");
+        Cursor result = db.query(TABLENAME, new String[] { "id", "key", "value",
+                "node", "way" }, "way = ?",
+                new String[] { Long.toString(wayId) }, null, null, "id ASC");
         if (result.moveToFirst()) {
             do {
                 ret.add(createNewObject(new NewDBTag(), result));
             } while (result.moveToNext());
         }
         result.close();
+        QUERY_TIME.stop(start);
+        return ret;
+    }
+
+    /**
+     * Queries the tags of all nodes of a track, ordered by node. The columns of
+     * the cursor are the id of the node, key and value in this order. The
+     * caller has to close the cursor.
+     * 
+     * @param trackId
+     *            The id of the track.
+     * @return The cursor.
+     */
+    public static Cursor getNodeCursorByTrack(long trackId) {
+        String track = Long.toString(trackId);
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        return db.rawQuery("SELECT tags.node, tags.key, tags.value"
+                + " FROM tags, nodes WHERE tags.node = nodes.id AND "
+                + NewDBNode.TRACK_CONDITION
+                + " ORDER BY tags.node ASC, tags.id ASC",
+                new String[] { track, track });
+    }
+
+    /**
+     * Queries the tags of all ways of a track, ordered by way. The columns of
+     * the cursor are the id of the way, key and value in this order. The
+     * caller has to close the cursor.
+     * 
+     * @param trackId
+     *            The id of the track.
+     * @return The cursor.
+     */
+    public static Cursor getWayCursorByTrack(long trackId) {
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        return db.rawQuery("SELECT tags.way, tags.key, tags.value"
+                + " FROM tags, pointslists WHERE tags.way = pointslists.id"
+                + " AND pointslists.track = ?"
+                + " ORDER BY tags.way ASC, tags.id ASC",
+                new String[] { Long.toString(trackId) });
+    }
 
+    /**
+     * Retrieves a list of the tags of all ways of the given track, ordered by
+     * way.
+     * 
+     * @param trackId
+     *            The id of the track.
+     * @return The list of tags, may be empty.
+     */
+    public static List<NewDBTag> getWayListByTrack(long trackId) {
+        long start = Metrics.start();
+        List<NewDBTag> ret = new ArrayList<NewDBTag>();
+
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        Cursor result = db.rawQuery("SELECT tags.id AS id, tags.key AS key,"
+                + " tags.value AS value, tags.node AS node, tags.way AS way"
+                + " FROM tags, pointslists WHERE tags.way = pointslists.id"
+                + " AND pointslists.track = ?"
+                + " ORDER BY tags.way ASC, tags.id ASC",
+                new String[] { Long.toString(trackId) });
+        if (result.moveToFirst()) {
+            do {
+                ret.add(createNewObject(new NewDBTag(), result));
+            } while (result.moveToNext());
+        }
+        result.close();
+        QUERY_TIME.stop(start);
         return ret;
     }
 
@@ -154,9 +245,9 @@ public class NewDBTag implements NewDBObject {
     private static NewDBTag fillObject(long tagId, NewDBTag tag) {
         NewDBTag ret = null;
         SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
-        Cursor result = db.query(TABLENAME, new String[] { "id", "key",
-                "value", "node", "way" }, "id = " + tagId, null, null, null,
-                null);
+        Cursor result = db.query(TABLENAME, new String[] { "id", "key", "value",
+                "node", "way" }, "id = ?",
+                new String[] { Long.toString(tagId) }, null, null, null);
         if (result.moveToFirst()) {
             ret = createNewObject(tag, result);
         }
@@ -191,20 +282,22 @@ public class NewDBTag implements NewDBObject {
     public long way;
 
     public void delete() {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
-        if (db.delete(TABLENAME, "id = " + id, null) == -1) {
+        if (!DBOpenHelper.getInstance().execute(DELETE, id)) {
             LogIt.e("Could not delete tag");
         }
     }
 
     public void insert() {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put("key", key);
-        values.put("value", value);
-        values.put("node", Long.valueOf(node));
-        values.put("way", Long.valueOf(way));
-        long rowID = db.insert(TABLENAME, null, values);
+        DBOpenHelper helper = DBOpenHelper.getInstance();
+        SQLiteStatement stmt = helper.getStatement(INSERT);
+        long rowID;
+        synchronized (stmt) {
+            DBOpenHelper.bindString(stmt, 1, key);
+            DBOpenHelper.bindString(stmt, 2, value);
+            stmt.bindLong(3, node);
+            stmt.bindLong(4, way);
+            rowID = helper.executeInsert(stmt);
+        }
         if (rowID == -1) {
             LogIt.e("Could not insert tag");
         } else {
@@ -214,13 +307,13 @@ public class NewDBTag implements NewDBObject {
     }
 
     public void save() {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
         ContentValues values = new ContentValues();
         values.put("key", key);
         values.put("value", value);
         values.put("node", Long.valueOf(node));
         values.put("way", Long.valueOf(way));
-        if (db.update(TABLENAME, values, "id = " + id, null) == -1) {
+        if (DBOpenHelper.getInstance().update(TABLENAME, values, "id = ?",
+                new String[] { Long.toString(id) }) == -1) {
             LogIt.e("Could not update tag");
         }
     }
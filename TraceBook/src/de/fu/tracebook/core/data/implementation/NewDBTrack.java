@@ -21,22 +21,68 @@
 package de.fu.tracebook.core.data.implementation;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import de.fu.tracebook.util.LogIt;
+import de.fu.tracebook.util.Metrics;
 
 /**
  * The DAO-object for tracks. Each object represents a row in the database.
+ * <p>
+ * Tracks are identified by an integer id, which the nodes, ways, media and bugs
+ * of a track refer to. The name is unique as well, but it can be changed
+ * without touching the rows of the track.
  */
 public class NewDBTrack implements NewDBObject {
 
     private static final String CREATE = "CREATE TABLE IF NOT EXISTS tracks "
-            + "( name TEXT PRIMARY KEY," + " datetime TEXT,"
+            + "( id INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + " name TEXT UNIQUE NOT NULL," + " datetime TEXT,"
             + " comment TEXT );";
+    private static final String DELETE = "DELETE FROM tracks WHERE id = ?";
+
+    /**
+     * The ways of a track, whose id is bound to ?1.
+     */
+    private static final String WAYS_OF_TRACK = "(SELECT id FROM pointslists"
+            + " WHERE track = ?1)";
+
+    /**
+     * The nodes of a track, the POIs as well as the nodes of its ways, whose
+     * id is bound to ?1.
+     */
+    private static final String NODES_OF_TRACK = "(SELECT id FROM nodes"
+            + " WHERE track = ?1 OR way IN " + WAYS_OF_TRACK + ")";
+
+    /**
+     * Delete everything that belongs to a track and the track itself. All
+     * statements take the id of the track as their only argument, the rows
+     * that refer to other rows of the track are deleted first.
+     */
+    private static final String[] DELETE_CASCADE = {
+            "DELETE FROM tags WHERE node IN " + NODES_OF_TRACK
+                    + " OR way IN " + WAYS_OF_TRACK,
+            "DELETE FROM media WHERE track = ?1 OR node IN " + NODES_OF_TRACK
+                    + " OR way IN " + WAYS_OF_TRACK,
+            "DELETE FROM way_statistics WHERE way IN " + WAYS_OF_TRACK,
+            "DELETE FROM nodes WHERE track = ?1 OR way IN " + WAYS_OF_TRACK,
+            "DELETE FROM pointslists WHERE track = ?1",
+            "DELETE FROM bugs WHERE track = ?1",
+            "DELETE FROM track_summary WHERE track = ?1", DELETE };
+    private static final Metrics.Histogram DELETE_TIME = Metrics
+            .histogram("db.tracks.delete");
     private static final String DROP = "DROP TABLE IF EXISTS tracks";
+    private static final String[] INDEXES = {
+            "CREATE INDEX IF NOT EXISTS tracks_name_nocase"
+                    + " ON tracks (name COLLATE NOCASE)",
+            "CREATE INDEX IF NOT EXISTS tracks_datetime ON tracks (datetime)" };
+    private static final Metrics.Histogram SAVE_TIME = Metrics
+            .histogram("db.tracks.save");
     private static final String TABLENAME = "tracks";
 
     /**
@@ -48,6 +94,49 @@ public class NewDBTrack implements NewDBObject {
         return CREATE;
     }
 
+    /**
+     * Returns the strings that create the indexes of the table for this
+     * object.
+     * 
+     * @return The create index strings.
+     */
+    public static String[] createIndexes() {
+        return INDEXES;
+    }
+
+    /**
+     * Deletes tracks together with their nodes, ways, tags, media, bugs,
+     * summaries and way statistics. Each table is cleared by a single
+     * statement per track and all tracks are deleted in one transaction. The
+     * files of the tracks are not touched.
+     * 
+     * @param tracks
+     *            The tracks to delete.
+     * @throws SQLException
+     *             If a statement fails. Nothing has been deleted then.
+     */
+    public static void deleteAll(Collection<NewDBTrack> tracks) {
+        long start = Metrics.start();
+        DBOpenHelper helper = DBOpenHelper.getInstance();
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (NewDBTrack track : tracks) {
+                for (String sql : DELETE_CASCADE) {
+                    if (!helper.execute(sql, track.id)) {
+                        // roll back, so no rows of the track are orphaned
+                        throw new SQLException("Could not delete track "
+                                + track.name);
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        DELETE_TIME.stop(start);
+    }
+
     /**
      * Returns a string that drops the table for this object.
      * 
@@ -86,8 +175,53 @@ public class NewDBTrack implements NewDBObject {
         List<NewDBTrack> ret = new ArrayList<NewDBTrack>();
 
         SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
-        Cursor result = db.query(TABLENAME, new String[] { "name", "datetime",
-                "comment" }, null, null, null, null, "name ASC");
+        Cursor result = db.query(TABLENAME, new String[] { "id", "name",
+                "datetime", "comment" }, null, null, null, null, "name ASC");
+        if (result.moveToFirst()) {
+            do {
+                ret.add(createNewObject(new NewDBTrack(), result));
+            } while (result.moveToNext());
+        }
+        result.close();
+        return ret;
+    }
+
+    /**
+     * Retrieves a part of the list of all tracks. The list is sorted by the
+     * database, either by name ignoring case or by time, newest first.
+     * 
+     * @param filter
+     *            Only tracks whose name contains this text, compared case
+     *            sensitively, are listed. May be null or empty to list all
+     *            tracks.
+     * @param sortByName
+     *            Sort by name if true, otherwise by time.
+     * @param offset
+     *            The position of the first track to retrieve in the list.
+     * @param count
+     *            The maximum number of tracks to retrieve.
+     * @return The tracks, may be empty.
+     */
+    public static List<NewDBTrack> getPage(String filter, boolean sortByName,
+            int offset, int count) {
+        List<NewDBTrack> ret = new ArrayList<NewDBTrack>();
+
+        String selection = null;
+        String[] selectionArgs = null;
+        if (filter != null && filter.length() > 0) {
+            // GLOB compares case sensitively like String.contains(), its
+            // wildcards are escaped by putting them into brackets
+            selection = "name GLOB ?";
+            selectionArgs = new String[] { "*"
+                    + filter.replace("[", "[[]").replace("*", "[*]")
+                            .replace("?", "[?]") + "*" };
+        }
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        Cursor result = db.query(TABLENAME, new String[] { "id", "name",
+                "datetime", "comment" }, selection, selectionArgs, null, null,
+                sortByName ? "name COLLATE NOCASE ASC, id"
+                        : "datetime DESC, id DESC",
+                offset + "," + count);
         if (result.moveToFirst()) {
             do {
                 ret.add(createNewObject(new NewDBTrack(), result));
@@ -104,15 +238,15 @@ public class NewDBTrack implements NewDBObject {
      *            The name of the track.
      * @return The track or null if does not exist.
      */
-    public static NewDBTrack getById(String trackName) {
+    public static NewDBTrack getByName(String trackName) {
         return fillObject(trackName, new NewDBTrack());
     }
 
     private static NewDBTrack createNewObject(NewDBTrack track, Cursor crs) {
+        track.id = crs.getLong(crs.getColumnIndex("id"));
         track.name = crs.getString(crs.getColumnIndex("name"));
         track.datetime = crs.getString(crs.getColumnIndex("datetime"));
         track.comment = crs.getString(crs.getColumnIndex("comment"));
-        track.oldname = track.name;
         return track;
     }
 
@@ -120,8 +254,8 @@ public class NewDBTrack implements NewDBObject {
         NewDBTrack ret = null;
 
         SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
-        Cursor result = db.query(TABLENAME, new String[] { "name", "datetime",
-                "comment" }, "name = '" + trackName + "'", null, null, null,
+        Cursor result = db.query(TABLENAME, new String[] { "id", "name",
+                "datetime", "comment" }, "name = ?", new String[] { trackName }, null, null,
                 null);
         if (result.moveToFirst()) {
             ret = createNewObject(track, result);
@@ -142,17 +276,35 @@ public class NewDBTrack implements NewDBObject {
     public String datetime;
 
     /**
-     * The name of the track. (primary key)
+     * The id of the track. (primary key)
+     */
+    public long id;
+
+    /**
+     * The name of the track, unique among all tracks.
      */
     public String name;
 
-    private String oldname;
+    /**
+     * Returns a copy of this track. The copy can be written by another thread
+     * while this object is changed further.
+     * 
+     * @return A new object with the same values.
+     */
+    public NewDBTrack copy() {
+        NewDBTrack copy = new NewDBTrack();
+        copy.comment = comment;
+        copy.datetime = datetime;
+        copy.id = id;
+        copy.name = name;
+        return copy;
+    }
 
     public void delete() {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
-        if (db.delete(TABLENAME, "name = '" + name + "'", null) == -1) {
+        if (!DBOpenHelper.getInstance().execute(DELETE, id)) {
             LogIt.e("Could not delete track");
         }
+        NewDBTrackSummary.deleteByTrack(id);
     }
 
     public void insert() {
@@ -161,43 +313,28 @@ public class NewDBTrack implements NewDBObject {
         values.put("datetime", datetime);
         values.put("name", name);
         values.put("comment", comment);
-        if (db.insert(TABLENAME, null, values) == -1) {
+        long rowID = db.insert(TABLENAME, null, values);
+        if (rowID == -1) {
             LogIt.e("Could not insert track");
+        } else {
+            this.id = rowID;
+            NewDBTrackSummary summary = new NewDBTrackSummary();
+            summary.track = id;
+            summary.insert();
         }
-        oldname = name;
-
     }
 
     public void save() {
-        SQLiteDatabase db = DBOpenHelper.getInstance().getWritableDatabase();
+        long start = Metrics.start();
         ContentValues values = new ContentValues();
         values.put("datetime", datetime);
         values.put("name", name);
         values.put("comment", comment);
-        if (db.update(TABLENAME, values, "name = '" + oldname + "'", null) == -1) {
+        if (DBOpenHelper.getInstance().update(TABLENAME, values, "id = ?",
+                new String[] { Long.toString(id) }) == -1) {
             LogIt.e("Could not update track");
         }
-        if (!name.equals(oldname)) {
-            for (NewDBPointsList pl : NewDBPointsList.getByTrack(oldname)) {
-                pl.track = name;
-                pl.save();
-            }
-            for (NewDBNode node : NewDBNode.getByTrack(oldname)) {
-                node.track = name;
-                node.save();
-            }
-            for (NewDBMedia media : NewDBMedia.getByTrack(oldname)) {
-                media.track = name;
-                media.save();
-            }
-            for (NewDBBug bug : NewDBBug.getByTrack(oldname)) {
-                bug.track = name;
-                bug.save();
-            }
-
-        }
-
-        oldname = name;
+        SAVE_TIME.stop(start);
     }
 
     public void update() {
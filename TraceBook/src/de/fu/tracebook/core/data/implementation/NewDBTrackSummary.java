@@ -0,0 +1,552 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.core.data.implementation;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import de.fu.tracebook.core.data.NodeArray;
+import de.fu.tracebook.util.LogIt;
+
+/**
+ * The DAO-object for the summaries of tracks. Each object represents a row in
+ * the database.
+ * <p>
+ * A summary holds the counts, the bounding box, the length and the time span
+ * of a track, so that they can be listed without reading the nodes of the
+ * track. The summary is updated as nodes, ways and media are added. Changes
+ * that can not be applied incrementally, like deleting or moving nodes, mark
+ * the summary as stale. A stale or missing summary is computed again from the
+ * nodes of the track when it is read the next time.
+ */
+public class NewDBTrackSummary implements NewDBObject {
+
+    private static final String ADD_COUNTS = "UPDATE track_summary"
+            + " SET ways = ways + ?, media = media + ?, modified = ?";
+    private static final String ADD_NODES = "UPDATE track_summary"
+            + " SET pois = pois + ?, nodes = nodes + ?,"
+            + " min_latitude = MIN(min_latitude, ?),"
+            + " min_longitude = MIN(min_longitude, ?),"
+            + " max_latitude = MAX(max_latitude, ?),"
+            + " max_longitude = MAX(max_longitude, ?),"
+            + " start_time = MIN(start_time, ?),"
+            + " end_time = MAX(end_time, ?),"
+            + " length = length + ?, modified = ?";
+    private static final String COUNT_MEDIA = "SELECT COUNT(*) FROM media"
+            + " WHERE track = ? OR way IN"
+            + " (SELECT id FROM pointslists WHERE track = ?) OR node IN"
+            + " (SELECT id FROM nodes WHERE " + NewDBNode.TRACK_CONDITION
+            + ")";
+    private static final String COUNT_TRACK = "SELECT COUNT(*) FROM tracks"
+            + " WHERE id = ?";
+    private static final String CREATE = "CREATE TABLE IF NOT EXISTS track_summary "
+            + "( track INTEGER PRIMARY KEY,"
+            + " pois INTEGER,"
+            + " ways INTEGER,"
+            + " nodes INTEGER,"
+            + " media INTEGER,"
+            + " min_latitude INTEGER,"
+            + " min_longitude INTEGER,"
+            + " max_latitude INTEGER,"
+            + " max_longitude INTEGER,"
+            + " length REAL,"
+            + " start_time INTEGER,"
+            + " end_time INTEGER,"
+            + " modified INTEGER," + " stale INTEGER );";
+    private static final String DELETE_BY_TRACK = "DELETE FROM track_summary"
+            + " WHERE track = ?";
+    private static final String DROP = "DROP TABLE IF EXISTS track_summary";
+    private static final String INVALIDATE = "UPDATE track_summary"
+            + " SET stale = 1, modified = ?";
+    private static final String REPLACE = "INSERT OR REPLACE INTO track_summary"
+            + " (track, pois, ways, nodes, media, min_latitude, min_longitude,"
+            + " max_latitude, max_longitude, length, start_time, end_time,"
+            + " modified, stale)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String TABLENAME = "track_summary";
+
+    /**
+     * Selects the summary of the track a node belongs to, either as a POI or
+     * as a node of one of its ways.
+     */
+    private static final String WHERE_NODE = " WHERE track ="
+            + " (SELECT COALESCE(nodes.track, pointslists.track) FROM nodes"
+            + " LEFT JOIN pointslists ON nodes.way = pointslists.id"
+            + " WHERE nodes.id = ?)";
+
+    private static final String WHERE_TRACK = " WHERE track = ?";
+
+    private static final String WHERE_WAY = " WHERE track ="
+            + " (SELECT track FROM pointslists WHERE id = ?)";
+
+    /**
+     * Counts a medium for the track it belongs to. The medium has to be
+     * attached to a track, a node or a way.
+     * 
+     * @param media
+     *            The medium.
+     */
+    public static void addMedia(NewDBMedia media) {
+        changeMedia(media, 1);
+    }
+
+    /**
+     * Counts a new POI for a track.
+     * 
+     * @param trackId
+     *            The id of the track.
+     * @param latitude
+     *            The latitude of the POI in microdegrees.
+     * @param longitude
+     *            The longitude of the POI in microdegrees.
+     * @param time
+     *            The time the POI was created in milliseconds.
+     */
+    public static void addPoi(long trackId, int latitude, int longitude,
+            long time) {
+        NewDBTrackSummary delta = new NewDBTrackSummary();
+        delta.pois = 1;
+        delta.extend(latitude, longitude, time);
+        apply(ADD_NODES + WHERE_TRACK, delta, trackId);
+    }
+
+    /**
+     * Counts a new way for a track.
+     * 
+     * @param trackId
+     *            The id of the track.
+     */
+    public static void addWay(long trackId) {
+        NewDBTrackSummary delta = new NewDBTrackSummary();
+        delta.ways = 1;
+        apply(ADD_COUNTS + WHERE_TRACK, delta, trackId);
+    }
+
+    /**
+     * Counts new nodes of a way for the track of the way and adds the length
+     * the way has grown by.
+     * 
+     * @param wayId
+     *            The id of the way.
+     * @param latitudes
+     *            The latitudes of the new nodes in microdegrees.
+     * @param longitudes
+     *            The longitudes of the new nodes in microdegrees.
+     * @param times
+     *            The times of the new nodes in milliseconds.
+     * @param count
+     *            The number of new nodes.
+     * @param length
+     *            The length the way has grown by in meters, see
+     *            {@link NewDBWayStatistics#addNodes(long, int[], int[], long[], int)}
+     *            .
+     */
+    public static void addWayNodes(long wayId, int[] latitudes,
+            int[] longitudes, long[] times, int count, double length) {
+        NewDBTrackSummary delta = new NewDBTrackSummary();
+        delta.nodes = count;
+        delta.length = length;
+        for (int i = 0; i < count; ++i) {
+            delta.extend(latitudes[i], longitudes[i], times[i]);
+        }
+        apply(ADD_NODES + WHERE_WAY, delta, wayId);
+    }
+
+    /**
+     * Returns a string that creates the table for this object.
+     * 
+     * @return The create table string.
+     */
+    public static String createTable() {
+        return CREATE;
+    }
+
+    /**
+     * Deletes the summary of a track.
+     * 
+     * @param trackId
+     *            The id of the track.
+     */
+    public static void deleteByTrack(long trackId) {
+        if (!DBOpenHelper.getInstance().execute(DELETE_BY_TRACK, trackId)) {
+            LogIt.e("Could not delete track summary");
+        }
+    }
+
+    /**
+     * Returns a string that drops the table for this object.
+     * 
+     * @return The drop table string.
+     */
+    public static String dropTable() {
+        return DROP;
+    }
+
+    /**
+     * Retrieves the summary of a track. If there is no summary yet or the
+     * summary is stale, it is computed from the nodes of the track.
+     * 
+     * @param trackId
+     *            The id of the track.
+     * @return The summary.
+     */
+    public static NewDBTrackSummary getById(long trackId) {
+        NewDBTrackSummary ret = fillObject(trackId, new NewDBTrackSummary());
+        if (ret == null || ret.stale) {
+            ret = rebuild(trackId);
+        }
+        return ret;
+    }
+
+    /**
+     * Marks the summary of a track as stale.
+     * 
+     * @param trackId
+     *            The id of the track.
+     */
+    public static void invalidate(long trackId) {
+        apply(INVALIDATE + WHERE_TRACK, null, trackId);
+    }
+
+    /**
+     * Marks the summary of the track a node belongs to as stale.
+     * 
+     * @param nodeId
+     *            The id of the node.
+     */
+    public static void invalidateByNode(long nodeId) {
+        apply(INVALIDATE + WHERE_NODE, null, nodeId);
+    }
+
+    /**
+     * Marks the summary of the track a way belongs to as stale.
+     * 
+     * @param wayId
+     *            The id of the way.
+     */
+    public static void invalidateByWay(long wayId) {
+        apply(INVALIDATE + WHERE_WAY, null, wayId);
+    }
+
+    /**
+     * Computes the summary of a track from its nodes, ways and media without
+     * waiting for the writer of the database. Storing it is queued for the
+     * writer, which computes it again from the data it has written, unless a
+     * valid summary has been stored in the meantime.
+     * 
+     * @param trackId
+     *            The id of the track.
+     * @return The new summary.
+     */
+    public static NewDBTrackSummary rebuild(final long trackId) {
+        NewDBTrackSummary ret = new NewDBTrackSummary();
+        ret.track = trackId;
+        ret.compute();
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                NewDBTrackSummary stored = fillObject(trackId,
+                        new NewDBTrackSummary());
+                if ((stored == null || stored.stale) && exists(trackId)) {
+                    NewDBTrackSummary summary = new NewDBTrackSummary();
+                    summary.track = trackId;
+                    summary.compute();
+                    summary.insert();
+                }
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * Uncounts a medium that is deleted. The medium has to be attached to a
+     * track, a node or a way.
+     * 
+     * @param media
+     *            The medium.
+     */
+    public static void removeMedia(NewDBMedia media) {
+        changeMedia(media, -1);
+    }
+
+    /**
+     * Executes an update of a summary. The values of delta are bound to the
+     * parameters of the statement, followed by the current time and the id of
+     * the track, node or way that selects the summary. Delta is null for
+     * statements that only set the time.
+     */
+    private static void apply(String sql, NewDBTrackSummary delta, long id) {
+        DBOpenHelper helper = DBOpenHelper.getInstance();
+        SQLiteStatement stmt = helper.getStatement(sql);
+        synchronized (stmt) {
+            int index = 1;
+            if (delta != null && sql.startsWith(ADD_NODES)) {
+                stmt.bindLong(index++, delta.pois);
+                stmt.bindLong(index++, delta.nodes);
+                stmt.bindLong(index++, delta.minLatitude);
+                stmt.bindLong(index++, delta.minLongitude);
+                stmt.bindLong(index++, delta.maxLatitude);
+                stmt.bindLong(index++, delta.maxLongitude);
+                stmt.bindLong(index++, delta.startTime);
+                stmt.bindLong(index++, delta.endTime);
+                stmt.bindDouble(index++, delta.length);
+            } else if (delta != null) {
+                stmt.bindLong(index++, delta.ways);
+                stmt.bindLong(index++, delta.media);
+            }
+            stmt.bindLong(index++, System.currentTimeMillis());
+            stmt.bindLong(index, id);
+            if (!helper.execute(stmt)) {
+                LogIt.e("Could not update track summary");
+            }
+        }
+    }
+
+    /**
+     * Changes the count of media of the track a medium belongs to.
+     */
+    private static void changeMedia(NewDBMedia media, int count) {
+        NewDBTrackSummary delta = new NewDBTrackSummary();
+        delta.media = count;
+        if (media.track != 0) {
+            apply(ADD_COUNTS + WHERE_TRACK, delta, media.track);
+        } else if (media.node != 0) {
+            apply(ADD_COUNTS + WHERE_NODE, delta, media.node);
+        } else if (media.way != 0) {
+            apply(ADD_COUNTS + WHERE_WAY, delta, media.way);
+        }
+    }
+
+    private static NewDBTrackSummary createNewObject(NewDBTrackSummary summary,
+            Cursor crs) {
+        summary.track = crs.getLong(crs.getColumnIndex("track"));
+        summary.pois = crs.getInt(crs.getColumnIndex("pois"));
+        summary.ways = crs.getInt(crs.getColumnIndex("ways"));
+        summary.nodes = crs.getInt(crs.getColumnIndex("nodes"));
+        summary.media = crs.getInt(crs.getColumnIndex("media"));
+        summary.minLatitude = crs.getInt(crs.getColumnIndex("min_latitude"));
+        summary.minLongitude = crs
+                .getInt(crs.getColumnIndex("min_longitude"));
+        summary.maxLatitude = crs.getInt(crs.getColumnIndex("max_latitude"));
+        summary.maxLongitude = crs
+                .getInt(crs.getColumnIndex("max_longitude"));
+        summary.length = crs.getDouble(crs.getColumnIndex("length"));
+        summary.startTime = crs.getLong(crs.getColumnIndex("start_time"));
+        summary.endTime = crs.getLong(crs.getColumnIndex("end_time"));
+        summary.modified = crs.getLong(crs.getColumnIndex("modified"));
+        summary.stale = crs.getInt(crs.getColumnIndex("stale")) != 0;
+        return summary;
+    }
+
+    /**
+     * Checks whether a track has not been deleted, so that no summary is
+     * stored for it.
+     */
+    private static boolean exists(long trackId) {
+        DBOpenHelper helper = DBOpenHelper.getInstance();
+        SQLiteStatement stmt = helper.getStatement(COUNT_TRACK);
+        synchronized (stmt) {
+            stmt.bindLong(1, trackId);
+            return stmt.simpleQueryForLong() > 0;
+        }
+    }
+
+    private static NewDBTrackSummary fillObject(long trackId,
+            NewDBTrackSummary summary) {
+        NewDBTrackSummary ret = null;
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        Cursor result = db.query(TABLENAME, null, "track = ?",
+                new String[] { Long.toString(trackId) }, null, null, null);
+        if (result.moveToFirst()) {
+            ret = createNewObject(summary, result);
+        }
+        result.close();
+
+        return ret;
+    }
+
+    /**
+     * The time of the newest node in milliseconds, 0 if there are no nodes.
+     */
+    public long endTime = 0;
+
+    /**
+     * The summed up length of all ways in meters.
+     */
+    public double length = 0;
+
+    /**
+     * The largest latitude of all nodes in microdegrees, Integer.MIN_VALUE if
+     * there are no nodes with a position.
+     */
+    public int maxLatitude = Integer.MIN_VALUE;
+
+    /**
+     * The largest longitude of all nodes in microdegrees, Integer.MIN_VALUE if
+     * there are no nodes with a position.
+     */
+    public int maxLongitude = Integer.MIN_VALUE;
+
+    /**
+     * The number of media of the track, its nodes and its ways.
+     */
+    public int media = 0;
+
+    /**
+     * The smallest latitude of all nodes in microdegrees, Integer.MAX_VALUE
+     * if there are no nodes with a position.
+     */
+    public int minLatitude = Integer.MAX_VALUE;
+
+    /**
+     * The smallest longitude of all nodes in microdegrees, Integer.MAX_VALUE
+     * if there are no nodes with a position.
+     */
+    public int minLongitude = Integer.MAX_VALUE;
+
+    /**
+     * The time of the last change of the summary in milliseconds.
+     */
+    public long modified = 0;
+
+    /**
+     * The number of nodes of all ways.
+     */
+    public int nodes = 0;
+
+    /**
+     * The number of POIs.
+     */
+    public int pois = 0;
+
+    /**
+     * Has the summary to be computed again?
+     */
+    public boolean stale = false;
+
+    /**
+     * The time of the oldest node in milliseconds, Long.MAX_VALUE if there are
+     * no nodes.
+     */
+    public long startTime = Long.MAX_VALUE;
+
+    /**
+     * The id of the track. (primary key)
+     */
+    public long track;
+
+    /**
+     * The number of ways and areas.
+     */
+    public int ways = 0;
+
+    public void delete() {
+        deleteByTrack(track);
+    }
+
+    public void insert() {
+        modified = System.currentTimeMillis();
+        DBOpenHelper helper = DBOpenHelper.getInstance();
+        SQLiteStatement stmt = helper.getStatement(REPLACE);
+        long rowID;
+        synchronized (stmt) {
+            stmt.bindLong(1, track);
+            stmt.bindLong(2, pois);
+            stmt.bindLong(3, ways);
+            stmt.bindLong(4, nodes);
+            stmt.bindLong(5, media);
+            stmt.bindLong(6, minLatitude);
+            stmt.bindLong(7, minLongitude);
+            stmt.bindLong(8, maxLatitude);
+            stmt.bindLong(9, maxLongitude);
+            stmt.bindDouble(10, length);
+            stmt.bindLong(11, startTime);
+            stmt.bindLong(12, endTime);
+            stmt.bindLong(13, modified);
+            stmt.bindLong(14, stale ? 1 : 0);
+            rowID = helper.executeInsert(stmt);
+        }
+        if (rowID == -1) {
+            LogIt.e("Could not insert track summary");
+        }
+    }
+
+    public void save() {
+        insert();
+    }
+
+    public void update() {
+        fillObject(track, this);
+    }
+
+    /**
+     * Computes the summary from the nodes, ways and media of the track.
+     */
+    private void compute() {
+        NodeArray poiArray = NewDBNode.getArrayByTrack(track);
+        pois = poiArray.size();
+        for (int i = 0; i < pois; ++i) {
+            extend(poiArray.getLatitudeE6(i), poiArray.getLongitudeE6(i),
+                    poiArray.getTime(i));
+        }
+
+        NodeArray nodeArray = NewDBNode.getWayArrayByTrack(track);
+        nodes = nodeArray.size();
+        for (int i = 0; i < nodes; ++i) {
+            extend(nodeArray.getLatitudeE6(i), nodeArray.getLongitudeE6(i),
+                    nodeArray.getTime(i));
+        }
+
+        // the lengths are taken from the way statistics, so that both agree
+        for (NewDBWayStatistics way : NewDBWayStatistics.getByTrack(track)) {
+            ++ways;
+            length += way.length;
+        }
+
+        // not a shared statement, as the summary is also computed by readers
+        // while the writer holds the database
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        String id = Long.toString(track);
+        Cursor result = db.rawQuery(COUNT_MEDIA, new String[] { id, id, id,
+                id });
+        if (result.moveToFirst()) {
+            media = result.getInt(0);
+        }
+        result.close();
+    }
+
+    /**
+     * Extends the bounding box and the time span by a node. Nodes without a
+     * position are only taken into account for the time span.
+     */
+    private void extend(int latitude, int longitude, long time) {
+        if (latitude != 0 || longitude != 0) {
+            minLatitude = Math.min(minLatitude, latitude);
+            minLongitude = Math.min(minLongitude, longitude);
+            maxLatitude = Math.max(maxLatitude, latitude);
+            maxLongitude = Math.max(maxLongitude, longitude);
+        }
+        if (time > 0) {
+            startTime = Math.min(startTime, time);
+            endTime = Math.max(endTime, time);
+        }
+    }
+
+}
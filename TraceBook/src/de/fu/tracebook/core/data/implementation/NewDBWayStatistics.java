@@ -0,0 +1,399 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.core.data.implementation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import de.fu.tracebook.core.data.NodeArray;
+import de.fu.tracebook.util.GeoDistance;
+import de.fu.tracebook.util.LogIt;
+
+/**
+ * The DAO-object for the statistics of ways. Each object represents a row in
+ * the database.
+ * <p>
+ * The statistics of a way are accumulated node by node in constant time per
+ * node: the last node of the way is kept along with the sums, so a new node
+ * only has to be compared to it. The row of a way is saved with every batch of
+ * logged nodes and is the checkpoint from which the statistics are continued,
+ * so the nodes of a way are only read again if its row is missing, for
+ * example after nodes of the way have been deleted or moved.
+ */
+public class NewDBWayStatistics implements NewDBObject {
+
+    /**
+     * The longest time in milliseconds between two nodes that is still counted
+     * as moving time. Longer gaps are pauses of the logging.
+     */
+    public static final long MAX_GAP = 300000;
+
+    /**
+     * The lowest speed in meters per second that is counted as moving. Slower
+     * changes of the position are taken for the noise of the GPS.
+     */
+    public static final double MIN_MOVING_SPEED = 0.5;
+
+    private static final String CREATE = "CREATE TABLE IF NOT EXISTS way_statistics "
+            + "( way INTEGER PRIMARY KEY,"
+            + " nodes INTEGER,"
+            + " length REAL,"
+            + " moving_time INTEGER,"
+            + " first_time INTEGER,"
+            + " last_time INTEGER,"
+            + " min_latitude INTEGER,"
+            + " min_longitude INTEGER,"
+            + " max_latitude INTEGER,"
+            + " max_longitude INTEGER,"
+            + " last_latitude INTEGER," + " last_longitude INTEGER );";
+    private static final String DELETE = "DELETE FROM way_statistics"
+            + " WHERE way = ?";
+    private static final String DROP = "DROP TABLE IF EXISTS way_statistics";
+    private static final String REPLACE = "INSERT OR REPLACE INTO way_statistics"
+            + " (way, nodes, length, moving_time, first_time, last_time,"
+            + " min_latitude, min_longitude, max_latitude, max_longitude,"
+            + " last_latitude, last_longitude)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String TABLENAME = "way_statistics";
+
+    /**
+     * Adds new nodes to the statistics of a way and saves them. This has to be
+     * called before the nodes are inserted, because the statistics are
+     * computed from the stored nodes if there are none yet.
+     * 
+     * @param wayId
+     *            The id of the way.
+     * @param latitudes
+     *            The latitudes of the new nodes in microdegrees.
+     * @param longitudes
+     *            The longitudes of the new nodes in microdegrees.
+     * @param times
+     *            The times of the new nodes in milliseconds.
+     * @param count
+     *            The number of new nodes.
+     * @return The length the way has grown by in meters.
+     */
+    public static double addNodes(long wayId, int[] latitudes,
+            int[] longitudes, long[] times, int count) {
+        NewDBWayStatistics stats = getById(wayId);
+        double length = stats.length;
+        for (int i = 0; i < count; ++i) {
+            stats.add(latitudes[i], longitudes[i], times[i]);
+        }
+        stats.insert();
+        return stats.length - length;
+    }
+
+    /**
+     * Returns a string that creates the table for this object.
+     * 
+     * @return The create table string.
+     */
+    public static String createTable() {
+        return CREATE;
+    }
+
+    /**
+     * Deletes the statistics of a way, so that they are computed again from
+     * the nodes of the way when they are needed next. This has to be called
+     * whenever nodes of the way are deleted or changed.
+     * 
+     * @param wayId
+     *            The id of the way.
+     */
+    public static void deleteByWay(long wayId) {
+        if (wayId == 0) {
+            return;
+        }
+        if (!DBOpenHelper.getInstance().execute(DELETE, wayId)) {
+            LogIt.e("Could not delete way statistics");
+        }
+    }
+
+    /**
+     * Returns a string that drops the table for this object.
+     * 
+     * @return The drop table string.
+     */
+    public static String dropTable() {
+        return DROP;
+    }
+
+    /**
+     * Retrieves the statistics of a way. If there are none yet, they are
+     * computed from the nodes of the way.
+     * 
+     * @param wayId
+     *            The id of the way.
+     * @return The statistics.
+     */
+    public static NewDBWayStatistics getById(long wayId) {
+        NewDBWayStatistics ret = fillObject(wayId, new NewDBWayStatistics());
+        if (ret == null) {
+            ret = rebuild(wayId);
+        }
+        return ret;
+    }
+
+    /**
+     * Retrieves the statistics of all ways of a track. The statistics of ways
+     * that have none yet are computed from their nodes.
+     * 
+     * @param trackId
+     *            The id of the track.
+     * @return The list of statistics, may be empty.
+     */
+    public static List<NewDBWayStatistics> getByTrack(long trackId) {
+        List<NewDBWayStatistics> ret = new ArrayList<NewDBWayStatistics>();
+
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        Cursor result = db.rawQuery("SELECT pointslists.id AS id,"
+                + " way_statistics.* FROM pointslists"
+                + " LEFT JOIN way_statistics"
+                + " ON way_statistics.way = pointslists.id"
+                + " WHERE pointslists.track = ? ORDER BY pointslists.id ASC",
+                new String[] { Long.toString(trackId) });
+        List<Long> missing = new ArrayList<Long>();
+        if (result.moveToFirst()) {
+            int way = result.getColumnIndex("way");
+            do {
+                if (result.isNull(way)) {
+                    missing.add(Long.valueOf(result.getLong(result
+                            .getColumnIndex("id"))));
+                } else {
+                    ret.add(createNewObject(new NewDBWayStatistics(), result));
+                }
+            } while (result.moveToNext());
+        }
+        result.close();
+
+        for (Long wayId : missing) {
+            ret.add(rebuild(wayId.longValue()));
+        }
+        return ret;
+    }
+
+    /**
+     * Computes the statistics of a way from its nodes without waiting for the
+     * writer of the database. Storing them is queued for the writer, which
+     * computes them again from the nodes it has written, unless they have
+     * been stored in the meantime.
+     * 
+     * @param wayId
+     *            The id of the way.
+     * @return The new statistics.
+     */
+    public static NewDBWayStatistics rebuild(final long wayId) {
+        NewDBWayStatistics ret = compute(wayId);
+        DBOpenHelper.getInstance().post(new Runnable() {
+            public void run() {
+                if (fillObject(wayId, new NewDBWayStatistics()) == null
+                        && NewDBPointsList.getById(wayId) != null) {
+                    compute(wayId).insert();
+                }
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * Computes the statistics of a way from its nodes.
+     */
+    private static NewDBWayStatistics compute(long wayId) {
+        NewDBWayStatistics ret = new NewDBWayStatistics();
+        ret.way = wayId;
+        NodeArray nodes = NewDBNode.getArrayByWay(wayId);
+        for (int i = 0; i < nodes.size(); ++i) {
+            ret.add(nodes.getLatitudeE6(i), nodes.getLongitudeE6(i),
+                    nodes.getTime(i));
+        }
+        return ret;
+    }
+
+    private static NewDBWayStatistics createNewObject(
+            NewDBWayStatistics stats, Cursor crs) {
+        stats.way = crs.getLong(crs.getColumnIndex("way"));
+        stats.nodes = crs.getInt(crs.getColumnIndex("nodes"));
+        stats.length = crs.getDouble(crs.getColumnIndex("length"));
+        stats.movingTime = crs.getLong(crs.getColumnIndex("moving_time"));
+        stats.firstTime = crs.getLong(crs.getColumnIndex("first_time"));
+        stats.lastTime = crs.getLong(crs.getColumnIndex("last_time"));
+        stats.minLatitude = crs.getInt(crs.getColumnIndex("min_latitude"));
+        stats.minLongitude = crs.getInt(crs.getColumnIndex("min_longitude"));
+        stats.maxLatitude = crs.getInt(crs.getColumnIndex("max_latitude"));
+        stats.maxLongitude = crs.getInt(crs.getColumnIndex("max_longitude"));
+        stats.lastLatitude = crs.getInt(crs.getColumnIndex("last_latitude"));
+        stats.lastLongitude = crs
+                .getInt(crs.getColumnIndex("last_longitude"));
+        return stats;
+    }
+
+    private static NewDBWayStatistics fillObject(long wayId,
+            NewDBWayStatistics stats) {
+        NewDBWayStatistics ret = null;
+        SQLiteDatabase db = DBOpenHelper.getInstance().getReadableDatabase();
+        Cursor result = db.query(TABLENAME, null, "way = ?",
+                new String[] { Long.toString(wayId) }, null, null, null);
+        if (result.moveToFirst()) {
+            ret = createNewObject(stats, result);
+        }
+        result.close();
+
+        return ret;
+    }
+
+    /**
+     * The time of the first node in milliseconds, 0 if there are no nodes.
+     */
+    public long firstTime = 0;
+
+    /**
+     * The latitude of the last node in microdegrees.
+     */
+    public int lastLatitude = 0;
+
+    /**
+     * The longitude of the last node in microdegrees.
+     */
+    public int lastLongitude = 0;
+
+    /**
+     * The time of the last node in milliseconds, 0 if there are no nodes.
+     */
+    public long lastTime = 0;
+
+    /**
+     * The length of the way in meters.
+     */
+    public double length = 0;
+
+    /**
+     * The largest latitude of all nodes in microdegrees.
+     */
+    public int maxLatitude = Integer.MIN_VALUE;
+
+    /**
+     * The largest longitude of all nodes in microdegrees.
+     */
+    public int maxLongitude = Integer.MIN_VALUE;
+
+    /**
+     * The smallest latitude of all nodes in microdegrees.
+     */
+    public int minLatitude = Integer.MAX_VALUE;
+
+    /**
+     * The smallest longitude of all nodes in microdegrees.
+     */
+    public int minLongitude = Integer.MAX_VALUE;
+
+    /**
+     * The summed up time in milliseconds between nodes that were logged while
+     * moving, see {@link #MIN_MOVING_SPEED} and {@link #MAX_GAP}.
+     */
+    public long movingTime = 0;
+
+    /**
+     * The number of nodes with a position.
+     */
+    public int nodes = 0;
+
+    /**
+     * The id of the way. (primary key)
+     */
+    public long way;
+
+    /**
+     * Adds a node to the end of the way. Nodes without a position are ignored.
+     * 
+     * @param latitude
+     *            The latitude of the node in microdegrees.
+     * @param longitude
+     *            The longitude of the node in microdegrees.
+     * @param time
+     *            The time of the node in milliseconds.
+     */
+    public void add(int latitude, int longitude, long time) {
+        if (latitude == 0 && longitude == 0) {
+            return;
+        }
+        if (nodes > 0) {
+            double distance = GeoDistance.haversine(lastLatitude,
+                    lastLongitude, latitude, longitude);
+            long delta = time - lastTime;
+            if (delta > 0 && delta <= MAX_GAP
+                    && distance * 1000 / delta >= MIN_MOVING_SPEED) {
+                movingTime += delta;
+            }
+            length += distance;
+        } else {
+            firstTime = time;
+        }
+        ++nodes;
+        minLatitude = Math.min(minLatitude, latitude);
+        minLongitude = Math.min(minLongitude, longitude);
+        maxLatitude = Math.max(maxLatitude, latitude);
+        maxLongitude = Math.max(maxLongitude, longitude);
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        lastTime = time;
+    }
+
+    public void delete() {
+        deleteByWay(way);
+    }
+
+    public void insert() {
+        DBOpenHelper helper = DBOpenHelper.getInstance();
+        SQLiteStatement stmt = helper.getStatement(REPLACE);
+        long rowID;
+        synchronized (stmt) {
+            stmt.bindLong(1, way);
+            stmt.bindLong(2, nodes);
+            stmt.bindDouble(3, length);
+            stmt.bindLong(4, movingTime);
+            stmt.bindLong(5, firstTime);
+            stmt.bindLong(6, lastTime);
+            stmt.bindLong(7, minLatitude);
+            stmt.bindLong(8, minLongitude);
+            stmt.bindLong(9, maxLatitude);
+            stmt.bindLong(10, maxLongitude);
+            stmt.bindLong(11, lastLatitude);
+            stmt.bindLong(12, lastLongitude);
+            rowID = helper.executeInsert(stmt);
+        }
+        if (rowID == -1) {
+            LogIt.e("Could not insert way statistics");
+        }
+    }
+
+    public void save() {
+        insert();
+    }
+
+    public void update() {
+        fillObject(way, this);
+    }
+
+}
@@ -0,0 +1,146 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.core.logger;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.mapsforge.android.maps.GeoPoint;
+
+import de.fu.tracebook.core.data.IDataPointsList;
+import de.fu.tracebook.util.GpsMessage;
+import de.fu.tracebook.util.Metrics;
+
+/**
+ * Write-behind buffer for the way points logged by the
+ * {@link WaypointLogService}. GPS fixes are collected and written to their way
+ * all at once, either when enough fixes are buffered or when the oldest
+ * buffered fix has waited long enough. Every written batch is announced with a
+ * single way update broadcast.
+ */
+class NodeBuffer {
+
+    /**
+     * Maximum time in milliseconds a fix stays in the buffer.
+     */
+    static final long MAX_DELAY = 5000;
+
+    /**
+     * Maximum number of fixes that are buffered before they are written.
+     */
+    static final int MAX_NODES = 20;
+
+    private static final Metrics.Histogram BROADCAST_TIME = Metrics
+            .histogram("logger.broadcast");
+
+    private static final Metrics.Histogram INSERT_TIME = Metrics
+            .histogram("logger.insert");
+
+    private TimerTask flushTask = null;
+    private final int[] latitudes = new int[MAX_NODES];
+    private final int[] longitudes = new int[MAX_NODES];
+    private GpsMessage sender;
+    private int size = 0;
+    private final long[] times = new long[MAX_NODES];
+    private Timer timer = new Timer(true);
+    private IDataPointsList way = null;
+
+    /**
+     * Creates an empty buffer.
+     * 
+     * @param sender
+     *            The helper used to announce written way points.
+     */
+    NodeBuffer(GpsMessage sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * Adds a fix to the buffer. If the fix belongs to another way than the
+     * buffered ones, the buffered fixes are written first.
+     * 
+     * @param currentWay
+     *            The way the fix belongs to.
+     * @param point
+     *            The position of the fix.
+     * @param time
+     *            The time of the fix in milliseconds since January 1, 1970
+     *            UTC.
+     */
+    synchronized void add(IDataPointsList currentWay, GeoPoint point, long time) {
+        if (way != null && !way.equals(currentWay)) {
+            flush();
+        }
+        way = currentWay;
+
+        latitudes[size] = point.getLatitudeE6();
+        longitudes[size] = point.getLongitudeE6();
+        times[size] = time;
+        ++size;
+
+        if (size == MAX_NODES) {
+            flush();
+        } else if (flushTask == null) {
+            flushTask = new TimerTask() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            };
+            timer.schedule(flushTask, MAX_DELAY);
+        }
+    }
+
+    /**
+     * Writes all buffered fixes and stops the timer of this buffer. The buffer
+     * must not be used afterwards.
+     */
+    synchronized void close() {
+        flush();
+        timer.cancel();
+    }
+
+    /**
+     * Writes all buffered fixes to their way in one go. Does nothing if the
+     * buffer is empty.
+     */
+    synchronized void flush() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        if (size == 0) {
+            return;
+        }
+
+        long start = Metrics.start();
+        long[] ids = way.newNodes(latitudes, longitudes, times, size);
+        INSERT_TIME.stop(start);
+        int[] lats = new int[size];
+        int[] lons = new int[size];
+        System.arraycopy(latitudes, 0, lats, 0, size);
+        System.arraycopy(longitudes, 0, lons, 0, size);
+        size = 0;
+        start = Metrics.start();
+        sender.sendWayUpdate(way.getId(), ids, lats, lons);
+        BROADCAST_TIME.stop(start);
+    }
+}
@@ -0,0 +1,354 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.core.logger;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import android.location.Location;
+import android.location.LocationManager;
+import android.util.Xml;
+import de.fu.tracebook.core.data.IDataTrack;
+import de.fu.tracebook.core.data.NewTrack;
+import de.fu.tracebook.core.data.NodeArray;
+import de.fu.tracebook.util.LogIt;
+import de.fu.tracebook.util.Metrics;
+
+/**
+ * Replays a recorded GPS trace through the {@link WaypointLogService}. For
+ * testing only, it is started from the diagnostics preferences while a track
+ * is open, see {@link ILoggerService#replayTrace(String, float)}.
+ * <p>
+ * The fixes are read from a GPX file, an NMEA log ($GPRMC sentences) or a
+ * track file of TraceBook (track.tbt) and handed to
+ * {@link WaypointLogService#onLocationChanged(Location)} as if they came from
+ * the GPS receiver, either at the recorded pace, faster or as fast as
+ * possible. Fixes of the real GPS receiver are ignored during the replay. A
+ * way is started if none is being logged, so all fixes end up as way points.
+ * <p>
+ * The {@link Metrics} are reset and collected during the replay. When the
+ * replay is finished, the number of fixes per second and the timings of the
+ * stages of the logging pipeline are logged: filtering a fix, inserting and
+ * broadcasting a batch of way points and adding it to the map.
+ */
+public final class TraceReplay extends Thread {
+
+    /**
+     * Reads the fixes of a GPX or TraceBook track file.
+     */
+    private static class TraceHandler extends DefaultHandler {
+        private NodeArray fixes;
+        private int lat;
+        private int lon;
+        private StringBuilder text = null;
+        private long time;
+
+        TraceHandler(NodeArray fixes) {
+            this.fixes = fixes;
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (text != null) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String lname, String qname) {
+            if (lname.equals("trkpt")) {
+                fixes.add(0, lat, lon, time, null, 0);
+
+            } else if (lname.equals("time") && text != null) {
+                time = parseTime(text.toString().trim());
+                text = null;
+            }
+        }
+
+        @Override
+        public void startElement(String uri, String lname, String qname,
+                Attributes attributes) {
+            if (lname.equals("trkpt")) {
+                lat = parseCoordinate(attributes.getValue("lat"));
+                lon = parseCoordinate(attributes.getValue("lon"));
+                time = 0;
+
+            } else if (lname.equals("time")) {
+                text = new StringBuilder();
+
+            } else if (lname.equals("node")) {
+                fixes.add(0, parseCoordinate(attributes.getValue("lat")),
+                        parseCoordinate(attributes.getValue("lon")),
+                        parseTime(attributes.getValue("timestamp")), null, 0);
+            }
+        }
+    }
+
+    /**
+     * Time in milliseconds the replay waits after the last fix for buffered
+     * way points to be written and drawn.
+     */
+    private static final long REPORT_DELAY = NodeBuffer.MAX_DELAY + 1000;
+
+    /**
+     * The histograms of the stages of the logging pipeline.
+     */
+    private static final String[] STAGES = { "logger.filter",
+            "logger.insert", "logger.broadcast", "map.wayUpdate" };
+
+    /**
+     * Parses a coordinate given in degrees.
+     */
+    static int parseCoordinate(String degrees) {
+        if (degrees == null) {
+            return 0;
+        }
+        try {
+            return (int) Math.round(Double.parseDouble(degrees) * 1E6);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Parses an NMEA coordinate of the form (d)ddmm.mmmm and its hemisphere.
+     */
+    static int parseNmeaCoordinate(String value, String hemisphere) {
+        if (value.length() < 4) {
+            return 0;
+        }
+        int dot = value.indexOf('.');
+        int split = (dot < 0 ? value.length() : dot) - 2;
+        try {
+            double degrees = Integer.parseInt(value.substring(0, split))
+                    + Double.parseDouble(value.substring(split)) / 60;
+            if (hemisphere.equals("S") || hemisphere.equals("W")) {
+                degrees = -degrees;
+            }
+            return (int) Math.round(degrees * 1E6);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Parses a W3C time stamp as used by TraceBook and in GPX files.
+     * 
+     * @return The time in milliseconds since January 1, 1970 UTC or 0 if the
+     *         time stamp could not be parsed.
+     */
+    static long parseTime(String timestamp) {
+        long time = NewTrack.parseW3CTimeStamp(timestamp);
+        if (time != 0 || timestamp == null || timestamp.length() < 19) {
+            return time;
+        }
+        // GPX: yyyy-MM-ddTHH:mm:ss(.SSS)Z in UTC
+        SimpleDateFormat format = new SimpleDateFormat(
+                "yyyy-MM-dd'T'HH:mm:ss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            time = format.parse(timestamp.substring(0, 19)).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+        int end = 20;
+        while (end < timestamp.length()
+                && Character.isDigit(timestamp.charAt(end))) {
+            ++end;
+        }
+        if (end > 20 && timestamp.charAt(19) == '.') {
+            time += Math.round(Double.parseDouble(timestamp.substring(19,
+                    end)) * 1000);
+        }
+        return time;
+    }
+
+    private final NodeArray fixes = new NodeArray();
+
+    private final String path;
+
+    private final WaypointLogService service;
+
+    private final float speed;
+
+    /**
+     * Creates a replay of a trace file. Call {@link #start()} to run it.
+     * 
+     * @param service
+     *            The service the fixes are given to.
+     * @param path
+     *            The path of a GPX, NMEA (.nmea, .txt or .log) or TraceBook
+     *            track file.
+     * @param speed
+     *            The speed-up of the replay, 1 for the recorded pace, 0 for as
+     *            fast as possible.
+     */
+    public TraceReplay(WaypointLogService service, String path, float speed) {
+        super("TraceReplay");
+        this.service = service;
+        this.path = path;
+        this.speed = speed;
+    }
+
+    @Override
+    public void run() {
+        try {
+            read();
+        } catch (IOException e) {
+            LogIt.e("Could not read trace " + path);
+            return;
+        } catch (SAXException e) {
+            LogIt.e("Could not parse trace " + path);
+            return;
+        }
+        if (fixes.size() == 0) {
+            LogIt.e("No fixes found in trace " + path);
+            return;
+        }
+
+        IDataTrack track = service.getStorage().getTrack();
+        if (track == null) {
+            LogIt.e("Trace replay needs an open track.");
+            return;
+        }
+        if (service.currentWay() == null) {
+            track.setCurrentWay(track.newWay());
+        }
+
+        boolean collecting = Metrics.isEnabled();
+        Metrics.reset();
+        Metrics.setEnabled(true);
+        service.setReplay(this);
+        try {
+            long elapsed = replay();
+            Thread.sleep(REPORT_DELAY);
+            report(elapsed);
+        } catch (InterruptedException e) {
+            LogIt.w("Trace replay interrupted.");
+        } finally {
+            service.setReplay(null);
+            Metrics.setEnabled(collecting);
+        }
+    }
+
+    /**
+     * Reads the fixes of the trace file.
+     */
+    private void read() throws IOException, SAXException {
+        String name = path.toLowerCase();
+        if (name.endsWith(".nmea") || name.endsWith(".txt")
+                || name.endsWith(".log")) {
+            readNmea();
+            return;
+        }
+        InputStream in = new FileInputStream(path);
+        try {
+            Xml.parse(in, Xml.Encoding.UTF_8, new TraceHandler(fixes));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the $GPRMC sentences of an NMEA log.
+     */
+    private void readNmea() throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("ddMMyyHHmmss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // $GPRMC,hhmmss.ss,A,llll.ll,a,yyyyy.yy,a,x.x,x.x,ddmmyy,...
+                String[] fields = line.split(",");
+                if (fields.length < 10 || !fields[0].endsWith("RMC")
+                        || !fields[2].equals("A") || fields[1].length() < 6) {
+                    continue;
+                }
+                long time;
+                try {
+                    time = format.parse(
+                            fields[9] + fields[1].substring(0, 6)).getTime();
+                } catch (ParseException e) {
+                    continue;
+                }
+                fixes.add(0, parseNmeaCoordinate(fields[3], fields[4]),
+                        parseNmeaCoordinate(fields[5], fields[6]), time, null,
+                        0);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Gives the fixes to the service.
+     * 
+     * @return The time in nanoseconds the replay took.
+     */
+    private long replay() throws InterruptedException {
+        long offset = System.currentTimeMillis() - fixes.getTime(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < fixes.size(); ++i) {
+            if (speed > 0 && i > 0) {
+                long delay = (long) ((fixes.getTime(i) - fixes
+                        .getTime(i - 1)) / speed);
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+            }
+            Location loc = new Location(LocationManager.GPS_PROVIDER);
+            loc.setLatitude(fixes.getLatitudeE6(i) / 1E6);
+            loc.setLongitude(fixes.getLongitudeE6(i) / 1E6);
+            loc.setTime(fixes.getTime(i) + offset);
+            service.onLocationChanged(loc);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Logs the throughput of the replay and the timings of the stages.
+     */
+    private void report(long elapsed) {
+        LogIt.w("Trace replay: " + fixes.size() + " fixes in " + elapsed
+                / 1000000 + " ms, " + Math.round(fixes.size() * 1E9 / elapsed)
+                + " fixes/s");
+        for (String stage : STAGES) {
+            Metrics.Histogram h = Metrics.histogram(stage);
+            if (h.getCount() > 0) {
+                LogIt.w("Trace replay " + stage + ": " + h.getCount()
+                        + " calls, mean " + h.getMean() / 1000 + " us, p99 "
+                        + h.getPercentile(0.99) / 1000 + " us, max "
+                        + h.getMax() / 1000 + " us");
+            }
+        }
+    }
+}
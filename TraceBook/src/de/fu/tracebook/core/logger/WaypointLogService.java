@@ -44,6 +44,7 @@ import de.fu.tracebook.core.data.StorageFactory;
 import de.fu.tracebook.util.GpsMessage;
 import de.fu.tracebook.util.KalmanFilter;
 import de.fu.tracebook.util.LogIt;
+import de.fu.tracebook.util.Metrics;
 
 /**
  * This background service logs GPS data and stores it in the
@@ -60,6 +61,12 @@ public class WaypointLogService extends Service implements LocationListener {
      */
     private static final int DELTA_TIME = 0;
 
+    private static final Metrics.Histogram FILTER_TIME = Metrics
+            .histogram("logger.filter");
+
+    private static final Metrics.Histogram LOCATION_TIME = Metrics
+            .histogram("logger.location");
+
     /**
      * The IAdderService is defined through IDL.
      */
@@ -85,6 +92,8 @@ public class WaypointLogService extends Service implements LocationListener {
             IDataNode tmpnode = null;
 
             if (onWay && currentWay() != null) {
+                // keep the order of the way points
+                buffer.flush();
                 tmpnode = currentWay().newNode(lastCoordinate);
             } else {
                 tmpnode = getStorage().getTrack().newNode(lastCoordinate);
@@ -99,6 +108,7 @@ public class WaypointLogService extends Service implements LocationListener {
 
         public synchronized long endWay() {
 
+            buffer.flush();
             IDataPointsList tmp = currentWay();
 
             getStorage().getTrack().setCurrentWay(null);
@@ -157,6 +167,15 @@ public class WaypointLogService extends Service implements LocationListener {
 
         public void pauseLogging() {
             stopGPS();
+            buffer.flush();
+        }
+
+        public boolean replayTrace(String path, float speed) {
+            if (getStorage().getTrack() == null) {
+                return false;
+            }
+            new TraceReplay(WaypointLogService.this, path, speed).start();
+            return true;
         }
 
         public void resumeLogging() {
@@ -170,6 +189,7 @@ public class WaypointLogService extends Service implements LocationListener {
 
         public int stopTrack() {
             stopGPS();
+            buffer.flush();
 
             if (getStorage().getTrack() != null) {
 
@@ -189,12 +209,26 @@ public class WaypointLogService extends Service implements LocationListener {
         }
     };
 
+    private NodeBuffer buffer = null;
+
     private KalmanFilter filter = null;
 
     private boolean gps_on = false;
 
+    /**
+     * Time of the last fix given to the filter in milliseconds.
+     */
+    private long lastFilterTime = 0;
+
     private LocationListener locListener = this;
 
+    /**
+     * The thread of the trace replay that currently gives fixes to the
+     * service, null if no trace is replayed. Fixes of the GPS are ignored
+     * while a trace is replayed.
+     */
+    private Thread replay = null;
+
     private GpsMessage sender = null;
 
     private Timer timer = new Timer(); // TODO for debug, delete when no
@@ -231,6 +265,9 @@ public class WaypointLogService extends Service implements LocationListener {
     public synchronized void onCreate() {
         super.onCreate();
         sender = new GpsMessage(this);
+        buffer = new NodeBuffer(sender);
+        Metrics.setEnabled(PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean("check_collectMetrics", false));
 
         // TODO for debug, comment next lines if mocklocations are not needed
         // timer.scheduleAtFixedRate(new TimerTask() {
@@ -245,6 +282,7 @@ public class WaypointLogService extends Service implements LocationListener {
     @Override
     public void onDestroy() {
         stopGPS();
+        buffer.close();
         timer.cancel(); // TODO for debug, delete when debugging is not needed
                         // anymore.
         super.onDestroy();
@@ -252,10 +290,14 @@ public class WaypointLogService extends Service implements LocationListener {
 
     /** GPS related Methods. **/
     public synchronized void onLocationChanged(Location loc) {
+        if (replay != null && Thread.currentThread() != replay) {
+            return;
+        }
         if (loc == null) {
             LogIt.e("loc in onLocationChanged is null");
             return;
         }
+        long start = Metrics.start();
 
         sender.sendCurrentPosition(loc);
 
@@ -266,10 +308,17 @@ public class WaypointLogService extends Service implements LocationListener {
 
         if (appPreferences.getBoolean("check_GPSSmoothWays", true)) {
             // Apply the Kalman filter
+            long filterStart = Metrics.start();
             if (filter == null) {
                 filter = new KalmanFilter(loc.getLongitude(), loc.getLatitude());
+                lastFilterTime = loc.getTime();
             }
-            filteredPoint = filter.filter(lastCoordinate);
+            double dt = (loc.getTime() - lastFilterTime) / 1000.0;
+            lastFilterTime = loc.getTime();
+            filter.filter(loc.getLongitude(), loc.getLatitude(),
+                    loc.hasAccuracy() ? loc.getAccuracy() : 0, dt);
+            filteredPoint = new GeoPoint(filter.getY(), filter.getX());
+            FILTER_TIME.stop(filterStart);
         } else {
             filteredPoint = lastCoordinate;
         }
@@ -283,9 +332,10 @@ public class WaypointLogService extends Service implements LocationListener {
             currentNodes.clear();
         }
         if (currentWay() != null) {
-            IDataNode nn = currentWay().newNode(filteredPoint);
-            sender.sendWayUpdate(currentWay().getId(), nn.getId());
+            // way points are written and announced in batches
+            buffer.add(currentWay(), filteredPoint, loc.getTime());
         }
+        LOCATION_TIME.stop(start);
     }
 
     public void onProviderDisabled(String arg0) {
@@ -330,6 +380,19 @@ public class WaypointLogService extends Service implements LocationListener {
         return StorageFactory.getStorage();
     }
 
+    /**
+     * Starts or ends a trace replay. While a trace is replayed, only the fixes
+     * given by its thread are logged. The Kalman filter starts over, so
+     * replayed and real fixes are not mixed.
+     * 
+     * @param thread
+     *            The thread of the replay, null when it has ended.
+     */
+    synchronized void setReplay(Thread thread) {
+        replay = thread;
+        filter = null;
+    }
+
     /**
      * Tries to stop first and then to start receiving GPS updates. This
      * effectively reloads the settings for the {@link LocationManager}.
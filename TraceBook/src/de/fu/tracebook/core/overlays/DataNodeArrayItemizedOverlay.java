@@ -20,14 +20,23 @@
 
 package de.fu.tracebook.core.overlays;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.mapsforge.android.maps.ArrayItemizedOverlay;
 import org.mapsforge.android.maps.MapActivity;
 import org.mapsforge.android.maps.OverlayItem;
+import org.mapsforge.android.maps.Projection;
 
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.graphics.Canvas;
+import android.graphics.Point;
 import de.fu.tracebook.R;
 import de.fu.tracebook.core.data.IDataNode;
 import de.fu.tracebook.core.data.IDataPointsList;
@@ -36,10 +45,16 @@ import de.fu.tracebook.gui.activity.AddPointActivity;
 import de.fu.tracebook.util.GpsMessage;
 import de.fu.tracebook.util.Helper;
 import de.fu.tracebook.util.LogIt;
+import de.fu.tracebook.util.Metrics;
 
 /**
  * This class extends the {@link ArrayItemizedOverlay} in order to overwrite its
  * {@link #onTap(int)} method.
+ * <p>
+ * The POIs of the current track are only added to this overlay if they are
+ * near the visible part of the map. Before drawing, the overlay checks whether
+ * the screen has left the area the POIs were selected for, and selects them
+ * again for the screen and a margin of {@link Viewport#MARGIN} around it.
  */
 public class DataNodeArrayItemizedOverlay extends ArrayItemizedOverlay {
 
@@ -104,8 +119,25 @@ public class DataNodeArrayItemizedOverlay extends ArrayItemizedOverlay {
         }
     }
 
+    private static final Metrics.Histogram DRAW_TIME = Metrics
+            .histogram("map.points.draw");
+
+    private static final Metrics.Gauge SHOWN_NODES = Metrics
+            .gauge("map.points.shown");
+
     private DefaultListener contextMenueListener;
 
+    /**
+     * The part of the map for which the POIs have been added, null if they
+     * have not been added yet.
+     */
+    private Viewport cullingBox = null;
+
+    /**
+     * The overlays of the POIs which have been added.
+     */
+    private Set<OverlayItem> shownNodes = new HashSet<OverlayItem>();
+
     /**
      * Reference to the {@link MapActivity}.
      */
@@ -124,6 +156,44 @@ public class DataNodeArrayItemizedOverlay extends ArrayItemizedOverlay {
         contextMenueListener = new DefaultListener();
     }
 
+    /**
+     * Removes all items. The POIs of the current track are added again when
+     * the overlay is drawn next.
+     */
+    @Override
+    public synchronized void clear() {
+        cullingBox = null;
+        StorageFactory.getStorage().getOverlayManager()
+                .releaseOverlayItems(shownNodes);
+        shownNodes.clear();
+        super.clear();
+    }
+
+    @Override
+    public synchronized void removeItem(OverlayItem item) {
+        shownNodes.remove(item);
+        super.removeItem(item);
+    }
+
+    /**
+     * Adds the POIs near the screen before drawing, if the screen has left the
+     * area they have been added for.
+     */
+    @Override
+    protected void drawOverlayBitmap(Canvas canvas, Point drawPosition,
+            Projection projection, byte drawZoomLevel) {
+        long start = Metrics.start();
+        Viewport screen = Viewport.fromProjection(projection,
+                canvas.getWidth(), canvas.getHeight());
+        if (screen != null && Helper.currentTrack() != null
+                && (cullingBox == null || !cullingBox.contains(screen))) {
+            cull(screen.grow(Viewport.MARGIN));
+        }
+        super.drawOverlayBitmap(canvas, drawPosition, projection,
+                drawZoomLevel);
+        DRAW_TIME.stop(start);
+    }
+
     @Override
     protected boolean onTap(int index) {
         final OverlayItem item = createItem(index);
@@ -141,4 +211,35 @@ public class DataNodeArrayItemizedOverlay extends ArrayItemizedOverlay {
 
         return true;
     }
+
+    /**
+     * Replaces the POIs of this overlay by the ones in a viewport.
+     */
+    private synchronized void cull(Viewport viewport) {
+        cullingBox = viewport;
+        OverlayManager manager = StorageFactory.getStorage()
+                .getOverlayManager();
+        Collection<OverlayItem> items = manager.getOverlayItems(context,
+                viewport);
+        Set<OverlayItem> visible = new HashSet<OverlayItem>(items);
+        List<OverlayItem> removed = new ArrayList<OverlayItem>();
+        for (OverlayItem item : shownNodes) {
+            if (!visible.contains(item)) {
+                super.removeItem(item);
+                removed.add(item);
+            }
+        }
+        manager.releaseOverlayItems(removed);
+        List<OverlayItem> added = new ArrayList<OverlayItem>();
+        for (OverlayItem item : items) {
+            if (!shownNodes.contains(item)) {
+                added.add(item);
+            }
+        }
+        shownNodes = visible;
+        SHOWN_NODES.set(visible.size());
+        if (!added.isEmpty()) {
+            addItems(added);
+        }
+    }
 }
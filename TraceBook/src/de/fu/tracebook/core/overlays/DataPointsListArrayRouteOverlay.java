@@ -21,8 +21,9 @@
 package de.fu.tracebook.core.overlays;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.mapsforge.android.maps.ArrayItemizedOverlay;
 import org.mapsforge.android.maps.ArrayWayOverlay;
@@ -37,9 +38,11 @@ import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnCancelListener;
 import android.content.Intent;
+import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Point;
+import android.graphics.drawable.Drawable;
 import de.fu.tracebook.R;
 import de.fu.tracebook.core.data.IDataNode;
 import de.fu.tracebook.core.data.IDataPointsList;
@@ -48,9 +51,8 @@ import de.fu.tracebook.gui.activity.AddPointActivity;
 import de.fu.tracebook.gui.activity.MapsForgeActivity;
 import de.fu.tracebook.util.Helper;
 import de.fu.tracebook.util.LogIt;
+import de.fu.tracebook.util.Metrics;
 import de.fu.tracebook.util.Pair;
-import de.fu.tracebook.util.PointInPolygon;
-import de.fu.tracebook.util.PointLineDistance;
 
 /**
  * Class wrapping the ·{@link ArrayWayOverlay} to get some methods out of
@@ -90,6 +92,7 @@ public class DataPointsListArrayRouteOverlay extends ArrayWayOverlay {
             case 1: // delete
                 StorageFactory.getStorage().getTrack().deleteWay(way.getId());
                 StorageFactory.getStorage().getOverlayManager().removeWay(way);
+                hideWay(overlayway);
                 requestRedraw();
 
                 break;
@@ -105,6 +108,12 @@ public class DataPointsListArrayRouteOverlay extends ArrayWayOverlay {
         }
     }
 
+    private static final Metrics.Histogram DRAW_TIME = Metrics
+            .histogram("map.routes.draw");
+
+    private static final Metrics.Gauge SHOWN_WAYS = Metrics
+            .gauge("map.routes.shown");
+
     /**
      * Generates a pair of paint objects with the same color, but different
      * levels of transparency.
@@ -130,8 +139,31 @@ public class DataPointsListArrayRouteOverlay extends ArrayWayOverlay {
     private List<Pair<Paint, Paint>> areaColors;
     private int colorID = 0;
 
+    /**
+     * The part of the map for which ways and way points have been added, null
+     * if nothing has been added yet.
+     */
+    private Viewport cullingBox = null;
+
     private ArrayItemizedOverlay pointsOverlay;
 
+    /**
+     * The marker shared by all way points, null if it has not been created
+     * yet.
+     */
+    private Drawable waypointMarker = null;
+
+    /**
+     * The overlays of the ways which have been added.
+     */
+    private Set<OverlayWay> shownWays = new HashSet<OverlayWay>();
+
+    /**
+     * The markers of the way points which have been added to the points
+     * overlay.
+     */
+    private Set<OverlayItem> shownWaypoints = new HashSet<OverlayItem>();
+
     /**
      * List of possible colors for ways and areas the first color in the list is
      * always used for the current way.
@@ -181,26 +213,29 @@ public class DataPointsListArrayRouteOverlay extends ArrayWayOverlay {
     }
 
     /**
-     * Adds a {@link IDataPointsList} to the overlay.
+     * Adds a {@link IDataPointsList} to the overlay. The way is only drawn if
+     * it is near the visible part of the map.
      * 
      * @param way
      *            The DataPointList representing the way
      * @param editing
      *            whether the way should be given the 'currently edited' color
      */
-    public void addWay(IDataPointsList way, boolean editing) {
-        if (way.getNodes().size() == 0) { // skip empty ways
+    public synchronized void addWay(IDataPointsList way, boolean editing) {
+        if (way.getNodeArray().size() == 0) { // skip empty ways
             return;
         }
 
-        OverlayWay w = StorageFactory.getStorage().getOverlayManager()
-                .getOverlayRoute(way);
-        w.setWayData(new GeoPoint[][] { way.toGeoPointArray(null) });
+        OverlayManager manager = StorageFactory.getStorage()
+                .getOverlayManager();
+        manager.updateOverlayRoute(way, null);
+        OverlayWay w = manager.getOverlayRoute(way);
         color(way, w, editing);
-        this.addWay(w);
-
-        if (showWaypoints) {
-            addWaypoints(way);
+        if (cullingBox == null) {
+            // the ways near the screen are added when the overlay is drawn
+            requestRedraw();
+        } else {
+            checkVisibility(way);
         }
     }
 
@@ -214,17 +249,51 @@ public class DataPointsListArrayRouteOverlay extends ArrayWayOverlay {
     public void addWays(List<IDataPointsList> list) {
         IDataPointsList currWay = StorageFactory.getStorage().getTrack()
                 .getCurrentWay();
-        LogIt.w("Addways " + list.size());
+        LogIt.w("Addways {}", Integer.valueOf(list.size()));
         for (IDataPointsList l : list) {
-            LogIt.w("way has nodes: "
-                    + Arrays.toString(l.toGeoPointArray(null)));
-            StorageFactory.getStorage().getOverlayManager()
-                    .updateOverlayRoute(l, null);
             boolean editing = l.equals(currWay);
             addWay(l, editing);
         }
     }
 
+    /**
+     * Adds a way to the drawn ways if it has grown into the part of the map
+     * near the screen.
+     * 
+     * @param way
+     *            The way.
+     */
+    public synchronized void checkVisibility(IDataPointsList way) {
+        OverlayManager manager = StorageFactory.getStorage()
+                .getOverlayManager();
+        OverlayWay w = manager.getOverlayRoute(way);
+        if (cullingBox != null && !shownWays.contains(w)
+                && manager.isRouteInViewport(way, cullingBox)) {
+            shownWays.add(w);
+            addWay(w);
+            if (showWaypoints) {
+                addWaypoints(way);
+            }
+        }
+    }
+
+    /**
+     * Removes all ways and their way point markers. The ways are added again
+     * by {@link #addWay(IDataPointsList, boolean)}.
+     */
+    @Override
+    public synchronized void clear() {
+        for (OverlayItem item : shownWaypoints) {
+            pointsOverlay.removeItem(item);
+        }
+        StorageFactory.getStorage().getOverlayManager()
+                .releaseOverlayItems(shownWaypoints);
+        shownWaypoints.clear();
+        shownWays.clear();
+        cullingBox = null;
+        super.clear();
+    }
+
     /**
      * Sets a color for the {@link OverlayWay} in the {@link IDataPointsList}.
      * 
@@ -250,73 +319,14 @@ public class DataPointsListArrayRouteOverlay extends ArrayWayOverlay {
     @Override
     public boolean onTap(GeoPoint p, MapView mapView) {
 
-        // The way that was selected
+        // The way that was selected, within 12 pixels of the tap
+        OverlayManager manager = StorageFactory.getStorage()
+                .getOverlayManager();
+        OverlayWay selectedOverlay = manager.findOverlayRoute(p, 12,
+                mapView.getZoomLevel());
         IDataPointsList selectedWay = null;
-        OverlayWay selectedOverlay = null;
-        Projection proj = mapView.getProjection();
-        // The point that was tapped on.
-        Point point = proj.toPoint(p, null, mapView.getZoomLevel());
-        // is the selectedWay an area?
-        boolean isArea = false;
-
-        int size = this.size();
-        // for every way
-        for (int i = 0; i < size; ++i) {
-            OverlayWay way = this.createWay(i);
-
-            GeoPoint[] data = way.getWayData()[0];
-            Point[] points = new Point[data.length];
-            // convert GeoPoint to Pixel coordinates
-            for (int j = 0; j < data.length; ++j) {
-                points[j] = proj.toPoint(data[j], null, mapView.getZoomLevel());
-            }
-
-            IDataPointsList dataway = StorageFactory.getStorage()
-                    .getOverlayManager().getPointsList(way);
-
-            if (points.length > 1) {
-
-                // is area?
-                if (points[0] == points[points.length - 1]) {
-                    // Area
-                    if (selectedWay != null) {
-                        // for preferring ways do not
-                        // test additional areas when there is
-                        // already a chosen area.
-                        continue;
-                    }
-
-                    if (PointInPolygon.isPointInPolygon(point, points)) {
-                        selectedWay = dataway;
-                        selectedOverlay = way;
-                        isArea = true;
-                        // do not break loop, since ways are preferred.
-                    }
-                } else {
-                    // Way
-                    Point a = null;
-                    for (Point b : points) {
-                        if (a != null) {
-                            double factor = 12; // 12 pixel distance
-                            double threshold = factor * factor;
-
-                            if (PointLineDistance.sqDistancePointLine(point, a,
-                                    b) < threshold) {
-                                selectedWay = dataway;
-                                selectedOverlay = way;
-                                isArea = false;
-                                break;
-                            }
-                        }
-                        a = b;
-                    }
-                }
-            }
-
-            // Area selected? -> go on searching
-            if (selectedWay != null && !isArea) {
-                break;
-            }
+        if (selectedOverlay != null) {
+            selectedWay = manager.getPointsList(selectedOverlay);
         }
 
         DefaultListener contextMenueListener = new DefaultListener();
@@ -351,52 +361,171 @@ public class DataPointsListArrayRouteOverlay extends ArrayWayOverlay {
     }
 
     /**
-     * Creates a new OverlayItem for n if it has none yet.
+     * Shows a marker for n if way points are shown and n is near the visible
+     * part of the map. The OverlayItem is only created in this case.
      * 
      * @param n
      *            DataNode that should get a marker
      */
-    public void putWaypoint(IDataNode n) {
-        OverlayItem item;
-        if (StorageFactory.getStorage().getOverlayManager().getOverlayItem(n) == null) {
-            item = Helper.getOverlayItem(n.getCoordinates(),
-                    R.drawable.card_dot_blue, context, true);
-            StorageFactory.getStorage().getOverlayManager()
-                    .setOverlayItem(item, n);
-        } else {
-            item = StorageFactory.getStorage().getOverlayManager()
-                    .getOverlayItem(n);
-        }
-        if (showWaypoints) {
-            pointsOverlay.addItem(item);
+    public synchronized void putWaypoint(IDataNode n) {
+        GeoPoint gp = n.getCoordinates();
+        if (showWaypoints
+                && cullingBox != null
+                && cullingBox.contains(gp.getLatitudeE6(),
+                        gp.getLongitudeE6())) {
+            OverlayItem item = getWaypointItem(n);
+            if (shownWaypoints.add(item)) {
+                pointsOverlay.addItem(item);
+            }
         }
     }
 
     /**
-     * Enable/disable the drawing of way point markers.
+     * Returns whether way point markers are drawn.
+     * 
+     * @return True if the way points are shown.
      */
-    public void toggleWaypoints() {
+    public boolean isShowingWaypoints() {
+        return showWaypoints;
+    }
+
+    /**
+     * Enable/disable the drawing of way point markers. Markers are only added
+     * for the way points near the visible part of the map.
+     */
+    public synchronized void toggleWaypoints() {
         showWaypoints = !showWaypoints;
+        if (cullingBox != null) {
+            cull(cullingBox);
+        }
+    }
 
-        for (IDataPointsList dpl : Helper.getWays()) {
-            if (showWaypoints) {
-                addWaypoints(dpl);
-            } else {
-                removeWaypoints(dpl);
-            }
+    /**
+     * Selects the simplification of the ways for the zoom level before they
+     * are drawn. If the screen has left the part of the map the ways have been
+     * added for, the ways near the screen are selected again.
+     */
+    @Override
+    protected void drawOverlayBitmap(Canvas canvas, Point drawPosition,
+            Projection projection, byte drawZoomLevel) {
+        long start = Metrics.start();
+        StorageFactory.getStorage().getOverlayManager()
+                .setZoomLevel(drawZoomLevel);
+        Viewport screen = Viewport.fromProjection(projection,
+                canvas.getWidth(), canvas.getHeight());
+        if (screen != null
+                && (cullingBox == null || !cullingBox.contains(screen))) {
+            cull(screen.grow(Viewport.MARGIN));
         }
+        super.drawOverlayBitmap(canvas, drawPosition, projection,
+                drawZoomLevel);
+        DRAW_TIME.stop(start);
     }
 
+    /**
+     * Adds the markers of the way points of a way which are in the culling
+     * box. The way points are taken from the overlay of the way, see
+     * {@link OverlayManager#getWaypointItems}.
+     */
     private void addWaypoints(IDataPointsList way) {
-        for (IDataNode n : way.getNodes()) {
-            putWaypoint(n);
+        OverlayManager manager = StorageFactory.getStorage()
+                .getOverlayManager();
+        List<OverlayItem> added = new ArrayList<OverlayItem>();
+        OverlayWay route = manager.getOverlayRoute(way);
+        for (OverlayItem item : manager.getWaypointItems(route, cullingBox,
+                getWaypointMarker())) {
+            if (shownWaypoints.add(item)) {
+                added.add(item);
+            }
+        }
+        if (!added.isEmpty()) {
+            pointsOverlay.addItems(added);
+        }
+    }
+
+    /**
+     * Removes the overlay of a way from the drawn ways.
+     */
+    private synchronized void hideWay(OverlayWay w) {
+        if (shownWays.remove(w)) {
+            removeWay(w);
+        }
+    }
+
+    /**
+     * Replaces the drawn ways and way point markers by the ones in a
+     * viewport.
+     */
+    private synchronized void cull(Viewport viewport) {
+        cullingBox = viewport;
+        OverlayManager manager = StorageFactory.getStorage()
+                .getOverlayManager();
+
+        Set<OverlayWay> ways = new HashSet<OverlayWay>(
+                manager.getOverlayRoutes(viewport));
+        for (OverlayWay w : shownWays) {
+            if (!ways.contains(w)) {
+                removeWay(w);
+            }
+        }
+        List<OverlayWay> addedWays = new ArrayList<OverlayWay>();
+        for (OverlayWay w : ways) {
+            if (!shownWays.contains(w)) {
+                addedWays.add(w);
+            }
+        }
+        shownWays = ways;
+        SHOWN_WAYS.set(ways.size());
+        if (!addedWays.isEmpty()) {
+            super.addWays(addedWays);
+        }
+
+        // the way points are taken from the overlays of the ways, so the
+        // database is not read while drawing
+        Set<OverlayItem> waypoints = new HashSet<OverlayItem>();
+        if (showWaypoints) {
+            for (OverlayWay w : ways) {
+                waypoints.addAll(manager.getWaypointItems(w, viewport,
+                        getWaypointMarker()));
+            }
+        }
+        List<OverlayItem> removedWaypoints = new ArrayList<OverlayItem>();
+        for (OverlayItem item : shownWaypoints) {
+            if (!waypoints.contains(item)) {
+                pointsOverlay.removeItem(item);
+                removedWaypoints.add(item);
+            }
+        }
+        manager.releaseOverlayItems(removedWaypoints);
+        List<OverlayItem> addedWaypoints = new ArrayList<OverlayItem>();
+        for (OverlayItem item : waypoints) {
+            if (!shownWaypoints.contains(item)) {
+                addedWaypoints.add(item);
+            }
+        }
+        shownWaypoints = waypoints;
+        if (!addedWaypoints.isEmpty()) {
+            pointsOverlay.addItems(addedWaypoints);
         }
     }
 
-    private void removeWaypoints(IDataPointsList way) {
-        for (IDataNode n : way.getNodes())
-            pointsOverlay.removeItem(StorageFactory.getStorage()
-                    .getOverlayManager().getOverlayItem(n));
+    /**
+     * Returns the marker of a way point, creating it if it has none yet.
+     */
+    private OverlayItem getWaypointItem(IDataNode n) {
+        return StorageFactory.getStorage().getOverlayManager()
+                .getOverlayItem(n, getWaypointMarker());
+    }
+
+    /**
+     * Returns the drawable shared by all way point markers.
+     */
+    private Drawable getWaypointMarker() {
+        if (waypointMarker == null) {
+            waypointMarker = Helper.getMarker(R.drawable.card_dot_blue,
+                    context, true);
+        }
+        return waypointMarker;
     }
 
     /**
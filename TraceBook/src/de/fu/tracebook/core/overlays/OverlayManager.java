@@ -20,53 +20,207 @@
 
 package de.fu.tracebook.core.overlays;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.mapsforge.android.maps.GeoPoint;
 import org.mapsforge.android.maps.OverlayItem;
 import org.mapsforge.android.maps.OverlayWay;
 
 import android.content.Context;
+import android.graphics.drawable.Drawable;
 import de.fu.tracebook.core.data.IDataMapObject;
 import de.fu.tracebook.core.data.IDataNode;
 import de.fu.tracebook.core.data.IDataPointsList;
-import de.fu.tracebook.util.BiMap;
+import de.fu.tracebook.core.data.IDataTrack;
+import de.fu.tracebook.core.data.NodeArray;
 import de.fu.tracebook.util.Helper;
 import de.fu.tracebook.util.LogIt;
+import de.fu.tracebook.util.LongMap;
 
 /**
  * The OverlayManager manages the mapping from Items to Overlays and back.
+ * <p>
+ * The overlays are registered by the ids of their nodes and ways, so a lookup
+ * neither depends on the node or way object at hand nor keeps one per
+ * overlay. Markers of nodes are only kept while an overlay shows them, they
+ * are released by the overlays when they are culled.
  */
 public class OverlayManager {
 
-    private Queue<OverlayItem> invalidItems = new ConcurrentLinkedQueue<OverlayItem>();
-    private BiMap<OverlayItem, IDataNode> overlayItemToNode = new BiMap<OverlayItem, IDataNode>();
-    private BiMap<OverlayWay, IDataPointsList> routeToPointsList = new BiMap<OverlayWay, IDataPointsList>();
+    /**
+     * The marker of a node. Only the id of the node is kept, the node is read
+     * again when it is needed.
+     */
+    static class NodeItem extends OverlayItem {
+        final long id;
+
+        NodeItem(long id, GeoPoint point, Drawable marker) {
+            super(point, null, null, marker);
+            this.id = id;
+        }
+    }
+
+    /**
+     * The overlay of a way together with its geometry.
+     */
+    static class Route extends OverlayWay {
+        /**
+         * The geometry of the way, null if the overlay has not been filled
+         * yet.
+         */
+        RouteBuffer buffer = null;
+
+        final IDataPointsList way;
+
+        Route(IDataPointsList way) {
+            this.way = way;
+        }
+    }
+
+    /**
+     * Selects the nodes of a list which lie in a viewport. The coordinates are
+     * read from the array, so node objects are only created for the selected
+     * nodes.
+     * 
+     * @param array
+     *            The nodes as an array.
+     * @param nodes
+     *            The same nodes as a list, in the same order.
+     * @param viewport
+     *            The viewport.
+     * @return The nodes in the viewport.
+     */
+    public static List<IDataNode> getNodesInViewport(NodeArray array,
+            List<IDataNode> nodes, Viewport viewport) {
+        List<IDataNode> ret = new ArrayList<IDataNode>();
+        int size = Math.min(array.size(), nodes.size());
+        for (int i = 0; i < size; ++i) {
+            if (viewport.contains(array.getLatitudeE6(i),
+                    array.getLongitudeE6(i))) {
+                IDataNode node = nodes.get(i);
+                // the list has been read again and may have changed since
+                if (node.getId() == array.getId(i)) {
+                    ret.add(node);
+                }
+            }
+        }
+        return ret;
+    }
+
+    private List<OverlayItem> invalidItems = new ArrayList<OverlayItem>();
+    private LongMap<NodeItem> nodeItems = new LongMap<NodeItem>();
+
+    /**
+     * The POIs of {@link #poiTrack} as read last, so culling does not read
+     * them from the database again. Null if they have to be read again.
+     */
+    private NodeArray poiArray = null;
+
+    /**
+     * Counts the changes of the POIs, see {@link #invalidatePois()}.
+     */
+    private int poiGeneration = 0;
+    private List<IDataNode> poiList = null;
+    private IDataTrack poiTrack = null;
+    private LongMap<Route> routes = new LongMap<Route>();
+
+    /**
+     * The zoom level the ways are drawn with, decides about the simplification
+     * of the way overlays.
+     */
+    private byte zoomLevel = Byte.MAX_VALUE;
+
+    /**
+     * Appends new way points to the overlay of a way without reading the way
+     * from the database. If the overlay has not been filled yet, it is filled
+     * with all nodes of the way instead.
+     * 
+     * @param way
+     *            The way to update.
+     * @param ids
+     *            The ids of the new way points.
+     * @param latitudes
+     *            The latitudes of the new way points in microdegrees.
+     * @param longitudes
+     *            The longitudes of the new way points in microdegrees.
+     */
+    public synchronized void appendToOverlayRoute(IDataPointsList way,
+            long[] ids, int[] latitudes, int[] longitudes) {
+        Route route = routes.get(way.getId());
+        if (route == null || route.buffer == null) {
+            updateOverlayRoute(way, null);
+            return;
+        }
+        for (int i = 0; i < latitudes.length; ++i) {
+            route.buffer.append(ids[i], latitudes[i], longitudes[i]);
+        }
+        route.setWayData(route.buffer.toWayData(zoomLevel));
+    }
+
+    /**
+     * Searches the way shown at a position of the map. Ways are preferred over
+     * areas. Only the bounding boxes of the ways are tested against the
+     * position until a way is near it.
+     * 
+     * @param gp
+     *            The position.
+     * @param pixels
+     *            The maximum distance of a way from the position in pixels.
+     * @param zoom
+     *            The zoom level of the map.
+     * @return The overlay of the way or null if there is no way at the
+     *         position.
+     */
+    public synchronized OverlayWay findOverlayRoute(GeoPoint gp,
+            double pixels, byte zoom) {
+        int lat = gp.getLatitudeE6();
+        int lon = gp.getLongitudeE6();
+        double distance = RouteBuffer.toMicrodegrees(pixels, zoom);
+        OverlayWay selectedArea = null;
+        for (Route route : routes) {
+            RouteBuffer buffer = route.buffer;
+            if (buffer == null) {
+                continue;
+            }
+            if (buffer.isArea()) {
+                if (selectedArea == null && buffer.contains(lat, lon)) {
+                    selectedArea = route;
+                }
+            } else if (buffer.isNear(lat, lon, distance)) {
+                return route;
+            }
+        }
+        return selectedArea;
+    }
 
     /**
      * Returns a list of all OverlayItems marked as invalid and clears the list.
      * 
      * @return All OverlayItems marked as invalid.
      */
-    public Collection<OverlayItem> getAndClearInvalidOverlayItems() {
+    public synchronized Collection<OverlayItem> getAndClearInvalidOverlayItems() {
         Collection<OverlayItem> ret = invalidItems;
-        invalidItems.clear();
+        invalidItems = new ArrayList<OverlayItem>();
         return ret;
     }
 
     /**
-     * Mapping from an OverlayItem to a Node.
+     * Mapping from an OverlayItem to a Node. The node is read from the current
+     * track.
      * 
      * @param item
      *            The OverlayItem of a node.
      * @return The Node which belongs to the given OverlayItem
      */
     public IDataNode getNode(OverlayItem item) {
-        return overlayItemToNode.get(item);
+        IDataTrack track = Helper.currentTrack();
+        if (!(item instanceof NodeItem) || track == null) {
+            return null;
+        }
+        return track.getNodeById(((NodeItem) item).id);
     }
 
     /**
@@ -76,28 +230,68 @@ public class OverlayManager {
      *            The Node.
      * @return The OverlayItem belonging to that node.
      */
-    public OverlayItem getOverlayItem(IDataMapObject node) {
-        return overlayItemToNode.inverse().get(node);
+    public synchronized OverlayItem getOverlayItem(IDataMapObject node) {
+        return nodeItems.get(node.getId());
     }
 
     /**
-     * Get the overlays for all nodes.
+     * Mapping from a Node to an OverlayItem. The OverlayItem is created if the
+     * node has none yet.
+     * 
+     * @param node
+     *            The Node.
+     * @param marker
+     *            The marker of a new OverlayItem.
+     * @return The OverlayItem belonging to that node.
+     */
+    public synchronized OverlayItem getOverlayItem(IDataNode node,
+            Drawable marker) {
+        NodeItem item = nodeItems.get(node.getId());
+        if (item == null) {
+            item = new NodeItem(node.getId(), node.getCoordinates(), marker);
+            nodeItems.put(item.id, item);
+        }
+        return item;
+    }
+
+    /**
+     * Get the overlays for the nodes of the current track in a viewport. The
+     * overlays are created when they are needed first.
      * 
      * @param ctx
      *            A context. Used to get a drawable.
-     * @return The overlays for all nodes.
+     * @param viewport
+     *            The part of the map the nodes have to lie in.
+     * @return The overlays for the nodes in the viewport.
      */
-    public Collection<? extends OverlayItem> getOverlayItems(Context ctx) {
-        List<OverlayItem> items = new LinkedList<OverlayItem>();
-        for (IDataNode n : Helper.currentTrack().getNodes()) {
-            OverlayItem item = getOverlayItem(n);
-            if (item == null) {
-                OverlayItem newItem = Helper.getOverlayItem(ctx);
-                setOverlayItem(newItem, n);
-                newItem.setPoint(n.getCoordinates());
-                item = newItem;
+    public Collection<OverlayItem> getOverlayItems(Context ctx,
+            Viewport viewport) {
+        IDataTrack track = Helper.currentTrack();
+        NodeArray array;
+        List<IDataNode> nodes;
+        int generation;
+        synchronized (this) {
+            array = poiTrack == track ? poiArray : null;
+            nodes = poiList;
+            generation = poiGeneration;
+        }
+        if (array == null) {
+            // read outside the lock, a change meanwhile discards the result
+            array = track.getNodeArray();
+            nodes = track.getNodes();
+            synchronized (this) {
+                if (generation == poiGeneration) {
+                    poiArray = array;
+                    poiList = nodes;
+                    poiTrack = track;
+                }
             }
-            items.add(item);
+        }
+
+        Drawable marker = Helper.getDefaultMarker(ctx);
+        List<OverlayItem> items = new LinkedList<OverlayItem>();
+        for (IDataNode n : getNodesInViewport(array, nodes, viewport)) {
+            items.add(getOverlayItem(n, marker));
         }
         return items;
     }
@@ -109,17 +303,34 @@ public class OverlayManager {
      *            The way.
      * @return The overlay for the given way.
      */
-    public OverlayWay getOverlayRoute(IDataPointsList way) {
-        OverlayWay res = routeToPointsList.inverse().get(way);
+    public synchronized OverlayWay getOverlayRoute(IDataPointsList way) {
+        Route res = routes.get(way.getId());
         if (res == null) {
             LogIt.d("new overlayroute");
-            res = new OverlayWay();
-            setWayOverlay(res, way);
+            res = new Route(way);
+            routes.put(way.getId(), res);
         }
 
         return res;
     }
 
+    /**
+     * Returns the overlays of all ways that overlap a viewport.
+     * 
+     * @param viewport
+     *            The part of the map.
+     * @return The overlays of the ways.
+     */
+    public synchronized List<OverlayWay> getOverlayRoutes(Viewport viewport) {
+        List<OverlayWay> ret = new ArrayList<OverlayWay>();
+        for (Route route : routes) {
+            if (route.buffer != null && route.buffer.intersects(viewport)) {
+                ret.add(route);
+            }
+        }
+        return ret;
+    }
+
     /**
      * Mapping from way overlay to way.
      * 
@@ -128,20 +339,134 @@ public class OverlayManager {
      * @return The way belonging to the way overlay.
      */
     public IDataPointsList getPointsList(OverlayWay way) {
-        return routeToPointsList.get(way);
+        if (way instanceof Route) {
+            return ((Route) way).way;
+        }
+        return null;
     }
 
     /**
-     * Invalidates the overlay of a node.
+     * Returns the markers of the way points of a way which lie in a viewport.
+     * The ids and positions of the way points are taken from the overlay of
+     * the way, so neither the database is read nor are node objects created.
+     * A node is only read when its marker is tapped, see
+     * {@link #getNode(OverlayItem)}.
      * 
-     * @param node
-     *            The node to invalidate.
+     * @param way
+     *            The overlay of the way.
+     * @param viewport
+     *            The part of the map the way points have to lie in.
+     * @param marker
+     *            The marker of new OverlayItems.
+     * @return The markers of the way points in the viewport.
      */
-    public void invalidateOverlayOfNode(IDataNode node) {
-        OverlayItem item = getOverlayItem(node);
+    public synchronized List<OverlayItem> getWaypointItems(OverlayWay way,
+            Viewport viewport, Drawable marker) {
+        List<OverlayItem> ret = new ArrayList<OverlayItem>();
+        if (!(way instanceof Route) || ((Route) way).buffer == null) {
+            return ret;
+        }
+        RouteBuffer buffer = ((Route) way).buffer;
+        for (int i : buffer.indexesIn(viewport)) {
+            long id = buffer.getId(i);
+            if (id == 0) {
+                // a point that has not been stored yet
+                continue;
+            }
+            NodeItem item = nodeItems.get(id);
+            if (item == null) {
+                item = new NodeItem(id, buffer.getPoint(i), marker);
+                nodeItems.put(id, item);
+            }
+            ret.add(item);
+        }
+        return ret;
+    }
+
+    /**
+     * Invalidates the overlay of a node. The overlay is handed out by
+     * {@link #getAndClearInvalidOverlayItems()} to be removed from the map.
+     * 
+     * @param nodeId
+     *            The id of the node to invalidate.
+     */
+    public synchronized void invalidateOverlayOfNode(long nodeId) {
+        OverlayItem item = nodeItems.remove(nodeId);
         if (item != null) {
             invalidItems.add(item);
-            overlayItemToNode.remove(item);
+        }
+    }
+
+    /**
+     * Marks the POIs read for culling as stale. It is called by the jobs that
+     * add, move or remove POIs on the database writer, after the change has
+     * been written.
+     */
+    public synchronized void invalidatePois() {
+        poiArray = null;
+        poiList = null;
+        ++poiGeneration;
+    }
+
+    /**
+     * Tests whether a way overlaps a viewport.
+     * 
+     * @param way
+     *            The way.
+     * @param viewport
+     *            The part of the map.
+     * @return True if the way overlaps the viewport or has no overlay yet.
+     */
+    public synchronized boolean isRouteInViewport(IDataPointsList way,
+            Viewport viewport) {
+        Route route = routes.get(way.getId());
+        return route == null || route.buffer == null
+                || route.buffer.intersects(viewport);
+    }
+
+    /**
+     * Moves a way point in the overlay of its way without reading the way from
+     * the database. If the overlay has not been filled yet, it is filled with
+     * all nodes of the way instead.
+     * 
+     * @param way
+     *            The way of the way point.
+     * @param nodeId
+     *            The id of the way point.
+     * @param gp
+     *            The new position of the way point.
+     */
+    public synchronized void moveInOverlayRoute(IDataPointsList way,
+            long nodeId, GeoPoint gp) {
+        Route route = routes.get(way.getId());
+        if (route == null
+                || route.buffer == null
+                || !route.buffer.move(nodeId, gp.getLatitudeE6(),
+                        gp.getLongitudeE6())) {
+            updateOverlayRoute(way, null);
+            return;
+        }
+        route.setWayData(route.buffer.toWayData(zoomLevel));
+    }
+
+    /**
+     * Releases the markers of nodes which are no longer shown, so they do not
+     * have to be kept for the whole track. A marker is created again when its
+     * node is shown next.
+     * 
+     * @param items
+     *            The markers removed from an overlay.
+     */
+    public synchronized void releaseOverlayItems(
+            Collection<OverlayItem> items) {
+        for (OverlayItem item : items) {
+            if (item instanceof NodeItem) {
+                long id = ((NodeItem) item).id;
+                // the node may have got a new marker in the meantime
+                if (nodeItems.get(id) == item) {
+                    nodeItems.remove(id);
+                }
+            }
         }
     }
 
@@ -151,8 +476,8 @@ public class OverlayManager {
      * @param way
      *            The way to remove.
      */
-    public void removeWay(IDataPointsList way) {
-        routeToPointsList.inverse().remove(way);
+    public synchronized void removeWay(IDataPointsList way) {
+        routes.remove(way.getId());
     }
 
     /**
@@ -163,34 +488,31 @@ public class OverlayManager {
      * @param gp
      *            The new position.
      */
-    public void setLocation(IDataNode node, GeoPoint gp) {
-        OverlayItem item = getOverlayItem(node);
+    public synchronized void setLocation(IDataNode node, GeoPoint gp) {
+        OverlayItem item = nodeItems.get(node.getId());
         if (item != null)
             item.setPoint(gp);
     }
 
     /**
-     * Add a mapping overlay item to node.
+     * Sets the zoom level the ways are drawn with. If the simplification of
+     * the ways changes with it, all way overlays are refilled from their
+     * buffers.
      * 
-     * @param item
-     *            The overlay item.
-     * @param node
-     *            The node.
+     * @param zoom
+     *            The zoom level.
      */
-    public void setOverlayItem(OverlayItem item, IDataNode node) {
-        overlayItemToNode.put(item, node);
-    }
-
-    /**
-     * Add a mapping for a way overlay to a way.
-     * 
-     * @param overlay
-     *            The way overlay.
-     * @param way
-     *            The way.
-     */
-    public void setWayOverlay(OverlayWay overlay, IDataPointsList way) {
-        routeToPointsList.put(overlay, way);
+    public synchronized void setZoomLevel(byte zoom) {
+        boolean changed = RouteBuffer.getBand(zoom) != RouteBuffer
+                .getBand(zoomLevel);
+        zoomLevel = zoom;
+        if (changed) {
+            for (Route route : routes) {
+                if (route.buffer != null) {
+                    route.setWayData(route.buffer.toWayData(zoomLevel));
+                }
+            }
+        }
     }
 
     /**
@@ -202,8 +524,15 @@ public class OverlayManager {
      * @param additional
      *            Additional waypoint appended to the way. May be null.
      */
-    public void updateOverlayRoute(IDataPointsList way, GeoPoint additional) {
-        GeoPoint[][] wps = new GeoPoint[][] { way.toGeoPointArray(additional) };
-        getOverlayRoute(way).setWayData(wps);
+    public synchronized void updateOverlayRoute(IDataPointsList way,
+            GeoPoint additional) {
+        RouteBuffer buffer = new RouteBuffer(way.getNodeArray(), way.isArea());
+        if (additional != null) {
+            buffer.append(0, additional.getLatitudeE6(),
+                    additional.getLongitudeE6());
+        }
+        Route route = (Route) getOverlayRoute(way);
+        route.buffer = buffer;
+        route.setWayData(buffer.toWayData(zoomLevel));
     }
 }
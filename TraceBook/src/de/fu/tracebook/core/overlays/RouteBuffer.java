@@ -0,0 +1,626 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.core.overlays;
+
+import org.mapsforge.android.maps.GeoPoint;
+import org.mapsforge.android.maps.OverlayWay;
+
+import de.fu.tracebook.core.data.NodeArray;
+import de.fu.tracebook.util.LineSimplification;
+import de.fu.tracebook.util.PointInPolygon;
+import de.fu.tracebook.util.PointLineDistance;
+
+/**
+ * Append-only geometry of a way overlay. The points are stored in chunks of
+ * {@link #CHUNK_SIZE} points, each chunk starting with the last point of the
+ * previous one, so the chunks can be handed to an {@link OverlayWay} as
+ * connected parts of one line. Appending a point only touches the last chunk,
+ * so the work per new point does not depend on the length of the way.
+ * <p>
+ * Full chunks are handed to the overlay as they are, so they are never
+ * changed afterwards: moving a point replaces the chunks containing it by
+ * changed copies, which reach the overlay with the next
+ * {@link #toWayData(byte)}. The last chunk and the simplified lines are
+ * always copied before they are handed out.
+ * <p>
+ * For zoom levels below {@link #FULL_RESOLUTION_ZOOM} simplified versions of
+ * the line are kept, one for every band of two zoom levels. They are computed
+ * with the Douglas-Peucker algorithm when they are needed first. Appending or
+ * moving a point only invalidates the simplification from the last kept point
+ * before it, so only the end of a growing way is simplified again.
+ * <p>
+ * For hit-testing the bounding box of every chunk and of the whole way is kept
+ * up to date, so a tap on the map only tests the segments of the chunks near
+ * it.
+ */
+class RouteBuffer {
+
+    /**
+     * A simplified version of the line.
+     */
+    private static class Level {
+
+        /**
+         * The line as handed to the overlay, null if it has to be built again.
+         */
+        GeoPoint[] line = null;
+
+        /**
+         * The indexes of the kept points.
+         */
+        int[] kept = new int[16];
+
+        /**
+         * The number of kept points.
+         */
+        int keptCount = 0;
+
+        /**
+         * The number of points of the way that have been simplified. The last
+         * of them is always the last kept point.
+         */
+        int validSize = 0;
+
+        Level() {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Number of points in a chunk.
+     */
+    static final int CHUNK_SIZE = 128;
+
+    /**
+     * The zoom level from which on the way is drawn with all its points.
+     */
+    static final int FULL_RESOLUTION_ZOOM = 18;
+
+    /**
+     * Number of pixels a simplified line may differ from the way.
+     */
+    static final double TOLERANCE = 1;
+
+    /**
+     * Returns the band of simplification used for a zoom level.
+     * 
+     * @param zoomLevel
+     *            The zoom level.
+     * @return The band or -1 if the way is drawn with all its points.
+     */
+    static int getBand(byte zoomLevel) {
+        if (zoomLevel < 0 || zoomLevel >= FULL_RESOLUTION_ZOOM) {
+            return -1;
+        }
+        return zoomLevel / 2;
+    }
+
+    /**
+     * Converts a distance on the screen to microdegrees of longitude.
+     * 
+     * @param pixels
+     *            The distance in pixels.
+     * @param zoomLevel
+     *            The zoom level of the map.
+     * @return The distance in microdegrees of longitude.
+     */
+    static double toMicrodegrees(double pixels, int zoomLevel) {
+        // the tiles of mapsforge are 256 pixels wide
+        return pixels * 360e6 / (256L << zoomLevel);
+    }
+
+    /**
+     * Returns the tolerance for simplifying the line of a band.
+     * 
+     * @return The tolerance in microdegrees of longitude.
+     */
+    private static double getTolerance(int band) {
+        // the band has to look right on its higher zoom level
+        return toMicrodegrees(TOLERANCE, band * 2 + 1);
+    }
+
+    private boolean area = false;
+
+    /**
+     * The bounding box of the way, stored like the boxes of the chunks.
+     */
+    private final int[] bounds = { Integer.MAX_VALUE, Integer.MIN_VALUE,
+            Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+    /**
+     * The bounding boxes of the chunks, the last one is the box of the current
+     * chunk. Every box is stored as minimum latitude, maximum latitude,
+     * minimum longitude and maximum longitude.
+     */
+    private int[] boxes = new int[4 * 4];
+    private GeoPoint[][] chunks = new GeoPoint[4][];
+    private int chunkCount = 0;
+    private GeoPoint[] current = new GeoPoint[CHUNK_SIZE];
+    private int currentSize = 0;
+    private long[] ids;
+    private int[] latitudes;
+    private Level[] levels = new Level[FULL_RESOLUTION_ZOOM / 2];
+    private int[] longitudes;
+    private GeoPoint[] points;
+    private int size = 0;
+
+    /**
+     * Factor for latitudes to make distances in degrees of latitude and
+     * longitude comparable. Computed from the first point.
+     */
+    private double yScale = 1;
+
+    /**
+     * Creates a buffer containing the nodes of a way.
+     * 
+     * @param nodes
+     *            The nodes of the way.
+     * @param area
+     *            True if the way is an area, then its line is closed.
+     */
+    RouteBuffer(NodeArray nodes, boolean area) {
+        this.area = area;
+        int capacity = Math.max(nodes.size(), 16);
+        ids = new long[capacity];
+        latitudes = new int[capacity];
+        longitudes = new int[capacity];
+        points = new GeoPoint[capacity];
+        resetBox(0);
+        for (int i = 0; i < nodes.size(); ++i) {
+            append(nodes.getId(i), nodes.getLatitudeE6(i),
+                    nodes.getLongitudeE6(i));
+        }
+    }
+
+    /**
+     * Appends a point to the end of the way.
+     * 
+     * @param id
+     *            The id of the node of the point.
+     * @param latitudeE6
+     *            The latitude of the point in microdegrees.
+     * @param longitudeE6
+     *            The longitude of the point in microdegrees.
+     */
+    void append(long id, int latitudeE6, int longitudeE6) {
+        GeoPoint point = new GeoPoint(latitudeE6, longitudeE6);
+        if (size == 0) {
+            yScale = 1 / Math.cos(Math.toRadians(latitudeE6 / 1e6));
+        }
+        if (size == ids.length) {
+            grow();
+        }
+        ids[size] = id;
+        latitudes[size] = latitudeE6;
+        longitudes[size] = longitudeE6;
+        points[size] = point;
+        ++size;
+
+        if (currentSize == CHUNK_SIZE) {
+            if (chunkCount == chunks.length) {
+                GeoPoint[][] newChunks = new GeoPoint[chunkCount * 2][];
+                System.arraycopy(chunks, 0, newChunks, 0, chunkCount);
+                chunks = newChunks;
+            }
+            chunks[chunkCount] = current;
+            ++chunkCount;
+            current = new GeoPoint[CHUNK_SIZE];
+            current[0] = chunks[chunkCount - 1][CHUNK_SIZE - 1];
+            currentSize = 1;
+            if (boxes.length < (chunkCount + 1) * 4) {
+                int[] newBoxes = new int[boxes.length * 2];
+                System.arraycopy(boxes, 0, newBoxes, 0, chunkCount * 4);
+                boxes = newBoxes;
+            }
+            resetBox(chunkCount);
+            extendBox(chunkCount, latitudes[size - 2], longitudes[size - 2]);
+        }
+        current[currentSize] = point;
+        ++currentSize;
+        extendBox(chunkCount, latitudeE6, longitudeE6);
+        bounds[0] = Math.min(bounds[0], latitudeE6);
+        bounds[1] = Math.max(bounds[1], latitudeE6);
+        bounds[2] = Math.min(bounds[2], longitudeE6);
+        bounds[3] = Math.max(bounds[3], longitudeE6);
+    }
+
+    /**
+     * Tests whether a position lies inside the area of this way.
+     * 
+     * @param latitudeE6
+     *            The latitude of the position in microdegrees.
+     * @param longitudeE6
+     *            The longitude of the position in microdegrees.
+     * @return True if the way is an area and contains the position.
+     */
+    boolean contains(int latitudeE6, int longitudeE6) {
+        if (!area || size < 3) {
+            return false;
+        }
+        if (latitudeE6 < bounds[0] || latitudeE6 > bounds[1]
+                || longitudeE6 < bounds[2] || longitudeE6 > bounds[3]) {
+            return false;
+        }
+        return PointInPolygon.isPointInPolygon(longitudeE6, latitudeE6,
+                longitudes, latitudes, size);
+    }
+
+    /**
+     * Returns the id of the node of a point.
+     * 
+     * @param index
+     *            The index of the point.
+     * @return The id of the node, 0 for a point that is not stored.
+     */
+    long getId(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Returns a point of the way.
+     * 
+     * @param index
+     *            The index of the point.
+     * @return The position of the point.
+     */
+    GeoPoint getPoint(int index) {
+        return points[index];
+    }
+
+    /**
+     * Finds the points of the way which lie in a part of the map. Only the
+     * points of chunks whose bounding box overlaps the part are tested.
+     * 
+     * @param viewport
+     *            The part of the map.
+     * @return The indexes of the points in ascending order.
+     */
+    int[] indexesIn(Viewport viewport) {
+        int[] indexes = new int[16];
+        int count = 0;
+        for (int c = 0; c <= chunkCount; ++c) {
+            int b = c * 4;
+            if (!viewport.intersects(boxes[b], boxes[b + 1], boxes[b + 2],
+                    boxes[b + 3])) {
+                continue;
+            }
+            // the first point of a chunk is the last of the chunk before
+            int first = c == 0 ? 0 : c * (CHUNK_SIZE - 1) + 1;
+            int last = Math.min(c * (CHUNK_SIZE - 1) + CHUNK_SIZE - 1,
+                    size - 1);
+            for (int i = first; i <= last; ++i) {
+                if (viewport.contains(latitudes[i], longitudes[i])) {
+                    if (count == indexes.length) {
+                        int[] newIndexes = new int[count * 2];
+                        System.arraycopy(indexes, 0, newIndexes, 0, count);
+                        indexes = newIndexes;
+                    }
+                    indexes[count++] = i;
+                }
+            }
+        }
+        int[] ret = new int[count];
+        System.arraycopy(indexes, 0, ret, 0, count);
+        return ret;
+    }
+
+    /**
+     * Tests whether the way overlaps a part of the map.
+     * 
+     * @param viewport
+     *            The part of the map.
+     * @return True if the bounding box of the way overlaps the viewport.
+     */
+    boolean intersects(Viewport viewport) {
+        return viewport.intersects(bounds[0], bounds[1], bounds[2], bounds[3]);
+    }
+
+    /**
+     * Returns whether the way is an area.
+     * 
+     * @return True if the line is closed.
+     */
+    boolean isArea() {
+        return area;
+    }
+
+    /**
+     * Tests whether a position lies near the line of the way. A way whose
+     * bounding box is not near the position is rejected at once, otherwise
+     * only the segments of chunks whose bounding box is near it are tested.
+     * 
+     * @param latitudeE6
+     *            The latitude of the position in microdegrees.
+     * @param longitudeE6
+     *            The longitude of the position in microdegrees.
+     * @param distance
+     *            The maximum distance in microdegrees of longitude.
+     * @return True if a segment of the way is not farther away than distance.
+     */
+    boolean isNear(int latitudeE6, int longitudeE6, double distance) {
+        double sqDistance = distance * distance;
+        int dLat = (int) Math.ceil(distance / yScale);
+        int dLon = (int) Math.ceil(distance);
+        if (latitudeE6 < bounds[0] - dLat || latitudeE6 > bounds[1] + dLat
+                || longitudeE6 < bounds[2] - dLon
+                || longitudeE6 > bounds[3] + dLon) {
+            return false;
+        }
+        double py = latitudeE6 * yScale;
+        for (int c = 0; c <= chunkCount; ++c) {
+            int b = c * 4;
+            if (latitudeE6 < boxes[b] - dLat || latitudeE6 > boxes[b + 1] + dLat
+                    || longitudeE6 < boxes[b + 2] - dLon
+                    || longitudeE6 > boxes[b + 3] + dLon) {
+                continue;
+            }
+            int first = c * (CHUNK_SIZE - 1);
+            int last = Math.min(first + CHUNK_SIZE - 1, size - 1);
+            for (int i = first; i < last; ++i) {
+                double d = PointLineDistance.sqDistancePointLine(longitudeE6,
+                        py, longitudes[i], latitudes[i] * yScale,
+                        longitudes[i + 1], latitudes[i + 1] * yScale);
+                if (d <= sqDistance) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves a point of the way. The overlay keeps drawing the old position
+     * until it gets the result of {@link #toWayData(byte)}.
+     * 
+     * @param id
+     *            The id of the node of the point.
+     * @param latitudeE6
+     *            The new latitude of the point in microdegrees.
+     * @param longitudeE6
+     *            The new longitude of the point in microdegrees.
+     * @return False if the way has no point with this id.
+     */
+    boolean move(long id, int latitudeE6, int longitudeE6) {
+        int index = -1;
+        for (int i = size - 1; i >= 0; --i) {
+            if (ids[i] == id) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return false;
+        }
+
+        GeoPoint point = new GeoPoint(latitudeE6, longitudeE6);
+        latitudes[index] = latitudeE6;
+        longitudes[index] = longitudeE6;
+        points[index] = point;
+
+        int chunk = Math.min(index / (CHUNK_SIZE - 1), chunkCount);
+        int offset = index - chunk * (CHUNK_SIZE - 1);
+        if (chunk < chunkCount) {
+            // the overlay may be drawing the full chunk, so change a copy
+            chunks[chunk] = chunks[chunk].clone();
+            chunks[chunk][offset] = point;
+        } else {
+            current[offset] = point;
+        }
+        updateBox(chunk);
+        if (offset == 0 && chunk > 0) {
+            chunks[chunk - 1] = chunks[chunk - 1].clone();
+            chunks[chunk - 1][CHUNK_SIZE - 1] = point;
+            updateBox(chunk - 1);
+        }
+        updateBounds();
+
+        for (Level level : levels) {
+            if (level != null) {
+                invalidate(level, index);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets whether the way is an area.
+     * 
+     * @param area
+     *            True if the line is closed.
+     */
+    void setArea(boolean area) {
+        if (this.area != area) {
+            this.area = area;
+            for (Level level : levels) {
+                if (level != null) {
+                    level.line = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the data for an {@link OverlayWay}.
+     * 
+     * @param zoomLevel
+     *            The zoom level the way is drawn with.
+     * @return The points of the way.
+     */
+    GeoPoint[][] toWayData(byte zoomLevel) {
+        int band = getBand(zoomLevel);
+        if (band >= 0) {
+            Level level = getLevel(band);
+            if (level.line == null) {
+                GeoPoint[] line = new GeoPoint[level.keptCount
+                        + (area && size > 0 ? 1 : 0)];
+                for (int i = 0; i < level.keptCount; ++i) {
+                    line[i] = points[level.kept[i]];
+                }
+                if (line.length > level.keptCount) {
+                    line[level.keptCount] = points[0];
+                }
+                level.line = line;
+            }
+            return new GeoPoint[][] { level.line };
+        }
+
+        if (area) {
+            GeoPoint[] line = new GeoPoint[size + (size > 0 ? 1 : 0)];
+            System.arraycopy(points, 0, line, 0, size);
+            if (size > 0) {
+                line[size] = points[0];
+            }
+            return new GeoPoint[][] { line };
+        }
+
+        GeoPoint[][] ret = new GeoPoint[chunkCount + 1][];
+        System.arraycopy(chunks, 0, ret, 0, chunkCount);
+        ret[chunkCount] = new GeoPoint[currentSize];
+        System.arraycopy(current, 0, ret[chunkCount], 0, currentSize);
+        return ret;
+    }
+
+    /**
+     * Extends a bounding box by a point.
+     */
+    private void extendBox(int chunk, int latitudeE6, int longitudeE6) {
+        int b = chunk * 4;
+        boxes[b] = Math.min(boxes[b], latitudeE6);
+        boxes[b + 1] = Math.max(boxes[b + 1], latitudeE6);
+        boxes[b + 2] = Math.min(boxes[b + 2], longitudeE6);
+        boxes[b + 3] = Math.max(boxes[b + 3], longitudeE6);
+    }
+
+    /**
+     * Returns the simplified line of a band, simplifying the points that have
+     * been added since it was used last.
+     */
+    private Level getLevel(int band) {
+        Level level = levels[band];
+        if (level == null) {
+            level = new Level();
+            levels[band] = level;
+        }
+        if (level.validSize == size) {
+            return level;
+        }
+
+        // the last kept point was only kept because it was the end of the
+        // way, so simplify again from the kept point before it
+        int start = 0;
+        if (level.keptCount >= 2) {
+            start = level.kept[level.keptCount - 2];
+            level.keptCount -= 2;
+        } else {
+            level.keptCount = 0;
+        }
+
+        int[] kept = new int[size - start];
+        int count = LineSimplification.simplify(longitudes, latitudes, yScale,
+                start, size - 1, getTolerance(band), kept);
+        if (level.keptCount + count > level.kept.length) {
+            int[] newKept = new int[(level.keptCount + count) * 3 / 2];
+            System.arraycopy(level.kept, 0, newKept, 0, level.keptCount);
+            level.kept = newKept;
+        }
+        System.arraycopy(kept, 0, level.kept, level.keptCount, count);
+        level.keptCount += count;
+        level.validSize = size;
+        level.line = null;
+        return level;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        long[] newIds = new long[capacity];
+        int[] newLatitudes = new int[capacity];
+        int[] newLongitudes = new int[capacity];
+        GeoPoint[] newPoints = new GeoPoint[capacity];
+        System.arraycopy(ids, 0, newIds, 0, size);
+        System.arraycopy(latitudes, 0, newLatitudes, 0, size);
+        System.arraycopy(longitudes, 0, newLongitudes, 0, size);
+        System.arraycopy(points, 0, newPoints, 0, size);
+        ids = newIds;
+        latitudes = newLatitudes;
+        longitudes = newLongitudes;
+        points = newPoints;
+    }
+
+    /**
+     * Discards the simplification of a level from the last kept point before
+     * a changed point on.
+     */
+    private void invalidate(Level level, int index) {
+        int pos = 0;
+        while (pos < level.keptCount && level.kept[pos] < index) {
+            ++pos;
+        }
+        // pos is the number of kept points before the changed one
+        if (pos == 0) {
+            level.keptCount = 0;
+            level.validSize = 0;
+        } else {
+            level.keptCount = pos;
+            level.validSize = level.kept[pos - 1] + 1;
+        }
+        level.line = null;
+    }
+
+    /**
+     * Empties a bounding box.
+     */
+    private void resetBox(int chunk) {
+        int b = chunk * 4;
+        boxes[b] = Integer.MAX_VALUE;
+        boxes[b + 1] = Integer.MIN_VALUE;
+        boxes[b + 2] = Integer.MAX_VALUE;
+        boxes[b + 3] = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Computes the bounding box of the way from the boxes of the chunks. A
+     * moved point may have shrunk it.
+     */
+    private void updateBounds() {
+        bounds[0] = Integer.MAX_VALUE;
+        bounds[1] = Integer.MIN_VALUE;
+        bounds[2] = Integer.MAX_VALUE;
+        bounds[3] = Integer.MIN_VALUE;
+        for (int b = 0; b <= chunkCount * 4; b += 4) {
+            bounds[0] = Math.min(bounds[0], boxes[b]);
+            bounds[1] = Math.max(bounds[1], boxes[b + 1]);
+            bounds[2] = Math.min(bounds[2], boxes[b + 2]);
+            bounds[3] = Math.max(bounds[3], boxes[b + 3]);
+        }
+    }
+
+    /**
+     * Computes the bounding box of a chunk from its points.
+     */
+    private void updateBox(int chunk) {
+        resetBox(chunk);
+        int first = chunk * (CHUNK_SIZE - 1);
+        int last = Math.min(first + CHUNK_SIZE - 1, size - 1);
+        for (int i = first; i <= last; ++i) {
+            extendBox(chunk, latitudes[i], longitudes[i]);
+        }
+    }
+}
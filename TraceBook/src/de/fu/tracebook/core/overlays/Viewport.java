@@ -0,0 +1,148 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.core.overlays;
+
+import org.mapsforge.android.maps.GeoPoint;
+import org.mapsforge.android.maps.Projection;
+
+/**
+ * A rectangle on the map given by its minimum and maximum latitude and
+ * longitude in microdegrees. The overlays use it to add only the objects near
+ * the visible part of the map.
+ */
+public final class Viewport {
+
+    /**
+     * The margin around the screen in which objects are added to the
+     * overlays, as a multiple of the width and height of the screen.
+     */
+    static final double MARGIN = 0.5;
+
+    /**
+     * Returns the part of the map shown on the screen.
+     * 
+     * @param projection
+     *            The projection of the map.
+     * @param width
+     *            The width of the screen in pixels.
+     * @param height
+     *            The height of the screen in pixels.
+     * @return The visible part of the map or null if the map has no valid
+     *         position yet.
+     */
+    static Viewport fromProjection(Projection projection, int width,
+            int height) {
+        GeoPoint a = projection.fromPixels(0, 0);
+        GeoPoint b = projection.fromPixels(width, height);
+        if (a == null || b == null) {
+            return null;
+        }
+        return new Viewport(Math.min(a.getLatitudeE6(), b.getLatitudeE6()),
+                Math.max(a.getLatitudeE6(), b.getLatitudeE6()), Math.min(
+                        a.getLongitudeE6(), b.getLongitudeE6()), Math.max(
+                        a.getLongitudeE6(), b.getLongitudeE6()));
+    }
+
+    private final int maxLatitude;
+    private final int maxLongitude;
+    private final int minLatitude;
+    private final int minLongitude;
+
+    /**
+     * Creates a viewport.
+     * 
+     * @param minLatitude
+     *            The minimum latitude in microdegrees.
+     * @param maxLatitude
+     *            The maximum latitude in microdegrees.
+     * @param minLongitude
+     *            The minimum longitude in microdegrees.
+     * @param maxLongitude
+     *            The maximum longitude in microdegrees.
+     */
+    public Viewport(int minLatitude, int maxLatitude, int minLongitude,
+            int maxLongitude) {
+        this.minLatitude = minLatitude;
+        this.maxLatitude = maxLatitude;
+        this.minLongitude = minLongitude;
+        this.maxLongitude = maxLongitude;
+    }
+
+    /**
+     * Tests whether a position lies in this viewport.
+     * 
+     * @param latitudeE6
+     *            The latitude in microdegrees.
+     * @param longitudeE6
+     *            The longitude in microdegrees.
+     * @return True if the position is inside or on the border.
+     */
+    public boolean contains(int latitudeE6, int longitudeE6) {
+        return latitudeE6 >= minLatitude && latitudeE6 <= maxLatitude
+                && longitudeE6 >= minLongitude && longitudeE6 <= maxLongitude;
+    }
+
+    /**
+     * Tests whether another viewport lies completely in this one.
+     * 
+     * @param other
+     *            The other viewport.
+     * @return True if other is inside this viewport.
+     */
+    public boolean contains(Viewport other) {
+        return contains(other.minLatitude, other.minLongitude)
+                && contains(other.maxLatitude, other.maxLongitude);
+    }
+
+    /**
+     * Returns a viewport which is larger by a margin on every side.
+     * 
+     * @param factor
+     *            The margin as a multiple of the height and width of this
+     *            viewport.
+     * @return The larger viewport.
+     */
+    public Viewport grow(double factor) {
+        int dLat = (int) ((maxLatitude - minLatitude) * factor);
+        int dLon = (int) ((maxLongitude - minLongitude) * factor);
+        return new Viewport(Math.max(minLatitude - dLat, -90000000), Math.min(
+                maxLatitude + dLat, 90000000), Math.max(minLongitude - dLon,
+                -180000000), Math.min(maxLongitude + dLon, 180000000));
+    }
+
+    /**
+     * Tests whether a bounding box overlaps this viewport.
+     * 
+     * @param minLat
+     *            The minimum latitude of the box in microdegrees.
+     * @param maxLat
+     *            The maximum latitude of the box in microdegrees.
+     * @param minLon
+     *            The minimum longitude of the box in microdegrees.
+     * @param maxLon
+     *            The maximum longitude of the box in microdegrees.
+     * @return True if the box and this viewport have a point in common.
+     */
+    public boolean intersects(int minLat, int maxLat, int minLon, int maxLon) {
+        return minLat <= maxLatitude && maxLat >= minLatitude
+                && minLon <= maxLongitude && maxLon >= minLongitude;
+    }
+}
@@ -51,11 +51,13 @@ import de.fu.tracebook.R;
 import de.fu.tracebook.core.data.IDataMapObject;
 import de.fu.tracebook.core.data.StorageFactory;
 import de.fu.tracebook.core.data.db.HistoryDb;
+import de.fu.tracebook.core.data.db.TagIndex;
 import de.fu.tracebook.core.data.db.TagSearchResult;
 import de.fu.tracebook.core.logger.ServiceConnector;
 import de.fu.tracebook.gui.adapter.GenericAdapter;
 import de.fu.tracebook.gui.adapter.GenericAdapterData;
 import de.fu.tracebook.gui.adapter.GenericItemDescription;
+import de.fu.tracebook.gui.adapter.TagCompletionAdapter;
 import de.fu.tracebook.util.Helper;
 import de.fu.tracebook.util.LogIt;
 
@@ -167,10 +169,18 @@ public class AddPointMetaActivity extends ListActivity {
                 autoComplVal.setText(value);
             }
 
-            ArrayAdapter<String> firstGroupAdapter = new ArrayAdapter<String>(
-                    this, android.R.layout.simple_dropdown_item_1line,
-                    getCategoryTags());
-            autoComplCat.setAdapter(firstGroupAdapter);
+            // use the tag index if it is loaded, parse the tags otherwise
+            final TagIndex tagIndex = TagIndex.getInstance();
+            if (tagIndex != null) {
+                autoComplCat.setAdapter(new TagCompletionAdapter(this,
+                        tagIndex, null));
+            } else {
+                TagIndex.load(this);
+                ArrayAdapter<String> firstGroupAdapter = new ArrayAdapter<String>(
+                        this, android.R.layout.simple_dropdown_item_1line,
+                        getCategoryTags());
+                autoComplCat.setAdapter(firstGroupAdapter);
+            }
 
             /**
              * If the focus is at the AutoCompleteTextView autoComplVal we call
@@ -182,6 +192,12 @@ public class AddPointMetaActivity extends ListActivity {
                     if (hasFocus) {
                         String cat = autoComplCat.getText().toString();
 
+                        if (tagIndex != null) {
+                            autoComplVal.setAdapter(new TagCompletionAdapter(v
+                                    .getContext(), tagIndex, cat));
+                            return;
+                        }
+
                         // autoComplVal.setText(cat.toCharArray(),0,cat.length());
                         ArrayAdapter<String> valueTagAdapter = new ArrayAdapter<String>(
                                 v.getContext(),
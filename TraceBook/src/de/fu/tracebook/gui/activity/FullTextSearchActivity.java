@@ -29,6 +29,8 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.text.Editable;
@@ -53,9 +55,11 @@ import de.fu.tracebook.util.Helper;
  * <p>
  * The activity set a custom TextWatcher class to listen on input changes. As
  * soon as the user is tipping something it will be recognized and a new
- * SearchThread will be started. Right now threads are careering sequencenumbers
- * for their search result to avoid older threads form overwriting result of new
- * threads.
+ * SearchJob will be queued for the single search thread of the activity. A job
+ * only starts after the user stopped typing for {@link #SEARCH_DELAY}
+ * milliseconds, and every new input cancels the search that is currently
+ * running. Jobs are carrying sequence numbers for their search result to avoid
+ * older jobs from overwriting the result of newer ones.
  * 
  */
 public class FullTextSearchActivity extends ListActivity {
@@ -67,11 +71,6 @@ public class FullTextSearchActivity extends ListActivity {
      */
     static class MyTextWatcher implements TextWatcher {
 
-        /**
-         * The thread currently used for searching the DB.
-         */
-        private Thread searchThread = null;
-
         /**
          * Reference to the FullTextSearchActivity to update the list view.
          */
@@ -99,21 +98,14 @@ public class FullTextSearchActivity extends ListActivity {
 
         public void onTextChanged(CharSequence s, int start, int before,
                 int count) {
-            final String searchText = s.toString().trim();
-
-            // if (searchThread != null)
-            // searchThread.stop();
-
-            searchThread = new SearchThread(act, act.increaseIndex(),
-                    searchText);
-            searchThread.start();
+            act.startSearch(s.toString().trim());
         }
     }
 
     /**
-     * A simple thread class which deals with search jobs in our database.
+     * A search job which is executed on the search thread of the activity.
      */
-    static class SearchThread extends Thread {
+    static class SearchJob implements Runnable {
 
         /**
          * Reference to the FullSearchActivity.
@@ -121,8 +113,8 @@ public class FullTextSearchActivity extends ListActivity {
         FullTextSearchActivity act;
 
         /**
-         * Current resolution index of this thread to prevent old thread from
-         * overriding result form new threads.
+         * Result index of this job to prevent old jobs from overriding the
+         * result of new jobs.
          */
         int resIndex;
 
@@ -143,25 +135,41 @@ public class FullTextSearchActivity extends ListActivity {
          * @param searchText
          *            search text to search for
          */
-        public SearchThread(FullTextSearchActivity act, int resIndex,
+        public SearchJob(FullTextSearchActivity act, int resIndex,
                 String searchText) {
             this.act = act;
             this.resIndex = resIndex;
             this.searchText = searchText;
         }
 
-        @Override
         public void run() {
-            TagDb db = new TagDb(act);
+            // a newer job has been queued while this one was waiting
+            if (act.getResIndex() != resIndex)
+                return;
 
-            List<TagSearchResult> result = db.getTag(searchText, Locale
+            List<TagSearchResult> result = act.tagDb.getTag(searchText, Locale
                     .getDefault().getLanguage());
-            act.fillResultsToList(result, resIndex);
+            if (result != null) {
+                act.fillResultsToList(result, resIndex);
+            }
         }
     }
 
+    /**
+     * Time in milliseconds the input has to be unchanged before a search is
+     * started.
+     */
+    static final long SEARCH_DELAY = 150;
+
     private int currResIndex;
     private List<TagSearchResult> currTagSearchResult;
+    private Handler searchHandler;
+    private HandlerThread searchThread;
+
+    /**
+     * The tag database used by the search thread.
+     */
+    TagDb tagDb;
 
     /**
      * We use this to get Tag Information about the press Item in our ListView.
@@ -169,25 +177,23 @@ public class FullTextSearchActivity extends ListActivity {
     TagSearchResult ts;
 
     /**
-     * Fill the ListView with the tag results. Since we are using threads to do
-     * our search it can happen the we have multiple thread which are trying to
-     * update the list view. To prevent this we generate result indexes to
-     * prevent older thread from overwriting data from new tracks.
+     * Fill the ListView with the tag results. Since the search runs in its own
+     * thread the user may have changed the search text in the meantime. To
+     * prevent outdated results from being shown we generate result indexes and
+     * only show the result of the newest search.
      * 
      * @param tags
      *            List of the TagSearchResult
      * @param resIndex
      *            current result index of the thread
      */
-    public synchronized void fillResultsToList(List<TagSearchResult> tags,
-            int resIndex) {
+    public void fillResultsToList(final List<TagSearchResult> tags,
+            final int resIndex) {
 
-        // an old thread is trying to give us a result so we prevent it.
-        if (getResIndex() < resIndex)
+        // an old job is trying to give us a result so we prevent it.
+        if (getResIndex() != resIndex)
             return;
 
-        currTagSearchResult = tags;
-
         GenericItemDescription desc = new GenericItemDescription();
         desc.addResourceId("Comment",
                 R.id.tv_listviewfulltextsearch_description);
@@ -210,6 +216,10 @@ public class FullTextSearchActivity extends ListActivity {
 
         this.runOnUiThread(new Runnable() {
             public void run() {
+                if (getResIndex() != resIndex)
+                    return;
+
+                currTagSearchResult = tags;
                 setListAdapter(adapter);
                 adapter.notifyDataSetChanged();
 
@@ -242,6 +252,12 @@ public class FullTextSearchActivity extends ListActivity {
     public void onCreate(Bundle savedInstanceState) {
         Helper.setTheme(this);
         super.onCreate(savedInstanceState);
+
+        tagDb = new TagDb(this);
+        searchThread = new HandlerThread("FullTextSearch");
+        searchThread.start();
+        searchHandler = new Handler(searchThread.getLooper());
+
         this.requestWindowFeature(Window.FEATURE_NO_TITLE);
         setContentView(R.layout.activity_fulltextsearchactivity);
         setTitle(R.string.string_fulltextsearchActivity_title);
@@ -273,6 +289,22 @@ public class FullTextSearchActivity extends ListActivity {
 
     }
 
+    /**
+     * Queues a search for a given text. The search is delayed by
+     * {@link #SEARCH_DELAY} milliseconds, and any search that is waiting or
+     * running is cancelled.
+     * 
+     * @param searchText
+     *            The text to search for.
+     */
+    public void startSearch(String searchText) {
+        int resIndex = increaseIndex();
+        searchHandler.removeCallbacksAndMessages(null);
+        tagDb.cancelSearch();
+        searchHandler.postDelayed(new SearchJob(this, resIndex, searchText),
+                SEARCH_DELAY);
+    }
+
     /**
      * The Method for the preference image Button from the status bar. The
      * Method starts the PreferenceActivity.
@@ -339,6 +371,18 @@ public class FullTextSearchActivity extends ListActivity {
             return (EditText) findViewById(R.id.et_fulltextsearchActivity_search);
     }
 
+    /**
+     * Cancels a running search, drops its results and stops the search thread.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        increaseIndex();
+        searchHandler.removeCallbacksAndMessages(null);
+        tagDb.cancelSearch();
+        searchThread.quit();
+    }
+
     /**
      * Show dialog for the selected Item with all tag informations. 1. Category
      * 2. Value 3. Description 4. Image 5. Wikipedia link
@@ -21,9 +21,11 @@
 package de.fu.tracebook.gui.activity;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -44,6 +46,8 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.Window;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView.AdapterContextMenuInfo;
 import android.widget.Button;
 import android.widget.EditText;
@@ -51,6 +55,7 @@ import android.widget.ListView;
 import android.widget.TextView;
 import de.fu.tracebook.R;
 import de.fu.tracebook.core.data.IDataTrack;
+import de.fu.tracebook.core.data.IDataTrackSummary;
 import de.fu.tracebook.core.data.StorageFactory;
 import de.fu.tracebook.gui.adapter.GenericAdapter;
 import de.fu.tracebook.gui.adapter.GenericAdapterData;
@@ -68,35 +73,75 @@ import de.fu.tracebook.util.LogIt;
  * <li>show all track information</li>
  * <li>load a track</li>
  * </ul>
+ * The tracks are read page by page from their summaries, sorted and filtered
+ * by the database. The next page is read when the list is scrolled near its
+ * end.
  */
 public class LoadTrackActivity extends ListActivity {
 
     /**
-     * Task to delete a track.
+     * Task to delete tracks, see {@link LoadTrackActivity#deleteTracks}.
      */
-    class DeleteTrackTask extends AsyncTask<String, Void, Void> {
+    class DeleteTrackTask extends AsyncTask<String, Void, Boolean> {
 
         @Override
-        protected Void doInBackground(String... args) {
+        protected Boolean doInBackground(String... args) {
             if (args.length > 0) {
-                StorageFactory.getStorage().deleteTrack(args[0]);
+                return Boolean.valueOf(StorageFactory.getStorage()
+                        .deleteTracks(Arrays.asList(args)));
             }
-            return null;
+            return Boolean.TRUE;
         }
 
         @Override
-        protected void onPostExecute(Void result) {
-            updateAdapter();
-            super.onPostExecute(result);
+        protected void onPostExecute(Boolean deleted) {
+            --deleting;
+            if (deleted.booleanValue()) {
+                loadPage();
+            } else {
+                // the tracks are still there, show them again
+                updateAdapter();
+            }
+            super.onPostExecute(deleted);
         }
 
     }
 
+    /**
+     * Number of tracks read at once.
+     */
+    static final int PAGE_SIZE = 30;
+
     /**
      * List of loaded TrackInfo.
      */
     protected final List<GenericAdapterData> data = new ArrayList<GenericAdapterData>();
 
+    /**
+     * Have all tracks been read into the list?
+     */
+    boolean complete = false;
+
+    /**
+     * Number of running tasks that delete tracks. No pages are read
+     * meanwhile, as the tracks have been removed from the list already but
+     * not yet from the database, so the offset of the next page would be
+     * wrong.
+     */
+    int deleting = 0;
+
+    /**
+     * Is a page of tracks being read?
+     */
+    boolean loading = false;
+
+    /**
+     * Changes whenever the list is read again from its beginning or tracks are
+     * removed from it, so that pages that were requested before, at offsets
+     * that are no longer valid, are dropped.
+     */
+    int version = 0;
+
     /**
      * GenericAdapter for our ListView which we use in this activity.
      */
@@ -202,8 +247,13 @@ public class LoadTrackActivity extends ListActivity {
 
             // show track info
         case R.id.cm_loadtrackActivity_info:
-            IDataTrack trackinfo = StorageFactory.getStorage()
-                    .deserializeTrack(trackname);
+            IDataTrackSummary trackinfo = StorageFactory.getStorage()
+                    .getTrackSummary(trackname);
+            if (trackinfo == null) {
+                LogIt.popup(this,
+                        "Track to load could not be opened. Missing or corrupt.");
+                return true;
+            }
 
             final Dialog infoDialog = new Dialog(this);
             infoDialog.setContentView(R.layout.dialog_trackinfo);
@@ -228,17 +278,17 @@ public class LoadTrackActivity extends ListActivity {
             // set up media
             TextView textmedia = (TextView) infoDialog
                     .findViewById(R.id.tv_trackInfoDialog_media);
-            textmedia.setText("" + trackinfo.getMedia().size());
+            textmedia.setText("" + trackinfo.getMediaCount());
 
             // set up pois
             TextView textpois = (TextView) infoDialog
                     .findViewById(R.id.tv_trackInfoDialog_pois);
-            textpois.setText("" + trackinfo.getNodes().size());
+            textpois.setText("" + trackinfo.getPoiCount());
 
             // set up ways
             TextView textways = (TextView) infoDialog
                     .findViewById(R.id.tv_trackInfoDialog_ways);
-            textways.setText("" + trackinfo.getWays().size());
+            textways.setText("" + trackinfo.getWayCount());
 
             // set up button
             Button button = (Button) infoDialog
@@ -263,8 +313,7 @@ public class LoadTrackActivity extends ListActivity {
                             getResources().getString(R.string.alert_global_yes),
                             new DialogInterface.OnClickListener() {
                                 public void onClick(DialogInterface d, int id) {
-                                    new DeleteTrackTask()
-                                            .execute(new String[] { trackname });
+                                    deleteTracks(trackname);
 
                                 }
                             })
@@ -303,6 +352,21 @@ public class LoadTrackActivity extends ListActivity {
 
         setTextChangedListenerToSearchBox((EditText) findViewById(R.id.et_statusbar_search));
 
+        getListView().setOnScrollListener(new OnScrollListener() {
+            public void onScroll(AbsListView view, int firstVisibleItem,
+                    int visibleItemCount, int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount >= totalItemCount
+                        - PAGE_SIZE / 2) {
+                    loadPage();
+                }
+            }
+
+            public void onScrollStateChanged(AbsListView view,
+                    int scrollState) {
+                // nothing done here
+            }
+        });
+
         // Set status bar
         Helper.setStatusBar(this,
                 getResources().getString(R.string.tv_statusbar_loadtrackTitle),
@@ -526,89 +590,134 @@ public class LoadTrackActivity extends ListActivity {
      */
     protected void textSearchUpdate() {
         if (searchText != null) {
-            List<GenericAdapterData> datalist = new ArrayList<GenericAdapterData>();
-            for (GenericAdapterData gda : data) {
-                if (gda.getText("TrackName").contains(searchText)) {
-                    datalist.add(gda);
-                }
+            updateAdapter();
+        }
+    }
+
+    /**
+     * Removes tracks from the list at once and deletes them in the
+     * background. If they cannot be deleted, the list is read again.
+     * 
+     * @param tracknames
+     *            The names of the tracks to delete.
+     */
+    void deleteTracks(String... tracknames) {
+        Set<String> names = new HashSet<String>(Arrays.asList(tracknames));
+        Iterator<GenericAdapterData> it = data.iterator();
+        while (it.hasNext()) {
+            if (names.contains(it.next().getText("TrackName"))) {
+                it.remove();
             }
-            fillAdapter(datalist);
         }
+        if (adapter != null) {
+            adapter.notifyDataSetChanged();
+        }
+
+        // drop the page being read, its offset was computed before the
+        // tracks were removed; it is read again when they are deleted
+        ++version;
+        loading = false;
+        ++deleting;
+        new DeleteTrackTask().execute(tracknames);
     }
 
     /**
-     * Updates the list.
+     * Reads the next page of tracks and appends it to the list, unless a page
+     * is being read already, tracks are being deleted or all tracks have been
+     * read.
      */
-    void updateAdapter() {
-        LogIt.d("update adapter");
-        final LoadTrackActivity thisActivity = this;
-        (new AsyncTask<Void, Void, Void>() {
+    void loadPage() {
+        if (loading || complete || deleting > 0) {
+            return;
+        }
+        loading = true;
+        final int offset = data.size();
+        final int pageVersion = version;
+        final String filter = searchText;
+        final boolean byName = sortByName;
+        (new AsyncTask<Void, Void, List<GenericAdapterData>>() {
             @Override
-            protected Void doInBackground(Void... params) {
+            protected List<GenericAdapterData> doInBackground(Void... params) {
                 GenericItemDescription desc = new GenericItemDescription();
 
                 desc.addResourceId("TrackName", R.id.tv_listviewloadtrack_track);
                 desc.addResourceId("TrackComment",
                         R.id.tv_listviewloadtrack_comment);
+                desc.addResourceId("TrackSummary",
+                        R.id.tv_listviewloadtrack_summary);
                 desc.setNameTag("TrackName");
-                String comment = null;
-
-                // get all TrackInfo-objects
-                List<IDataTrack> trackInfos = StorageFactory.getStorage()
-                        .getAllTracks();
-
-                // sort
-                if (sortByName) {
-                    Collections.sort(trackInfos, new Comparator<IDataTrack>() {
-                        public int compare(IDataTrack info1, IDataTrack info2) {
-                            return info1.getName().compareToIgnoreCase(
-                                    info2.getName());
-                        }
-                    });
-                } else {
-                    Collections.sort(trackInfos, new Comparator<IDataTrack>() {
-                        public int compare(IDataTrack info1, IDataTrack info2) {
-                            return info2.getDatetime().compareToIgnoreCase(
-                                    info1.getDatetime());
-                        }
-                    });
-                }
-
-                // fill adapter
-                data.clear();
-                for (IDataTrack trackinfo : trackInfos) {
-                    GenericAdapterData dataItem = new GenericAdapterData(desc);
-                    dataItem.setText("TrackName", trackinfo.getName());
-
-                    if (trackinfo.getComment() != null) {
-                        if (trackinfo.getComment().length() > 80) {
-                            comment = getResources().getString(
-                                    R.string.string_loadtrackactivity_comment)
-                                    + trackinfo.getComment().trim()
-                                            .substring(0, 77) + "...";
-                        } else if (trackinfo.getComment().length() > 0) {
-                            comment = getResources().getString(
-                                    R.string.string_loadtrackactivity_comment)
-                                    + trackinfo.getComment() + "...";
-                        } else {
-                            comment = getResources()
-                                    .getString(
-                                            R.string.string_loadtrackactivity_nocomment);
-                        }
-                    } else {
-                        comment = getResources().getString(
-                                R.string.string_loadtrackactivity_nocomment);
-                    }
-
-                    dataItem.setText("TrackComment", comment);
-
-                    data.add(dataItem);
 
+                List<GenericAdapterData> page = new ArrayList<GenericAdapterData>();
+                for (IDataTrackSummary trackinfo : StorageFactory.getStorage()
+                        .getTrackSummaries(filter, byName, offset, PAGE_SIZE)) {
+                    page.add(createItem(desc, trackinfo));
                 }
+                return page;
+            }
 
-                thisActivity.fillAdapter(data);
-                return null;
+            @Override
+            protected void onPostExecute(List<GenericAdapterData> page) {
+                if (pageVersion != version) {
+                    // the list has been read again in the meantime
+                    return;
+                }
+                loading = false;
+                complete = page.size() < PAGE_SIZE;
+                data.addAll(page);
+                if (adapter != null) {
+                    adapter.notifyDataSetChanged();
+                }
             }
         }).execute();
     }
+
+    /**
+     * Fills an item of the list with the summary of a track.
+     */
+    GenericAdapterData createItem(GenericItemDescription desc,
+            IDataTrackSummary trackinfo) {
+        String comment;
+        GenericAdapterData dataItem = new GenericAdapterData(desc);
+        dataItem.setText("TrackName", trackinfo.getName());
+
+        if (trackinfo.getComment() != null) {
+            if (trackinfo.getComment().length() > 80) {
+                comment = getResources().getString(
+                        R.string.string_loadtrackactivity_comment)
+                        + trackinfo.getComment().trim().substring(0, 77)
+                        + "...";
+            } else if (trackinfo.getComment().length() > 0) {
+                comment = getResources().getString(
+                        R.string.string_loadtrackactivity_comment)
+                        + trackinfo.getComment() + "...";
+            } else {
+                comment = getResources().getString(
+                        R.string.string_loadtrackactivity_nocomment);
+            }
+        } else {
+            comment = getResources().getString(
+                    R.string.string_loadtrackactivity_nocomment);
+        }
+
+        dataItem.setText("TrackComment", comment);
+        dataItem.setText("TrackSummary", getResources().getString(
+                R.string.string_loadtrackactivity_summary,
+                Integer.valueOf(trackinfo.getPoiCount()),
+                Integer.valueOf(trackinfo.getWayCount()),
+                Double.valueOf(trackinfo.getLength() / 1000)));
+        return dataItem;
+    }
+
+    /**
+     * Reads the list again from its beginning.
+     */
+    void updateAdapter() {
+        LogIt.d("update adapter");
+        ++version;
+        loading = false;
+        complete = false;
+        data.clear();
+        fillAdapter(data);
+        loadPage();
+    }
 }
@@ -21,7 +21,6 @@
 package de.fu.tracebook.gui.activity;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
@@ -33,7 +32,6 @@ import org.mapsforge.android.maps.MapView;
 import org.mapsforge.android.maps.MapViewMode;
 import org.mapsforge.android.maps.OverlayItem;
 import org.mapsforge.android.maps.OverlayWay;
-import org.mapsforge.android.maps.Projection;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -43,7 +41,6 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
-import android.graphics.Point;
 import android.location.LocationManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
@@ -64,6 +61,7 @@ import de.fu.tracebook.core.data.IDataNode;
 import de.fu.tracebook.core.data.IDataPointsList;
 import de.fu.tracebook.core.data.IDataTrack;
 import de.fu.tracebook.core.data.NewBug;
+import de.fu.tracebook.core.data.NodeArray;
 import de.fu.tracebook.core.data.StorageFactory;
 import de.fu.tracebook.core.logger.ServiceConnector;
 import de.fu.tracebook.core.overlays.BugOverlay;
@@ -73,6 +71,7 @@ import de.fu.tracebook.util.GpsMessage;
 import de.fu.tracebook.util.Helper;
 import de.fu.tracebook.util.LineSimplification;
 import de.fu.tracebook.util.LogIt;
+import de.fu.tracebook.util.Metrics;
 
 /**
  * This class implements a MapsForge map activity to draw ways and nodes as
@@ -146,33 +145,61 @@ public class MapsForgeActivity extends MapActivity {
 
             // Receive an update of a way and update the overlay accordingly
             case GpsMessage.UPDATE_OBJECT:
-                LogIt.d("UPDATE_OBJECT received, way: " + wayId + " node: "
-                        + pointId);
+                LogIt.d("UPDATE_OBJECT received, way: {} node: {}",
+                        Long.valueOf(wayId), Long.valueOf(pointId));
 
                 if (wayId > 0) {
                     IDataPointsList way = Helper.currentTrack()
                             .getPointsListById(wayId);
                     if (way != null) {
+                        long[] pointIds = intend
+                                .getLongArrayExtra(GpsMessage.EXTRA_POINT_IDS);
 
                         if (oldWayId != wayId) {
                             // add new way
                             oldWayId = wayId;
                             routesOverlay.addWay(way, true);
                         } else {
-                            // Refill way waypoints to overlay.
-                            StorageFactory.getStorage().getOverlayManager()
-                                    .updateOverlayRoute(way, null);
+                            int[] lats = intend
+                                    .getIntArrayExtra(GpsMessage.EXTRA_LATITUDES);
+                            int[] lons = intend
+                                    .getIntArrayExtra(GpsMessage.EXTRA_LONGITUDES);
+                            long start = Metrics.start();
+                            if (pointIds != null && lats != null
+                                    && lons != null) {
+                                // Append the new waypoints to the overlay.
+                                StorageFactory
+                                        .getStorage()
+                                        .getOverlayManager()
+                                        .appendToOverlayRoute(way, pointIds,
+                                                lats, lons);
+                            } else {
+                                // Refill way waypoints to overlay.
+                                StorageFactory.getStorage().getOverlayManager()
+                                        .updateOverlayRoute(way, null);
+                            }
+                            routesOverlay.checkVisibility(way);
                             routesOverlay.requestRedraw();
+                            WAY_UPDATE_TIME.stop(start);
                         }
 
                         // waypoints are only shown when toggleWaypoints is
-                        // pressed.
-                        if (pointId > 0) { // new waypoint (for waypoints
-                                           // overlay)
-                            IDataNode node = Helper.currentTrack().getNodeById(
-                                    pointId);
-                            if (node != null) {
-                                routesOverlay.putWaypoint(node);
+                        // pressed, their markers are created then.
+                        if (routesOverlay.isShowingWaypoints()) {
+                            if (pointIds != null) { // a batch of new waypoints
+                                for (long id : pointIds) {
+                                    IDataNode node = Helper.currentTrack()
+                                            .getNodeById(id);
+                                    if (node != null) {
+                                        routesOverlay.putWaypoint(node);
+                                    }
+                                }
+                            } else if (pointId > 0) { // new waypoint
+                                IDataNode node = Helper.currentTrack()
+                                        .getNodeById(pointId);
+                                if (node != null) {
+                                    routesOverlay.putWaypoint(node);
+                                }
                             }
                         }
 
@@ -183,13 +210,13 @@ public class MapsForgeActivity extends MapActivity {
 
                 break;
             case GpsMessage.MOVE_POINT:
-                LogIt.d("Move Point " + pointId);
+                LogIt.d("Move Point {}", Long.valueOf(pointId));
 
                 editNode = Helper.currentTrack().getNodeById(pointId);
 
                 break;
             case GpsMessage.END_WAY:
-                LogIt.d("End way for way " + wayId + " received.");
+                LogIt.d("End way for way {} received.", Long.valueOf(wayId));
 
                 (new AsyncTask<Void, Void, Void>() {
 
@@ -207,34 +234,32 @@ public class MapsForgeActivity extends MapActivity {
                                     "check_GPSSimplifyWays", true)) {
 
                                 // simplify line
-                                Projection proj = mapView.getProjection();
-
-                                // project GeoPoints to Points
-                                List<IDataNode> nodes = way.getNodes();
-                                List<Point> points = new ArrayList<Point>(
-                                        nodes.size());
-                                for (IDataNode n : nodes) {
-                                    points.add(proj.toPoint(n.getCoordinates(),
-                                            null, mapView.getZoomLevel()));
+                                NodeArray nodes = way.getNodeArray();
+                                int size = nodes.size();
+                                int[] lats = new int[size];
+                                int[] lons = new int[size];
+                                for (int i = 0; i < size; ++i) {
+                                    lats[i] = nodes.getLatitudeE6(i);
+                                    lons[i] = nodes.getLongitudeE6(i);
                                 }
-
-                                // Simplify line.
-                                float pixelPerMeter = mapView.getProjection()
-                                        .metersToPixels(2);
-                                LineSimplification.simplify(points,
-                                        pixelPerMeter);
-                                int size = points.size();
+                                int[] kept = new int[size];
+                                int count = LineSimplification
+                                        .simplifyCoordinates(lats, lons, size,
+                                                2, kept);
                                 IDataTrack track = StorageFactory.getStorage()
                                         .getTrack();
 
-                                // Deleted way points are set to zero.
-                                // Search for nulls and delete the node
+                                // Delete the nodes between the kept ones.
+                                List<IDataNode> nodeList = way.getNodes();
+                                int next = 0;
                                 for (int i = 0; i < size; ++i) {
-                                    if (points.get(i) == null) {
-                                        IDataNode node = nodes.get(i);
-                                        if (!node.hasAdditionalInfo()) {
-                                            track.deleteNode(node.getId());
-                                        }
+                                    if (next < count && kept[next] == i) {
+                                        ++next;
+                                        continue;
+                                    }
+                                    IDataNode node = nodeList.get(i);
+                                    if (!node.hasAdditionalInfo()) {
+                                        track.deleteNode(node.getId());
                                     }
                                 }
                             }
@@ -297,6 +322,9 @@ public class MapsForgeActivity extends MapActivity {
         }
     }
 
+    private static final Metrics.Histogram WAY_UPDATE_TIME = Metrics
+            .histogram("map.wayUpdate");
+
     /**
      * Checks whether there is an internet connection available.
      * 
@@ -439,10 +467,13 @@ public class MapsForgeActivity extends MapActivity {
 
             editNode.setLocation(projection);
             StorageFactory.getStorage().getOverlayManager()
-                    .getOverlayItem(editNode).setPoint(projection);
+                    .setLocation(editNode, projection);
             if (editNode.getDataPointsList() != null) {
-                StorageFactory.getStorage().getOverlayManager()
-                        .updateOverlayRoute(editNode.getDataPointsList(), null);
+                StorageFactory
+                        .getStorage()
+                        .getOverlayManager()
+                        .moveInOverlayRoute(editNode.getDataPointsList(),
+                                editNode.getId(), projection);
                 routesOverlay.requestRedraw();
             }
 
@@ -964,15 +995,14 @@ public class MapsForgeActivity extends MapActivity {
      */
     void fillOverlays() {
         LogIt.d("MapsforgeActivity.fillOverlays()");
+        // the POIs near the screen are added when the overlay is drawn
         pointsOverlay.clear();
-        pointsOverlay.addItems(StorageFactory.getStorage().getOverlayManager()
-                .getOverlayItems(this));
         if (gpsReceiver != null) {
             gpsReceiver.reinitPosition();
         }
 
         routesOverlay.clear();
-        routesOverlay.addWays(Helper.currentTrack().getWays());
+        routesOverlay.addWays(Helper.currentTrack().loadWays());
 
         bugOverlay.clear();
         bugOverlay.addItems(StorageFactory.getBugManager().getBugOverlays());
@@ -28,18 +28,26 @@ import android.content.res.Configuration;
 import android.os.Bundle;
 import android.os.RemoteException;
 import android.preference.Preference;
+import android.preference.Preference.OnPreferenceChangeListener;
 import android.preference.Preference.OnPreferenceClickListener;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 import de.fu.tracebook.R;
 import de.fu.tracebook.core.logger.ServiceConnector;
 import de.fu.tracebook.util.Helper;
+import de.fu.tracebook.util.LogIt;
+import de.fu.tracebook.util.Metrics;
 
 /**
  * This Activity show our preference menu for the application.
  */
 public class PreferencesActivity extends PreferenceActivity {
 
+    /**
+     * The request code of the FilePicker that chooses a trace to replay.
+     */
+    private static final int REPLAY_TRACE = 2;
+
     /**
      * A reference to the system wide PreferenceManager to avoid re initing it
      * all the time.
@@ -84,6 +92,38 @@ public class PreferencesActivity extends PreferenceActivity {
                         return true;
                     }
                 });
+
+        findPreference("check_collectMetrics").setOnPreferenceChangeListener(
+                new OnPreferenceChangeListener() {
+
+                    public boolean onPreferenceChange(Preference preference,
+                            Object newValue) {
+                        Metrics.setEnabled(((Boolean) newValue).booleanValue());
+                        return true;
+                    }
+                });
+
+        long importTime = appPreferences.getLong("tagImportTime", -1);
+        if (importTime >= 0) {
+            findPreference("tagImport").setSummary(
+                    getResources().getString(
+                            R.string.string_preferences_descTagImport,
+                            Integer.valueOf(appPreferences.getInt(
+                                    "tagImportCount", 0)),
+                            Long.valueOf(importTime)));
+        }
+
+        findPreference("replayTrace").setOnPreferenceClickListener(
+                new OnPreferenceClickListener() {
+
+                    public boolean onPreferenceClick(Preference preference) {
+                        Intent i = new Intent(thisActivity, FilePicker.class);
+                        i.putExtra(FilePicker.EXTENSIONS, new String[] {
+                                ".gpx", ".nmea", ".txt", ".log", ".tbt" });
+                        thisActivity.startActivityForResult(i, REPLAY_TRACE);
+                        return true;
+                    }
+                });
     }
 
     @Override
@@ -95,6 +135,11 @@ public class PreferencesActivity extends PreferenceActivity {
             String filename = data.getExtras().getString(
                     FilePicker.RESULT_CODE_FILE);
 
+            if (requestCode == REPLAY_TRACE) {
+                replayTrace(filename);
+                return;
+            }
+
             Editor editor = appPreferences.edit();
 
             editor.putString("mapsforgeMapFilePath", filename);
@@ -125,4 +170,26 @@ public class PreferencesActivity extends PreferenceActivity {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Replays a recorded trace into the current track at the speed chosen in
+     * the preferences.
+     * 
+     * @param filename
+     *            The path of the trace file.
+     */
+    private void replayTrace(String filename) {
+        float speed = Float.parseFloat(appPreferences.getString(
+                "lst_replaySpeed", "1"));
+        try {
+            if (!ServiceConnector.getLoggerService().replayTrace(filename,
+                    speed)) {
+                LogIt.popup(this,
+                        getResources().getString(
+                                R.string.string_preferences_replayNoTrack));
+            }
+        } catch (RemoteException e) {
+            LogIt.e("Could not start the trace replay.");
+        }
+    }
 }
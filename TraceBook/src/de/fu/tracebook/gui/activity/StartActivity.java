@@ -33,6 +33,7 @@ import android.view.View;
 import de.fu.tracebook.R;
 import de.fu.tracebook.core.data.StorageFactory;
 import de.fu.tracebook.core.data.db.TagDb;
+import de.fu.tracebook.core.data.db.TagIndex;
 import de.fu.tracebook.core.data.implementation.DBOpenHelper;
 import de.fu.tracebook.core.logger.ServiceConnector;
 import de.fu.tracebook.gui.view.HelpWebView;
@@ -96,12 +97,16 @@ public class StartActivity extends Activity {
             @Override
             public void run() {
 
-                if (db.getRowCountForLanguage("de") < 1) {
+                boolean importDe = db.getRowCountForLanguage("de") < 1;
+                boolean importEn = db.getRowCountForLanguage("en") < 1;
+                if (importDe && importEn) {
+                    db.initDbWithFiles(R.raw.tags_de, R.raw.tags_en);
+                } else if (importDe) {
                     db.initDbWithFile(R.raw.tags_de);
-                }
-                if (db.getRowCountForLanguage("en") < 1) {
+                } else if (importEn) {
                     db.initDbWithFile(R.raw.tags_en);
                 }
+                TagIndex.load(StartActivity.this);
             }
         }).start();
 
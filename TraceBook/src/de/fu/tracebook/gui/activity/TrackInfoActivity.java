@@ -27,6 +27,9 @@ import android.content.Intent;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.RemoteException;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.Window;
 import android.widget.EditText;
@@ -34,8 +37,10 @@ import android.widget.TextView;
 import de.fu.tracebook.R;
 import de.fu.tracebook.core.data.IDataTrack;
 import de.fu.tracebook.core.data.StorageFactory;
+import de.fu.tracebook.core.data.TrackStatistics;
 import de.fu.tracebook.core.logger.ServiceConnector;
 import de.fu.tracebook.util.Helper;
+import de.fu.tracebook.util.Metrics;
 
 /**
  * This activity show info about a track. It is possible to edit the comment and
@@ -60,6 +65,7 @@ public class TrackInfoActivity extends Activity {
             tvd.poiNumber = track.getNodes().size();
             tvd.wayNumber = track.getWays().size();
             tvd.comment = track.getComment();
+            tvd.statistics = track.getStatistics();
             return tvd;
         }
 
@@ -89,6 +95,40 @@ public class TrackInfoActivity extends Activity {
                     R.string.tv_trackInfoDialog_pois)
                     + " " + result.poiNumber);
 
+            TrackStatistics stats = result.statistics;
+            TextView tvDistance = (TextView) TrackInfoActivity.this
+                    .findViewById(R.id.tv_trackinfoActivity_distance);
+            tvDistance.setText(getResources().getString(
+                    R.string.tv_trackInfoDialog_distance)
+                    + " "
+                    + String.format("%.2f km",
+                            Double.valueOf(stats.getLength() / 1000)));
+
+            long minutes = stats.getMovingTime() / 60000;
+            TextView tvMovingTime = (TextView) TrackInfoActivity.this
+                    .findViewById(R.id.tv_trackinfoActivity_movingTime);
+            tvMovingTime.setText(getResources().getString(
+                    R.string.tv_trackInfoDialog_movingTime)
+                    + " "
+                    + String.format("%d:%02d h", Long.valueOf(minutes / 60),
+                            Long.valueOf(minutes % 60)));
+
+            TextView tvSpeed = (TextView) TrackInfoActivity.this
+                    .findViewById(R.id.tv_trackinfoActivity_averageSpeed);
+            tvSpeed.setText(getResources().getString(
+                    R.string.tv_trackInfoDialog_averageSpeed)
+                    + " "
+                    + String.format("%.1f km/h",
+                            Double.valueOf(stats.getAverageSpeed() * 3.6)));
+
+            TextView tvDensity = (TextView) TrackInfoActivity.this
+                    .findViewById(R.id.tv_trackinfoActivity_pointDensity);
+            tvDensity.setText(getResources().getString(
+                    R.string.tv_trackInfoDialog_pointDensity)
+                    + " "
+                    + String.format("%.1f",
+                            Double.valueOf(stats.getPointDensity())));
+
             EditText etComment = (EditText) TrackInfoActivity.this
                     .findViewById(R.id.et_trackinfoActivity_comment);
             etComment.setText(result.comment);
@@ -101,6 +141,7 @@ public class TrackInfoActivity extends Activity {
         String date;
         String name;
         int poiNumber;
+        TrackStatistics statistics;
         int wayNumber;
 
         public TextViewData() {
@@ -142,6 +183,24 @@ public class TrackInfoActivity extends Activity {
         backBtn(null);
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        MenuInflater inflater = getMenuInflater();
+        inflater.inflate(R.menu.optionsmenu_trackinfoactivity, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+        case R.id.opt_trackinfoActivity_metrics:
+            showMetrics();
+            return true;
+        default:
+            return super.onOptionsItemSelected(item);
+        }
+    }
+
     /**
      * Executed when the export button is pressed.
      * 
@@ -253,4 +312,43 @@ public class TrackInfoActivity extends Activity {
         StorageFactory.getStorage().getTrack()
                 .setComment(etComment.getText().toString());
     }
+
+    /**
+     * Shows the collected performance metrics in a dialog, from which they can
+     * be exported to the directory of the track or be reset.
+     */
+    void showMetrics() {
+        String text = Metrics.toText();
+        if (text.length() == 0) {
+            text = getResources().getString(
+                    R.string.alert_trackinfoActivity_noMetrics);
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(getResources().getString(
+                R.string.alert_trackinfoActivity_metrics));
+        builder.setMessage(text);
+        builder.setPositiveButton(
+                getResources().getString(R.string.btn_trackinfoActivity_export),
+                new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int which) {
+                        Metrics.export(StorageFactory.getStorage().getTrack()
+                                .getTrackDirPath());
+                    }
+                });
+        builder.setNeutralButton(
+                getResources().getString(R.string.alert_trackinfoActivity_reset),
+                new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int which) {
+                        Metrics.reset();
+                    }
+                });
+        builder.setNegativeButton(
+                getResources().getString(R.string.btn_trackinfoActivity_back),
+                new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int which) {
+                        dialog.cancel();
+                    }
+                });
+        builder.show();
+    }
 }
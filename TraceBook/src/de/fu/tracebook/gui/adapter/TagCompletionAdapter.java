@@ -0,0 +1,136 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.gui.adapter;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.TextView;
+import de.fu.tracebook.core.data.db.TagIndex;
+
+/**
+ * An adapter for AutoCompleteTextViews which suggests tag keys or the values of
+ * a tag key. The suggestions are looked up in the {@link TagIndex}, so the
+ * index has to be loaded before this adapter is used.
+ */
+public class TagCompletionAdapter extends BaseAdapter implements Filterable {
+
+    /**
+     * Maximum number of suggestions shown.
+     */
+    static final int MAX_SUGGESTIONS = 30;
+
+    /**
+     * The index used to look up suggestions.
+     */
+    TagIndex index;
+
+    /**
+     * The key of which values are suggested, null if keys are suggested.
+     */
+    String key;
+
+    /**
+     * A reference to a layoutInflater which will be used to inflate the views
+     * of the suggestions.
+     */
+    LayoutInflater layoutInflater;
+
+    /**
+     * The suggestions currently shown.
+     */
+    String[] suggestions = new String[0];
+
+    /**
+     * 
+     * @param context
+     *            The context of the AutoCompleteTextView.
+     * @param index
+     *            The index to look up the suggestions.
+     * @param key
+     *            The key of which the values should be suggested or null if
+     *            keys should be suggested.
+     */
+    public TagCompletionAdapter(Context context, TagIndex index, String key) {
+        this.index = index;
+        this.key = key;
+        layoutInflater = (LayoutInflater) context
+                .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+    }
+
+    public int getCount() {
+        return suggestions.length;
+    }
+
+    public Filter getFilter() {
+        return new Filter() {
+            @Override
+            protected FilterResults performFiltering(CharSequence constraint) {
+                String prefix = constraint != null ? constraint.toString()
+                        : "";
+                String[] found;
+                if (key == null) {
+                    found = index.completeKeys(prefix, MAX_SUGGESTIONS);
+                } else {
+                    found = index.completeValues(key, prefix, MAX_SUGGESTIONS);
+                }
+
+                FilterResults results = new FilterResults();
+                results.values = found;
+                results.count = found.length;
+                return results;
+            }
+
+            @Override
+            protected void publishResults(CharSequence constraint,
+                    FilterResults results) {
+                suggestions = (String[]) results.values;
+                if (results.count > 0) {
+                    notifyDataSetChanged();
+                } else {
+                    notifyDataSetInvalidated();
+                }
+            }
+        };
+    }
+
+    public String getItem(int position) {
+        return suggestions[position];
+    }
+
+    public long getItemId(int position) {
+        return position;
+    }
+
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView view = (TextView) convertView;
+        if (view == null) {
+            view = (TextView) layoutInflater.inflate(
+                    android.R.layout.simple_dropdown_item_1line, parent, false);
+        }
+        view.setText(suggestions[position]);
+        return view;
+    }
+}
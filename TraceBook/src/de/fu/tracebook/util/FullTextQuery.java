@@ -0,0 +1,97 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.util;
+
+/**
+ * Builds queries for the full text index of SQLite (FTS3) and ranks their
+ * results.
+ */
+public final class FullTextQuery {
+
+    /**
+     * Builds a full text query that finds all rows containing words that start
+     * with the words of the search text.
+     * 
+     * @param searchText
+     *            The text to search for.
+     * @return The query for the MATCH operator or null if the search text
+     *         does not contain any word.
+     */
+    public static String prefixQuery(String searchText) {
+        StringBuilder query = new StringBuilder(searchText.length() + 8);
+        boolean inWord = false;
+        for (int i = 0; i < searchText.length(); ++i) {
+            char c = searchText.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord && query.length() > 0) {
+                    query.append(' ');
+                }
+                query.append(c);
+                inWord = true;
+            } else if (inWord) {
+                query.append('*');
+                inWord = false;
+            }
+        }
+        if (inWord) {
+            query.append('*');
+        }
+        return query.length() > 0 ? query.toString() : null;
+    }
+
+    /**
+     * Computes the rank of a search result out of the result of the offsets()
+     * function of the full text index. Every matched word adds the weight of
+     * the column it was found in.
+     * 
+     * @param offsets
+     *            The result of offsets() for the row.
+     * @param weights
+     *            The weights of the columns of the index, in the order of the
+     *            columns.
+     * @return The rank, higher is better.
+     */
+    public static int rank(String offsets, int[] weights) {
+        // offsets consists of groups of four numbers: column, term, byte
+        // offset and size
+        int rank = 0;
+        int number = 0;
+        int field = 0;
+        int len = offsets.length();
+        for (int i = 0; i <= len; ++i) {
+            char c = i < len ? offsets.charAt(i) : ' ';
+            if (c == ' ') {
+                if (field % 4 == 0 && number < weights.length) {
+                    rank += weights[number];
+                }
+                ++field;
+                number = 0;
+            } else {
+                number = number * 10 + (c - '0');
+            }
+        }
+        return rank;
+    }
+
+    private FullTextQuery() {
+        // make constructor private
+    }
+}
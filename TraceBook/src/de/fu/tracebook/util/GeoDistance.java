@@ -0,0 +1,63 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.util;
+
+/**
+ * Utility class for calculating distances on the surface of the earth.
+ */
+public final class GeoDistance {
+
+    /**
+     * The mean radius of the earth in meters.
+     */
+    public static final double EARTH_RADIUS = 6371008.8;
+
+    /**
+     * Calculates the great circle distance of two points with the haversine
+     * formula.
+     * 
+     * @param latitude1
+     *            The latitude of the first point in microdegrees.
+     * @param longitude1
+     *            The longitude of the first point in microdegrees.
+     * @param latitude2
+     *            The latitude of the second point in microdegrees.
+     * @param longitude2
+     *            The longitude of the second point in microdegrees.
+     * @return The distance in meters.
+     */
+    public static double haversine(int latitude1, int longitude1,
+            int latitude2, int longitude2) {
+        double lat1 = Math.toRadians(latitude1 / 1E6);
+        double lat2 = Math.toRadians(latitude2 / 1E6);
+        double sinLat = Math.sin((lat2 - lat1) / 2);
+        double lon = Math.toRadians((longitude2 - longitude1) / 1E6);
+        double sinLon = Math.sin(lon / 2);
+        double a = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon
+                * sinLon;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private GeoDistance() {
+        // make constructor private
+    }
+
+}
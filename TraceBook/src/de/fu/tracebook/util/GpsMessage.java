@@ -47,6 +47,15 @@ public class GpsMessage {
      */
     public static final String EXTRA_LATITUDE = "lat";
 
+    /**
+     * The string of the field in the intent extra where the latitudes of the
+     * new way points are stored in microdegrees, in the same order as
+     * EXTRA_POINT_IDS. Only for UPDATE_OBJECT.
+     * 
+     * Type is int[].
+     */
+    public static final String EXTRA_LATITUDES = "lats";
+
     /**
      * The string of the field in the intent extra where the current longitude
      * is stored. Only valid when type is UPDATE_GPS_POS.
@@ -55,6 +64,15 @@ public class GpsMessage {
      */
     public static final String EXTRA_LONGITUDE = "long";
 
+    /**
+     * The string of the field in the intent extra where the longitudes of the
+     * new way points are stored in microdegrees, in the same order as
+     * EXTRA_POINT_IDS. Only for UPDATE_OBJECT.
+     * 
+     * Type is int[].
+     */
+    public static final String EXTRA_LONGITUDES = "longs";
+
     /**
      * The string of the field in the intent extra where the id of the way is
      * stored. Only for UPDATE_OBJECT and MOVE_POINT.
@@ -63,6 +81,15 @@ public class GpsMessage {
      */
     public static final String EXTRA_POINT_ID = "nodeid";
 
+    /**
+     * The string of the field in the intent extra where the ids of several new
+     * way points are stored. Only for UPDATE_OBJECT, if more than one point
+     * was added to the way at once.
+     * 
+     * Type is long[].
+     */
+    public static final String EXTRA_POINT_IDS = "nodeids";
+
     /**
      * The string of the field in the intent extra where the type of the
      * broadcast is stored.
@@ -184,4 +211,30 @@ public class GpsMessage {
         intent.putExtra(EXTRA_WAY_ID, wayId);
         ctx.sendBroadcast(intent);
     }
+
+    /**
+     * Signal an update of the way where several points have been added at
+     * once, so that it can be redrawn.
+     * 
+     * @param wayId
+     *            id of the way that was changed
+     * @param nodeIds
+     *            the Ids of the new waypoints in the order they were added
+     * @param latitudes
+     *            the latitudes of the new waypoints in microdegrees
+     * @param longitudes
+     *            the longitudes of the new waypoints in microdegrees
+     */
+    public void sendWayUpdate(long wayId, long[] nodeIds, int[] latitudes,
+            int[] longitudes) {
+        Intent intent = new Intent(TAG);
+        intent.putExtra(EXTRA_TYPE, UPDATE_OBJECT);
+        intent.putExtra(EXTRA_POINT_ID,
+                nodeIds.length > 0 ? nodeIds[nodeIds.length - 1] : -1);
+        intent.putExtra(EXTRA_POINT_IDS, nodeIds);
+        intent.putExtra(EXTRA_LATITUDES, latitudes);
+        intent.putExtra(EXTRA_LONGITUDES, longitudes);
+        intent.putExtra(EXTRA_WAY_ID, wayId);
+        ctx.sendBroadcast(intent);
+    }
 }
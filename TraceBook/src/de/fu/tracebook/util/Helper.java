@@ -231,17 +231,48 @@ public final class Helper {
     }
 
     /**
-     * Gets a OverlayItem with default marker and no position added.
+     * Gets the default marker of POIs. The marker is created once and shared
+     * by all OverlayItems using it.
      * 
      * @param ctx
      *            The Activity context
-     * @return a new OverlayItem
+     * @return the default marker
      */
-    public static OverlayItem getOverlayItem(Context ctx) {
+    public static Drawable getDefaultMarker(Context ctx) {
         if (defaultMarker == null)
             defaultMarker = ItemizedOverlay.boundCenterBottom(ctx
                     .getResources().getDrawable(R.drawable.card_marker_red));
-        return new OverlayItem(null, null, null, defaultMarker);
+        return defaultMarker;
+    }
+
+    /**
+     * Creates a marker for an OverlayItem.
+     * 
+     * @param marker
+     *            id of the Graphics object to use
+     * @param ctx
+     *            context of the application
+     * @param center
+     *            the center of the icon is at the position of the item
+     * @return the new marker
+     */
+    public static Drawable getMarker(int marker, Context ctx, boolean center) {
+        Drawable icon = ctx.getResources().getDrawable(marker);
+        if (center)
+            return ItemizedOverlay.boundCenter(icon);
+        else
+            return ItemizedOverlay.boundCenterBottom(icon);
+    }
+
+    /**
+     * Gets a OverlayItem with default marker and no position added.
+     * 
+     * @param ctx
+     *            The Activity context
+     * @return a new OverlayItem
+     */
+    public static OverlayItem getOverlayItem(Context ctx) {
+        return new OverlayItem(null, null, null, getDefaultMarker(ctx));
     }
 
     /**
@@ -275,24 +306,18 @@ public final class Helper {
      */
     public static OverlayItem getOverlayItem(GeoPoint pos, int marker,
             Activity act, boolean center) {
-        final OverlayItem oi = new OverlayItem(pos, null, null);
-        Drawable icon = act.getResources().getDrawable(marker);
-        if (center)
-            oi.setMarker(ItemizedOverlay.boundCenter(icon));
-        else
-            oi.setMarker(ItemizedOverlay.boundCenterBottom(icon));
-
-        return oi;
+        return new OverlayItem(pos, null, null, getMarker(marker, act, center));
     }
 
     /**
-     * Gets the current way in the current {@link IDataTrack}.
+     * Gets all ways of the current {@link IDataTrack} together with their
+     * nodes, see {@link IDataTrack#loadWays()}.
      * 
      * @return the current {@link IDataPointsList} ways
      */
     public static List<IDataPointsList> getWays() {
         if (StorageFactory.getStorage().getTrack() != null) {
-            return StorageFactory.getStorage().getTrack().getWays();
+            return StorageFactory.getStorage().getTrack().loadWays();
         }
         return null;
     }
@@ -20,168 +20,118 @@
 
 package de.fu.tracebook.util;
 
-import org.mapsforge.android.maps.GeoPoint;
-
-import Jama.Matrix;
-import android.graphics.Point;
-
 /**
  * This is an implementation of the Kalman filter for points given by a GPS
  * receiver. It should correct to some degree the error of the location given by
  * the GPS receiver. By this a smoother GPS track is achieved.
+ * <p>
+ * The filter uses a constant velocity model. Its state is the position and the
+ * velocity in x and y direction, and it measures the position and the
+ * velocity since the last fix. Since all matrices of this model are diagonal
+ * or made of diagonal blocks, the x and the y direction are filtered
+ * independently, each with a 2x2 covariance matrix. The steps are written out
+ * in closed form on primitive fields, so filtering a fix does not allocate any
+ * objects. The filter only depends on the JDK.
  */
 public class KalmanFilter {
 
     /**
-     * This work is licensed under a Creative Commons Attribution 3.0 License.
-     * 
-     * @author Ahmed Abdelkader, comments by Jan Sydow
+     * One direction of the filter: the estimated position p and velocity v and
+     * their error covariance matrix [[a, b], [b, d]].
      */
-    private static class KalmanFilterAlgorithm {
-        protected Matrix F, B, U, Q;
-        protected Matrix H, R;
-        protected Matrix P, P0;
-        protected Matrix X, X0;
-
-        KalmanFilterAlgorithm() {
-            // do nothing
+    private static class Axis {
+        double a = INITIAL_COVARIANCE;
+        double b = 0;
+        double d = INITIAL_COVARIANCE;
+        double p;
+        double v = 0;
+
+        Axis(double p) {
+            this.p = p;
         }
 
         /**
-         * Computes the "a posteriori"-estimate using the measurement vector z.
-         * 
-         * @param Z
-         *            The meausure value.
-         */
-        void correct(Matrix Z) {
-
-            Matrix S = H.times(P0).times(H.transpose()).plus(R);
-
-            // The Kalman gain. It tries to minimise the error
-            // covariance. The Kalman gain is a weight which
-            // choses which value is more trustworthy, the estimate
-            // or the measured value.
-            Matrix K = P0.times(H.transpose()).times(S.inverse());
-
-            // z - H*x0 is the residual. It show the difference
-            // between the estimate and the actual measurement.
-            // using K as a weight, a new weighted estimated state
-            // is computed.
-            X = X0.plus(K.times(Z.minus(H.times(X0))));
-
-            // The new error covariance.
-            Matrix I = Matrix.identity(P0.getRowDimension(),
-                    P0.getColumnDimension());
-            P = (I.minus(K.times(H))).times(P0);
-        }
-
-        /**
-         * Getter method for the vector x.
-         * 
-         * @return X.
-         */
-        Matrix getX() {
-            return X;
-        }
-
-        /**
-         * Computes the "a priori"-estimates.
-         */
-        void predict() {
-            X0 = F.times(X).plus(B.times(U));
-            P0 = F.times(P).times(F.transpose()).plus(Q);
-        }
-
-        /**
-         * Setter method for the matrix B.
-         * 
-         * @param b
-         *            The new B.
-         */
-        void setB(Matrix b) {
-            B = b;
-        }
-
-        /**
-         * Setter method for the matrix F.
-         * 
-         * @param f
-         *            The new F.
-         */
-        void setF(Matrix f) {
-            F = f;
-        }
-
-        /**
-         * Setter method for the matrix H.
-         * 
-         * @param h
-         *            The new H.
-         */
-        void setH(Matrix h) {
-            H = h;
-        }
-
-        /**
-         * Setter method for the matrix P.
-         * 
-         * @param p
-         *            The new P.
-         */
-        void setP(Matrix p) {
-            P = p;
-        }
-
-        /**
-         * Setter method for the vector Q.
+         * Computes the "a priori"-estimate and then the "a posteriori"-estimate
+         * using the measured position and velocity.
          * 
+         * @param zp
+         *            The measured position.
+         * @param zv
+         *            The measured velocity.
+         * @param dt
+         *            The time since the last step.
          * @param q
-         *            The new Q.
-         */
-        void setQ(Matrix q) {
-            Q = q;
-        }
-
-        /**
-         * Setter method for the vector R.
-         * 
+         *            The process noise of this step.
          * @param r
-         *            The new R.
+         *            The measurement noise of this step.
          */
-        void setR(Matrix r) {
-            R = r;
+        void step(double zp, double zv, double dt, double q, double r) {
+            // predict: x0 = F * x, P0 = F * P * F^T + Q with F = [[1, dt],
+            // [0, 1]]
+            double p0 = p + dt * v;
+            double v0 = v;
+            double a0 = a + 2 * dt * b + dt * dt * d + q;
+            double b0 = b + dt * d;
+            double d0 = d + q;
+
+            // The Kalman gain K = P0 * S^-1 with S = P0 + R. It tries to
+            // minimise the error covariance. The Kalman gain is a weight which
+            // choses which value is more trustworthy, the estimate or the
+            // measured value.
+            double sa = a0 + r;
+            double sd = d0 + r;
+            double det = sa * sd - b0 * b0;
+            double k11 = (a0 * sd - b0 * b0) / det;
+            double k12 = b0 * r / det;
+            double k21 = b0 * r / det;
+            double k22 = (d0 * sa - b0 * b0) / det;
+
+            // z - x0 is the residual. It show the difference between the
+            // estimate and the actual measurement. Using K as a weight, a new
+            // weighted estimated state is computed.
+            double yp = zp - p0;
+            double yv = zv - v0;
+            p = p0 + k11 * yp + k12 * yv;
+            v = v0 + k21 * yp + k22 * yv;
+
+            // The new error covariance P = (I - K) * P0.
+            a = (1 - k11) * a0 - k12 * b0;
+            b = (1 - k11) * b0 - k12 * d0;
+            d = (1 - k22) * d0 - k21 * b0;
         }
+    }
 
-        /**
-         * Setter method for the vector u.
-         * 
-         * @param u
-         *            The new u.
-         */
-        void setU(Matrix u) {
-            U = u;
-        }
+    /**
+     * Initial value of the variances of the state. The correctness of the
+     * initial value has an impact on how fast the filter converges.
+     */
+    static final double INITIAL_COVARIANCE = 1.0;
 
-        /**
-         * Setter method for the vector x.
-         * 
-         * @param x
-         *            The new x.
-         */
-        void setX(Matrix x) {
-            X = x;
-        }
-    }
+    /**
+     * Noise of the measurement, for a fix with {@link #REFERENCE_ACCURACY} at
+     * one fix per second.
+     */
+    static final double MEASUREMENT_NOISE = 10.0;
 
-    private KalmanFilterAlgorithm kf = new KalmanFilterAlgorithm();
+    /**
+     * Noise of the filter per second.
+     */
+    static final double PROCESS_NOISE = 1.0;
 
-    private double lastX;
+    /**
+     * The accuracy in meters for which the measurement noise is
+     * {@link #MEASUREMENT_NOISE}. The noise of other fixes is scaled by the
+     * square of their accuracy relative to this one.
+     */
+    static final float REFERENCE_ACCURACY = 10;
 
+    private double lastX;
     private double lastY;
+    private Axis x;
+    private Axis y;
 
     /**
-     * Initialises the Kalman filter with first measurements and the matrices
-     * the filter works on.
+     * Initialises the Kalman filter with first measurements.
      * 
      * @param x
      *            The first measured x value.
@@ -189,90 +139,51 @@ public class KalmanFilter {
      *            The first measured y value.
      */
     public KalmanFilter(double x, double y) {
-        buildKf(x, y);
+        this.x = new Axis(x);
+        this.y = new Axis(y);
         lastX = x;
         lastY = y;
     }
 
     /**
-     * Applies the Kalman filter to the given point.
+     * Applies the Kalman filter to a measured point. The result can be read
+     * with {@link #getX()} and {@link #getY()}.
      * 
-     * @param point
-     *            The point as measured.
-     * @return The point as corrected by the Kalman Filter.
+     * @param mx
+     *            The measured x value.
+     * @param my
+     *            The measured y value.
+     * @param accuracy
+     *            The accuracy of the measurement in meters, 0 if unknown.
+     * @param dt
+     *            The time since the last measurement in seconds, 0 if unknown.
      */
-    public GeoPoint filter(GeoPoint point) {
-        double x = point.getLongitude();
-        double y = point.getLatitude();
-        kf.predict();
-        kf.correct(new Matrix(new double[][] { { x, y, x - lastX, y - lastY } })
-                .transpose());
-        Matrix est = kf.getX();
-        lastX = x;
-        lastY = y;
-        return new GeoPoint(est.get(1, 0), est.get(0, 0));
+    public void filter(double mx, double my, float accuracy, double dt) {
+        double t = dt > 0 ? dt : 1;
+        double scale = accuracy > 0 ? accuracy / REFERENCE_ACCURACY : 1;
+        double q = PROCESS_NOISE * t;
+        double r = MEASUREMENT_NOISE * scale * scale;
+        x.step(mx, (mx - lastX) / t, t, q, r);
+        y.step(my, (my - lastY) / t, t, q, r);
+        lastX = mx;
+        lastY = my;
     }
 
     /**
-     * Applies the Kalman filter to the given point.
+     * Returns the estimated x value.
      * 
-     * @param point
-     *            The point as measured.
-     * @return The point as corrected by the Kalman Filter.
+     * @return The x value corrected by the filter.
      */
-    public Point filter(Point point) {
-        double x = point.x;
-        double y = point.y;
-        kf.predict();
-        kf.correct(new Matrix(new double[][] { { x, y, x - lastX, y - lastY } })
-                .transpose());
-        Matrix est = kf.getX();
-        lastX = x;
-        lastY = y;
-        return new Point((int) est.get(0, 0), (int) est.get(1, 0));
+    public double getX() {
+        return x.p;
     }
 
     /**
-     * Set up the matrices of the Kalman filter.
+     * Returns the estimated y value.
+     * 
+     * @return The y value corrected by the filter.
      */
-    private void buildKf(double x, double y) {
-
-        final double L = 1.0; // initial value for covariance
-        final double processNoise = 1.0; // noise of the filter
-        final double measurementNoise = 10.0; // noise of the measurement.
-
-        // The state vector. It is the current estimate of the real position
-        // made by the Kalman filter. This is the initial value.
-        kf.setX(new Matrix(new double[][] { { x, y, 0, 0 } }).transpose());
-
-        // The error covariance matrix. Will be updated in every step.
-        // This is the initial value.
-        // The correctness of the initial value has an impact on
-        // how fast the filter converges.
-        kf.setP(Matrix.identity(4, 4).times(L));
-
-        // B and u are a linear factor that is added every time step to x.
-        // They are a control factor, with u being the control vector and
-        // B being an input matrix.
-        // May both be zero.
-        // Set to 0 here, because there is no known control.
-        kf.setB(new Matrix(4, 4));
-        kf.setU(new Matrix(4, 1));
-
-        // State transition matrix. Defines how x changes in each time step
-        // Default is the identity.
-        kf.setF(new Matrix(new double[][] { { 1, 0, 1, 0 }, { 0, 1, 0, 1 },
-                { 0, 0, 1, 0 }, { 0, 0, 0, 1 } }));
-
-        // Process noise matrix. Influences the covariance matrix P. Default is
-        // zero.
-        kf.setQ(Matrix.identity(4, 4).times(processNoise));
-
-        // Observation matrix. Default is the identity.
-        kf.setH(Matrix.identity(4, 4));
-
-        // Measurement noise vector.
-        kf.setR(Matrix.identity(4, 4).times(measurementNoise));
+    public double getY() {
+        return y.p;
     }
-
 }
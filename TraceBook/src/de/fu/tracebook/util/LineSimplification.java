@@ -20,128 +20,171 @@
 
 package de.fu.tracebook.util;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import android.graphics.Point;
-
 /**
  * Simplifies a line. After simplification a line has less or equal number of
  * way points. The coordinates of the way points do not change. Just some way
  * points that do not provide much information about the course of the way are
  * removed from the way.
+ * <p>
+ * The Douglas-Peucker-algorithm is used. It works on arrays of coordinates
+ * and uses an explicit stack instead of recursion, so long and noisy ways
+ * neither create objects per way point nor overflow the stack. The distances
+ * are measured like {@link PointLineDistance} does, with the terms of each
+ * line computed once. The complexity is O(n * log n) for average cases and
+ * O(n*n) in the worst case since it works similar to quicksort.
  */
 public final class LineSimplification {
 
     /**
-     * Simplifies a line by removing way points that change the way at most by e
-     * pixels. This reduces the number of way points of the way. The unused way
-     * points are set to null. The parameter "in" is changed by this!
-     * 
-     * @param in
-     *            The way to simplify.
-     * @param e
-     *            The distance how far a point has to change the way in order to
-     *            be kept.
+     * Length of a microdegree of latitude in meters.
      */
-    public static void simplify(List<Point> in, double e) {
-        simplify(in, 0, in.size() - 1, e);
-    }
+    private static final double METERS_PER_MICRODEGREE = 0.111195;
 
     /**
-     * Simplifies a line by removing way points that change the way at most by e
-     * pixels. This reduces the number of way points of the way.
+     * Simplifies a part of a line given as arrays of coordinates by removing
+     * way points that change the way at most by e. The y coordinates are
+     * multiplied by yScale before distances are measured, which allows to
+     * simplify geographic coordinates in an approximately length-true way.
      * 
-     * @param in
-     *            The way to simplify.
+     * @param xs
+     *            The x coordinates of the way points.
+     * @param ys
+     *            The y coordinates of the way points.
+     * @param yScale
+     *            The factor applied to the y coordinates.
+     * @param start
+     *            The index of the first way point of the part to simplify.
+     * @param end
+     *            The index of the last way point of the part to simplify.
      * @param e
      *            The distance how far a point has to change the way in order to
      *            be kept.
-     * @return The simplified way.
+     * @param kept
+     *            Receives the indexes of the kept way points in ascending
+     *            order, starting at kept[0]. It must have room for end - start
+     *            + 1 entries.
+     * @return The number of kept way points. The first and the last way point
+     *         are always kept.
      */
-    public static List<Point> simplifyLine(List<Point> in, double e) {
-        ArrayList<Point> ret = new ArrayList<Point>(in);
+    public static int simplify(int[] xs, int[] ys, double yScale, int start,
+            int end, double e, int[] kept) {
+        int count = end - start + 1;
+        if (count <= 2) {
+            for (int i = 0; i < count; ++i) {
+                kept[i] = start + i;
+            }
+            return Math.max(count, 0);
+        }
 
-        int size = ret.size();
-        // simplify way
-        simplify(ret, 0, size - 1, e);
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+        double sqE = e * e;
+        // the worst case measures every point once per level of splitting,
+        // so scale the y coordinates only once
+        double[] scaled = new double[count];
+        for (int i = 0; i < count; ++i) {
+            scaled[i] = ys[start + i] * yScale;
+        }
 
-        // move null-elements to the end of the array.
-        int i = 0;
-        int j = 0;
-        while (true) {
-            if (ret.get(i) == null) {
-                if (j < i) {
-                    j = i;
-                }
-                while (j < size && ret.get(j) == null) {
-                    ++j;
+        // ranges still to be simplified, as pairs of start and end index
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = start;
+        stack[top++] = end;
+        while (top > 0) {
+            int j = stack[--top];
+            int i = stack[--top];
+            if (j - i < 2) {
+                continue;
+            }
+
+            // find point with largest distance to line i to j
+            int farthest = i;
+            double dist = 0;
+            double ax = xs[i];
+            double ay = scaled[i - start];
+            double bx = xs[j];
+            double by = scaled[j - start];
+            double bxMax = bx - ax;
+            double byMay = by - ay;
+            double sqLength = bxMax * bxMax + byMay * byMay;
+            double inverse = 1 / sqLength;
+            for (int x = i + 1; x < j; ++x) {
+                double pxMax = xs[x] - ax;
+                double pyMay = scaled[x - start] - ay;
+                double t = pxMax * bxMax + pyMay * byMay;
+                double d;
+                if (t <= 0) {
+                    // p beyond a, also if a and b are the same point
+                    d = pxMax * pxMax + pyMay * pyMay;
+                } else if (t > sqLength) {
+                    // p beyond b
+                    double pxMbx = xs[x] - bx;
+                    double pyMby = scaled[x - start] - by;
+                    d = pxMbx * pxMbx + pyMby * pyMby;
+                } else {
+                    double a2 = pyMay * bxMax - pxMax * byMay;
+                    d = a2 * a2 * inverse;
                 }
-                if (j >= size) {
-                    break;
+                if (d > dist) {
+                    dist = d;
+                    farthest = x;
                 }
-                ret.set(i, ret.get(j));
-                ret.set(j, null);
             }
 
-            ++i;
-            if (i >= size) {
-                break;
+            if (dist > sqE) {
+                // Split line because distance was to large
+                keep[farthest - start] = true;
+                if (top + 4 > stack.length) {
+                    int[] newStack = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, newStack, 0, top);
+                    stack = newStack;
+                }
+                stack[top++] = i;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = j;
             }
         }
 
-        // remove null-elements.
-        return ret.subList(0, i);
+        int ret = 0;
+        for (int i = 0; i < count; ++i) {
+            if (keep[i]) {
+                kept[ret++] = start + i;
+            }
+        }
+        return ret;
     }
 
     /**
-     * The Douglas-Peucker-algorithm. It simplifies a line by removing
-     * unnecessary nodes. The complexity is O(n * log n) for average cases and
-     * O(n*n) in the worst case since it works similar to quicksort.
+     * Simplifies a line of geographic coordinates by removing way points that
+     * change the way at most by a given number of meters.
      * 
-     * @param in
-     *            The way.
-     * @param i
-     *            The index of the starting way point of the line used to
-     *            simplify.
-     * @param j
-     *            The index of the ending way point of the line used to
-     *            simplify.
-     * @param e
-     *            The distance how far a point has to change the way in order to
-     *            be kept.
+     * @param latitudesE6
+     *            The latitudes of the way points in microdegrees.
+     * @param longitudesE6
+     *            The longitudes of the way points in microdegrees.
+     * @param size
+     *            The number of way points.
+     * @param meters
+     *            The distance in meters how far a point has to change the way
+     *            in order to be kept.
+     * @param kept
+     *            Receives the indexes of the kept way points in ascending
+     *            order. It must have room for size entries.
+     * @return The number of kept way points.
      */
-    private static void simplify(List<Point> in, int i, int j, double e) {
-        int farthest = i;
-        double dist = 0;
-
-        // no point between i and j that could be eliminated?
-        // also anchor for recurrence
-        if (j - i < 2) {
-            return;
-        }
-
-        // find point with largest distance to line i to j
-        for (int x = i; x <= j; ++x) {
-            double d = PointLineDistance.sqDistancePointLine(in.get(x),
-                    in.get(i), in.get(j));
-            if (d > dist) {
-                dist = d;
-                farthest = x;
-            }
-        }
-
-        // actual algorithm:
-        if (dist > e * e) {
-            // Split line because distance was to large
-            simplify(in, i, farthest, e);
-            simplify(in, farthest, j, e);
-        } else {
-            // delete all point between i and j
-            for (int x = i + 1; x < j; ++x) {
-                in.set(x, null);
-            }
+    public static int simplifyCoordinates(int[] latitudesE6,
+            int[] longitudesE6, int size, double meters, int[] kept) {
+        if (size == 0) {
+            return 0;
         }
+        // measure in microdegrees of longitude at the latitude of the way
+        double cos = Math.cos(Math.toRadians(latitudesE6[0] / 1e6));
+        double e = meters / (METERS_PER_MICRODEGREE * Math.max(cos, 1e-6));
+        return simplify(longitudesE6, latitudesE6, 1 / Math.max(cos, 1e-6), 0,
+                size - 1, e, kept);
     }
 
     private LineSimplification() {
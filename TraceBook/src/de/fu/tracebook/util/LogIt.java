@@ -21,8 +21,6 @@
 package de.fu.tracebook.util;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 
 import android.app.Activity;
 import android.util.Log;
@@ -35,6 +33,11 @@ import de.fu.tracebook.core.data.NewStorage;
  * log file or log to logcat. There is a log level which is an integer from 1 to
  * 5. 5 is the highest level and is equivalent to error in logcat. 1 is
  * equivalent to verbose in logcat.
+ * <p>
+ * Messages can be given as a pattern with {} placeholders and arguments. The
+ * message is only built if its level is logged, so expensive arguments should
+ * be passed this way or be guarded by {@link #isLoggable(int)}. When logging to
+ * file, messages are written by a background thread.
  */
 public final class LogIt {
 
@@ -64,11 +67,13 @@ public final class LogIt {
 
     private static final String LOG_PREFIX = "TraceBook";
 
-    private static int maxLogLevel = 1000;
+    private static volatile int maxLogLevel = 1000;
 
-    private static int method = LOGMETHOD_ANDROID;
+    private static volatile int method = LOGMETHOD_ANDROID;
 
-    private static int minLogLevel = -1000;
+    private static volatile int minLogLevel = -1000;
+
+    private static volatile LogWriter writer = null;
 
     /**
      * Logs message with debug priority.
@@ -76,20 +81,61 @@ public final class LogIt {
      * @param message
      *            The message to be logged
      */
-    public static synchronized void d(String message) {
+    public static void d(String message) {
         log(TRACEBOOK_TAG, message, 2);
     }
 
+    /**
+     * Logs a message with debug priority. The message is only built if debug
+     * messages are logged.
+     * 
+     * @param pattern
+     *            The message, each {} is replaced by the next argument.
+     * @param args
+     *            The arguments of the message.
+     */
+    public static void d(String pattern, Object... args) {
+        if (isLoggable(2)) {
+            log(TRACEBOOK_TAG, format(pattern, args), 2);
+        }
+    }
+
     /**
      * Logs message with error priority.
      * 
      * @param message
      *            The message to be logged
      */
-    public static synchronized void e(String message) {
+    public static void e(String message) {
         log(TRACEBOOK_TAG, message, 5);
     }
 
+    /**
+     * Logs a message with error priority. The message is only built if error
+     * messages are logged.
+     * 
+     * @param pattern
+     *            The message, each {} is replaced by the next argument.
+     * @param args
+     *            The arguments of the message.
+     */
+    public static void e(String pattern, Object... args) {
+        if (isLoggable(5)) {
+            log(TRACEBOOK_TAG, format(pattern, args), 5);
+        }
+    }
+
+    /**
+     * Checks whether messages of a log level are logged.
+     * 
+     * @param logLevel
+     *            The log level. 1-5
+     * @return true if messages of this level are logged.
+     */
+    public static boolean isLoggable(int logLevel) {
+        return logLevel >= minLogLevel && logLevel <= maxLogLevel;
+    }
+
     /**
      * Log a message.
      * 
@@ -100,20 +146,11 @@ public final class LogIt {
      * @param logLevel
      *            The importance of the log message. 0-5
      */
-    public static synchronized void log(String prefix, String message,
-            int logLevel) {
-        if ((logLevel <= maxLogLevel) || (logLevel <= minLogLevel)) {
+    public static void log(String prefix, String message, int logLevel) {
+        if (isLoggable(logLevel)) {
             switch (method) {
             case LOGMETHOD_FILE:
-                File logFile = new File(NewStorage.getTraceBookDirPath()
-                        + File.separator + "log.txt");
-                try {
-                    FileWriter fw = new FileWriter(logFile);
-                    fw.append(prefix + ": " + message);
-                    fw.close();
-                } catch (IOException e) {
-                    LogIt.e("Logging error: Could not log to file!");
-                }
+                writer.add(logLevel, prefix + ": " + message);
                 break;
             case LOGMETHOD_ANDROID:
                 switch (logLevel) {
@@ -175,6 +212,12 @@ public final class LogIt {
      *            the new logging method.
      */
     public static synchronized void setLogMethod(int newMethod) {
+        if (newMethod == LOGMETHOD_FILE && writer == null) {
+            String dir = NewStorage.getTraceBookDirPath() + File.separator;
+            writer = new LogWriter(new File(dir + "log.txt"), new File(dir
+                    + "log.old.txt"));
+            writer.start();
+        }
         method = newMethod;
     }
 
@@ -207,15 +250,48 @@ public final class LogIt {
     }
 
     /**
-     * Logs message with error priority.
+     * Logs message with warning priority.
      * 
      * @param message
      *            The message to be logged
      */
-    public static synchronized void w(String message) {
+    public static void w(String message) {
         log(TRACEBOOK_TAG, message, 4);
     }
 
+    /**
+     * Logs a message with warning priority. The message is only built if
+     * warnings are logged.
+     * 
+     * @param pattern
+     *            The message, each {} is replaced by the next argument.
+     * @param args
+     *            The arguments of the message.
+     */
+    public static void w(String pattern, Object... args) {
+        if (isLoggable(4)) {
+            log(TRACEBOOK_TAG, format(pattern, args), 4);
+        }
+    }
+
+    /**
+     * Replaces the {} placeholders of a pattern by the arguments.
+     */
+    private static String format(String pattern, Object[] args) {
+        StringBuilder message = new StringBuilder(pattern.length() + 16
+                * args.length);
+        int start = 0;
+        for (Object arg : args) {
+            int index = pattern.indexOf("{}", start);
+            if (index < 0) {
+                break;
+            }
+            message.append(pattern, start, index).append(arg);
+            start = index + 2;
+        }
+        return message.append(pattern, start, pattern.length()).toString();
+    }
+
     private LogIt() {
         // Empty constructor. Does nothing.
     }
@@ -0,0 +1,234 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import android.util.Log;
+
+/**
+ * Writes log messages to a file in the background. Messages are put into a
+ * fixed size ring buffer without locking and written by a daemon thread, so
+ * logging never waits for the file system. Messages that arrive while the
+ * buffer is full are dropped and counted.
+ * <p>
+ * The file is appended to. When it grows larger than {@link #MAX_FILE_SIZE}
+ * it is renamed, replacing the previous old log, and a new file is started.
+ */
+final class LogWriter extends Thread {
+
+    /**
+     * A buffered log message.
+     */
+    private static final class Entry {
+        final int level;
+        final String text;
+        final long time;
+
+        Entry(long time, int level, String text) {
+            this.time = time;
+            this.level = level;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Number of messages the buffer can hold, a power of two.
+     */
+    static final int CAPACITY = 1024;
+
+    /**
+     * Time in milliseconds between two writes of the buffered messages.
+     */
+    static final long FLUSH_INTERVAL = 500;
+
+    /**
+     * Size in bytes at which the log file is rotated.
+     */
+    static final long MAX_FILE_SIZE = 256 * 1024;
+
+    private static final char[] LEVELS = { 'V', 'D', 'I', 'W', 'E' };
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat(
+            "yyyy-MM-dd HH:mm:ss.SSS");
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final File file;
+
+    /**
+     * Sequence number of the next message to be added.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    private final File oldFile;
+
+    private Writer out = null;
+
+    private long size = 0;
+
+    private final AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<Entry>(
+            CAPACITY);
+
+    /**
+     * Sequence number of the next message to be written. Only changed by the
+     * writer thread.
+     */
+    private volatile long tail = 0;
+
+    /**
+     * Creates a writer for a log file. Call {@link #start()} to start writing.
+     * 
+     * @param file
+     *            The log file.
+     * @param oldFile
+     *            The file the log file is renamed to when it is rotated.
+     */
+    LogWriter(File file, File oldFile) {
+        super("LogWriter");
+        setDaemon(true);
+        this.file = file;
+        this.oldFile = oldFile;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            drain();
+            LockSupport.parkNanos(FLUSH_INTERVAL * 1000000L);
+        }
+    }
+
+    /**
+     * Adds a message to the buffer. Error messages are written immediately,
+     * all others with the next periodic write.
+     * 
+     * @param level
+     *            The log level of the message.
+     * @param text
+     *            The message.
+     * @return false if the buffer is full and the message was dropped.
+     */
+    boolean add(int level, String text) {
+        Entry entry = new Entry(System.currentTimeMillis(), level, text);
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail >= CAPACITY) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+        slots.set((int) (seq & (CAPACITY - 1)), entry);
+
+        if (level >= LogIt.MAX_LOG_LEVEL) {
+            LockSupport.unpark(this);
+        }
+        return true;
+    }
+
+    /**
+     * Writes all buffered messages to the file.
+     */
+    private void drain() {
+        long next = tail;
+        int count = 0;
+        try {
+            Entry entry;
+            while ((entry = slots.get((int) (next & (CAPACITY - 1)))) != null) {
+                slots.set((int) (next & (CAPACITY - 1)), null);
+                tail = ++next;
+                write(entry.time, entry.level, entry.text);
+                ++count;
+            }
+            long lost = dropped.getAndSet(0);
+            if (lost > 0) {
+                write(System.currentTimeMillis(), LogIt.MAX_LOG_LEVEL, lost
+                        + " log messages dropped.");
+                ++count;
+            }
+            if (count > 0) {
+                out.flush();
+                if (size >= MAX_FILE_SIZE) {
+                    rotate();
+                }
+            }
+        } catch (IOException e) {
+            Log.e(LogIt.TRACEBOOK_TAG, "Could not write log file.");
+            close();
+        }
+    }
+
+    /**
+     * Closes the log file, ignoring errors. It is opened again when the next
+     * message is written.
+     */
+    private void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Renames the log file and starts a new one.
+     */
+    private void rotate() {
+        close();
+        oldFile.delete();
+        if (!file.renameTo(oldFile)) {
+            Log.e(LogIt.TRACEBOOK_TAG, "Could not rotate log file.");
+            file.delete();
+        }
+    }
+
+    /**
+     * Appends a line to the log file, opening it if necessary.
+     */
+    private void write(long time, int level, String text) throws IOException {
+        if (out == null) {
+            File dir = file.getParentFile();
+            if (dir != null) {
+                dir.mkdirs();
+            }
+            out = new BufferedWriter(new FileWriter(file, true));
+            size = file.length();
+        }
+        String line = dateFormat.format(new Date(time)) + " "
+                + LEVELS[Math.max(0, Math.min(level, LEVELS.length) - 1)]
+                + " " + text + "\n";
+        out.write(line);
+        size += line.length();
+    }
+}
@@ -0,0 +1,241 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A map from primitive long keys to objects. Other than a HashMap with Long
+ * keys it neither boxes the keys nor creates an entry object per mapping: keys
+ * and values are kept in two arrays using open addressing with linear probing.
+ * Null values are not allowed, an empty slot is marked by a null value.
+ * <p>
+ * The map is not synchronised. Iterating over it returns the values in no
+ * particular order, the map must not be changed while iterating.
+ * 
+ * @param <V>
+ *            The type of the values.
+ */
+public class LongMap<V> implements Iterable<V> {
+
+    /**
+     * Capacity of a new map, a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Spreads the bits of a key, so that ids that only differ in their high
+     * bits or that are multiples of the capacity do not collide.
+     */
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private long[] keys;
+    private int mask;
+    private int size = 0;
+    private Object[] values;
+
+    /**
+     * Creates an empty map.
+     */
+    public LongMap() {
+        keys = new long[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+        mask = INITIAL_CAPACITY - 1;
+    }
+
+    /**
+     * Removes all mappings. The capacity of the map is kept.
+     */
+    public void clear() {
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Returns the value of a key.
+     * 
+     * @param key
+     *            The key.
+     * @return The value or null if the key is not mapped.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = hash(key) & mask;
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Tests whether the map is empty.
+     * 
+     * @return True if there are no mappings.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public Iterator<V> iterator() {
+        return new Iterator<V>() {
+            private int next = advance(0);
+
+            public boolean hasNext() {
+                return next < values.length;
+            }
+
+            @SuppressWarnings("unchecked")
+            public V next() {
+                if (next >= values.length) {
+                    throw new NoSuchElementException();
+                }
+                V value = (V) values[next];
+                next = advance(next + 1);
+                return value;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private int advance(int i) {
+                while (i < values.length && values[i] == null) {
+                    ++i;
+                }
+                return i;
+            }
+        };
+    }
+
+    /**
+     * Maps a key to a value.
+     * 
+     * @param key
+     *            The key.
+     * @param value
+     *            The value, must not be null.
+     * @return The previous value of the key or null if it was not mapped.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        int i = hash(key) & mask;
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > values.length / 2) {
+            resize(values.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the mapping of a key.
+     * 
+     * @param key
+     *            The key.
+     * @return The removed value or null if the key was not mapped.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = hash(key) & mask;
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                shiftBack(i);
+                --size;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of mappings.
+     * 
+     * @return The number of keys in this map.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Rehashes all mappings into arrays of a new capacity.
+     */
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        for (int j = 0; j < oldValues.length; ++j) {
+            if (oldValues[j] != null) {
+                int i = hash(oldKeys[j]) & mask;
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Empties a slot and moves following entries of the same probe sequence
+     * back, so that no tombstones are needed.
+     */
+    private void shiftBack(int free) {
+        int i = free;
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == null) {
+                break;
+            }
+            int home = hash(keys[i]) & mask;
+            // move the entry if its home slot is not between free and i
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                keys[free] = keys[i];
+                values[free] = values[i];
+                free = i;
+            }
+        }
+        values[free] = null;
+    }
+}
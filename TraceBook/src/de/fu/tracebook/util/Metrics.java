@@ -0,0 +1,481 @@
+/*======================================================================
+ *
+ * This file is part of TraceBook.
+ *
+ * TraceBook is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * TraceBook is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with TraceBook. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ *
+ =====================================================================*/
+
+package de.fu.tracebook.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A registry of performance metrics: counters, gauges and latency histograms.
+ * Metrics are created once by name, usually in a static field of the class
+ * they measure, and can then be updated from any thread without locking.
+ * <p>
+ * Collecting is disabled by default. While disabled, updates return after
+ * reading a single volatile field, and {@link #start()} returns 0 without
+ * reading the clock, so timing a section of code costs next to nothing:
+ * 
+ * <pre>
+ * long start = Metrics.start();
+ * ...
+ * TIME.stop(start);
+ * </pre>
+ */
+public final class Metrics {
+
+    /**
+     * A value that can only grow, like the number of times something happened.
+     */
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        Counter() {
+            // only created by the registry
+        }
+
+        /**
+         * Adds to the counter.
+         * 
+         * @param delta
+         *            The value to add.
+         */
+        public void add(long delta) {
+            if (enabled) {
+                value.addAndGet(delta);
+            }
+        }
+
+        /**
+         * Returns the value of the counter.
+         * 
+         * @return The current value.
+         */
+        public long get() {
+            return value.get();
+        }
+
+        /**
+         * Adds one to the counter.
+         */
+        public void increment() {
+            if (enabled) {
+                value.incrementAndGet();
+            }
+        }
+
+        void reset() {
+            value.set(0);
+        }
+    }
+
+    /**
+     * A value that is set to the current state of something, like the size of
+     * a collection.
+     */
+    public static final class Gauge {
+        private volatile long value;
+
+        Gauge() {
+            // only created by the registry
+        }
+
+        /**
+         * Returns the last value of the gauge.
+         * 
+         * @return The last value set.
+         */
+        public long get() {
+            return value;
+        }
+
+        /**
+         * Sets the value of the gauge.
+         * 
+         * @param newValue
+         *            The current value.
+         */
+        public void set(long newValue) {
+            if (enabled) {
+                value = newValue;
+            }
+        }
+
+        void reset() {
+            value = 0;
+        }
+    }
+
+    /**
+     * Distribution of durations. The durations are counted in buckets whose
+     * bounds are powers of two microseconds, so percentiles are accurate to a
+     * factor of two, while recording needs neither locks nor allocation.
+     */
+    public static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+
+        Histogram() {
+            // only created by the registry
+        }
+
+        /**
+         * Returns the number of recorded durations.
+         * 
+         * @return The number of durations.
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Returns the longest recorded duration.
+         * 
+         * @return The duration in nanoseconds.
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Returns the mean of the recorded durations.
+         * 
+         * @return The mean in nanoseconds, 0 if nothing has been recorded.
+         */
+        public long getMean() {
+            long n = count.get();
+            return n == 0 ? 0 : total.get() / n;
+        }
+
+        /**
+         * Returns an upper bound of a percentile of the recorded durations.
+         * 
+         * @param fraction
+         *            The percentile as fraction, e.g. 0.99.
+         * @return The duration in nanoseconds, 0 if nothing has been recorded.
+         */
+        public long getPercentile(double fraction) {
+            long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(n * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min((1L << i) * 1000, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        /**
+         * Records a duration.
+         * 
+         * @param nanos
+         *            The duration in nanoseconds.
+         */
+        public void record(long nanos) {
+            if (!enabled) {
+                return;
+            }
+            int bucket = 64 - Long.numberOfLeadingZeros(nanos / 1000);
+            buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+            long old;
+            while (nanos > (old = max.get())) {
+                if (max.compareAndSet(old, nanos)) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Records the time since a call of {@link Metrics#start()}.
+         * 
+         * @param start
+         *            The value returned by {@link Metrics#start()}.
+         */
+        public void stop(long start) {
+            if (start != 0) {
+                record(System.nanoTime() - start);
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; ++i) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            max.set(0);
+            total.set(0);
+        }
+    }
+
+    /**
+     * Number of buckets of a histogram, the last one holds all durations from
+     * about 9 minutes.
+     */
+    static final int BUCKETS = 31;
+
+    private static final Map<String, Counter> counters = new TreeMap<String, Counter>();
+
+    private static volatile boolean enabled = false;
+
+    private static final Map<String, Gauge> gauges = new TreeMap<String, Gauge>();
+
+    private static final Map<String, Histogram> histograms = new TreeMap<String, Histogram>();
+
+    /**
+     * Returns the counter with the given name, creating it if necessary.
+     * 
+     * @param name
+     *            The name of the counter.
+     * @return The counter.
+     */
+    public static synchronized Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter();
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Writes all metrics to metrics.json and metrics.csv in a directory.
+     * 
+     * @param dir
+     *            The path of the directory, e.g. the one of a track.
+     * @return true if both files have been written.
+     */
+    public static boolean export(String dir) {
+        return write(new File(dir, "metrics.json"), toJson())
+                && write(new File(dir, "metrics.csv"), toCsv());
+    }
+
+    /**
+     * Returns the gauge with the given name, creating it if necessary.
+     * 
+     * @param name
+     *            The name of the gauge.
+     * @return The gauge.
+     */
+    public static synchronized Gauge gauge(String name) {
+        Gauge gauge = gauges.get(name);
+        if (gauge == null) {
+            gauge = new Gauge();
+            gauges.put(name, gauge);
+        }
+        return gauge;
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it if necessary.
+     * 
+     * @param name
+     *            The name of the histogram.
+     * @return The histogram.
+     */
+    public static synchronized Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Checks whether metrics are collected.
+     * 
+     * @return true if metrics are collected.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets all metrics back to 0.
+     */
+    public static synchronized void reset() {
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (Gauge gauge : gauges.values()) {
+            gauge.reset();
+        }
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Enables or disables collecting metrics. The values collected so far are
+     * kept.
+     * 
+     * @param enable
+     *            true to collect metrics.
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     * Starts timing a section of code.
+     * 
+     * @return The current value of {@link System#nanoTime()}, or 0 if metrics
+     *         are disabled.
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Returns all metrics as CSV with one line per metric. Durations are given
+     * in microseconds.
+     * 
+     * @return The CSV text including a header line.
+     */
+    public static synchronized String toCsv() {
+        StringBuilder csv = new StringBuilder(
+                "name,type,value,count,mean_us,p50_us,p90_us,p99_us,max_us\n");
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            csv.append(e.getKey()).append(",counter,")
+                    .append(e.getValue().get()).append(",,,,,,\n");
+        }
+        for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+            csv.append(e.getKey()).append(",gauge,")
+                    .append(e.getValue().get()).append(",,,,,,\n");
+        }
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            Histogram h = e.getValue();
+            csv.append(e.getKey()).append(",histogram,,")
+                    .append(h.getCount()).append(',')
+                    .append(h.getMean() / 1000).append(',')
+                    .append(h.getPercentile(0.5) / 1000).append(',')
+                    .append(h.getPercentile(0.9) / 1000).append(',')
+                    .append(h.getPercentile(0.99) / 1000).append(',')
+                    .append(h.getMax() / 1000).append('\n');
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Returns all metrics as a JSON object with the members counters, gauges
+     * and histograms. Durations are given in microseconds.
+     * 
+     * @return The JSON text.
+     */
+    public static synchronized String toJson() {
+        StringBuilder json = new StringBuilder("{\"counters\":{");
+        String separator = "";
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            json.append(separator).append('"').append(e.getKey())
+                    .append("\":").append(e.getValue().get());
+            separator = ",";
+        }
+        json.append("},\"gauges\":{");
+        separator = "";
+        for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+            json.append(separator).append('"').append(e.getKey())
+                    .append("\":").append(e.getValue().get());
+            separator = ",";
+        }
+        json.append("},\"histograms\":{");
+        separator = "";
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            Histogram h = e.getValue();
+            json.append(separator).append('"').append(e.getKey())
+                    .append("\":{\"count\":").append(h.getCount())
+                    .append(",\"mean_us\":").append(h.getMean() / 1000)
+                    .append(",\"p50_us\":").append(h.getPercentile(0.5) / 1000)
+                    .append(",\"p90_us\":").append(h.getPercentile(0.9) / 1000)
+                    .append(",\"p99_us\":")
+                    .append(h.getPercentile(0.99) / 1000)
+                    .append(",\"max_us\":").append(h.getMax() / 1000)
+                    .append('}');
+            separator = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    /**
+     * Returns a short human readable summary of all metrics that have been
+     * used, one line per metric.
+     * 
+     * @return The summary, empty if no metric has been used.
+     */
+    public static synchronized String toText() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            if (e.getValue().get() != 0) {
+                text.append(e.getKey()).append(": ")
+                        .append(e.getValue().get()).append('\n');
+            }
+        }
+        for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+            if (e.getValue().get() != 0) {
+                text.append(e.getKey()).append(": ")
+                        .append(e.getValue().get()).append('\n');
+            }
+        }
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            Histogram h = e.getValue();
+            if (h.getCount() != 0) {
+                text.append(e.getKey()).append(": ").append(h.getCount())
+                        .append(" x ").append(h.getMean() / 1000)
+                        .append(" us, p99 ")
+                        .append(h.getPercentile(0.99) / 1000)
+                        .append(" us, max ").append(h.getMax() / 1000)
+                        .append(" us\n");
+            }
+        }
+        return text.toString();
+    }
+
+    private static boolean write(File file, String text) {
+        try {
+            Writer out = new FileWriter(file);
+            try {
+                out.write(text);
+            } finally {
+                out.close();
+            }
+            return true;
+        } catch (IOException e) {
+            LogIt.e("Could not write " + file.getPath());
+            return false;
+        }
+    }
+
+    private Metrics() {
+        // only static methods
+    }
+}
@@ -20,8 +20,6 @@
 
 package de.fu.tracebook.util;
 
-import android.graphics.Point;
-
 /**
  * Utility class providing an algorithm for testing if a point p is in a
  * (non-simple) polygon.
@@ -33,27 +31,38 @@ import android.graphics.Point;
 public final class PointInPolygon {
 
     /**
-     * Tests if a point p is in a polygon. The polygon may be non-simple.
+     * Tests if a point p is in a polygon. The polygon may be non-simple. It is
+     * closed by a line from its last to its first point.
      * 
-     * @param point
-     *            The point to test.
-     * @param points
-     *            The polygon. The last point in area must be the same as the
-     *            first.
-     * @return True if p lies in the polygon defined by area.
+     * @param px
+     *            The x coordinate of the point to test.
+     * @param py
+     *            The y coordinate of the point to test.
+     * @param xs
+     *            The x coordinates of the points of the polygon.
+     * @param ys
+     *            The y coordinates of the points of the polygon.
+     * @param size
+     *            The number of points of the polygon.
+     * @return True if p lies in the polygon.
      */
-    public static boolean isPointInPolygon(Point point, Point[] points) {
+    public static boolean isPointInPolygon(double px, double py, int[] xs,
+            int[] ys, int size) {
+        if (size == 0) {
+            return false;
+        }
         int w = 0; // 2*windings
         double y;
-        double y1 = points[0].y - point.y;
+        double y1 = ys[0] - py;
         double x;
-        double x1 = points[0].x - point.x;
+        double x1 = xs[0] - px;
 
-        for (int i = 1; i < points.length; ++i) {
+        for (int i = 1; i <= size; ++i) {
+            int j = i < size ? i : 0;
             y = y1;
-            y1 = points[i].y - point.y;
+            y1 = ys[j] - py;
             x = x1;
-            x1 = points[i].x - point.x;
+            x1 = xs[j] - px;
 
             if (y * y1 < 0) { // does v->v1 cross x axis?
                 // calculate intersection point
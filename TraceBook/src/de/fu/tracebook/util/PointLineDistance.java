@@ -20,8 +20,6 @@
 
 package de.fu.tracebook.util;
 
-import android.graphics.Point;
-
 /**
  * Utility class for calculating the distance from a point to a line.
  * <p>
@@ -32,21 +30,22 @@ public final class PointLineDistance {
     /**
      * Calculates the square distance of the point p to the line from a to b.
      * 
-     * @param point
-     *            The point p.
-     * @param a
-     *            The point a which is start of the line.
-     * @param b
-     *            The point b which is end of the line.
+     * @param px
+     *            The x coordinate of the point p.
+     * @param py
+     *            The y coordinate of the point p.
+     * @param ax
+     *            The x coordinate of the point a which is start of the line.
+     * @param ay
+     *            The y coordinate of the point a which is start of the line.
+     * @param bx
+     *            The x coordinate of the point b which is end of the line.
+     * @param by
+     *            The y coordinate of the point b which is end of the line.
      * @return The square distance of p to the line a to b.
      */
-    public static double sqDistancePointLine(Point point, Point a, Point b) {
-        double ax = a.x;
-        double ay = a.y;
-        double bx = b.x;
-        double by = b.y;
-        double px = point.x;
-        double py = point.y;
+    public static double sqDistancePointLine(double px, double py, double ax,
+            double ay, double bx, double by) {
         double byMay = by - ay;
         double bxMax = bx - ax;
         double pxMax = px - ax;
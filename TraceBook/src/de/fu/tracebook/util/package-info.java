@@ -20,6 +20,19 @@
 
 /**
  * This package contains miscellaneous helper classes.
+ * <p>
+ * The geometry and filter classes used while logging and drawing
+ * ({@link de.fu.tracebook.util.GeoDistance},
+ * {@link de.fu.tracebook.util.LineSimplification},
+ * {@link de.fu.tracebook.util.PointInPolygon},
+ * {@link de.fu.tracebook.util.PointLineDistance},
+ * {@link de.fu.tracebook.util.KalmanFilter}, {@link de.fu.tracebook.util.LongMap}
+ * and {@link de.fu.tracebook.util.Pair}) only depend on the JDK, so they can be
+ * run and measured on a desktop JVM without Android. So does
+ * {@link de.fu.tracebook.util.FullTextQuery}, which builds and ranks the
+ * searches of the tag dictionary. The JMH benchmarks in
+ * the benchmarks directory of the project compile them from this source
+ * tree.
  */
 package de.fu.tracebook.util;
 